@@ -0,0 +1,397 @@
+package com.github.kilianB.concurrency;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.Require;
+
+/**
+ * Delays values submitted by key and coalesces updates of the same key arriving
+ * within the delay. Scalable replacement of the {@link DelayedConsumerHashMap}.
+ *
+ * <ol>
+ * <li>Value(key = 1) arrives. The delay of key 1 starts.</li>
+ * <li>Value(key = 2) arrives. The delay of key 2 starts.</li>
+ * <li>Value(key = 1) arrives. It is merged with the pending value of key 1,
+ * by default replacing it.</li>
+ * <li>The delay of key 1 elapses. The value of key 1 is delivered to the
+ * consumer, key 2 follows once it's delay elapsed.</li>
+ * </ol>
+ *
+ * <p>
+ * Every key has it's own deadline, timed by a scheduler thread. With
+ * {@link #setDebounce(boolean)} the deadline is pushed back by every update,
+ * delivering a key only once it stayed unchanged for the delay. Putting a value
+ * does not lock, pending values are merged in a {@link ConcurrentHashMap}.
+ *
+ * <p>
+ * Values whose deadline passed are delivered in batches of up to
+ * {@link #setMaxBatchSize(int)} values by a pool of consumer threads. Values of
+ * a key expiring again before being delivered are merged within the batch.
+ * Producers never wait for the consumer. With more than one consumer thread
+ * batches are delivered concurrently and values of the same key may be
+ * delivered out of order. Exceptions thrown by the consumer are logged.
+ *
+ * <p>
+ * {@link #close()} delivers all pending values right away and waits for the
+ * consumer to finish. All threads are daemon threads.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <K> the type of the keys
+ * @param <T> the type of the values
+ */
+public class CoalescingExecutor<K, T> implements PlainAutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(CoalescingExecutor.class.getSimpleName());
+
+	private final Consumer<? super Map<K, T>> consumer;
+
+	private final long delay;
+
+	private final int consumerThreads;
+
+	/** Values waiting for their deadline */
+	private final ConcurrentHashMap<K, Pending<T>> pending = new ConcurrentHashMap<>();
+
+	/** Values whose deadline passed, waiting for a consumer thread */
+	private final ConcurrentLinkedQueue<Entry<K, T>> ready = new ConcurrentLinkedQueue<>();
+
+	private final ScheduledThreadPoolExecutor scheduler;
+
+	private final ExecutorService consumerPool;
+
+	/** Number of consumer threads draining ready values */
+	private final AtomicInteger drainers = new AtomicInteger();
+
+	/** Number of puts in progress, shutdown waits for them to complete */
+	private final AtomicInteger activePuts = new AtomicInteger();
+
+	private volatile BinaryOperator<T> mergeFunction = (previous, value) -> value;
+
+	private volatile boolean debounce;
+
+	private volatile int maxBatchSize = Integer.MAX_VALUE;
+
+	private volatile boolean closed;
+
+	/** Set once all pending values were handed to the consumer pool */
+	private volatile boolean terminating;
+
+	private final LongAdder coalesced = new LongAdder();
+
+	private final LongAdder delivered = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Create an executor delivering values on a single consumer thread.
+	 *
+	 * @param consumer receiving batches of values mapped to their keys, ordered by
+	 *                 deadline
+	 * @param delay    the time values are held back
+	 * @param unit     the unit of the delay
+	 * @throws IllegalArgumentException if the delay is negative
+	 */
+	public CoalescingExecutor(Consumer<? super Map<K, T>> consumer, long delay, TimeUnit unit) {
+		this(consumer, delay, unit, 1);
+	}
+
+	/**
+	 * @param consumer        receiving batches of values mapped to their keys,
+	 *                        ordered by deadline
+	 * @param delay           the time values are held back
+	 * @param unit            the unit of the delay
+	 * @param consumerThreads the number of threads calling the consumer
+	 * @throws IllegalArgumentException if the delay is negative or the number of
+	 *                                  threads is not positive
+	 */
+	public CoalescingExecutor(Consumer<? super Map<K, T>> consumer, long delay, TimeUnit unit, int consumerThreads) {
+		this.consumer = Objects.requireNonNull(consumer, "Consumer may not be null");
+		if (delay < 0) {
+			throw new IllegalArgumentException("Delay may not be negative");
+		}
+		this.delay = unit.toNanos(delay);
+		this.consumerThreads = Require.positiveValue(consumerThreads, "Consumer threads have to be positive");
+		scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("coalescing-scheduler", true));
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		consumerPool = Executors.newFixedThreadPool(consumerThreads, new NamedThreadFactory("coalescing-consumer", true));
+	}
+
+	/**
+	 * Merge pending values of the same key. By default the newer value replaces
+	 * the pending value.
+	 *
+	 * @param mergeFunction called with the pending and the new value, returning
+	 *                      the value to keep. Has to be side effect free, it may
+	 *                      be called concurrently for different keys.
+	 */
+	public void setMergeFunction(BinaryOperator<T> mergeFunction) {
+		this.mergeFunction = Objects.requireNonNull(mergeFunction, "Merge function may not be null");
+	}
+
+	/**
+	 * @param debounce if true every update of a key restarts it's delay. If false
+	 *                 (default) a key is delivered once the delay passed since
+	 *                 the first of the coalesced updates.
+	 */
+	public void setDebounce(boolean debounce) {
+		this.debounce = debounce;
+	}
+
+	/**
+	 * @param maxBatchSize the maximum number of values passed to the consumer at
+	 *                     once
+	 * @throws IllegalArgumentException if the size is not positive
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Require.positiveValue(maxBatchSize, "Batch size has to be positive");
+	}
+
+	/**
+	 * Submit a value. If a value of the key is pending both are merged.
+	 *
+	 * @param key   the key identifying updates which are coalesced
+	 * @param value the value
+	 * @throws IllegalStateException if the executor was closed
+	 */
+	public void put(K key, T value) {
+		Objects.requireNonNull(key, "Key may not be null");
+		Objects.requireNonNull(value, "Value may not be null");
+		activePuts.incrementAndGet();
+		try {
+			if (closed) {
+				throw new IllegalStateException("Executor closed");
+			}
+			long deadline = System.nanoTime() + delay;
+			Pending<T> created = new Pending<>(value, deadline);
+			Pending<T> merged = pending.merge(key, created,
+					(previous, update) -> new Pending<>(mergeFunction.apply(previous.value, update.value), debounce ? deadline : previous.deadline));
+			if (merged == created) {
+				// First value of the key, merged values are picked up by the same timer
+				scheduler.schedule(() -> expire(key), delay, TimeUnit.NANOSECONDS);
+			} else {
+				coalesced.increment();
+			}
+		} finally {
+			activePuts.decrementAndGet();
+		}
+	}
+
+	private void expire(K key) {
+		while (true) {
+			Pending<T> entry = pending.get(key);
+			if (entry == null) {
+				// Flushed
+				return;
+			}
+			long remaining = entry.deadline - System.nanoTime();
+			if (remaining > 0) {
+				// Debounced, check again once the new deadline passed
+				try {
+					scheduler.schedule(() -> expire(key), remaining, TimeUnit.NANOSECONDS);
+				} catch (RejectedExecutionException e) {
+					// Shutting down, the value is delivered by the final flush
+				}
+				return;
+			}
+			if (pending.remove(key, entry)) {
+				ready.add(new SimpleImmutableEntry<>(key, entry.value));
+				dispatch();
+				return;
+			}
+			// Updated concurrently, reevaluate the deadline
+		}
+	}
+
+	/**
+	 * Deliver all pending values without waiting for their deadlines.
+	 */
+	public void flush() {
+		for (K key : pending.keySet()) {
+			Pending<T> entry = pending.remove(key);
+			if (entry != null) {
+				ready.add(new SimpleImmutableEntry<>(key, entry.value));
+			}
+		}
+		if (!ready.isEmpty()) {
+			dispatch();
+		}
+	}
+
+	/**
+	 * Start a consumer thread unless all threads are already draining
+	 */
+	private void dispatch() {
+		int active;
+		while ((active = drainers.get()) < consumerThreads) {
+			if (drainers.compareAndSet(active, active + 1)) {
+				consumerPool.execute(this::drain);
+				return;
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				int batchSize = maxBatchSize;
+				BinaryOperator<T> merge = mergeFunction;
+				Map<K, T> batch = new LinkedHashMap<>();
+				Entry<K, T> entry;
+				while (batch.size() < batchSize && (entry = ready.poll()) != null) {
+					T previous = batch.get(entry.getKey());
+					if (previous == null) {
+						batch.put(entry.getKey(), entry.getValue());
+					} else {
+						// Expired again before it was delivered
+						batch.put(entry.getKey(), merge.apply(previous, entry.getValue()));
+						coalesced.increment();
+					}
+				}
+				if (batch.isEmpty()) {
+					break;
+				}
+				try {
+					consumer.accept(batch);
+					delivered.add(batch.size());
+				} catch (RuntimeException e) {
+					failed.add(batch.size());
+					LOGGER.log(Level.WARNING, "Consumer failed to accept " + batch.size() + " values", e);
+				}
+			}
+		} finally {
+			drainers.decrementAndGet();
+			// A value might have been added after the last poll
+			if (!ready.isEmpty()) {
+				dispatch();
+			} else if (terminating && drainers.get() == 0) {
+				consumerPool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keys waiting for their deadline
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the number of values merged into a pending value
+	 */
+	public long getCoalescedCount() {
+		return coalesced.sum();
+	}
+
+	/**
+	 * @return the number of values accepted by the consumer
+	 */
+	public long getDeliveredCount() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return the number of values the consumer threw an exception for
+	 */
+	public long getFailedCount() {
+		return failed.sum();
+	}
+
+	/**
+	 * @return true if the executor was closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stop accepting values, deliver all pending values right away and wait until
+	 * the consumer accepted them.
+	 */
+	@Override
+	public void close() {
+		shutdown();
+		try {
+			awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop accepting values and deliver all pending values right away. Does not
+	 * wait for the consumer.
+	 */
+	public synchronized void shutdown() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// Puts passing the closed check before it was set complete first
+		while (activePuts.get() > 0) {
+			Thread.yield();
+		}
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		terminating = true;
+		if (drainers.get() == 0 && ready.isEmpty()) {
+			consumerPool.shutdown();
+		}
+	}
+
+	/**
+	 * Wait until all values were delivered after a shutdown.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of the timeout
+	 * @return true if all values were delivered, false if the timeout elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return consumerPool.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return "CoalescingExecutor [pending=" + getPendingCount() + ", coalesced=" + coalesced + ", delivered=" + delivered + ", failed=" + failed
+				+ ", closed=" + closed + "]";
+	}
+
+	private static final class Pending<T> {
+
+		private final T value;
+
+		/** Nano time the value is delivered at */
+		private final long deadline;
+
+		Pending(T value, long deadline) {
+			this.value = value;
+			this.deadline = deadline;
+		}
+	}
+
+}
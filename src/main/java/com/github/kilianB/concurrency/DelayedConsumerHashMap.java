@@ -29,7 +29,11 @@ import java.util.function.Consumer;
  *
  * @param <T> Type of the task the consumer will execute
  * @since 1.0.0
+ * @deprecated The consumer is called while holding the lock, blocking
+ *             producers, and the internal thread is never stopped. Use the
+ *             {@link CoalescingExecutor} instead.
  */
+@Deprecated
 public class DelayedConsumerHashMap<T> {
 
 	private final HashMap<Integer, T> objects = new HashMap<>();
@@ -14,6 +14,8 @@ import com.github.kilianB.Require;
 /**
  * <p>
  * A linked hashmap only keeping the newest n entries. Useful for caching.
+ * Not thread safe, {@link ConcurrentCache} is a bounded cache for concurrent
+ * access.
  * 
  * <p>
  * Hash table and linked list implementation of the <code>Map</code> interface,
@@ -0,0 +1,595 @@
+package com.github.kilianB.datastructures;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * Thread safe cache holding a bounded weight of entries. A concurrent
+ * replacement of a synchronized {@link CircularLinkedHashMap} used as least
+ * recently used cache.
+ *
+ * <p>
+ * Reads do not lock: the entry is looked up in a {@link ConcurrentHashMap}
+ * and marked as referenced. Writes and evictions are serialized by a single
+ * lock.
+ *
+ * <p>
+ * Eviction follows W-TinyLFU. New entries are placed in a small admission
+ * window holding 1% of the maximum weight. Entries leaving the window in
+ * insertion order compete with the eviction victim of the main region, the
+ * entry accessed more often according to a count min sketch is kept. Access
+ * frequencies of keys are recorded even while they are not cached, and are
+ * halved periodically to forget old popularity. The main region picks it's
+ * victims using the CLOCK algorithm, giving referenced entries a second
+ * chance. Contrary to a plain LRU, a single scan over many keys does not
+ * flush the popular entries.
+ *
+ * <p>
+ * Entries are weighted by a weigher, e.g. {@link #weighImage(BufferedImage)},
+ * and optionally expire after a fixed duration. Null keys and values are not
+ * permitted.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class ConcurrentCache<K, V> {
+
+	/** Share of the maximum weight reserved for the admission window */
+	private static final double WINDOW_SHARE = 0.01;
+
+	/** Write time of entries added while expiry is disabled */
+	private static final long NOT_EXPIRING = Long.MIN_VALUE;
+
+	/** Upper bound of counters allocated up front, about 0.5 MB */
+	private static final int INITIAL_SKETCH_LENGTH = 1 << 16;
+
+	private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+
+	private final ToIntBiFunction<? super K, ? super V> weigher;
+
+	private final long maximumWeight;
+
+	private final long windowMaximum;
+
+	/** Guards the regions and the weights */
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final Region<K, V> window = new Region<>();
+
+	private final Region<K, V> main = new Region<>();
+
+	private final FrequencySketch sketch = new FrequencySketch();
+
+	/** Nano seconds after which entries expire. 0 if entries do not expire */
+	private volatile long expireAfterWrite;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Create a cache holding at most the given number of entries.
+	 *
+	 * @param maximumSize the maximum number of entries
+	 * @throws IllegalArgumentException if the size is not positive
+	 */
+	public ConcurrentCache(long maximumSize) {
+		this(maximumSize, (key, value) -> 1);
+	}
+
+	/**
+	 * Create a cache holding entries up to the given total weight.
+	 *
+	 * @param maximumWeight the maximum total weight of all entries
+	 * @param weigher       computing the weight of an entry. The weight of an
+	 *                      entry may not be negative and is determined once when
+	 *                      the entry is added.
+	 * @throws IllegalArgumentException if the weight is not positive
+	 */
+	public ConcurrentCache(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+		if (maximumWeight <= 0) {
+			throw new IllegalArgumentException("The maximum weight has to be positive");
+		}
+		this.maximumWeight = maximumWeight;
+		this.windowMaximum = Math.max(1, (long) (maximumWeight * WINDOW_SHARE));
+		this.weigher = Objects.requireNonNull(weigher, "Weigher may not be null");
+		// Growing the sketch later on loses the frequencies counted so far
+		sketch.ensureCapacity((int) Math.min(maximumWeight, INITIAL_SKETCH_LENGTH));
+	}
+
+	/**
+	 * Let entries expire after the given duration passed since they were added.
+	 * Expired entries are not returned anymore and are evicted first. Entries
+	 * added while expiry was disabled do not expire.
+	 *
+	 * @param duration the duration or 0 to keep entries until they are evicted
+	 * @param unit     the unit of the duration
+	 * @throws IllegalArgumentException if the duration is negative
+	 */
+	public void setExpireAfterWrite(long duration, TimeUnit unit) {
+		if (duration < 0) {
+			throw new IllegalArgumentException("The duration may not be negative");
+		}
+		this.expireAfterWrite = unit.toNanos(duration);
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value cached for the key or null if no value is cached
+	 */
+	public V get(K key) {
+		Node<K, V> node = data.get(Objects.requireNonNull(key, "Key may not be null"));
+		sketch.increment(key);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		if (expireAfterWrite > 0 && isExpired(node, System.nanoTime())) {
+			misses.increment();
+			// Clean up if possible, the eviction will get to it otherwise
+			if (evictionLock.tryLock()) {
+				try {
+					if (data.remove(key, node)) {
+						unlink(node);
+					}
+				} finally {
+					evictionLock.unlock();
+				}
+			}
+			return null;
+		}
+		if (!node.referenced) {
+			// Avoid writing to the cache line of hot entries
+			node.referenced = true;
+		}
+		hits.increment();
+		return node.value;
+	}
+
+	/**
+	 * Return the value cached for the key, computing and caching it if absent.
+	 * The value may be computed multiple times if the key is requested
+	 * concurrently.
+	 *
+	 * @param key    the key
+	 * @param loader computing the value of the key. If null is returned nothing
+	 *               is cached
+	 * @return the cached or computed value
+	 */
+	public V get(K key, Function<? super K, ? extends V> loader) {
+		V value = get(key);
+		if (value == null) {
+			value = loader.apply(key);
+			if (value != null) {
+				put(key, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Cache the value replacing any value previously cached for the key. An entry
+	 * heavier than the maximum weight is discarded right away.
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 * @throws IllegalArgumentException if the weight of the entry is negative
+	 */
+	public void put(K key, V value) {
+		Objects.requireNonNull(key, "Key may not be null");
+		Objects.requireNonNull(value, "Value may not be null");
+		int weight = weigher.applyAsInt(key, value);
+		if (weight < 0) {
+			throw new IllegalArgumentException("The weight of an entry may not be negative");
+		}
+		// The clock is only read if required, it is comparatively slow on some systems
+		Node<K, V> node = new Node<>(key, value, weight, expireAfterWrite > 0 ? System.nanoTime() : NOT_EXPIRING);
+		evictionLock.lock();
+		try {
+			Node<K, V> previous = data.put(key, node);
+			if (previous != null) {
+				unlink(previous);
+			}
+			sketch.increment(key);
+			if (weight > maximumWeight) {
+				data.remove(key, node);
+				evictions.increment();
+				return;
+			}
+			sketch.ensureCapacity(data.size());
+			window.link(node);
+			evict();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value which was cached for the key or null
+	 */
+	public V remove(K key) {
+		evictionLock.lock();
+		try {
+			Node<K, V> node = data.remove(Objects.requireNonNull(key, "Key may not be null"));
+			if (node == null) {
+				return null;
+			}
+			unlink(node);
+			return node.value;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Remove all entries. Access frequencies and statistics are kept.
+	 */
+	public void clear() {
+		evictionLock.lock();
+		try {
+			data.clear();
+			window.clear();
+			main.clear();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Remove all expired entries. Expired entries are removed lazily, calling this
+	 * method is only necessary to release their memory early.
+	 */
+	public void cleanUp() {
+		if (expireAfterWrite == 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		evictionLock.lock();
+		try {
+			for (Node<K, V> node : data.values()) {
+				if (isExpired(node, now) && data.remove(node.key, node)) {
+					unlink(node);
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private boolean isExpired(Node<K, V> node, long now) {
+		long expiry = expireAfterWrite;
+		return expiry > 0 && node.writeTime != NOT_EXPIRING && now - node.writeTime >= expiry;
+	}
+
+	private void unlink(Node<K, V> node) {
+		(node.inWindow ? window : main).unlink(node);
+	}
+
+	/**
+	 * Restore the weight limits after the node was added to the window
+	 */
+	private void evict() {
+		long now = expireAfterWrite > 0 ? System.nanoTime() : 0;
+		Node<K, V> candidate = null;
+		// Entries leaving the window in insertion order become candidates
+		while (window.weight > windowMaximum && window.hand != null) {
+			Node<K, V> leaving = window.hand;
+			window.unlink(leaving);
+			leaving.inWindow = false;
+			main.link(leaving);
+			if (candidate == null) {
+				candidate = leaving;
+			}
+		}
+		while (window.weight + main.weight > maximumWeight) {
+			Node<K, V> victim = main.victim(this, now);
+			if (candidate == null || victim == candidate || isExpired(victim, now) || admit(candidate, victim)) {
+				if (victim == candidate) {
+					candidate = nextCandidate(candidate);
+				}
+				evict(victim);
+			} else {
+				Node<K, V> rejected = candidate;
+				candidate = nextCandidate(candidate);
+				evict(rejected);
+			}
+		}
+	}
+
+	/**
+	 * Candidates are linked behind each other in front of the clock hand
+	 */
+	private Node<K, V> nextCandidate(Node<K, V> candidate) {
+		Node<K, V> next = candidate.next;
+		return next == main.hand || next == candidate ? null : next;
+	}
+
+	/**
+	 * Decide if the candidate replaces the victim. Frequent keys win. A small
+	 * chance of admitting warm candidates protects against an attacker keeping a
+	 * victim alive by hash collisions.
+	 */
+	private boolean admit(Node<K, V> candidate, Node<K, V> victim) {
+		int candidateFrequency = sketch.frequency(candidate.key);
+		int victimFrequency = sketch.frequency(victim.key);
+		if (candidateFrequency > victimFrequency) {
+			return true;
+		}
+		return candidateFrequency > 5 && (ThreadLocalRandom.current().nextInt() & 127) == 0;
+	}
+
+	private void evict(Node<K, V> node) {
+		unlink(node);
+		data.remove(node.key, node);
+		evictions.increment();
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public int size() {
+		return data.size();
+	}
+
+	/**
+	 * @return the total weight of all cached entries
+	 */
+	public long getWeight() {
+		evictionLock.lock();
+		try {
+			return window.weight + main.weight;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the maximum total weight of the cached entries
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * @return the number of lookups returning a cached value
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups not finding a value
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the fraction of lookups returning a cached value [0-1]
+	 */
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0 : hitCount / (double) total;
+	}
+
+	/**
+	 * @return the number of entries evicted to respect the maximum weight or
+	 *         because they expired
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentCache [size=" + size() + ", maximumWeight=" + maximumWeight + ", hits=" + hits + ", misses=" + misses + ", evictions="
+				+ evictions + "]";
+	}
+
+	/**
+	 * Weigh an image by the memory held by it's pixel data, see
+	 * {@link #ConcurrentCache(long, ToIntBiFunction)}.
+	 *
+	 * @param image the image
+	 * @return the size of the pixel data in kibibytes, at least 1
+	 */
+	public static int weighImage(BufferedImage image) {
+		DataBuffer buffer = image.getRaster().getDataBuffer();
+		long bytes = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes + 1023) / 1024));
+	}
+
+	private static final class Node<K, V> {
+
+		private final K key;
+
+		private final V value;
+
+		private final int weight;
+
+		private final long writeTime;
+
+		/** Set on access, cleared by the clock hand */
+		private volatile boolean referenced;
+
+		// Guarded by the eviction lock
+
+		private boolean inWindow = true;
+
+		private Node<K, V> previous;
+
+		private Node<K, V> next;
+
+		Node(K key, V value, int weight, long writeTime) {
+			this.key = key;
+			this.value = value;
+			this.weight = weight;
+			this.writeTime = writeTime;
+		}
+	}
+
+	/**
+	 * Circular list of nodes swept by a clock hand, the hand pointing to the
+	 * oldest node. Guarded by the eviction lock
+	 */
+	private static final class Region<K, V> {
+
+		/** Next node inspected. Newly linked nodes are inspected last */
+		private Node<K, V> hand;
+
+		private long weight;
+
+		void link(Node<K, V> node) {
+			if (hand == null) {
+				node.previous = node;
+				node.next = node;
+				hand = node;
+			} else {
+				node.next = hand;
+				node.previous = hand.previous;
+				hand.previous.next = node;
+				hand.previous = node;
+			}
+			weight += node.weight;
+		}
+
+		void unlink(Node<K, V> node) {
+			if (node.next == node) {
+				hand = null;
+			} else {
+				node.previous.next = node.next;
+				node.next.previous = node.previous;
+				if (hand == node) {
+					hand = node.next;
+				}
+			}
+			node.previous = null;
+			node.next = null;
+			weight -= node.weight;
+		}
+
+		/**
+		 * Advance the hand to the first expired or unreferenced node, clearing the
+		 * reference of the nodes passed.
+		 *
+		 * @return the victim or null if the region is empty
+		 */
+		Node<K, V> victim(ConcurrentCache<K, V> cache, long now) {
+			// Terminates after at most one round as references are cleared
+			while (hand != null && hand.referenced && !cache.isExpired(hand, now)) {
+				hand.referenced = false;
+				hand = hand.next;
+			}
+			return hand;
+		}
+
+		void clear() {
+			hand = null;
+			weight = 0;
+		}
+	}
+
+	/**
+	 * Count min sketch of 4 bit counters estimating the access frequency of keys.
+	 * Counters are halved once the number of increments reaches ten times the
+	 * number of counters. Updates are not synchronized, lost increments only
+	 * reduce the accuracy of the estimate.
+	 */
+	private static final class FrequencySketch {
+
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private static final long ONE_MASK = 0x1111111111111111L;
+
+		private static final int MAXIMUM_LENGTH = 1 << 24;
+
+		private volatile long[] table = new long[16];
+
+		private int sampleSize = 10 * 16;
+
+		private int additions;
+
+		/**
+		 * Grow the table to hold a counter per entry. Counts are lost on growth.
+		 */
+		void ensureCapacity(int entries) {
+			if (entries <= table.length || table.length >= MAXIMUM_LENGTH) {
+				return;
+			}
+			int length = Math.min(MAXIMUM_LENGTH, Integer.highestOneBit(entries - 1) << 1);
+			sampleSize = 10 * length;
+			additions = 0;
+			table = new long[length];
+		}
+
+		void increment(Object key) {
+			long[] counters = table;
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i, counters.length - 1);
+				int offset = (start + i) << 2;
+				long mask = 0xfL << offset;
+				if ((counters[index] & mask) != mask) {
+					counters[index] += 1L << offset;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				reset(counters);
+			}
+		}
+
+		int frequency(Object key) {
+			long[] counters = table;
+			int hash = spread(key.hashCode());
+			int start = (hash & 3) << 2;
+			int frequency = 15;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i, counters.length - 1);
+				int count = (int) ((counters[index] >>> ((start + i) << 2)) & 0xfL);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		private void reset(long[] counters) {
+			int odd = 0;
+			for (int i = 0; i < counters.length; i++) {
+				odd += Long.bitCount(counters[i] & ONE_MASK);
+				counters[i] = (counters[i] >>> 1) & RESET_MASK;
+			}
+			additions = (additions >>> 1) - (odd >>> 2);
+		}
+
+		private static int indexOf(int hash, int row, int mask) {
+			long index = (hash + SEEDS[row]) * SEEDS[row];
+			index += index >>> 32;
+			return ((int) index) & mask;
+		}
+
+		private static int spread(int x) {
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			return (x >>> 16) ^ x;
+		}
+	}
+
+}
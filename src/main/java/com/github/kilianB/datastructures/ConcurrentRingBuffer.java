@@ -0,0 +1,528 @@
+package com.github.kilianB.datastructures;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import com.github.kilianB.Require;
+
+/**
+ * Bounded lock free multi producer multi consumer queue backed by a ring
+ * buffer. The concurrent counterpart of the {@link CircularQueue}, intended as
+ * hand off between threads e.g. decoding and hashing images.
+ *
+ * <p>
+ * Every slot of the ring carries a sequence number telling producers and
+ * consumers whose turn it is. Producers claim a slot by advancing the tail
+ * with a compare and set and publish the element by updating the sequence of
+ * the slot, consumers proceed likewise with the head. Batches of elements are
+ * claimed with a single compare and set by {@link #offerAll(Collection)} and
+ * {@link #drainTo(Collection, int)}. Head and tail are placed on separate cache
+ * lines to avoid false sharing between producers and consumers.
+ *
+ * <p>
+ * Non blocking operations never lock. Threads waiting in {@link #put(Object)},
+ * {@link #take()} and the timed variants follow the {@link WaitStrategy} of
+ * the queue.
+ *
+ * <p>
+ * The capacity is rounded up to the next power of two, and is at least 2. The
+ * iterator returns a
+ * weakly consistent snapshot of the queue and does not support removal. This
+ * queue prevents null elements from being added.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <E> the type of elements in this queue
+ */
+public class ConcurrentRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+	/**
+	 * Defines how threads wait for space or elements to become available.
+	 */
+	public enum WaitStrategy {
+		/**
+		 * Spin briefly, then park until signaled. Idle threads do not consume cpu
+		 * time, at the cost of a lock acquisition to wake them.
+		 */
+		BLOCKING,
+		/**
+		 * Spin and yield until the queue is ready. Lowest latency if there are more
+		 * cores than waiting threads, burns cpu time while waiting.
+		 */
+		SPINNING
+	}
+
+	/** Longs between the counters, 128 bytes cover adjacent cache line prefetching */
+	private static final int PADDING = 16;
+
+	private static final int TAIL = PADDING;
+
+	private static final int HEAD = 2 * PADDING;
+
+	/** Attempts before a blocking thread parks */
+	private static final int SPINS = 64;
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	/** Tail and head, padded */
+	private final AtomicLongArray counters = new AtomicLongArray(3 * PADDING);
+
+	/**
+	 * Sequence of each slot. Equals the position if the slot is free to be
+	 * written, position + 1 if the slot holds the element of the position.
+	 */
+	private final AtomicLongArray sequences;
+
+	/** Published by the sequences */
+	private final Object[] elements;
+
+	private final int mask;
+
+	private final WaitStrategy waitStrategy;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final AtomicInteger waitingConsumers = new AtomicInteger();
+
+	private final AtomicInteger waitingProducers = new AtomicInteger();
+
+	/**
+	 * Create a ring buffer with a blocking wait strategy.
+	 *
+	 * @param capacity the minimum number of elements the queue holds
+	 * @throws IllegalArgumentException if the capacity is not positive or
+	 *                                  exceeds 2^30
+	 */
+	public ConcurrentRingBuffer(int capacity) {
+		this(capacity, WaitStrategy.BLOCKING);
+	}
+
+	/**
+	 * @param capacity     the minimum number of elements the queue holds
+	 * @param waitStrategy how threads wait for the queue
+	 * @throws IllegalArgumentException if the capacity is not positive or
+	 *                                  exceeds 2^30
+	 */
+	public ConcurrentRingBuffer(int capacity, WaitStrategy waitStrategy) {
+		Require.positiveValue(capacity, "The capacity has to be positive");
+		if (capacity > MAXIMUM_CAPACITY) {
+			throw new IllegalArgumentException("The capacity may not exceed " + MAXIMUM_CAPACITY);
+		}
+		this.waitStrategy = Objects.requireNonNull(waitStrategy, "Wait strategy may not be null");
+		// A single slot can not tell a published element from a free slot of the next round
+		int length = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+		mask = length - 1;
+		elements = new Object[length];
+		sequences = new AtomicLongArray(length);
+		for (int i = 0; i < length; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	@Override
+	public boolean offer(E e) {
+		Objects.requireNonNull(e, "Element may not be null");
+		long position = counters.get(TAIL);
+		int index;
+		while (true) {
+			index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (counters.compareAndSet(TAIL, position, position + 1)) {
+					break;
+				}
+				position = counters.get(TAIL);
+			} else if (difference < 0) {
+				// The slot still holds the element of the previous round
+				return false;
+			} else {
+				// Claimed by another producer
+				position = counters.get(TAIL);
+			}
+		}
+		elements[index] = e;
+		sequences.set(index, position + 1);
+		signal(waitingConsumers, notEmpty, false);
+		return true;
+	}
+
+	/**
+	 * Add as many elements as fit into the queue, claiming all free slots at
+	 * once. Does not block.
+	 *
+	 * @param c the elements to add in iteration order
+	 * @return the number of elements added, the first n elements of the
+	 *         collection
+	 * @throws NullPointerException if any of the elements is null
+	 */
+	public int offerAll(Collection<? extends E> c) {
+		Object[] batch = c.toArray();
+		for (Object e : batch) {
+			Objects.requireNonNull(e, "Element may not be null");
+		}
+		int added = 0;
+		while (added < batch.length) {
+			long position = counters.get(TAIL);
+			int count = 0;
+			// Free slots stay free until claimed by advancing the tail
+			while (added + count < batch.length && count <= mask && sequences.get((int) (position + count) & mask) == position + count) {
+				count++;
+			}
+			if (count == 0) {
+				if (sequences.get((int) position & mask) < position) {
+					break;
+				}
+				continue;
+			}
+			if (counters.compareAndSet(TAIL, position, position + count)) {
+				for (int i = 0; i < count; i++) {
+					int index = (int) (position + i) & mask;
+					elements[index] = batch[added + i];
+					sequences.set(index, position + i + 1);
+				}
+				added += count;
+			}
+		}
+		if (added > 0) {
+			signal(waitingConsumers, notEmpty, added > 1);
+		}
+		return added;
+	}
+
+	@Override
+	public E poll() {
+		long position = counters.get(HEAD);
+		int index;
+		while (true) {
+			index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (counters.compareAndSet(HEAD, position, position + 1)) {
+					break;
+				}
+				position = counters.get(HEAD);
+			} else if (difference < 0) {
+				// Not yet published
+				return null;
+			} else {
+				// Claimed by another consumer
+				position = counters.get(HEAD);
+			}
+		}
+		return release(index, position);
+	}
+
+	@SuppressWarnings("unchecked")
+	private E release(int index, long position) {
+		E e = (E) elements[index];
+		elements[index] = null;
+		sequences.set(index, position + mask + 1);
+		signal(waitingProducers, notFull, false);
+		return e;
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Remove up to the given number of available elements, claiming them at once.
+	 * Does not block unless adding to the collection fails. Elements which were
+	 * claimed but not transferred are then put back into the queue, at the head
+	 * if no other consumer took elements in the meantime and at the tail
+	 * otherwise.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		Objects.requireNonNull(c, "Collection may not be null");
+		if (c == this) {
+			throw new IllegalArgumentException("Can not drain a queue into itself");
+		}
+		int drained = 0;
+		while (drained < maxElements) {
+			long position = counters.get(HEAD);
+			int count = 0;
+			while (drained + count < maxElements && count <= mask && sequences.get((int) (position + count) & mask) == position + count + 1) {
+				count++;
+			}
+			if (count == 0) {
+				if (sequences.get((int) position & mask) < position + 1) {
+					break;
+				}
+				continue;
+			}
+			if (counters.compareAndSet(HEAD, position, position + count)) {
+				int transferred = 0;
+				try {
+					for (; transferred < count; transferred++) {
+						int index = (int) (position + transferred) & mask;
+						c.add((E) elements[index]);
+						elements[index] = null;
+						sequences.set(index, position + transferred + mask + 1);
+					}
+				} finally {
+					drained += transferred;
+					if (transferred < count) {
+						if (drained > 0) {
+							signal(waitingProducers, notFull, drained > 1);
+						}
+						restore(position + transferred, position + count);
+					}
+				}
+			}
+		}
+		if (drained > 0) {
+			signal(waitingProducers, notFull, drained > 1);
+		}
+		return drained;
+	}
+
+	/**
+	 * Return claimed elements which could not be transferred to the queue. The
+	 * slots in between are neither released nor cleared.
+	 *
+	 * @param from the first claimed position not transferred
+	 * @param to   the position following the last claimed position
+	 */
+	@SuppressWarnings("unchecked")
+	private void restore(long from, long to) {
+		if (counters.compareAndSet(HEAD, to, from)) {
+			// No other consumer moved on, the slots still hold the elements in order
+			signal(waitingConsumers, notEmpty, true);
+			return;
+		}
+		List<E> remaining = new ArrayList<>((int) (to - from));
+		for (long position = from; position < to; position++) {
+			int index = (int) position & mask;
+			remaining.add((E) elements[index]);
+			elements[index] = null;
+			sequences.set(index, position + mask + 1);
+		}
+		int added = offerAll(remaining);
+		try {
+			// Producers may have taken the released slots. Another consumer is active
+			// and makes room for the rest
+			for (E e : remaining.subList(added, remaining.size())) {
+				put(e);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public E peek() {
+		while (true) {
+			long position = counters.get(HEAD);
+			int index = (int) position & mask;
+			if (sequences.get(index) != position + 1) {
+				if (counters.get(HEAD) == position) {
+					return null;
+				}
+				continue;
+			}
+			E e = (E) elements[index];
+			// Retry if the element was taken while reading it
+			if (e != null && counters.get(HEAD) == position) {
+				return e;
+			}
+		}
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		offer(e, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+		Objects.requireNonNull(e, "Element may not be null");
+		long deadline = deadline(timeout, unit);
+		for (int attempt = 0;; attempt++) {
+			if (offer(e)) {
+				return true;
+			}
+			if (!await(attempt, deadline, waitingProducers, notFull, this::isWritable)) {
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = deadline(timeout, unit);
+		for (int attempt = 0;; attempt++) {
+			E e = poll();
+			if (e != null) {
+				return e;
+			}
+			if (!await(attempt, deadline, waitingConsumers, notEmpty, this::isReadable)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return the deadline in nano time, Long.MAX_VALUE if the thread waits
+	 *         indefinitely
+	 */
+	private static long deadline(long timeout, TimeUnit unit) {
+		long nanos = unit.toNanos(timeout);
+		if (nanos == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		long now = System.nanoTime();
+		// Saturate on overflow
+		return now + nanos < now ? Long.MAX_VALUE : now + nanos;
+	}
+
+	/**
+	 * Wait until the queue might be ready.
+	 *
+	 * @return false if the deadline passed
+	 */
+	private boolean await(int attempt, long deadline, AtomicInteger waiting, Condition condition, BooleanSupplier ready)
+			throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		long remaining = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+		if (remaining <= 0) {
+			return false;
+		}
+		if (waitStrategy == WaitStrategy.SPINNING || attempt < SPINS) {
+			if ((attempt & 7) == 7) {
+				Thread.yield();
+			}
+			return true;
+		}
+		lock.lockInterruptibly();
+		try {
+			// Announce before checking, a concurrent update sees the waiter
+			waiting.incrementAndGet();
+			try {
+				while (!ready.getAsBoolean() && remaining > 0) {
+					remaining = condition.awaitNanos(remaining);
+				}
+			} finally {
+				waiting.decrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	private void signal(AtomicInteger waiting, Condition condition, boolean all) {
+		if (waiting.get() == 0) {
+			return;
+		}
+		lock.lock();
+		try {
+			if (all) {
+				condition.signalAll();
+			} else {
+				condition.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isReadable() {
+		long position = counters.get(HEAD);
+		return sequences.get((int) position & mask) == position + 1;
+	}
+
+	private boolean isWritable() {
+		long position = counters.get(TAIL);
+		return sequences.get((int) position & mask) == position;
+	}
+
+	/**
+	 * @return the number of elements the queue holds
+	 */
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * @return the wait strategy of blocking operations
+	 */
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return getCapacity() - size();
+	}
+
+	/**
+	 * The number of claimed slots. Elements being added or removed concurrently
+	 * are included.
+	 */
+	@Override
+	public int size() {
+		while (true) {
+			long head = counters.get(HEAD);
+			long tail = counters.get(TAIL);
+			// Consistent if the head did not move while reading the tail
+			if (counters.get(HEAD) == head) {
+				return (int) Math.max(0, Math.min(getCapacity(), tail - head));
+			}
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return counters.get(TAIL) == counters.get(HEAD);
+	}
+
+	/**
+	 * Weakly consistent snapshot of the published elements. Removal is not
+	 * supported.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		long head = counters.get(HEAD);
+		long tail = counters.get(TAIL);
+		for (long position = head; position < tail; position++) {
+			int index = (int) position & mask;
+			if (sequences.get(index) == position + 1) {
+				E e = (E) elements[index];
+				if (e != null && sequences.get(index) == position + 1) {
+					snapshot.add(e);
+				}
+			}
+		}
+		return Collections.unmodifiableList(snapshot).iterator();
+	}
+
+}
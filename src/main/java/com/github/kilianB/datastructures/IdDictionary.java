@@ -0,0 +1,142 @@
+package com.github.kilianB.datastructures;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Interns external identifiers to dense non negative ints. Data structures keyed
+ * by the interned id can use primitive arrays indexed by the id instead of hash
+ * maps keyed by the identifier. Ids of released identifiers are reused to keep
+ * the id range dense.
+ *
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <T> the type of the external identifiers
+ */
+public class IdDictionary<T> implements Serializable {
+
+	private static final long serialVersionUID = 2780613496432925853L;
+
+	private final HashMap<T, Integer> ids = new HashMap<>();
+
+	/** Identifier of every id or null if the id is currently unused */
+	private final List<T> values = new ArrayList<>();
+
+	/** Stack of released ids */
+	private int[] free = new int[8];
+
+	private int freeCount;
+
+	/**
+	 * Return the id of the identifier, assigning a new id if the identifier is not
+	 * yet known.
+	 *
+	 * @param value the identifier
+	 * @return the id of the identifier
+	 */
+	public int intern(T value) {
+		Objects.requireNonNull(value);
+		Integer id = ids.get(value);
+		if (id != null) {
+			return id;
+		}
+		int newId;
+		if (freeCount > 0) {
+			newId = free[--freeCount];
+			values.set(newId, value);
+		} else {
+			newId = values.size();
+			values.add(value);
+		}
+		ids.put(value, newId);
+		return newId;
+	}
+
+	/**
+	 * @param value the identifier
+	 * @return the id of the identifier or -1 if the identifier is unknown
+	 */
+	public int getId(T value) {
+		Integer id = ids.get(value);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id the id
+	 * @return the identifier of the id or null if the id is unused
+	 */
+	public T get(int id) {
+		return id < 0 || id >= values.size() ? null : values.get(id);
+	}
+
+	/**
+	 * @param value the identifier
+	 * @return true if the identifier is interned
+	 */
+	public boolean contains(T value) {
+		return ids.containsKey(value);
+	}
+
+	/**
+	 * Release the id of the identifier. The id will be reused by future calls of
+	 * {@link #intern(Object)}.
+	 *
+	 * @param value the identifier
+	 * @return the released id or -1 if the identifier is unknown
+	 */
+	public int release(T value) {
+		Integer id = ids.remove(value);
+		if (id == null) {
+			return -1;
+		}
+		values.set(id, null);
+		if (freeCount == free.length) {
+			free = Arrays.copyOf(free, free.length * 2);
+		}
+		free[freeCount++] = id;
+		return id;
+	}
+
+	/**
+	 * @return the number of interned identifiers
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * @return an exclusive upper bound of all ids currently in use
+	 */
+	public int getCapacity() {
+		return values.size();
+	}
+
+	@Override
+	public int hashCode() {
+		return ids.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof IdDictionary)) {
+			return false;
+		}
+		return ids.equals(((IdDictionary<?>) obj).ids);
+	}
+
+	@Override
+	public String toString() {
+		return "IdDictionary " + ids;
+	}
+
+}
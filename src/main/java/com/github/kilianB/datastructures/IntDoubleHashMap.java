@@ -0,0 +1,236 @@
+package com.github.kilianB.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive int keys to primitive double values.
+ * Avoids boxing keys and values as well as allocating an entry per mapping,
+ * e.g. when accumulating scores of interned ids. Collisions are resolved by
+ * linear probing, removed entries are closed by shifting subsequent entries
+ * back.
+ *
+ * <p>
+ * {@link Integer#MIN_VALUE} is reserved to mark free slots and can not be used
+ * as key. This class is not thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class IntDoubleHashMap {
+
+	/** Marker of unused slots */
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private static final double LOAD_FACTOR = 0.5;
+
+	private int[] keys;
+
+	private double[] values;
+
+	private int mask;
+
+	private int size;
+
+	/**
+	 * Create a map with a default initial capacity
+	 */
+	public IntDoubleHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of mappings which can be put into the map
+	 *                     before it has to be resized
+	 */
+	public IntDoubleHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit((int) Math.max(4, Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		values = new double[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int mix(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return the slot of the key or the free slot the key would be inserted at
+	 */
+	private int slot(int key) {
+		int slot = mix(key) & mask;
+		while (keys[slot] != FREE && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static void checkKey(int key) {
+		if (key == FREE) {
+			throw new IllegalArgumentException("Integer.MIN_VALUE can not be used as key");
+		}
+	}
+
+	/**
+	 * @param key          the key
+	 * @param defaultValue the value returned if no mapping exists
+	 * @return the value mapped to the key or the default value
+	 */
+	public double get(int key, double defaultValue) {
+		checkKey(key);
+		int slot = slot(key);
+		return keys[slot] == FREE ? defaultValue : values[slot];
+	}
+
+	/**
+	 * @param key the key
+	 * @return true if a value is mapped to the key
+	 */
+	public boolean containsKey(int key) {
+		checkKey(key);
+		return keys[slot(key)] != FREE;
+	}
+
+	/**
+	 * Map the value to the key replacing any previous value.
+	 *
+	 * @param key   the key
+	 * @param value the value
+	 */
+	public void put(int key, double value) {
+		checkKey(key);
+		int slot = slot(key);
+		if (keys[slot] == FREE) {
+			keys[slot] = key;
+			size++;
+			values[slot] = value;
+			ensureCapacity();
+		} else {
+			values[slot] = value;
+		}
+	}
+
+	/**
+	 * Add the delta to the value mapped to the key. Absent keys are treated as
+	 * mapped to 0.
+	 *
+	 * @param key   the key
+	 * @param delta the value to add
+	 * @return the new value
+	 */
+	public double addTo(int key, double delta) {
+		checkKey(key);
+		int slot = slot(key);
+		if (keys[slot] == FREE) {
+			keys[slot] = key;
+			values[slot] = delta;
+			size++;
+			ensureCapacity();
+			return delta;
+		}
+		return values[slot] += delta;
+	}
+
+	/**
+	 * Remove the mapping of the key
+	 *
+	 * @param key the key
+	 * @return true if a mapping was removed
+	 */
+	public boolean remove(int key) {
+		checkKey(key);
+		int slot = slot(key);
+		if (keys[slot] == FREE) {
+			return false;
+		}
+		// Shift following entries of the probe sequence into the gap
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (keys[next] != FREE) {
+			int home = mix(keys[next]) & mask;
+			// Move the entry if its home slot does not lie cyclically in (gap, next]
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = FREE;
+		size--;
+		return true;
+	}
+
+	private void ensureCapacity() {
+		if (size > keys.length * LOAD_FACTOR) {
+			int[] oldKeys = keys;
+			double[] oldValues = values;
+			allocate(keys.length * 2);
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != FREE) {
+					int slot = slot(oldKeys[i]);
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of mappings
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the map contains no mappings
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove all mappings
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+
+	/**
+	 * Pass every mapping to the consumer. The map may not be modified during
+	 * iteration.
+	 *
+	 * @param consumer the consumer
+	 */
+	public void forEach(IntDoubleConsumer consumer) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Consumer of a primitive int key and double value.
+	 *
+	 * @author Kilian
+	 * @since 3.0.0
+	 */
+	@FunctionalInterface
+	public interface IntDoubleConsumer {
+
+		/**
+		 * @param key   the key
+		 * @param value the value
+		 */
+		void accept(int key, double value);
+	}
+
+}
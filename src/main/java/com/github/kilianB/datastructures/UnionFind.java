@@ -0,0 +1,134 @@
+package com.github.kilianB.datastructures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Disjoint set forest over the elements 0 to size - 1. Sets are merged by size
+ * and paths are halved during lookups resulting in nearly constant time
+ * operations.
+ *
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class UnionFind {
+
+	/** Parent of each element. Roots are their own parent */
+	private final int[] parents;
+
+	/** Size of the set of each root */
+	private final int[] sizes;
+
+	private int setCount;
+
+	/**
+	 * Create a forest in which every element is a set of its own
+	 *
+	 * @param size the number of elements
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public UnionFind(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("The size may not be negative");
+		}
+		parents = new int[size];
+		for (int element = 0; element < size; element++) {
+			parents[element] = element;
+		}
+		sizes = new int[size];
+		Arrays.fill(sizes, 1);
+		setCount = size;
+	}
+
+	/**
+	 * @param element the element
+	 * @return the representative of the set containing the element
+	 */
+	public int find(int element) {
+		while (parents[element] != element) {
+			parents[element] = parents[parents[element]];
+			element = parents[element];
+		}
+		return element;
+	}
+
+	/**
+	 * Merge the sets containing the two elements
+	 *
+	 * @param element the first element
+	 * @param other   the second element
+	 * @return true if the elements were in different sets
+	 */
+	public boolean union(int element, int other) {
+		int root = find(element);
+		int otherRoot = find(other);
+		if (root == otherRoot) {
+			return false;
+		}
+		if (sizes[root] < sizes[otherRoot]) {
+			int temp = root;
+			root = otherRoot;
+			otherRoot = temp;
+		}
+		parents[otherRoot] = root;
+		sizes[root] += sizes[otherRoot];
+		setCount--;
+		return true;
+	}
+
+	/**
+	 * @param element the first element
+	 * @param other   the second element
+	 * @return true if both elements are in the same set
+	 */
+	public boolean connected(int element, int other) {
+		return find(element) == find(other);
+	}
+
+	/**
+	 * @param element the element
+	 * @return the number of elements in the set containing the element
+	 */
+	public int getSetSize(int element) {
+		return sizes[find(element)];
+	}
+
+	/**
+	 * @return the number of disjoint sets
+	 */
+	public int getSetCount() {
+		return setCount;
+	}
+
+	/**
+	 * Return the elements of all sets containing at least the given number of
+	 * elements.
+	 *
+	 * @param minSize the minimum number of elements of a set
+	 * @return the elements of each set in ascending order
+	 */
+	public List<int[]> getSets(int minSize) {
+		int[] index = new int[parents.length];
+		Arrays.fill(index, -1);
+		List<int[]> sets = new ArrayList<>();
+		int[] filled = new int[parents.length];
+		for (int element = 0; element < parents.length; element++) {
+			int root = find(element);
+			if (sizes[root] < minSize) {
+				continue;
+			}
+			if (index[root] < 0) {
+				index[root] = sets.size();
+				sets.add(new int[sizes[root]]);
+			}
+			int set = index[root];
+			sets.get(set)[filled[set]++] = element;
+		}
+		return sets;
+	}
+
+}
@@ -103,12 +103,104 @@ public abstract class AbstractBinaryTree<T> implements Serializable {
 		if (leafNode != null) {
 			leaf = (Leaf<T>) leafNode;
 		} else {
-			leaf = (Leaf<T>) currentNode.setChild(bit, new Leaf<T>());
+			leaf = (Leaf<T>) currentNode.setChild(bit, createLeaf());
 		}
 		leaf.addData(value);
 		hashCount++;
 	}
 
+	/**
+	 * Create the leaf holding the values of a hash. Subclasses may return leaves
+	 * storing their values more compactly.
+	 * 
+	 * @return a new empty leaf
+	 * @since 3.0.0
+	 */
+	protected Leaf<T> createLeaf() {
+		return new Leaf<T>();
+	}
+
+	/**
+	 * Remove a value previously added with the supplied hash. Nodes which do not
+	 * lead to any value anymore are pruned.
+	 * 
+	 * @param hash  The hash the value was added with
+	 * @param value The value to remove
+	 * @return true if the value was found and removed, false otherwise
+	 * @since 3.0.0
+	 */
+	@SuppressWarnings("unchecked")
+	protected boolean removeHash(Hash hash, T value) {
+		if (ensureHashConsistency && algoId != 0 && algoId != hash.getAlgorithmId()) {
+			throw new IllegalStateException("Tried to remove an incompatible hash from the binary tree");
+		}
+		int depth = hash.getBitResolution();
+		// The path from the root to the leaf
+		Node[] path = new Node[depth + 1];
+		path[0] = root;
+		for (int i = 0; i < depth; i++) {
+			path[i + 1] = path[i].getChild(hash.getBitUnsafe(depth - 1 - i));
+			if (path[i + 1] == null) {
+				return false;
+			}
+		}
+		Leaf<T> leaf = (Leaf<T>) path[depth];
+		if (!leaf.removeData(value)) {
+			return false;
+		}
+		hashCount--;
+		// Prune empty branches
+		if (leaf.size() == 0) {
+			for (int i = depth; i > 0; i--) {
+				Node node = path[i];
+				if (node != leaf && (node.leftChild != null || node.rightChild != null)) {
+					break;
+				}
+				path[i - 1].setChild(hash.getBitUnsafe(depth - i), null);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove all occurrences of a value without knowing the hash it was added
+	 * with. Opposed to {@link #removeHash(Hash, Object)} the entire tree has to be
+	 * traversed.
+	 * 
+	 * @param value The value to remove
+	 * @return the number of removed occurrences
+	 * @since 3.0.0
+	 */
+	protected int removeValue(T value) {
+		int removed = removeValue(root, value);
+		hashCount -= removed;
+		return removed;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int removeValue(Node node, T value) {
+		int removed = 0;
+		for (boolean bit : new boolean[] { true, false }) {
+			Node child = node.getChild(bit);
+			if (child == null) {
+				continue;
+			}
+			if (child instanceof Leaf) {
+				Leaf<T> leaf = (Leaf<T>) child;
+				removed += leaf.removeAllData(value);
+				if (leaf.size() == 0) {
+					node.setChild(bit, null);
+				}
+			} else {
+				removed += removeValue(child, value);
+				if (child.leftChild == null && child.rightChild == null) {
+					node.setChild(bit, null);
+				}
+			}
+		}
+		return removed;
+	}
+
 	/**
 	 * @return the root of the binary tree
 	 */
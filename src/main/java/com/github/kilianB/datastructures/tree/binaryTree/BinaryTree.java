@@ -78,6 +78,18 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 		super.addHash(hash, value);
 	}
 
+	@Override
+	public boolean removeHash(Hash hash, T value) {
+		// Expose method
+		return super.removeHash(hash, value);
+	}
+
+	@Override
+	public int removeValue(T value) {
+		// Expose method
+		return super.removeValue(value);
+	}
+
 	/**
 	 * Return all elements of the tree whose hamming distance is smaller or equal
 	 * than the supplied max distance.
@@ -99,9 +111,7 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 	@Override
 	public PriorityQueue<Result<T>> getElementsWithinHammingDistance(Hash hash, int maxDistance) {
 
-		if (ensureHashConsistency && algoId != hash.getAlgorithmId()) {
-			throw new IllegalStateException("Tried to add an incompatible hash to the binary tree");
-		}
+		checkQueryConsistency(hash);
 
 		// Iterative implementation. Recursion might get too expensive if the key lenght
 		// increases and we need to be aware of the stack depth
@@ -126,8 +136,8 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 			if (info.depth == 0) {
 				@SuppressWarnings("unchecked")
 				Leaf<T> leaf = (Leaf<T>) info.node;
-				for (T o : leaf.getData()) {
-					result.add(new Result<T>(o, info.distance, info.distance / (double) treeDepth));
+				for (int i = 0; i < leaf.size(); i++) {
+					result.add(new Result<T>(leaf.get(i), info.distance, info.distance / (double) treeDepth));
 				}
 				continue;
 			}
@@ -157,6 +167,154 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 		return result;
 	}
 
+	/**
+	 * Return all elements of the tree whose hamming distance to one of the
+	 * supplied hashes is smaller or equal than the max distance. Equivalent to
+	 * calling {@link #getElementsWithinHammingDistance(Hash, int)} for every hash
+	 * but the tree is only traversed once.
+	 * <p>
+	 * Each visited node keeps the set of queries which are still within their
+	 * distance budget. Queries sharing a branch share the work of visiting it and
+	 * queries exceeding the max distance are dropped from the subtree. A branch
+	 * is abandoned once no query is left.
+	 * 
+	 * @param hashes      The hashes to search for. All hashes have to share the
+	 *                    same bit resolution
+	 * @param maxDistance The maximal hamming distance deviation all found hashes
+	 *                    may possess
+	 * @return the search results of each hash in the order of the supplied hashes.
+	 *         The results are ordered to return the closest match first.
+	 * @throws IllegalArgumentException if the hashes differ in their bit
+	 *                                  resolution
+	 * @throws IllegalStateException    if the tree ensures hash consistency and a
+	 *                                  hash does not comply with the first hash
+	 *                                  added to the tree
+	 * @since 3.0.0
+	 */
+	public List<PriorityQueue<Result<T>>> getElementsWithinHammingDistance(List<Hash> hashes, int maxDistance) {
+
+		int queryCount = hashes.size();
+		List<PriorityQueue<Result<T>>> results = new ArrayList<>(queryCount);
+		if (queryCount == 0) {
+			return results;
+		}
+
+		int treeDepth = hashes.get(0).getBitResolution();
+		int stride = Math.max(1, (treeDepth + 63) / 64);
+
+		// Pack the hashes so bits can be tested without BigInteger operations
+		long[] words = new long[queryCount * stride];
+		for (int query = 0; query < queryCount; query++) {
+			Hash hash = hashes.get(query);
+			checkQueryConsistency(hash);
+			if (hash.getBitResolution() != treeDepth) {
+				throw new IllegalArgumentException("All hashes of a batch have to share the same bit resolution");
+			}
+			BigInteger hashValue = hash.getHashValue();
+			for (int word = 0; word < stride; word++) {
+				words[query * stride + word] = hashValue.shiftRight(word * 64).longValue();
+			}
+			results.add(new PriorityQueue<Result<T>>());
+		}
+
+		// Depth first search. Level i holds the node at depth i of the current path
+		// and the queries still active at this node.
+		Node[] path = new Node[treeDepth + 1];
+		// 0: visit left child next, 1: visit right child next, 2: done
+		byte[] state = new byte[treeDepth + 1];
+		int[][] activeQueries = new int[treeDepth + 1][];
+		int[][] activeDistances = new int[treeDepth + 1][];
+		int[] activeCount = new int[treeDepth + 1];
+
+		activeQueries[0] = new int[queryCount];
+		activeDistances[0] = new int[queryCount];
+		for (int query = 0; query < queryCount; query++) {
+			activeQueries[0][query] = query;
+		}
+		activeCount[0] = queryCount;
+		path[0] = root;
+
+		int level = 0;
+		while (level >= 0) {
+
+			// We reached a leaf
+			if (level == treeDepth) {
+				@SuppressWarnings("unchecked")
+				Leaf<T> leaf = (Leaf<T>) path[level];
+				for (int i = 0; i < activeCount[level]; i++) {
+					int distance = activeDistances[level][i];
+					PriorityQueue<Result<T>> result = results.get(activeQueries[level][i]);
+					for (int j = 0; j < leaf.size(); j++) {
+						result.add(new Result<T>(leaf.get(j), distance, distance / (double) treeDepth));
+					}
+				}
+				level--;
+				continue;
+			}
+
+			if (state[level] == 2) {
+				level--;
+				continue;
+			}
+
+			boolean left = state[level] == 0;
+			state[level]++;
+			Node child = path[level].getChild(left);
+			if (child == null) {
+				continue;
+			}
+
+			// Bit of the hashes represented by the child
+			int bitIndex = treeDepth - level - 1;
+			int wordOffset = bitIndex >>> 6;
+			long mask = 1L << (bitIndex & 63);
+
+			int count = activeCount[level];
+			int[] queries = activeQueries[level];
+			int[] distances = activeDistances[level];
+			if (activeQueries[level + 1] == null || activeQueries[level + 1].length < count) {
+				activeQueries[level + 1] = new int[count];
+				activeDistances[level + 1] = new int[count];
+			}
+			int[] childQueries = activeQueries[level + 1];
+			int[] childDistances = activeDistances[level + 1];
+			int childCount = 0;
+			for (int i = 0; i < count; i++) {
+				int query = queries[i];
+				boolean bit = (words[query * stride + wordOffset] & mask) != 0;
+				int distance = bit == left ? distances[i] : distances[i] + 1;
+				// Prune queries whose distance budget is exhausted
+				if (distance <= maxDistance) {
+					childQueries[childCount] = query;
+					childDistances[childCount++] = distance;
+				}
+			}
+			if (childCount == 0) {
+				continue;
+			}
+			level++;
+			path[level] = child;
+			state[level] = 0;
+			activeCount[level] = childCount;
+		}
+		return results;
+	}
+
+	/**
+	 * Check that a queried hash was created by the algorithm of the hashes in the
+	 * tree. Empty trees did not fix their algorithm id yet and accept any hash.
+	 * 
+	 * @param hash the queried hash
+	 * @throws IllegalStateException if the tree ensures hash consistency and the
+	 *                               hash does not comply with the first hash added
+	 *                               to the tree
+	 */
+	private void checkQueryConsistency(Hash hash) {
+		if (ensureHashConsistency && algoId != 0 && algoId != hash.getAlgorithmId()) {
+			throw new IllegalStateException("Tried to add an incompatible hash to the binary tree");
+		}
+	}
+
 	/**
 	 * Retrieve the hash that is the most similar to the queried hash. The closest
 	 * hash is the hash with the smallest distance.
@@ -168,9 +326,7 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 	@Override
 	public List<Result<T>> getNearestNeighbour(Hash hash) {
 
-		if (ensureHashConsistency && algoId != hash.getAlgorithmId()) {
-			throw new IllegalStateException("Tried to add an incompatible hash to the binary tree");
-		}
+		checkQueryConsistency(hash);
 
 		BigInteger hashValue = hash.getHashValue();
 		int treeDepth = hash.getBitResolution();
@@ -204,8 +360,8 @@ public class BinaryTree<T> extends AbstractBinaryTree<T> implements Serializable
 				}
 				@SuppressWarnings("unchecked")
 				Leaf<T> leaf = (Leaf<T>) info.node;
-				for (T o : leaf.getData()) {
-					result.add(new Result<T>(o, info.distance, info.distance / (double) treeDepth));
+				for (int i = 0; i < leaf.size(); i++) {
+					result.add(new Result<T>(leaf.get(i), info.distance, info.distance / (double) treeDepth));
 				}
 				continue;
 			}
@@ -0,0 +1,36 @@
+package com.github.kilianB.datastructures.tree.binaryTree;
+
+/**
+ * A binary tree saving int values, e.g. interned ids. The leaves keep the
+ * values in primitive arrays, sparing the object header and reference of a
+ * boxed integer per value. Values are only boxed when returned as part of a
+ * {@link com.github.kilianB.datastructures.tree.Result}.
+ * 
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class IntBinaryTree extends BinaryTree<Integer> {
+
+	private static final long serialVersionUID = 2353508200489921276L;
+
+	/**
+	 * 
+	 * @param ensureHashConsistency If true adding and matching hashes will check
+	 *                              weather they are generated by the same
+	 *                              algorithms as the first hash added to the tree
+	 * 
+	 */
+	public IntBinaryTree(boolean ensureHashConsistency) {
+		super(ensureHashConsistency);
+	}
+
+	protected IntBinaryTree() {
+
+	}
+
+	@Override
+	protected Leaf<Integer> createLeaf() {
+		return new IntLeaf();
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.github.kilianB.datastructures.tree.binaryTree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A leaf node saving int values in a primitive array instead of a list of
+ * boxed integers.
+ * 
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class IntLeaf extends Leaf<Integer> {
+
+	private static final long serialVersionUID = -2022722577351477016L;
+
+	/**
+	 * Values saved in this leaf. Only the first size entries are valid
+	 */
+	private int[] values = new int[1];
+
+	private int size;
+
+	public IntLeaf() {
+		super(null);
+	}
+
+	@Override
+	public void addData(Integer data) {
+		addData(data.intValue());
+	}
+
+	/**
+	 * Append new data to the leaf without boxing it
+	 * 
+	 * @param data Value which will be associated with the hash this leaf represents
+	 */
+	public void addData(int data) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = data;
+	}
+
+	/**
+	 * @return a copy of the values saved in this leaf. Opposed to {@link Leaf}
+	 *         modifications of the list are not reflected by the leaf
+	 */
+	@Override
+	public ArrayList<Integer> getData() {
+		ArrayList<Integer> data = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			data.add(values[i]);
+		}
+		return data;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	/**
+	 * @param index the index of the value in insertion order
+	 * @return the value at the given index without boxing it
+	 */
+	public int getInt(int index) {
+		if (index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return values[index];
+	}
+
+	@Override
+	public boolean removeData(Integer value) {
+		if (value == null) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (values[i] == value) {
+				System.arraycopy(values, i + 1, values, i, --size - i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public int removeAllData(Integer value) {
+		if (value == null) {
+			return 0;
+		}
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (values[i] != value) {
+				values[kept++] = values[i];
+			}
+		}
+		int removed = size - kept;
+		size = kept;
+		return removed;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		for (int i = 0; i < size; i++) {
+			result = prime * result + values[i];
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!super.equals(obj)) {
+			return false;
+		}
+		if (!(obj instanceof IntLeaf)) {
+			return false;
+		}
+		IntLeaf other = (IntLeaf) obj;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (values[i] != other.values[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.github.kilianB.datastructures.tree.binaryTree;
 
 import java.util.ArrayList;
+import java.util.Objects;
 
 /**
  * A leaf node in the binary tree containing multiple values associated with a
@@ -11,10 +12,25 @@ import java.util.ArrayList;
  */
 public class Leaf<T> extends Node {
 
+	private static final long serialVersionUID = -5916090074149531846L;
+
 	/**
 	 * Values saved in this leaf
 	 */
-	private ArrayList<T> data = new ArrayList<>();
+	private ArrayList<T> data;
+
+	public Leaf() {
+		this(new ArrayList<>());
+	}
+
+	/**
+	 * @param data the list backing this leaf or null if a subclass stores the
+	 *             values itself
+	 * @since 3.0.0
+	 */
+	protected Leaf(ArrayList<T> data) {
+		this.data = data;
+	}
 
 	/**
 	 * Append new data to the leaf
@@ -32,6 +48,47 @@ public class Leaf<T> extends Node {
 		return data;
 	}
 
+	/**
+	 * @return the number of values saved in this leaf
+	 * @since 3.0.0
+	 */
+	public int size() {
+		return data.size();
+	}
+
+	/**
+	 * @param index the index of the value in insertion order
+	 * @return the value at the given index
+	 * @since 3.0.0
+	 */
+	public T get(int index) {
+		return data.get(index);
+	}
+
+	/**
+	 * Remove the first occurrence of a value
+	 * 
+	 * @param value the value to remove
+	 * @return true if the value was found and removed
+	 * @since 3.0.0
+	 */
+	public boolean removeData(T value) {
+		return data.remove(value);
+	}
+
+	/**
+	 * Remove all occurrences of a value
+	 * 
+	 * @param value the value to remove
+	 * @return the number of removed occurrences
+	 * @since 3.0.0
+	 */
+	public int removeAllData(T value) {
+		int size = data.size();
+		data.removeIf(element -> Objects.equals(element, value));
+		return size - data.size();
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,168 @@
+package com.github.kilianB.examples;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.kilianB.datastructures.CircularLinkedHashMap;
+import com.github.kilianB.datastructures.ConcurrentCache;
+
+/**
+ * Compares hit rate and throughput of the {@link ConcurrentCache} to a
+ * synchronized, access ordered {@link CircularLinkedHashMap} used as least
+ * recently used cache. Keys are drawn from a zipf distribution, the second
+ * trace interleaves scans over keys which are never requested again.
+ *
+ * @author Kilian
+ *
+ */
+public class CacheBenchmark {
+
+	private static final int KEYS = 100_000;
+
+	private static final int CACHE_SIZE = 1000;
+
+	private static final int TRACE_LENGTH = 1 << 21;
+
+	private static final long DURATION_MS = 1000;
+
+	public static void main(String[] args) throws InterruptedException {
+		Random random = new Random(0);
+		int[] zipf = zipfTrace(random, 0.99);
+		int[] scans = withScans(zipf);
+
+		System.out.println("Hit rate, " + CACHE_SIZE + " entries");
+		for (Object[] trace : new Object[][] { { "zipf", zipf }, { "zipf + scans", scans } }) {
+			int[] keys = (int[]) trace[1];
+			System.out.printf("%-14s %-22s %.3f%n", trace[0], "LRU", hitRate(new SynchronizedLru(CACHE_SIZE), keys));
+			System.out.printf("%-14s %-22s %.3f%n", trace[0], "ConcurrentCache", hitRate(new Concurrent(CACHE_SIZE), keys));
+		}
+
+		System.out.println("Throughput, zipf, million operations per second");
+		for (int threads : new int[] { 1, 2, 4, 8 }) {
+			System.out.printf("%2d threads     %-22s %8.2f%n", threads, "LRU", throughput(new SynchronizedLru(CACHE_SIZE), zipf, threads));
+			System.out.printf("%2d threads     %-22s %8.2f%n", threads, "ConcurrentCache", throughput(new Concurrent(CACHE_SIZE), zipf, threads));
+		}
+	}
+
+	private static double hitRate(Cache cache, int[] keys) {
+		long hits = 0;
+		for (int key : keys) {
+			if (cache.getOrPut(key)) {
+				hits++;
+			}
+		}
+		return hits / (double) keys.length;
+	}
+
+	private static double throughput(Cache cache, int[] keys, int threads) throws InterruptedException {
+		// Warm up
+		hitRate(cache, keys);
+
+		LongAdder operations = new LongAdder();
+		AtomicBoolean running = new AtomicBoolean(true);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			int offset = t * (keys.length / threads);
+			Thread thread = new Thread(() -> {
+				long count = 0;
+				int i = offset;
+				while (running.get()) {
+					for (int j = 0; j < 1024; j++) {
+						cache.getOrPut(keys[i]);
+						i = (i + 1) & (keys.length - 1);
+					}
+					count += 1024;
+				}
+				operations.add(count);
+				done.countDown();
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Thread.sleep(DURATION_MS);
+		running.set(false);
+		done.await();
+		return operations.sum() / (DURATION_MS * 1e3);
+	}
+
+	private static int[] zipfTrace(Random random, double exponent) {
+		double[] cumulative = new double[KEYS];
+		double sum = 0;
+		for (int i = 0; i < KEYS; i++) {
+			sum += 1 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+		int[] trace = new int[TRACE_LENGTH];
+		for (int i = 0; i < TRACE_LENGTH; i++) {
+			int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+			trace[i] = index < 0 ? -index - 1 : index;
+		}
+		return trace;
+	}
+
+	/**
+	 * Replace every fourth block of 4096 requests by a scan over unseen keys
+	 */
+	private static int[] withScans(int[] zipf) {
+		int[] trace = zipf.clone();
+		int unseen = KEYS;
+		for (int block = 3 * 4096; block < trace.length; block += 4 * 4096) {
+			for (int i = block; i < block + 4096; i++) {
+				trace[i] = unseen++;
+			}
+		}
+		return trace;
+	}
+
+	private interface Cache {
+		/**
+		 * @return true if the key was cached, otherwise it is added
+		 */
+		boolean getOrPut(int key);
+	}
+
+	private static class SynchronizedLru implements Cache {
+
+		private final Map<Integer, Integer> map;
+
+		SynchronizedLru(int size) {
+			map = new CircularLinkedHashMap<>(size, true);
+		}
+
+		@Override
+		public boolean getOrPut(int key) {
+			Integer boxed = key;
+			synchronized (map) {
+				if (map.get(boxed) != null) {
+					return true;
+				}
+				map.put(boxed, boxed);
+				return false;
+			}
+		}
+	}
+
+	private static class Concurrent implements Cache {
+
+		private final ConcurrentCache<Integer, Integer> cache;
+
+		Concurrent(int size) {
+			cache = new ConcurrentCache<>(size);
+		}
+
+		@Override
+		public boolean getOrPut(int key) {
+			Integer boxed = key;
+			if (cache.get(boxed) != null) {
+				return true;
+			}
+			cache.put(boxed, boxed);
+			return false;
+		}
+	}
+
+}
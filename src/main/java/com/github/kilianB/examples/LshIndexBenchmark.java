@@ -0,0 +1,103 @@
+package com.github.kilianB.examples;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.BitSamplingIndex;
+
+/**
+ * Compares recall and latency of the {@link BitSamplingIndex} to the exact
+ * search of the {@link BinaryTree}. Every query has a planted neighbour at the
+ * searched distance among uniformly distributed hashes. The recall is the
+ * fraction of exact matches found by the index.
+ * 
+ * @author Kilian
+ *
+ */
+public class LshIndexBenchmark {
+
+	private static final int BITS = 256;
+
+	private static final int HASHES = 100_000;
+
+	private static final int QUERIES = 200;
+
+	public static void main(String[] args) {
+		Random random = new Random(0);
+
+		List<Hash> hashes = new ArrayList<>(HASHES);
+		for (int i = 0; i < HASHES; i++) {
+			hashes.add(new Hash(new BigInteger(BITS, random), BITS, 0));
+		}
+
+		for (int distance : new int[] { 4, 8, 12 }) {
+			// Plant a neighbour for every query
+			List<Hash> queries = new ArrayList<>(QUERIES);
+			List<Hash> corpus = new ArrayList<>(hashes);
+			for (int i = 0; i < QUERIES; i++) {
+				Hash query = new Hash(new BigInteger(BITS, random), BITS, 0);
+				BigInteger neighbour = query.getHashValue();
+				int flipped = 0;
+				while (flipped < distance) {
+					int bit = random.nextInt(BITS);
+					if (neighbour.testBit(bit) == query.getHashValue().testBit(bit)) {
+						neighbour = neighbour.flipBit(bit);
+						flipped++;
+					}
+				}
+				queries.add(query);
+				corpus.add(new Hash(neighbour, BITS, 0));
+			}
+
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			for (int i = 0; i < corpus.size(); i++) {
+				tree.addHash(corpus.get(i), i);
+			}
+			long start = System.nanoTime();
+			List<PriorityQueue<Result<Integer>>> exact = new ArrayList<>(QUERIES);
+			for (Hash query : queries) {
+				exact.add(tree.getElementsWithinHammingDistance(query, distance));
+			}
+			double treeMicros = (System.nanoTime() - start) / 1e3 / QUERIES;
+			System.out.printf("distance %2d %-28s %10.2f us/query%n", distance, "BinaryTree", treeMicros);
+
+			for (int sampledBits : new int[] { 16, 24, 32 }) {
+				for (double targetRecall : new double[] { 0.9, 0.99 }) {
+					benchmark(corpus, queries, exact, distance, sampledBits, targetRecall);
+				}
+			}
+		}
+	}
+
+	private static void benchmark(List<Hash> corpus, List<Hash> queries, List<PriorityQueue<Result<Integer>>> exact, int distance, int sampledBits,
+			double targetRecall) {
+		BitSamplingIndex<Integer> index = BitSamplingIndex.forRecall(BITS, distance, targetRecall, sampledBits, 0);
+		for (int i = 0; i < corpus.size(); i++) {
+			index.addHash(corpus.get(i), i);
+		}
+
+		// Warm up
+		long found = 0;
+		for (Hash query : queries) {
+			found += index.getElementsWithinHammingDistance(query, distance).size();
+		}
+
+		found = 0;
+		long expected = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < queries.size(); i++) {
+			found += index.getElementsWithinHammingDistance(queries.get(i), distance).size();
+			expected += exact.get(i).size();
+		}
+		double micros = (System.nanoTime() - start) / 1e3 / queries.size();
+		String label = "LSH k=" + sampledBits + " L=" + index.getTables() + " (" + targetRecall + ")";
+		System.out.printf("distance %2d %-28s %10.2f us/query recall %.3f%n", distance, label, micros, found / (double) expected);
+	}
+
+}
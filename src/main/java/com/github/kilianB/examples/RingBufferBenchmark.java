@@ -0,0 +1,145 @@
+package com.github.kilianB.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+import com.github.kilianB.datastructures.ConcurrentRingBuffer;
+import com.github.kilianB.datastructures.ConcurrentRingBuffer.WaitStrategy;
+
+/**
+ * Compares the throughput of the {@link ConcurrentRingBuffer} to an
+ * {@link ArrayBlockingQueue} handing off elements from producer to consumer
+ * threads. Producers put and consumers take single elements, the batched run
+ * transfers up to {@link #BATCH} elements at once using drainTo and offerAll.
+ *
+ * @author Kilian
+ *
+ */
+public class RingBufferBenchmark {
+
+	private static final int CAPACITY = 1024;
+
+	private static final int ELEMENTS = 2_000_000;
+
+	private static final int BATCH = 64;
+
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws InterruptedException {
+		for (int threads : new int[] { 1, 2, 4 }) {
+			benchmark("ArrayBlockingQueue", () -> new ArrayBlockingQueue<>(CAPACITY), threads, false);
+			benchmark("RingBuffer blocking", () -> new ConcurrentRingBuffer<>(CAPACITY, WaitStrategy.BLOCKING), threads, false);
+			benchmark("RingBuffer spinning", () -> new ConcurrentRingBuffer<>(CAPACITY, WaitStrategy.SPINNING), threads, false);
+			benchmark("ArrayBlockingQueue batched", () -> new ArrayBlockingQueue<>(CAPACITY), threads, true);
+			benchmark("RingBuffer batched", () -> new ConcurrentRingBuffer<>(CAPACITY, WaitStrategy.BLOCKING), threads, true);
+		}
+	}
+
+	private static void benchmark(String label, Supplier<BlockingQueue<Integer>> factory, int threads, boolean batched)
+			throws InterruptedException {
+		double best = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			best = Math.max(best, transfer(factory.get(), threads, batched));
+		}
+		System.out.printf("%dP/%dC %-28s %8.2f million elements/s%n", threads, threads, label, best);
+	}
+
+	/**
+	 * @return million elements transferred per second
+	 */
+	private static double transfer(BlockingQueue<Integer> queue, int threads, boolean batched) throws InterruptedException {
+		int perThread = ELEMENTS / threads;
+		Integer element = 42;
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2 * threads);
+		for (int t = 0; t < threads; t++) {
+			start(() -> {
+				await(start);
+				try {
+					if (batched) {
+						List<Integer> batch = new ArrayList<>(BATCH);
+						for (int i = 0; i < BATCH; i++) {
+							batch.add(element);
+						}
+						for (int sent = 0; sent < perThread;) {
+							List<Integer> remaining = batch.subList(0, Math.min(BATCH, perThread - sent));
+							int added = offerAll(queue, remaining);
+							if (added == 0) {
+								queue.put(element);
+								added = 1;
+							}
+							sent += added;
+						}
+					} else {
+						for (int i = 0; i < perThread; i++) {
+							queue.put(element);
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				done.countDown();
+			});
+			start(() -> {
+				await(start);
+				try {
+					List<Integer> drained = new ArrayList<>(BATCH);
+					for (int received = 0; received < perThread;) {
+						if (batched) {
+							drained.clear();
+							int count = queue.drainTo(drained, Math.min(BATCH, perThread - received));
+							if (count == 0) {
+								queue.take();
+								count = 1;
+							}
+							received += count;
+						} else {
+							queue.take();
+							received++;
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				done.countDown();
+			});
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		return perThread * threads / ((System.nanoTime() - begin) / 1e3);
+	}
+
+	private static int offerAll(BlockingQueue<Integer> queue, List<Integer> elements) {
+		if (queue instanceof ConcurrentRingBuffer) {
+			return ((ConcurrentRingBuffer<Integer>) queue).offerAll(elements);
+		}
+		int added = 0;
+		for (Integer element : elements) {
+			if (!queue.offer(element)) {
+				break;
+			}
+			added++;
+		}
+		return added;
+	}
+
+	private static void start(Runnable runnable) {
+		Thread thread = new Thread(runnable);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.github.kilianB.examples;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.RotAverageHash;
+import com.jstarcraft.dip.lsh.RotPHash;
+
+/**
+ * Micro benchmark measuring the throughput of the rotational hashing
+ * algorithms. The time spent per hash includes rescaling the image to the
+ * resolution required by the algorithm.
+ * 
+ * @author Kilian
+ *
+ */
+public class RotationalHashBenchmark {
+
+	/** Number of hashes computed before measuring */
+	private static final int WARM_UP = 2000;
+
+	/** Number of hashes measured */
+	private static final int ITERATIONS = 5000;
+
+	public static void main(String[] args) throws IOException {
+		BufferedImage image = ImageIO.read(RotationalHashBenchmark.class.getResourceAsStream("images/ballon.jpg"));
+
+		for (int bitResolution : new int[] { 32, 64, 128, 256 }) {
+			benchmark(new RotAverageHash(bitResolution), image);
+			benchmark(new RotPHash(bitResolution), image);
+		}
+	}
+
+	private static void benchmark(HashingAlgorithm hasher, BufferedImage image) {
+		// The result is consumed to prevent dead code elimination
+		long blackhole = 0;
+		for (int i = 0; i < WARM_UP; i++) {
+			blackhole += hasher.hash(image).getHashValue().bitCount();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			blackhole += hasher.hash(image).getHashValue().bitCount();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+		System.out.printf("%-20s %8.2f us/hash (%d)%n", hasher, elapsed, blackhole);
+	}
+
+}
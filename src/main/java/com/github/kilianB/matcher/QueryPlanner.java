@@ -0,0 +1,125 @@
+package com.github.kilianB.matcher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Orders the hashing algorithms of a matcher requiring all algorithms to agree.
+ * The planner keeps a running average of the time needed to hash an image and
+ * of the fraction of candidates each algorithm lets pass. Algorithms are
+ * evaluated in ascending order of cost / (1 - selectivity), the classic order
+ * of independent filter predicates: cheap algorithms discarding many
+ * candidates run first.
+ *
+ * <p>
+ * Algorithms without statistics keep their relative insertion order. The
+ * planner is thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class QueryPlanner {
+
+	/** Weight of a new observation in the running averages */
+	private static final double SMOOTHING = 0.2;
+
+	/** Assumed selectivity of algorithms which were not yet observed */
+	private static final double DEFAULT_SELECTIVITY = 0.5;
+
+	private final Map<HashingAlgorithm, Statistics> statistics = new HashMap<>();
+
+	/**
+	 * Order the algorithms by their estimated rank.
+	 *
+	 * @param algorithms the algorithms in insertion order
+	 * @return the algorithms in the order they should be evaluated
+	 */
+	public synchronized List<HashingAlgorithm> plan(Collection<HashingAlgorithm> algorithms) {
+		List<HashingAlgorithm> plan = new ArrayList<>(algorithms);
+		// Unknown costs are treated as equal, List.sort is stable
+		plan.sort((left, right) -> Double.compare(rank(left), rank(right)));
+		return plan;
+	}
+
+	private double rank(HashingAlgorithm algorithm) {
+		Statistics value = statistics.get(algorithm);
+		if (value == null || value.cost < 0) {
+			return 0;
+		}
+		return value.cost / Math.max(1e-9, 1 - value.selectivity);
+	}
+
+	/**
+	 * Record the time needed to hash an image.
+	 *
+	 * @param algorithm the algorithm
+	 * @param nanos     the elapsed time in nanoseconds
+	 */
+	public synchronized void recordCost(HashingAlgorithm algorithm, long nanos) {
+		Statistics value = statistics.computeIfAbsent(algorithm, (key) -> new Statistics());
+		value.cost = value.cost < 0 ? nanos : value.cost + SMOOTHING * (nanos - value.cost);
+	}
+
+	/**
+	 * Record how many of the candidates passed the algorithm.
+	 *
+	 * @param algorithm  the algorithm
+	 * @param candidates the number of candidates before the algorithm was applied
+	 * @param survivors  the number of candidates passing the algorithm
+	 */
+	public synchronized void recordSelectivity(HashingAlgorithm algorithm, int candidates, int survivors) {
+		if (candidates <= 0) {
+			return;
+		}
+		Statistics value = statistics.computeIfAbsent(algorithm, (key) -> new Statistics());
+		value.selectivity += SMOOTHING * (survivors / (double) candidates - value.selectivity);
+	}
+
+	/**
+	 * @param algorithm the algorithm
+	 * @return the average time needed to hash an image in nanoseconds or -1 if not
+	 *         yet observed
+	 */
+	public synchronized double getCost(HashingAlgorithm algorithm) {
+		Statistics value = statistics.get(algorithm);
+		return value == null ? -1 : value.cost;
+	}
+
+	/**
+	 * @param algorithm the algorithm
+	 * @return the estimated fraction of candidates passing the algorithm [0-1]
+	 */
+	public synchronized double getSelectivity(HashingAlgorithm algorithm) {
+		Statistics value = statistics.get(algorithm);
+		return value == null ? DEFAULT_SELECTIVITY : value.selectivity;
+	}
+
+	/**
+	 * Discard the statistics of an algorithm which was removed from the matcher.
+	 *
+	 * @param algorithm the algorithm
+	 */
+	public synchronized void remove(HashingAlgorithm algorithm) {
+		statistics.remove(algorithm);
+	}
+
+	/**
+	 * Discard all statistics.
+	 */
+	public synchronized void clear() {
+		statistics.clear();
+	}
+
+	private static class Statistics {
+
+		private double cost = -1;
+
+		private double selectivity = DEFAULT_SELECTIVITY;
+	}
+
+}
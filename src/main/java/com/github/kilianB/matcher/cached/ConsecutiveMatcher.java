@@ -1,16 +1,21 @@
 package com.github.kilianB.matcher.cached;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.PriorityQueue;
 
 import com.github.kilianB.datastructures.tree.Result;
 import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.github.kilianB.matcher.QueryPlanner;
 import com.github.kilianB.matcher.TypedImageMatcher;
 import com.jstarcraft.dip.hash.Hash;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
@@ -28,8 +33,11 @@ import com.jstarcraft.dip.lsh.HashingAlgorithm;
  * requiring all algorithms added to agree to produce a match, discarding the
  * result fast if one of the algorithms does not consider the images similar.
  * <p>
- * This means that the order of the hashing algorithms supplied hash has an
- * impact on the performance, the fastest algorithm should be added first.
+ * The order in which the algorithms are evaluated is chosen by a
+ * {@link QueryPlanner} based on the observed hashing cost and selectivity of
+ * each algorithm. Only the first algorithm searches it's binary tree, the
+ * remaining candidates are verified against the cached hashes of the following
+ * algorithms.
  * 
  * @author Kilian
  */
@@ -41,6 +49,12 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 	/** Binary Tree holding results for each individual hashing algorithm */
 	protected HashMap<HashingAlgorithm, BinaryTree<BufferedImage>> binTreeMap = new HashMap<>();
 
+	/** Hashes of the added images used to verify candidates */
+	protected HashMap<HashingAlgorithm, Map<BufferedImage, Hash>> cachedHashes = new HashMap<>();
+
+	/** Orders the algorithms by their observed cost and selectivity */
+	protected QueryPlanner planner = new QueryPlanner();
+
 	/**
 	 * Append a new hashing algorithm which will be executed after all hash
 	 * algorithms passed the test.
@@ -58,10 +72,16 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 
 		BinaryTree<BufferedImage> binTree = new BinaryTree<>(true);
 		binTreeMap.put(algo, binTree);
+		Map<BufferedImage, Hash> cache = new HashMap<>();
+		cachedHashes.put(algo, cache);
 
 		// Also add all images which were added to the image matcher earlier
 		if (!addedImages.isEmpty()) {
-			addedImages.forEach(image -> binTree.addHash(algo.hash(image), image));
+			addedImages.forEach(image -> {
+				Hash hash = algo.hash(image);
+				binTree.addHash(hash, image);
+				cache.put(image, hash);
+			});
 		}
 	}
 
@@ -73,6 +93,8 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 	 */
 	public boolean removeHashingAlgo(HashingAlgorithm algo) {
 		binTreeMap.remove(algo);
+		cachedHashes.remove(algo);
+		planner.remove(algo);
 		return super.removeHashingAlgo(algo);
 	}
 
@@ -82,6 +104,8 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 	 */
 	public void clearHashingAlgorithms() {
 		binTreeMap.clear();
+		cachedHashes.clear();
+		planner.clear();
 		super.clearHashingAlgorithms();
 	}
 
@@ -113,7 +137,9 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 		for (Entry<HashingAlgorithm, AlgoSettings> entry : steps.entrySet()) {
 			HashingAlgorithm algo = entry.getKey();
 			BinaryTree<BufferedImage> binTree = binTreeMap.get(algo);
-			binTree.addHash(algo.hash(image), image);
+			Hash hash = algo.hash(image);
+			binTree.addHash(hash, image);
+			cachedHashes.get(algo).put(image, hash);
 		}
 		addedImages.add(image);
 	}
@@ -145,34 +171,108 @@ public class ConsecutiveMatcher extends TypedImageMatcher {
 		if (steps.isEmpty())
 			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
 
-		PriorityQueue<Result<BufferedImage>> returnValues = null;
+		List<HashingAlgorithm> plan = planner.plan(steps.keySet());
 
-		for (Entry<HashingAlgorithm, AlgoSettings> entry : steps.entrySet()) {
-			HashingAlgorithm algo = entry.getKey();
+		// Only the first step has to search the tree
+		HashingAlgorithm first = plan.get(0);
+		Hash needleHash = hash(first, image);
+		int threshold = threshold(steps.get(first), needleHash);
+		List<Result<BufferedImage>> survivors = new ArrayList<>(binTreeMap.get(first).getElementsWithinHammingDistance(needleHash, threshold));
+		return verify(plan, survivors, image);
+	}
 
-			BinaryTree<BufferedImage> binTree = binTreeMap.get(algo);
-			AlgoSettings settings = entry.getValue();
+	/**
+	 * Search for all similar images of each of the supplied images. The binary
+	 * tree of the first algorithm is traversed once for all images instead of
+	 * once per image, the remaining algorithms are applied to each image
+	 * individually.
+	 * 
+	 * @param images The images other images will be matched against
+	 * @return the similar images of each image in the iteration order of the
+	 *         collection. See {@link #getMatchingImages(BufferedImage)}
+	 * @since 3.0.0
+	 */
+	public List<PriorityQueue<Result<BufferedImage>>> getMatchingImages(Collection<BufferedImage> images) {
 
-			Hash needleHash = algo.hash(image);
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
 
-			int threshold = 0;
-			if (settings.isNormalized()) {
-				int hashLength = needleHash.getBitResolution();
-				threshold = (int) Math.round(settings.getThreshold() * hashLength);
-			} else {
-				threshold = (int) settings.getThreshold();
-			}
+		List<PriorityQueue<Result<BufferedImage>>> matches = new ArrayList<>(images.size());
+		if (images.isEmpty()) {
+			return matches;
+		}
 
-			PriorityQueue<Result<BufferedImage>> temp = binTree.getElementsWithinHammingDistance(needleHash, threshold);
+		List<HashingAlgorithm> plan = planner.plan(steps.keySet());
+
+		HashingAlgorithm first = plan.get(0);
+		List<BufferedImage> batch = new ArrayList<>(images);
+		List<Hash> needleHashes = new ArrayList<>(batch.size());
+		for (BufferedImage image : batch) {
+			needleHashes.add(hash(first, Objects.requireNonNull(image, "Images may not be null")));
+		}
+		int threshold = threshold(steps.get(first), needleHashes.get(0));
+		List<PriorityQueue<Result<BufferedImage>>> candidates = binTreeMap.get(first).getElementsWithinHammingDistance(needleHashes, threshold);
+		for (int i = 0; i < batch.size(); i++) {
+			matches.add(verify(plan, new ArrayList<>(candidates.get(i)), batch.get(i)));
+		}
+		return matches;
+	}
 
-			if (returnValues == null) {
-				returnValues = temp;
-			} else {
-				temp.retainAll(returnValues);
-				returnValues = temp;
+	/**
+	 * Apply the remaining algorithms of the plan to the candidates found by the
+	 * first algorithm
+	 */
+	private PriorityQueue<Result<BufferedImage>> verify(List<HashingAlgorithm> plan, List<Result<BufferedImage>> survivors, BufferedImage image) {
+
+		// Results carry the distance of the last added algorithm regardless of the
+		// evaluation order
+		HashingAlgorithm reportingAlgo = null;
+		for (HashingAlgorithm algo : steps.keySet()) {
+			reportingAlgo = algo;
+		}
+
+		planner.recordSelectivity(plan.get(0), addedImages.size(), survivors.size());
+
+		for (int step = 1; step < plan.size() && !survivors.isEmpty(); step++) {
+			HashingAlgorithm algo = plan.get(step);
+			Hash needleHash = hash(algo, image);
+			int threshold = threshold(steps.get(algo), needleHash);
+
+			// Verify the remaining candidates against their cached hashes
+			Map<BufferedImage, Hash> cache = cachedHashes.get(algo);
+			List<Result<BufferedImage>> temp = new ArrayList<>(survivors.size());
+			for (Result<BufferedImage> survivor : survivors) {
+				int distance = needleHash.hammingDistanceFast(cache.get(survivor.value));
+				if (distance <= threshold) {
+					temp.add(algo == reportingAlgo ? new Result<>(survivor.value, distance, distance / (double) needleHash.getBitResolution()) : survivor);
+				}
 			}
+			planner.recordSelectivity(algo, survivors.size(), temp.size());
+			survivors = temp;
+		}
+		return new PriorityQueue<>(survivors);
+	}
+
+	private Hash hash(HashingAlgorithm algo, BufferedImage image) {
+		long start = System.nanoTime();
+		Hash hash = algo.hash(image);
+		planner.recordCost(algo, System.nanoTime() - start);
+		return hash;
+	}
+
+	private static int threshold(AlgoSettings settings, Hash hash) {
+		if (settings.isNormalized()) {
+			return (int) Math.round(settings.getThreshold() * hash.getBitResolution());
 		}
-		return returnValues;
+		return (int) settings.getThreshold();
+	}
+
+	/**
+	 * @return the planner collecting the statistics of the hashing algorithms
+	 * @since 3.0.0
+	 */
+	public QueryPlanner getQueryPlanner() {
+		return planner;
 	}
 
 	/**
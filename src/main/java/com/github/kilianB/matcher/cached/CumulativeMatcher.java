@@ -1,8 +1,11 @@
 package com.github.kilianB.matcher.cached;
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.PriorityQueue;
@@ -138,6 +141,25 @@ public class CumulativeMatcher extends ConsecutiveMatcher {
 		super.addHashingAlgorithm(algo, weight, false);
 	}
 
+	/**
+	 * Search for all similar images of each of the supplied images. The threshold
+	 * of each tree search depends on the distances found for the individual image,
+	 * therefore the images are searched one after another.
+	 * 
+	 * @param images The images other images will be matched against
+	 * @return the similar images of each image in the iteration order of the
+	 *         collection
+	 * @since 3.0.0
+	 */
+	@Override
+	public List<PriorityQueue<Result<BufferedImage>>> getMatchingImages(Collection<BufferedImage> images) {
+		List<PriorityQueue<Result<BufferedImage>>> matches = new ArrayList<>(images.size());
+		for (BufferedImage image : images) {
+			matches.add(getMatchingImages(image));
+		}
+		return matches;
+	}
+
 	@Override
 	public PriorityQueue<Result<BufferedImage>> getMatchingImages(BufferedImage image) {
 
@@ -0,0 +1,241 @@
+package com.github.kilianB.matcher.exotic;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.jstarcraft.dip.lsh.BlockAverageHash;
+import com.jstarcraft.dip.lsh.BlockAverageHash.Block;
+
+/**
+ * Find images sharing parts with a query image. The blocks of all images and
+ * scales created by a {@link BlockAverageHash} are stored in a single binary
+ * tree, therefore every block of the query is matched against every block of
+ * every image regardless of position and scale with one tree traversal.
+ *
+ * <p>
+ * An image is reported if at least one query block found a block of the image
+ * within the distance threshold. Images are ranked by the number of query
+ * blocks which could be matched.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <T> the type of the image identifiers
+ */
+public class BlockMatcher<T> {
+
+	private final BlockAverageHash hasher;
+
+	private final BinaryTree<Entry<T>> tree = new BinaryTree<>(true);
+
+	/** Blocks of each image, kept to allow removal */
+	private final Map<T, List<Block>> images = new HashMap<>();
+
+	/**
+	 * @param hasher the block hasher used to hash images and queries
+	 */
+	public BlockMatcher(BlockAverageHash hasher) {
+		this.hasher = Objects.requireNonNull(hasher);
+	}
+
+	/**
+	 * Hash the blocks of the image and add them to the index. Blocks previously
+	 * added with the same identifier are replaced.
+	 *
+	 * @param id    the identifier of the image
+	 * @param image the image
+	 * @return the number of indexed blocks
+	 */
+	public int addImage(T id, BufferedImage image) {
+		Objects.requireNonNull(id);
+		List<Block> blocks = hasher.hash(image);
+		removeImage(id);
+		images.put(id, blocks);
+		for (Block block : blocks) {
+			tree.addHash(block.getHash(), new Entry<>(id, block));
+		}
+		return blocks.size();
+	}
+
+	/**
+	 * Remove all blocks of the image from the index
+	 *
+	 * @param id the identifier of the image
+	 * @return true if the image was present
+	 */
+	public boolean removeImage(T id) {
+		List<Block> blocks = images.remove(id);
+		if (blocks == null) {
+			return false;
+		}
+		for (Block block : blocks) {
+			tree.removeHash(block.getHash(), new Entry<>(id, block));
+		}
+		return true;
+	}
+
+	/**
+	 * @return the identifiers of all indexed images
+	 */
+	public Set<T> getImages() {
+		return Collections.unmodifiableSet(images.keySet());
+	}
+
+	/**
+	 * @return the number of indexed blocks of all images
+	 */
+	public int getBlockCount() {
+		return tree.getHashCount();
+	}
+
+	/**
+	 * Search images sharing blocks with the query.
+	 *
+	 * @param image                 the query image
+	 * @param normalizedMaxDistance the maximum normalized hamming distance [0-1]
+	 *                              between a query block and an indexed block
+	 * @return the matching images, the image with the most matched query blocks
+	 *         first
+	 */
+	public List<Match<T>> getMatchingImages(BufferedImage image, double normalizedMaxDistance) {
+		List<Block> query = hasher.hash(image);
+		int maxDistance = (int) Math.round(normalizedMaxDistance * hasher.getKeyResolution());
+		Map<T, Match<T>> matches = new LinkedHashMap<>();
+		for (Block block : query) {
+			for (Result<Entry<T>> result : tree.getElementsWithinHammingDistance(block.getHash(), maxDistance)) {
+				Entry<T> entry = result.value;
+				Match<T> match = matches.get(entry.id);
+				if (match == null) {
+					match = new Match<>(entry.id, query.size());
+					matches.put(entry.id, match);
+				}
+				match.add(block, entry.block, (int) result.distance);
+			}
+		}
+		List<Match<T>> sorted = new ArrayList<>(matches.values());
+		sorted.sort((left, right) -> {
+			int compare = Integer.compare(right.getMatchedBlocks(), left.getMatchedBlocks());
+			return compare != 0 ? compare : Double.compare(left.getAverageDistance(), right.getAverageDistance());
+		});
+		return sorted;
+	}
+
+	/**
+	 * Value stored in the tree. Identity is the image id and the block instance.
+	 */
+	private static class Entry<T> {
+
+		private final T id;
+
+		private final Block block;
+
+		Entry(T id, Block block) {
+			this.id = id;
+			this.block = block;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * id.hashCode() + System.identityHashCode(block);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Entry)) {
+				return false;
+			}
+			Entry<?> other = (Entry<?>) obj;
+			return block == other.block && id.equals(other.id);
+		}
+	}
+
+	/**
+	 * The blocks of a single indexed image matched by a query.
+	 *
+	 * @author Kilian
+	 * @since 3.0.0
+	 * @param <T> the type of the image identifiers
+	 */
+	public static class Match<T> {
+
+		private final T id;
+
+		private final int queryBlocks;
+
+		/** Best matching indexed block of every matched query block */
+		private final Map<Block, Block> pairs = new LinkedHashMap<>();
+
+		private final Map<Block, Integer> distances = new HashMap<>();
+
+		Match(T id, int queryBlocks) {
+			this.id = id;
+			this.queryBlocks = queryBlocks;
+		}
+
+		void add(Block query, Block indexed, int distance) {
+			Integer previous = distances.get(query);
+			if (previous == null || distance < previous) {
+				pairs.put(query, indexed);
+				distances.put(query, distance);
+			}
+		}
+
+		/**
+		 * @return the identifier of the image
+		 */
+		public T getId() {
+			return id;
+		}
+
+		/**
+		 * @return the number of query blocks matching at least one block of the image
+		 */
+		public int getMatchedBlocks() {
+			return pairs.size();
+		}
+
+		/**
+		 * @return the fraction of query blocks matching at least one block of the
+		 *         image
+		 */
+		public double getMatchedRatio() {
+			return queryBlocks == 0 ? 0 : pairs.size() / (double) queryBlocks;
+		}
+
+		/**
+		 * @return the average hamming distance of the matched query blocks to their
+		 *         closest block of the image
+		 */
+		public double getAverageDistance() {
+			double sum = 0;
+			for (int distance : distances.values()) {
+				sum += distance;
+			}
+			return distances.isEmpty() ? 0 : sum / distances.size();
+		}
+
+		/**
+		 * @return every matched query block mapped to the closest block of the image
+		 */
+		public Map<Block, Block> getPairs() {
+			return Collections.unmodifiableMap(pairs);
+		}
+
+		@Override
+		public String toString() {
+			return "Match [id=" + id + ", matchedBlocks=" + pairs.size() + "/" + queryBlocks + ", averageDistance=" + getAverageDistance() + "]";
+		}
+	}
+
+}
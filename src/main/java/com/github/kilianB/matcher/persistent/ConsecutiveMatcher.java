@@ -1,12 +1,16 @@
 package com.github.kilianB.matcher.persistent;
 
 import java.awt.image.BufferedImage;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 
 import com.github.kilianB.datastructures.tree.Result;
-import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.github.kilianB.matcher.QueryPlanner;
 import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.hash.HashArray;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 
 /**
@@ -14,6 +18,13 @@ import com.jstarcraft.dip.lsh.HashingAlgorithm;
  * similar images. The ConsecutiveMatcher keeps the hashes and buffered images
  * in cache.
  * 
+ * <p>
+ * Algorithms are evaluated in the order chosen by a {@link QueryPlanner}. Only
+ * the first algorithm searches it's binary tree. If hashes are cached the
+ * remaining candidates are verified against the cached hashes of the following
+ * algorithms, otherwise the trees of the following algorithms are searched and
+ * intersected.
+ * 
  * @author Kilian
  *
  */
@@ -36,39 +47,157 @@ public class ConsecutiveMatcher extends PersitentBinaryTreeMatcher {
 
 	private static final long serialVersionUID = 831914616034052308L;
 
-	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, String uniqueId) {
+	/** Inverted so matchers serialized before planning existed enable it */
+	private boolean queryPlanningDisabled;
+
+	/** Statistics are not persisted and collected anew after deserialization */
+	private transient volatile QueryPlanner planner;
+
+	@Override
+	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
 
 		if (steps.isEmpty())
 			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
 
-		PriorityQueue<Result<String>> returnValues = null;
+		QueryPlanner planner = queryPlanningDisabled ? null : getQueryPlanner();
+		List<HashingAlgorithm> plan = planner == null ? new ArrayList<>(steps.keySet()) : planner.plan(steps.keySet());
+
+		// Only the first step has to search the tree
+		HashingAlgorithm first = plan.get(0);
+		Hash needleHash = getHash(planner, first, uniqueId, image, hashes);
+		int threshold = threshold(steps.get(first), needleHash);
+		List<Result<Integer>> survivors = new ArrayList<>(binTreeMap.get(first).getElementsWithinHammingDistance(needleHash, threshold));
+		return verify(planner, plan, survivors, image, hashes, uniqueId);
+	}
+
+	/**
+	 * Hashes all images using the first algorithm of the plan and searches its
+	 * binary tree for all images in a single traversal. The remaining algorithms
+	 * are applied to each image individually.
+	 */
+	@Override
+	protected List<PriorityQueue<Result<String>>> getMatchingImagesInternal(List<BufferedImage> images) {
+
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
+
+		List<PriorityQueue<Result<String>>> matches = new ArrayList<>(images.size());
+		if (images.isEmpty()) {
+			return matches;
+		}
+
+		QueryPlanner planner = queryPlanningDisabled ? null : getQueryPlanner();
+		List<HashingAlgorithm> plan = planner == null ? new ArrayList<>(steps.keySet()) : planner.plan(steps.keySet());
+
+		HashingAlgorithm first = plan.get(0);
+		List<Hash> needleHashes = new ArrayList<>(images.size());
+		for (BufferedImage image : images) {
+			needleHashes.add(getHash(planner, first, null, image, null));
+		}
+		int threshold = threshold(steps.get(first), needleHashes.get(0));
+		List<PriorityQueue<Result<Integer>>> candidates = binTreeMap.get(first).getElementsWithinHammingDistance(needleHashes, threshold);
+		for (int i = 0; i < images.size(); i++) {
+			matches.add(verify(planner, plan, new ArrayList<>(candidates.get(i)), images.get(i), null, null));
+		}
+		return matches;
+	}
+
+	/**
+	 * Apply the remaining algorithms of the plan to the candidates found by the
+	 * first algorithm
+	 */
+	private PriorityQueue<Result<String>> verify(QueryPlanner planner, List<HashingAlgorithm> plan, List<Result<Integer>> survivors, BufferedImage image,
+			Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
 
-		for (Entry<HashingAlgorithm, AlgoSettings> entry : steps.entrySet()) {
-			HashingAlgorithm algo = entry.getKey();
+		// Results carry the distance of the last added algorithm regardless of the
+		// evaluation order
+		HashingAlgorithm reportingAlgo = null;
+		for (HashingAlgorithm algo : steps.keySet()) {
+			reportingAlgo = algo;
+		}
 
-			BinaryTree<String> binTree = binTreeMap.get(algo);
-			AlgoSettings settings = entry.getValue();
+		if (planner != null) {
+			planner.recordSelectivity(plan.get(0), addedImages.size(), survivors.size());
+		}
 
-			Hash needleHash = getHash(algo, uniqueId, image);
+		for (int step = 1; step < plan.size() && !survivors.isEmpty(); step++) {
+			HashingAlgorithm algo = plan.get(step);
+			Hash needleHash = getHash(planner, algo, uniqueId, image, hashes);
+			int threshold = threshold(steps.get(algo), needleHash);
 
-			int threshold = 0;
-			if (settings.isNormalized()) {
-				int hashLength = needleHash.getBitResolution();
-				threshold = (int) Math.round(settings.getThreshold() * hashLength);
+			int candidates = survivors.size();
+			if (cacheAddedHashes) {
+				// Verify the remaining candidates against their cached hashes
+				HashArray cache = cachedHashes.get(algo);
+				long[] needle = cache.pack(needleHash);
+				List<Result<Integer>> temp = new ArrayList<>(survivors.size());
+				for (Result<Integer> survivor : survivors) {
+					int distance = cache.hammingDistance(survivor.value, needle);
+					if (distance <= threshold) {
+						temp.add(algo == reportingAlgo ? new Result<>(survivor.value, distance, distance / (double) needleHash.getBitResolution()) : survivor);
+					}
+				}
+				survivors = temp;
 			} else {
-				threshold = (int) settings.getThreshold();
+				PriorityQueue<Result<Integer>> temp = binTreeMap.get(algo).getElementsWithinHammingDistance(needleHash, threshold);
+				if (algo == reportingAlgo) {
+					temp.retainAll(new HashSet<>(survivors));
+					survivors = new ArrayList<>(temp);
+				} else {
+					survivors.retainAll(new HashSet<>(temp));
+				}
+			}
+			if (planner != null) {
+				planner.recordSelectivity(algo, candidates, survivors.size());
 			}
+		}
+		return resolve(survivors);
+	}
 
-			PriorityQueue<Result<String>> temp = binTree.getElementsWithinHammingDistance(needleHash, threshold);
+	private Hash getHash(QueryPlanner planner, HashingAlgorithm algo, String uniqueId, BufferedImage image, Map<HashingAlgorithm, Hash> hashes) {
+		long start = System.nanoTime();
+		Hash hash = getHash(algo, uniqueId, image, hashes);
+		if (planner != null && image != null) {
+			planner.recordCost(algo, System.nanoTime() - start);
+		}
+		return hash;
+	}
 
-			if (returnValues == null) {
-				returnValues = temp;
-			} else {
-				temp.retainAll(returnValues);
-				returnValues = temp;
+	private static int threshold(AlgoSettings settings, Hash hash) {
+		if (settings.isNormalized()) {
+			return (int) Math.round(settings.getThreshold() * hash.getBitResolution());
+		}
+		return (int) settings.getThreshold();
+	}
+
+	/**
+	 * Order the hashing algorithms by their observed cost and selectivity instead
+	 * of their insertion order. Enabled by default. The matched images are
+	 * independent of the order.
+	 * 
+	 * @param queryPlanning true to let the {@link QueryPlanner} order the
+	 *                      algorithms
+	 * @since 3.0.0
+	 */
+	public void setQueryPlanning(boolean queryPlanning) {
+		this.queryPlanningDisabled = !queryPlanning;
+	}
+
+	/**
+	 * @return the planner collecting the statistics of the hashing algorithms
+	 * @since 3.0.0
+	 */
+	public QueryPlanner getQueryPlanner() {
+		QueryPlanner planner = this.planner;
+		if (planner == null) {
+			synchronized (this) {
+				if (this.planner == null) {
+					this.planner = new QueryPlanner();
+				}
+				planner = this.planner;
 			}
 		}
-		return returnValues;
+		return planner;
 	}
 
 	// Don't keep a reference to the image so the garbage collector can release it
@@ -2,12 +2,13 @@ package com.github.kilianB.matcher.persistent;
 
 import java.awt.image.BufferedImage;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.PriorityQueue;
 
 import com.github.kilianB.MathUtil;
+import com.github.kilianB.datastructures.IntDoubleHashMap;
 import com.github.kilianB.datastructures.tree.Result;
 import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
 import com.jstarcraft.dip.hash.Hash;
@@ -168,7 +169,7 @@ public class CumulativeMatcher extends PersitentBinaryTreeMatcher {
 	}
 
 	@Override
-	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, String uniqueId) {
+	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
 
 		if (steps.isEmpty())
 			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
@@ -177,28 +178,22 @@ public class CumulativeMatcher extends PersitentBinaryTreeMatcher {
 		// more images
 		double maxDistanceUntilTermination = overallSetting.getThreshold();
 
-		// [Result,Summed distance of the image]
-		HashMap<Result<String>, Double> distanceMap = new HashMap<>();
+		// [Interned id, summed distance of the image]
+		IntDoubleHashMap distanceMap = new IntDoubleHashMap();
+
+		// [Interned id, distance reported by the last evaluated algorithm]
+		IntDoubleHashMap lastDistanceMap = new IntDoubleHashMap();
 
 		// During first iteration we need to do some extra hoops
 		boolean first = true;
 
-		// https://stackoverflow.com/a/31401836/3244464 TODO jmh benchmark
-		float optimalLoadFactor = (float) Math.log(2);
-
 		// For each hashing algorithm
 		for (Entry<HashingAlgorithm, AlgoSettings> entry : steps.entrySet()) {
 			HashingAlgorithm algo = entry.getKey();
 
-			HashMap<Result<String>, Double> temporaryMap;
-
-			BinaryTree<String> binTree = binTreeMap.get(algo);
-
-			// Init temporary hashmap
-			int optimalCapacity = (int) (Math.ceil((first ? binTree.getHashCount() : distanceMap.size()) / optimalLoadFactor) + 1);
-			temporaryMap = new HashMap<>(optimalCapacity, optimalLoadFactor);
+			BinaryTree<Integer> binTree = binTreeMap.get(algo);
 
-			Hash needleHash = getHash(algo, uniqueId, image);
+			Hash needleHash = getHash(algo, uniqueId, image, hashes);
 
 			int bitRes = algo.getKeyResolution();
 
@@ -211,40 +206,42 @@ public class CumulativeMatcher extends PersitentBinaryTreeMatcher {
 				threshold = (int) maxDistanceUntilTermination;
 			}
 
-			PriorityQueue<Result<String>> temp = binTree.getElementsWithinHammingDistance(needleHash, threshold);
+			PriorityQueue<Result<Integer>> temp = binTree.getElementsWithinHammingDistance(needleHash, threshold);
+
+			IntDoubleHashMap temporaryMap = new IntDoubleHashMap(first ? temp.size() : distanceMap.size());
+			IntDoubleHashMap temporaryDistanceMap = new IntDoubleHashMap(first ? temp.size() : distanceMap.size());
 
 			// Find the min total distance for the next generation to specify our cutoff
 			// parameter
 			double minDistance = Double.MAX_VALUE;
 
 			// filter manually
-			for (Result<String> res : temp) {
+			for (Result<Integer> res : temp) {
 
+				int id = res.value;
 				double normalDistance = entry.getValue().getThreshold() * (res.distance / (double) bitRes);
 
-				// Initially seed hashmap
+				// Initially seed map
 				if (first) {
 					// Add all
-					// System.out.printf("Distance: %.3f | %s %n", normalDistance, res.toString());
-					temporaryMap.put(res, normalDistance);
+					temporaryMap.put(id, normalDistance);
+					temporaryDistanceMap.put(id, res.distance);
 					if (normalDistance < minDistance) {
 						minDistance = normalDistance;
 					}
 				} else {
 					// Second third hash
-					if (distanceMap.containsKey(res)) {
+					double distance = distanceMap.get(id, -1);
+					if (distance >= 0) {
 
 						// update distance left until considered invalid
-						double distanceSoFar = distanceMap.get(res) + normalDistance;
+						double distanceSoFar = distance + normalDistance;
 						double distanceLeft = overallSetting.getThreshold() - distanceSoFar;
 
-						// System.out.printf("Distance: %.3f | dLeft: %.3f distSoFar: %.3f %s %n",
-						// normalDistance,
-						// distanceLeft, distanceSoFar, res.toString());
-
 						if (distanceLeft > 0) {
 							// Update distance
-							temporaryMap.put(res, distanceSoFar);
+							temporaryMap.put(id, distanceSoFar);
+							temporaryDistanceMap.put(id, res.distance);
 							if (distanceSoFar < minDistance) {
 								minDistance = distanceSoFar;
 							}
@@ -255,6 +252,7 @@ public class CumulativeMatcher extends PersitentBinaryTreeMatcher {
 			}
 
 			distanceMap = temporaryMap;
+			lastDistanceMap = temporaryDistanceMap;
 
 			if (first) {
 				first = false;
@@ -275,11 +273,11 @@ public class CumulativeMatcher extends PersitentBinaryTreeMatcher {
 			}
 		});
 
-		for (Entry<Result<String>, Double> e : distanceMap.entrySet()) {
-			Result<String> matchedImage = e.getKey();
-			matchedImage.normalizedHammingDistance = e.getValue();
-			returnValues.add(matchedImage);
-		}
+		// Translate the interned ids back at the api boundary
+		IntDoubleHashMap lastDistances = lastDistanceMap;
+		distanceMap.forEach((id, distance) -> {
+			returnValues.add(new Result<>(addedImages.get(id), lastDistances.get(id, 0), distance));
+		});
 		return returnValues;
 	}
 
@@ -0,0 +1,460 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.concurrency.NamedThreadFactory;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Keeps a {@link PersistentImageMatcher} in sync with the content of a
+ * directory. Instead of rescanning the entire directory only files which were
+ * created, modified or deleted are hashed and added to or removed from the
+ * matcher.
+ *
+ * <p>
+ * Changes are detected using the {@link WatchService} of the file system. If
+ * the file system does not support watching directories, or polling was
+ * requested explicitly via {@link #setPolling(long)}, the directory is scanned
+ * periodically and compared against the previous scan instead.
+ *
+ * <p>
+ * Copying or writing a file usually triggers a burst of events. Events are
+ * debounced: a file is only processed once no event was observed for it during
+ * the debounce interval. Files are identified by their absolute path, the same
+ * unique id {@link PersistentImageMatcher#addImage(File)} uses. A modified
+ * file replaces the hashes of the previous version.
+ *
+ * <p>
+ * The matcher is modified while holding it's monitor. Queries issued while the
+ * watcher is running have to synchronize on the matcher as well.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class DirectoryWatcher implements PlainAutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class.getSimpleName());
+
+	/** Polling interval used if the file system can not be watched */
+	private static final long DEFAULT_POLLING_INTERVAL = 1000;
+
+	private final PersistentImageMatcher matcher;
+
+	private final Path directory;
+
+	private final boolean recursive;
+
+	/** Debounce interval in nano seconds */
+	private final long debounce;
+
+	/** Polling interval in milliseconds. 0 to use a watch service */
+	private long pollingInterval = 0;
+
+	private Predicate<Path> filter = path -> true;
+
+	/** Files with pending changes mapped to the time they may be processed */
+	private final Map<Path, Long> pending = new ConcurrentHashMap<>();
+
+	/** Files indexed by this watcher. Guarded by itself */
+	private final Set<Path> indexed = new HashSet<>();
+
+	/** Last modification and size of every file during the last poll */
+	private Map<Path, Long> snapshot;
+
+	private WatchService watchService;
+
+	private ScheduledExecutorService scheduler;
+
+	private Thread watchThread;
+
+	private final LongAdder added = new LongAdder();
+
+	private final LongAdder updated = new LongAdder();
+
+	private final LongAdder removed = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * Watch the files directly located in the directory with a debounce interval of
+	 * 500 ms.
+	 *
+	 * @param matcher   the matcher to keep in sync
+	 * @param directory the directory to watch
+	 */
+	public DirectoryWatcher(PersistentImageMatcher matcher, File directory) {
+		this(matcher, directory, false, 500);
+	}
+
+	/**
+	 * @param matcher        the matcher to keep in sync
+	 * @param directory      the directory to watch
+	 * @param recursive      if true sub directories are watched as well
+	 * @param debounceMillis the time in milliseconds a file has to stay unchanged
+	 *                       before it is processed
+	 * @throws IllegalArgumentException if the directory is not a directory or the
+	 *                                  debounce interval is negative
+	 */
+	public DirectoryWatcher(PersistentImageMatcher matcher, File directory, boolean recursive, long debounceMillis) {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(directory + " is not a directory");
+		}
+		if (debounceMillis < 0) {
+			throw new IllegalArgumentException("Debounce interval may not be negative");
+		}
+		this.matcher = Objects.requireNonNull(matcher, "Matcher may not be null");
+		this.directory = directory.toPath().toAbsolutePath();
+		this.recursive = recursive;
+		this.debounce = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+	}
+
+	/**
+	 * Detect changes by periodically scanning the directory instead of using the
+	 * watch service of the file system.
+	 *
+	 * @param intervalMillis the polling interval in milliseconds. 0 to use the
+	 *                       watch service if available.
+	 * @throws IllegalArgumentException if the interval is negative
+	 * @throws IllegalStateException    if the watcher was already started
+	 */
+	public void setPolling(long intervalMillis) {
+		if (intervalMillis < 0) {
+			throw new IllegalArgumentException("Polling interval may not be negative");
+		}
+		checkNotStarted();
+		this.pollingInterval = intervalMillis;
+	}
+
+	/**
+	 * Only process files accepted by the filter, e.g. to restrict the watcher to
+	 * certain file extensions.
+	 *
+	 * @param filter accepting the paths of files to index
+	 * @throws IllegalStateException if the watcher was already started
+	 */
+	public void setFilter(Predicate<Path> filter) {
+		checkNotStarted();
+		this.filter = Objects.requireNonNull(filter, "Filter may not be null");
+	}
+
+	/**
+	 * Start watching the directory.
+	 *
+	 * @param synchronize if true files of the directory which are not yet part of
+	 *                    the matcher are added. Otherwise only changes from now on
+	 *                    are processed.
+	 * @throws IOException           if the directory can not be read
+	 * @throws IllegalStateException if the watcher was already started or the
+	 *                               matcher has no hashing algorithm
+	 */
+	public synchronized void start(boolean synchronize) throws IOException {
+		checkNotStarted();
+		if (matcher.getAlgorithms().isEmpty()) {
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to watching a directory");
+		}
+
+		Map<Path, Long> files = scan();
+		for (Path file : files.keySet()) {
+			if (matcher.containsImage(getUniqueId(file))) {
+				indexed.add(file);
+			} else if (synchronize) {
+				pending.put(file, System.nanoTime());
+			}
+		}
+
+		if (pollingInterval == 0) {
+			try {
+				watchService = directory.getFileSystem().newWatchService();
+				register(directory);
+			} catch (UnsupportedOperationException | IOException e) {
+				LOGGER.info("Watching " + directory + " is not supported. Fall back to polling: " + e);
+				if (watchService != null) {
+					watchService.close();
+					watchService = null;
+				}
+				pollingInterval = DEFAULT_POLLING_INTERVAL;
+			}
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("directory-watcher", true));
+		long tick = Math.max(10, Math.min(TimeUnit.NANOSECONDS.toMillis(debounce), 100));
+		scheduler.scheduleWithFixedDelay(this::flush, 0, tick, TimeUnit.MILLISECONDS);
+
+		if (watchService != null) {
+			watchThread = new NamedThreadFactory("directory-watcher-events", true).newThread(this::watch);
+			watchThread.start();
+		} else {
+			snapshot = files;
+			scheduler.scheduleWithFixedDelay(this::poll, pollingInterval, pollingInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void checkNotStarted() {
+		if (scheduler != null) {
+			throw new IllegalStateException("The watcher was already started");
+		}
+	}
+
+	/**
+	 * Register the directory (and all sub directories if recursive) with the watch
+	 * service.
+	 */
+	private void register(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root, recursive ? Integer.MAX_VALUE : 0)) {
+			Iterator<Path> iterator = paths.filter(Files::isDirectory).iterator();
+			while (iterator.hasNext()) {
+				iterator.next().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+			}
+		}
+	}
+
+	/**
+	 * @return all files in the directory mapped to a fingerprint of their last
+	 *         modification time and size
+	 */
+	private Map<Path, Long> scan() throws IOException {
+		Map<Path, Long> files = new HashMap<>();
+		try (Stream<Path> paths = Files.walk(directory, recursive ? Integer.MAX_VALUE : 1)) {
+			Iterator<Path> iterator = paths.filter(Files::isRegularFile).iterator();
+			while (iterator.hasNext()) {
+				Path file = iterator.next();
+				try {
+					files.put(file, Files.getLastModifiedTime(file).toMillis() * 31 + Files.size(file));
+				} catch (IOException e) {
+					// Deleted in the meantime
+				}
+			}
+		}
+		return files;
+	}
+
+	private void mark(Path file) {
+		pending.put(file, System.nanoTime() + debounce);
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Path parent = (Path) key.watchable();
+				try {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						try {
+							handle(parent, event);
+						} catch (ClosedWatchServiceException e) {
+							throw e;
+						} catch (IOException | RuntimeException e) {
+							// E.g. a directory deleted again before it could be registered
+							LOGGER.warning("Failed to handle " + event.context() + " in " + parent + ": " + e);
+						}
+					}
+				} finally {
+					key.reset();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Watcher closed
+		}
+	}
+
+	private void handle(Path parent, WatchEvent<?> event) throws IOException {
+		if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+			// Events were lost. Check every known file
+			for (Path file : scan().keySet()) {
+				mark(file);
+			}
+			synchronized (indexed) {
+				for (Path file : indexed) {
+					mark(file);
+				}
+			}
+			return;
+		}
+		Path path = parent.resolve((Path) event.context());
+		if (recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+			// Files may have been created before the directory was registered
+			register(path);
+			try (Stream<Path> paths = Files.walk(path)) {
+				paths.filter(Files::isRegularFile).forEach(this::mark);
+			}
+		} else {
+			mark(path);
+		}
+	}
+
+	private void poll() {
+		try {
+			Map<Path, Long> current = scan();
+			for (Entry<Path, Long> entry : current.entrySet()) {
+				if (!entry.getValue().equals(snapshot.get(entry.getKey()))) {
+					mark(entry.getKey());
+				}
+			}
+			for (Path file : snapshot.keySet()) {
+				if (!current.containsKey(file)) {
+					mark(file);
+				}
+			}
+			snapshot = current;
+		} catch (IOException | RuntimeException e) {
+			// Files.walk reports failures while iterating as UncheckedIOException
+			LOGGER.warning("Failed to poll " + directory + ": " + e);
+		}
+	}
+
+	/**
+	 * Process all files whose debounce interval elapsed
+	 */
+	private void flush() {
+		long now = System.nanoTime();
+		for (Entry<Path, Long> entry : pending.entrySet()) {
+			// Only remove the entry if no new event arrived in the meantime
+			if (entry.getValue() - now <= 0 && pending.remove(entry.getKey(), entry.getValue())) {
+				try {
+					process(entry.getKey());
+				} catch (RuntimeException e) {
+					// A throwing task would cancel all further executions of the flush
+					LOGGER.warning("Failed to process " + entry.getKey() + ": " + e);
+					failed.increment();
+				}
+			}
+		}
+	}
+
+	private void process(Path path) {
+		String uniqueId = getUniqueId(path);
+		try {
+			if (Files.isRegularFile(path)) {
+				if (!filter.test(path)) {
+					return;
+				}
+				// Hash outside of the lock
+				Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(path.toFile());
+				boolean replaced;
+				synchronized (matcher) {
+					replaced = matcher.removeImage(uniqueId);
+					matcher.addHashes(uniqueId, hashes);
+				}
+				(replaced ? updated : added).increment();
+				synchronized (indexed) {
+					indexed.add(path);
+				}
+			} else if (!Files.exists(path)) {
+				synchronized (indexed) {
+					// A deleted directory takes all files located in it along
+					Iterator<Path> iterator = indexed.iterator();
+					while (iterator.hasNext()) {
+						Path file = iterator.next();
+						if (file.startsWith(path)) {
+							iterator.remove();
+							if (!file.equals(path)) {
+								mark(file);
+							}
+						}
+					}
+				}
+				synchronized (matcher) {
+					if (matcher.removeImage(uniqueId)) {
+						removed.increment();
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.warning("Failed to index " + path + ": " + e);
+			failed.increment();
+		}
+	}
+
+	private static String getUniqueId(Path path) {
+		return path.toFile().getAbsolutePath();
+	}
+
+	/**
+	 * @return the number of files waiting for their debounce interval to elapse
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the number of new files added to the matcher
+	 */
+	public long getAdded() {
+		return added.sum();
+	}
+
+	/**
+	 * @return the number of modified files whose hashes were replaced
+	 */
+	public long getUpdated() {
+		return updated.sum();
+	}
+
+	/**
+	 * @return the number of deleted files removed from the matcher
+	 */
+	public long getRemoved() {
+		return removed.sum();
+	}
+
+	/**
+	 * @return the number of files which could not be indexed
+	 */
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/**
+	 * @return true if polling is used to detect changes. Only meaningful after the
+	 *         watcher was started
+	 */
+	public boolean isPolling() {
+		return watchService == null;
+	}
+
+	/**
+	 * Stop watching the directory. Pending changes are discarded.
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOGGER.warning("Failed to close watch service: " + e);
+			}
+		}
+		if (watchThread != null) {
+			watchThread.interrupt();
+		}
+	}
+
+}
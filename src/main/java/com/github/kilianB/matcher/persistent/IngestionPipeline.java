@@ -0,0 +1,484 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.Require;
+import com.github.kilianB.concurrency.NamedThreadFactory;
+import com.github.kilianB.datastructures.ConcurrentRingBuffer;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Adds images to a {@link PersistentImageMatcher} by processing them in
+ * concurrent stages instead of reading, decoding, hashing and indexing one
+ * image after another on the calling thread.
+ *
+ * <pre>
+ * submit -&gt; READ -&gt; DECODE -&gt; HASH -&gt; INDEX
+ * </pre>
+ *
+ * <ul>
+ * <li><b>READ</b> reads the content of the file into memory (io bound)</li>
+ * <li><b>DECODE</b> decodes the image honoring the subsampled decoding setting
+ * of the matcher</li>
+ * <li><b>HASH</b> hashes the image with every algorithm of the matcher. Image
+ * converters are bound to the individual algorithms and are applied as part
+ * of hashing</li>
+ * <li><b>INDEX</b> commits batches of hashes into the matcher on a single
+ * thread</li>
+ * </ul>
+ *
+ * <p>
+ * Every stage is served by it's own pool of worker threads and stages are
+ * connected by bounded {@link ConcurrentRingBuffer}s. If a stage falls behind
+ * the queue in front of it fills up and the previous stage blocks, eventually
+ * blocking {@link #submit(File)}. This keeps the number of images held in
+ * memory bounded.
+ *
+ * <p>
+ * Throughput and latency of each stage are tracked in
+ * {@link StageStatistics}. Images which fail in any stage are skipped and
+ * reported by {@link #getFailures()}.
+ *
+ * <p>
+ * The matcher is modified while holding it's monitor. Queries issued while the
+ * pipeline is running have to synchronize on the matcher as well.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class IngestionPipeline implements PlainAutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(IngestionPipeline.class.getSimpleName());
+
+	/**
+	 * The stages an image passes through
+	 */
+	public enum Stage {
+		READ, DECODE, HASH, INDEX
+	}
+
+	/**
+	 * An image travelling through the pipeline. Intermediate results are released
+	 * as soon as the next stage is done with them.
+	 */
+	private static class Task {
+		private final String uniqueId;
+		private final File file;
+		private byte[] data;
+		private BufferedImage image;
+		private Map<HashingAlgorithm, Hash> hashes;
+
+		Task(String uniqueId, File file) {
+			this.uniqueId = uniqueId;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * Throughput and latency counters of a single stage. Counters are updated
+	 * concurrently and may be read at any time.
+	 */
+	public static class StageStatistics {
+
+		private final Stage stage;
+
+		private final long startNanos;
+
+		private final LongAdder processed = new LongAdder();
+
+		private final LongAdder failed = new LongAdder();
+
+		private final LongAdder busyNanos = new LongAdder();
+
+		private final BlockingQueue<Task> queue;
+
+		StageStatistics(Stage stage, long startNanos, BlockingQueue<Task> queue) {
+			this.stage = stage;
+			this.startNanos = startNanos;
+			this.queue = queue;
+		}
+
+		void record(long nanos, int items, int failures) {
+			busyNanos.add(nanos);
+			processed.add(items - failures);
+			failed.add(failures);
+		}
+
+		/**
+		 * @return the stage the statistics belong to
+		 */
+		public Stage getStage() {
+			return stage;
+		}
+
+		/**
+		 * @return the number of images successfully processed by this stage
+		 */
+		public long getProcessed() {
+			return processed.sum();
+		}
+
+		/**
+		 * @return the number of images which failed in this stage
+		 */
+		public long getFailed() {
+			return failed.sum();
+		}
+
+		/**
+		 * @return the number of images waiting to be processed by this stage
+		 */
+		public int getQueued() {
+			return queue.size();
+		}
+
+		/**
+		 * @return the number of images processed per second since the pipeline was
+		 *         created
+		 */
+		public double getThroughput() {
+			double seconds = (System.nanoTime() - startNanos) / 1e9;
+			return (getProcessed() + getFailed()) / seconds;
+		}
+
+		/**
+		 * @return the mean time in milliseconds a worker spent on a single image.
+		 *         Waiting time in the queues is not included.
+		 */
+		public double getAverageLatency() {
+			long count = getProcessed() + getFailed();
+			return count == 0 ? 0 : busyNanos.sum() / 1e6 / count;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s [processed=%d, failed=%d, queued=%d, throughput=%.1f/s, latency=%.3fms]", stage, getProcessed(), getFailed(), getQueued(), getThroughput(), getAverageLatency());
+		}
+	}
+
+	private final PersistentImageMatcher matcher;
+
+	private final int batchSize;
+
+	private final Map<Stage, BlockingQueue<Task>> queues = new EnumMap<>(Stage.class);
+
+	private final Map<Stage, StageStatistics> statistics = new EnumMap<>(Stage.class);
+
+	private final List<ExecutorService> pools = new ArrayList<>();
+
+	private final Map<String, Throwable> failures = new ConcurrentHashMap<>();
+
+	/** Guards submitted and completed */
+	private final Object completionLock = new Object();
+
+	private long submitted;
+
+	private long completed;
+
+	private volatile boolean closed;
+
+	/**
+	 * Create a pipeline with 2 reading threads, one decoding and hashing thread per
+	 * available processor, a queue capacity of 64 images per stage and batches of
+	 * up to 32 images.
+	 *
+	 * @param matcher the matcher to add the images to
+	 */
+	public IngestionPipeline(PersistentImageMatcher matcher) {
+		this(matcher, 2, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 64, 32);
+	}
+
+	/**
+	 * Create a pipeline.
+	 *
+	 * @param matcher       the matcher to add the images to
+	 * @param readThreads   number of threads reading files
+	 * @param decodeThreads number of threads decoding images
+	 * @param hashThreads   number of threads hashing images
+	 * @param queueCapacity the maximum number of images waiting in front of each
+	 *                      stage, rounded up to the next power of two
+	 * @param batchSize     the maximum number of images committed to the matcher
+	 *                      at once
+	 * @throws IllegalArgumentException if any of the numeric arguments is not
+	 *                                  positive
+	 */
+	public IngestionPipeline(PersistentImageMatcher matcher, int readThreads, int decodeThreads, int hashThreads, int queueCapacity, int batchSize) {
+		this.matcher = Objects.requireNonNull(matcher, "Matcher may not be null");
+		Require.positiveValue(readThreads, "Read threads have to be positive");
+		Require.positiveValue(decodeThreads, "Decode threads have to be positive");
+		Require.positiveValue(hashThreads, "Hash threads have to be positive");
+		Require.positiveValue(queueCapacity, "Queue capacity has to be positive");
+		this.batchSize = Require.positiveValue(batchSize, "Batch size has to be positive");
+
+		long start = System.nanoTime();
+		for (Stage stage : Stage.values()) {
+			BlockingQueue<Task> queue = new ConcurrentRingBuffer<>(queueCapacity);
+			queues.put(stage, queue);
+			statistics.put(stage, new StageStatistics(stage, start, queue));
+		}
+
+		startStage(Stage.READ, readThreads, Stage.DECODE, task -> {
+			task.data = Files.readAllBytes(task.file.toPath());
+		});
+		startStage(Stage.DECODE, decodeThreads, Stage.HASH, task -> {
+			if (matcher.hasCustomDecoding()) {
+				// The algorithms decode the data themselves
+				task.hashes = matcher.computeHashes(task.data);
+			} else {
+				task.image = matcher.readImage(task.data);
+				if (task.image == null) {
+					throw new IOException("No registered reader is able to decode " + task.file);
+				}
+			}
+			task.data = null;
+		});
+		startStage(Stage.HASH, hashThreads, Stage.INDEX, task -> {
+			if (task.hashes == null) {
+				task.hashes = matcher.computeHashes(task.image);
+				task.image = null;
+			}
+		});
+
+		// Single writer committing batches
+		ExecutorService indexPool = Executors.newSingleThreadExecutor(new NamedThreadFactory("ingestion-" + Stage.INDEX.name().toLowerCase(), true));
+		pools.add(indexPool);
+		indexPool.execute(() -> index(indexPool));
+	}
+
+	@FunctionalInterface
+	private interface StageFunction {
+		void apply(Task task) throws Exception;
+	}
+
+	private void startStage(Stage stage, int threads, Stage next, StageFunction function) {
+		BlockingQueue<Task> input = queues.get(stage);
+		BlockingQueue<Task> output = queues.get(next);
+		StageStatistics stats = statistics.get(stage);
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new NamedThreadFactory("ingestion-" + stage.name().toLowerCase(), true));
+		pools.add(pool);
+		for (int i = 0; i < threads; i++) {
+			pool.execute(() -> work(pool, input, output, stats, function));
+		}
+	}
+
+	private void work(ExecutorService pool, BlockingQueue<Task> input, BlockingQueue<Task> output, StageStatistics stats, StageFunction function) {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Task task = input.take();
+				long start = System.nanoTime();
+				try {
+					function.apply(task);
+				} catch (Throwable e) {
+					stats.record(System.nanoTime() - start, 1, 1);
+					fail(task, e);
+					if (e instanceof Error) {
+						// The task is accounted for. Keep the stage at full strength
+						replaceWorker(pool, () -> work(pool, input, output, stats, function));
+						throw (Error) e;
+					}
+					continue;
+				}
+				stats.record(System.nanoTime() - start, 1, 0);
+				output.put(task);
+			}
+		} catch (InterruptedException e) {
+			// Pipeline closed
+		}
+	}
+
+	private void index(ExecutorService pool) {
+		BlockingQueue<Task> input = queues.get(Stage.INDEX);
+		StageStatistics stats = statistics.get(Stage.INDEX);
+		List<Task> batch = new ArrayList<>(batchSize);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				// Wait for the first image and commit whatever else is ready
+				batch.add(input.take());
+				input.drainTo(batch, batchSize - 1);
+				long start = System.nanoTime();
+				int failed = 0;
+				Error error = null;
+				synchronized (matcher) {
+					for (Task task : batch) {
+						try {
+							matcher.addHashes(task.uniqueId, task.hashes);
+						} catch (Throwable e) {
+							failures.put(task.uniqueId, e);
+							failed++;
+							if (e instanceof Error && error == null) {
+								error = (Error) e;
+							}
+						}
+					}
+				}
+				stats.record(System.nanoTime() - start, batch.size(), failed);
+				complete(batch.size());
+				batch.clear();
+				if (error != null) {
+					// Only pass the error on once the batch is accounted for
+					replaceWorker(pool, () -> index(pool));
+					throw error;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Pipeline closed
+		}
+	}
+
+	private static void replaceWorker(ExecutorService pool, Runnable worker) {
+		try {
+			// Picked up by the thread replacing the one about to terminate
+			pool.execute(worker);
+		} catch (RejectedExecutionException e) {
+			// Pipeline closed
+		}
+	}
+
+	private void fail(Task task, Throwable e) {
+		LOGGER.fine("Failed to add " + task.file + ": " + e);
+		failures.put(task.uniqueId, e);
+		complete(1);
+	}
+
+	private void complete(int count) {
+		synchronized (completionLock) {
+			completed += count;
+			if (completed == submitted) {
+				completionLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Queue the image to be added to the matcher using it's absolute path as
+	 * unique id. Blocks if the pipeline is saturated.
+	 *
+	 * @param imageFile the image file
+	 * @throws InterruptedException if interrupted while waiting for space in the
+	 *                              pipeline
+	 * @see #submit(String, File)
+	 */
+	public void submit(File imageFile) throws InterruptedException {
+		submit(imageFile.getAbsolutePath(), imageFile);
+	}
+
+	/**
+	 * Queue the image to be added to the matcher. Blocks if the pipeline is
+	 * saturated.
+	 *
+	 * @param uniqueId  a unique identifier returned if querying for the image
+	 * @param imageFile the image file
+	 * @throws InterruptedException     if interrupted while waiting for space in
+	 *                                  the pipeline
+	 * @throws IllegalStateException    if the pipeline was closed or the matcher
+	 *                                  has no hashing algorithm
+	 * @throws IllegalArgumentException if the file is not a regular file
+	 */
+	public void submit(String uniqueId, File imageFile) throws InterruptedException {
+		if (closed) {
+			throw new IllegalStateException("The pipeline was already closed");
+		}
+		if (matcher.getAlgorithms().isEmpty()) {
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to adding images");
+		}
+		if (!imageFile.isFile()) {
+			throw new IllegalArgumentException("Please make sure you add an image to the matcher. Directories are not supported");
+		}
+		synchronized (completionLock) {
+			submitted++;
+		}
+		queues.get(Stage.READ).put(new Task(uniqueId, imageFile));
+	}
+
+	/**
+	 * Block until every image submitted so far was either added to the matcher or
+	 * failed.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		synchronized (completionLock) {
+			while (completed < submitted) {
+				completionLock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Block until every image submitted so far was either added to the matcher or
+	 * failed or the timeout elapsed.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of the timeout
+	 * @return true if all images are processed, false if the timeout elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (completionLock) {
+			while (completed < submitted) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(completionLock, remaining);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param stage the stage
+	 * @return the throughput and latency counters of the stage
+	 */
+	public StageStatistics getStatistics(Stage stage) {
+		return statistics.get(stage);
+	}
+
+	/**
+	 * @return the unique ids of images which could not be added mapped to the
+	 *         cause
+	 */
+	public Map<String, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Wait for all submitted images to be processed and stop the worker threads.
+	 * Images which are still in flight if the calling thread is interrupted are
+	 * discarded.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for (ExecutorService pool : pools) {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+}
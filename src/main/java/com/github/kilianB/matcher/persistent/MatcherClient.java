@@ -0,0 +1,412 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.concurrency.NamedThreadFactory;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.persistent.MatcherProtocol.FrameWriter;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Client of a {@link MatcherServer}. The methods mirror the methods of the
+ * {@link PersistentImageMatcher} served, images are passed as the content of
+ * an image file and decoded by the server. Matches are returned as list in the
+ * order the queue of the matcher ranked them, since the ordering of the queue
+ * is not transmitted.
+ *
+ * <p>
+ * Every operation is available as asynchronous method returning a future. The
+ * request is sent immediately, further requests can be sent before the response
+ * arrived. Requests sent over the same client are executed by the server in
+ * the order they were sent. The client is thread safe.
+ *
+ * <p>
+ * Errors raised by the matcher complete the future with an
+ * {@link IllegalArgumentException} or {@link IllegalStateException}, any other
+ * failure including a lost connection with an {@link IOException}.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class MatcherClient implements PlainAutoCloseable {
+
+	private final SocketChannel channel;
+
+	/** Futures of requests waiting for their response by request id */
+	private final Map<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextRequestId = new AtomicInteger();
+
+	/** Cause of the closed connection. Guards against sending further requests */
+	private volatile IOException failure;
+
+	private final Object writeLock = new Object();
+
+	/**
+	 * Connect to a server listening on the loopback interface.
+	 *
+	 * @param port the port of the server
+	 * @throws IOException if the connection can not be established
+	 */
+	public MatcherClient(int port) throws IOException {
+		this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * @param address the address of the server
+	 * @throws IOException if the connection can not be established
+	 */
+	public MatcherClient(InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+		new NamedThreadFactory("matcher-client", true).newThread(this::receive).start();
+	}
+
+	/**
+	 * Add an image to the matcher.
+	 *
+	 * @param uniqueId     a unique identifier describing the image
+	 * @param encodedImage the content of an image file
+	 * @return a future completing once the image was added
+	 */
+	public CompletableFuture<Void> addImageAsync(String uniqueId, byte[] encodedImage) {
+		Objects.requireNonNull(uniqueId, "Unique id may not be null");
+		Objects.requireNonNull(encodedImage, "Image may not be null");
+		return send(MatcherProtocol.ADD_IMAGE, (out) -> {
+			MatcherProtocol.writeString(out.data, uniqueId);
+			MatcherProtocol.writeBytes(out.data, encodedImage);
+		}).thenApply((response) -> null);
+	}
+
+	/**
+	 * Add an image to the matcher.
+	 *
+	 * @param uniqueId     a unique identifier describing the image
+	 * @param encodedImage the content of an image file
+	 * @throws IOException if the request failed
+	 */
+	public void addImage(String uniqueId, byte[] encodedImage) throws IOException {
+		await(addImageAsync(uniqueId, encodedImage));
+	}
+
+	/**
+	 * Add an image file to the matcher.
+	 *
+	 * @param uniqueId  a unique identifier describing the image
+	 * @param imageFile the image file
+	 * @throws IOException if the file can not be read or the request failed
+	 */
+	public void addImage(String uniqueId, File imageFile) throws IOException {
+		addImage(uniqueId, Files.readAllBytes(imageFile.toPath()));
+	}
+
+	/**
+	 * Add hashes which were computed beforehand. The hashes are matched to the
+	 * hashing algorithms of the server by their algorithm id.
+	 *
+	 * @param uniqueId a unique identifier describing the image
+	 * @param hashes   the hashes of the image mapped to the algorithm that created
+	 *                 them
+	 * @return a future completing once the hashes were added
+	 */
+	public CompletableFuture<Void> addHashesAsync(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+		Objects.requireNonNull(uniqueId, "Unique id may not be null");
+		return send(MatcherProtocol.ADD_HASHES, (out) -> {
+			MatcherProtocol.writeString(out.data, uniqueId);
+			MatcherProtocol.writeHashes(out.data, hashes.values());
+		}).thenApply((response) -> null);
+	}
+
+	/**
+	 * Add hashes which were computed beforehand. The hashes are matched to the
+	 * hashing algorithms of the server by their algorithm id.
+	 *
+	 * @param uniqueId a unique identifier describing the image
+	 * @param hashes   the hashes of the image mapped to the algorithm that created
+	 *                 them
+	 * @throws IOException if the request failed
+	 */
+	public void addHashes(String uniqueId, Map<HashingAlgorithm, Hash> hashes) throws IOException {
+		await(addHashesAsync(uniqueId, hashes));
+	}
+
+	/**
+	 * @param uniqueId the unique id the image was added with
+	 * @return a future completing with true if the image was removed
+	 */
+	public CompletableFuture<Boolean> removeImageAsync(String uniqueId) {
+		Objects.requireNonNull(uniqueId, "Unique id may not be null");
+		return send(MatcherProtocol.REMOVE_IMAGE, (out) -> MatcherProtocol.writeString(out.data, uniqueId))
+				.thenApply((response) -> response.get() != 0);
+	}
+
+	/**
+	 * @param uniqueId the unique id the image was added with
+	 * @return true if the image was removed, false if no image with the id was
+	 *         found
+	 * @throws IOException if the request failed
+	 */
+	public boolean removeImage(String uniqueId) throws IOException {
+		return await(removeImageAsync(uniqueId));
+	}
+
+	/**
+	 * @param uniqueId the unique id of an image
+	 * @return a future completing with true if the image was added to the matcher
+	 */
+	public CompletableFuture<Boolean> containsImageAsync(String uniqueId) {
+		Objects.requireNonNull(uniqueId, "Unique id may not be null");
+		return send(MatcherProtocol.CONTAINS_IMAGE, (out) -> MatcherProtocol.writeString(out.data, uniqueId))
+				.thenApply((response) -> response.get() != 0);
+	}
+
+	/**
+	 * @param uniqueId the unique id of an image
+	 * @return true if the image was added to the matcher
+	 * @throws IOException if the request failed
+	 */
+	public boolean containsImage(String uniqueId) throws IOException {
+		return await(containsImageAsync(uniqueId));
+	}
+
+	/**
+	 * @param encodedImage the content of an image file
+	 * @return a future completing with the matching images in the order ranked
+	 *         by the matcher
+	 */
+	public CompletableFuture<List<Result<String>>> getMatchingImagesAsync(byte[] encodedImage) {
+		Objects.requireNonNull(encodedImage, "Image may not be null");
+		return send(MatcherProtocol.QUERY_IMAGE, (out) -> MatcherProtocol.writeBytes(out.data, encodedImage))
+				.thenApply(MatcherProtocol::readResults);
+	}
+
+	/**
+	 * @param encodedImage the content of an image file
+	 * @return the matching images in the order ranked by the matcher
+	 * @throws IOException if the request failed
+	 */
+	public List<Result<String>> getMatchingImages(byte[] encodedImage) throws IOException {
+		return await(getMatchingImagesAsync(encodedImage));
+	}
+
+	/**
+	 * @param imageFile the image file
+	 * @return the matching images in the order ranked by the matcher
+	 * @throws IOException if the file can not be read or the request failed
+	 */
+	public List<Result<String>> getMatchingImages(File imageFile) throws IOException {
+		return getMatchingImages(Files.readAllBytes(imageFile.toPath()));
+	}
+
+	/**
+	 * Search using hashes which were computed beforehand. Sending hashes instead
+	 * of images keeps requests small and moves the hashing to the client.
+	 *
+	 * @param hashes the hashes of the image mapped to the algorithm that created
+	 *               them
+	 * @return a future completing with the matching images in the order ranked
+	 *         by the matcher
+	 */
+	public CompletableFuture<List<Result<String>>> getMatchingImagesAsync(Map<HashingAlgorithm, Hash> hashes) {
+		return send(MatcherProtocol.QUERY_HASHES, (out) -> MatcherProtocol.writeHashes(out.data, hashes.values()))
+				.thenApply(MatcherProtocol::readResults);
+	}
+
+	/**
+	 * Search using hashes which were computed beforehand.
+	 *
+	 * @param hashes the hashes of the image mapped to the algorithm that created
+	 *               them
+	 * @return the matching images in the order ranked by the matcher
+	 * @throws IOException if the request failed
+	 */
+	public List<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes) throws IOException {
+		return await(getMatchingImagesAsync(hashes));
+	}
+
+	/**
+	 * Search multiple images using a single request. The server may share work
+	 * between the images, see
+	 * {@link PersitentBinaryTreeMatcher#getMatchingImages(java.util.Collection)}.
+	 *
+	 * @param encodedImages the content of image files
+	 * @return a future completing with the matches of each image in the order of
+	 *         the list
+	 */
+	public CompletableFuture<List<List<Result<String>>>> getMatchingImagesAsync(List<byte[]> encodedImages) {
+		for (byte[] encodedImage : encodedImages) {
+			Objects.requireNonNull(encodedImage, "Images may not be null");
+		}
+		return send(MatcherProtocol.QUERY_IMAGES, (out) -> {
+			out.data.writeInt(encodedImages.size());
+			for (byte[] encodedImage : encodedImages) {
+				MatcherProtocol.writeBytes(out.data, encodedImage);
+			}
+		}).thenApply((response) -> {
+			int count = MatcherProtocol.readCount(response);
+			List<List<Result<String>>> results = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				results.add(MatcherProtocol.readResults(response));
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Search multiple images using a single request.
+	 *
+	 * @param encodedImages the content of image files
+	 * @return the matches of each image in the order of the list
+	 * @throws IOException if the request failed
+	 */
+	public List<List<Result<String>>> getMatchingImages(List<byte[]> encodedImages) throws IOException {
+		return await(getMatchingImagesAsync(encodedImages));
+	}
+
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	public int getPendingCount() {
+		return pending.size();
+	}
+
+	private CompletableFuture<ByteBuffer> send(byte operation, Encoder payload) {
+		int requestId = nextRequestId.incrementAndGet();
+		CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+		try {
+			FrameWriter frame = new FrameWriter(requestId, operation);
+			payload.write(frame);
+			ByteBuffer buffer = frame.toBuffer();
+			pending.put(requestId, future);
+			// The receiver fails pending requests after setting the failure
+			if (failure != null) {
+				throw failure;
+			}
+			synchronized (writeLock) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+		} catch (IOException e) {
+			pending.remove(requestId);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private void receive() {
+		ByteBuffer header = ByteBuffer.allocate(4);
+		try {
+			while (true) {
+				header.clear();
+				readFully(header);
+				int length = header.getInt(0);
+				if (length < MatcherProtocol.HEADER_LENGTH) {
+					throw new IOException("Invalid frame length " + length);
+				}
+				ByteBuffer frame = ByteBuffer.allocate(length);
+				readFully(frame);
+				frame.flip();
+				int requestId = frame.getInt();
+				byte status = frame.get();
+				CompletableFuture<ByteBuffer> future = pending.remove(requestId);
+				if (future == null) {
+					throw new IOException("Received response to unknown request " + requestId);
+				}
+				switch (status) {
+				case MatcherProtocol.OK:
+					future.complete(frame);
+					break;
+				case MatcherProtocol.ILLEGAL_ARGUMENT:
+					future.completeExceptionally(new IllegalArgumentException(MatcherProtocol.readString(frame)));
+					break;
+				case MatcherProtocol.ILLEGAL_STATE:
+					future.completeExceptionally(new IllegalStateException(MatcherProtocol.readString(frame)));
+					break;
+				default:
+					future.completeExceptionally(new IOException("Server failed to execute the request: " + MatcherProtocol.readString(frame)));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			fail(e instanceof IOException ? (IOException) e : new IOException(e));
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed by the server");
+			}
+		}
+	}
+
+	private void fail(IOException cause) {
+		if (failure == null) {
+			failure = cause;
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Closing anyways
+		}
+		for (Integer requestId : pending.keySet()) {
+			CompletableFuture<ByteBuffer> future = pending.remove(requestId);
+			if (future != null) {
+				future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the response");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Close the connection. Requests waiting for their response fail.
+	 */
+	@Override
+	public void close() {
+		fail(new IOException("The client was closed"));
+	}
+
+	@FunctionalInterface
+	private interface Encoder {
+		void write(FrameWriter frame) throws IOException;
+	}
+
+}
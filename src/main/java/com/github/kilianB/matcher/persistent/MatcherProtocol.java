@@ -0,0 +1,197 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+
+/**
+ * Binary protocol spoken between the {@link MatcherServer} and the
+ * {@link MatcherClient}.
+ *
+ * <p>
+ * Every message is a frame consisting of a big endian int holding the length of
+ * the remaining frame, an int request id and a byte. The byte of a request is
+ * the operation, the byte of a response the status. Responses carry the id of
+ * the request they answer, allowing clients to send further requests before
+ * the previous ones were answered.
+ *
+ * <pre>
+ * string  := int length, utf-8 bytes
+ * bytes   := int length, bytes
+ * hash    := int algorithm id, int bit resolution, bytes value
+ * hashes  := int count, hash*
+ * results := int count, (string id, double distance, double normalized distance)*
+ * </pre>
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+final class MatcherProtocol {
+
+	/** Request: string id, bytes image. Response: empty */
+	static final byte ADD_IMAGE = 1;
+
+	/** Request: string id, hashes. Response: empty */
+	static final byte ADD_HASHES = 2;
+
+	/** Request: string id. Response: byte removed */
+	static final byte REMOVE_IMAGE = 3;
+
+	/** Request: string id. Response: byte contained */
+	static final byte CONTAINS_IMAGE = 4;
+
+	/** Request: bytes image. Response: results */
+	static final byte QUERY_IMAGE = 5;
+
+	/** Request: hashes. Response: results */
+	static final byte QUERY_HASHES = 6;
+
+	/** Request: int count, bytes image*. Response: int count, results* */
+	static final byte QUERY_IMAGES = 7;
+
+	static final byte OK = 0;
+
+	/** Response: string message */
+	static final byte ILLEGAL_ARGUMENT = 1;
+
+	/** Response: string message */
+	static final byte ILLEGAL_STATE = 2;
+
+	/** Response: string message */
+	static final byte FAILURE = 3;
+
+	/** Length of the request id and operation following the frame length */
+	static final int HEADER_LENGTH = 5;
+
+	static final int DEFAULT_MAX_FRAME_LENGTH = 64 << 20;
+
+	private MatcherProtocol() {
+	}
+
+	/**
+	 * Collects a single frame. The frame length is filled in once the frame is
+	 * complete.
+	 */
+	static final class FrameWriter extends ByteArrayOutputStream {
+
+		final DataOutputStream data = new DataOutputStream(this);
+
+		FrameWriter(int requestId, byte code) {
+			super(64);
+			count = 4;
+			try {
+				data.writeInt(requestId);
+				data.writeByte(code);
+			} catch (IOException e) {
+				// Can not happen for in memory streams
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * @return the frame including it's length without copying the content
+		 */
+		ByteBuffer toBuffer() {
+			int length = count - 4;
+			buf[0] = (byte) (length >>> 24);
+			buf[1] = (byte) (length >>> 16);
+			buf[2] = (byte) (length >>> 8);
+			buf[3] = (byte) length;
+			return ByteBuffer.wrap(buf, 0, count);
+		}
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String readString(ByteBuffer in) {
+		return new String(readBytes(in), StandardCharsets.UTF_8);
+	}
+
+	static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	static byte[] readBytes(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new IllegalArgumentException("Invalid length " + length);
+		}
+		byte[] value = new byte[length];
+		in.get(value);
+		return value;
+	}
+
+	static void writeHashes(DataOutputStream out, Collection<Hash> hashes) throws IOException {
+		out.writeInt(hashes.size());
+		for (Hash hash : hashes) {
+			out.writeInt(hash.getAlgorithmId());
+			out.writeInt(hash.getBitResolution());
+			writeBytes(out, hash.toByteArray());
+		}
+	}
+
+	static List<Hash> readHashes(ByteBuffer in) {
+		int count = readCount(in);
+		List<Hash> hashes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			int algorithmId = in.getInt();
+			int bitResolution = in.getInt();
+			hashes.add(new Hash(new BigInteger(1, readBytes(in)), bitResolution, algorithmId));
+		}
+		return hashes;
+	}
+
+	/**
+	 * Write the results in the order of the queue. The queue is emptied.
+	 */
+	static void writeResults(DataOutputStream out, PriorityQueue<Result<String>> results) throws IOException {
+		out.writeInt(results.size());
+		while (!results.isEmpty()) {
+			Result<String> result = results.poll();
+			writeString(out, result.value);
+			out.writeDouble(result.distance);
+			out.writeDouble(result.normalizedHammingDistance);
+		}
+	}
+
+	/**
+	 * Read the results in the order they were written. The order of the matcher
+	 * is kept, which may differ from the natural order of the results.
+	 */
+	static List<Result<String>> readResults(ByteBuffer in) {
+		int count = readCount(in);
+		List<Result<String>> results = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			String value = readString(in);
+			double distance = in.getDouble();
+			results.add(new Result<>(value, distance, in.getDouble()));
+		}
+		return results;
+	}
+
+	/**
+	 * Read an element count. Every element takes at least 4 bytes, bounding the
+	 * count by the remaining bytes before allocating anything.
+	 */
+	static int readCount(ByteBuffer in) {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / 4) {
+			throw new IllegalArgumentException("Invalid count " + count);
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,637 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.Require;
+import com.github.kilianB.concurrency.NamedThreadFactory;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.persistent.MatcherProtocol.FrameWriter;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Serves a single {@link PersistentImageMatcher} to other processes, allowing
+ * multiple JVMs to share one index instead of each holding a copy. Clients
+ * connect using a {@link MatcherClient}, see {@link MatcherProtocol} for the
+ * wire format.
+ *
+ * <p>
+ * A single selector thread accepts connections and reads and writes frames
+ * without blocking. Requests are executed on a pool of worker threads.
+ * Requests of one connection are executed in the order they were sent, a
+ * client may send further requests before the previous ones were answered.
+ * Requests of different connections are executed concurrently: queries share
+ * a read lock, additions and removals take the write lock. Images are decoded
+ * and hashed before acquiring the lock.
+ *
+ * <p>
+ * While the server is running it has to be the only one modifying the
+ * matcher. By default the server only listens on the loopback interface.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class MatcherServer implements PlainAutoCloseable {
+
+	private static final Logger LOGGER = Logger.getLogger(MatcherServer.class.getSimpleName());
+
+	/** Unanswered requests of a connection after which reading from it pauses */
+	private static final int MAX_PIPELINED = 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
+	private final PersistentImageMatcher matcher;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int workerThreads = Runtime.getRuntime().availableProcessors();
+
+	private int maxFrameLength = MatcherProtocol.DEFAULT_MAX_FRAME_LENGTH;
+
+	private long maxPendingBytes = 2L * MatcherProtocol.DEFAULT_MAX_FRAME_LENGTH;
+
+	private ServerSocketChannel serverChannel;
+
+	private Selector selector;
+
+	private ExecutorService workers;
+
+	private Thread selectorThread;
+
+	private volatile boolean running;
+
+	/** Connections with responses waiting to be written by the selector thread */
+	private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger connectionCount = new AtomicInteger();
+
+	private final LongAdder requestCount = new LongAdder();
+
+	private final LongAdder failedCount = new LongAdder();
+
+	/**
+	 * @param matcher the matcher to serve. Hashing algorithms have to be added
+	 *                before starting the server.
+	 */
+	public MatcherServer(PersistentImageMatcher matcher) {
+		this.matcher = Objects.requireNonNull(matcher, "Matcher may not be null");
+	}
+
+	/**
+	 * @param workerThreads the number of threads executing requests. Defaults to
+	 *                      the number of available processors.
+	 * @throws IllegalArgumentException if the number is not positive
+	 * @throws IllegalStateException    if the server was already started
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		checkNotStarted();
+		this.workerThreads = Require.positiveValue(workerThreads, "The number of worker threads has to be positive");
+	}
+
+	/**
+	 * Connections sending larger frames are closed. Defaults to 64 MB.
+	 *
+	 * @param maxFrameLength the maximum length of a request in bytes
+	 * @throws IllegalArgumentException if the length is too small to hold a
+	 *                                  request
+	 * @throws IllegalStateException    if the server was already started
+	 */
+	public void setMaxFrameLength(int maxFrameLength) {
+		checkNotStarted();
+		if (maxFrameLength < MatcherProtocol.HEADER_LENGTH) {
+			throw new IllegalArgumentException("The maximum frame length has to be at least " + MatcherProtocol.HEADER_LENGTH);
+		}
+		this.maxFrameLength = maxFrameLength;
+	}
+
+	/**
+	 * Reading from a connection pauses while the requests and responses it has in
+	 * flight occupy more bytes. A single frame is always accepted, therefore a
+	 * connection may exceed the limit by at most one frame. Defaults to 128 MB.
+	 *
+	 * @param maxPendingBytes the maximum number of bytes a connection may have in
+	 *                        flight
+	 * @throws IllegalArgumentException if the number is not positive
+	 * @throws IllegalStateException    if the server was already started
+	 */
+	public void setMaxPendingBytes(long maxPendingBytes) {
+		checkNotStarted();
+		if (maxPendingBytes <= 0) {
+			throw new IllegalArgumentException("The maximum number of pending bytes has to be positive");
+		}
+		this.maxPendingBytes = maxPendingBytes;
+	}
+
+	/**
+	 * Listen on the loopback interface.
+	 *
+	 * @param port the port or 0 to pick a free port, see {@link #getPort()}
+	 * @throws IOException           if the port can not be bound
+	 * @throws IllegalStateException if the server was already started
+	 */
+	public void start(int port) throws IOException {
+		start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+	}
+
+	/**
+	 * @param address the address to listen on
+	 * @throws IOException           if the address can not be bound
+	 * @throws IllegalStateException if the server was already started
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		checkNotStarted();
+		selector = Selector.open();
+		try {
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			if (serverChannel != null) {
+				serverChannel.close();
+			}
+			selector.close();
+			selector = null;
+			throw e;
+		}
+		workers = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("matcher-server-worker", true));
+		running = true;
+		selectorThread = new NamedThreadFactory("matcher-server", true).newThread(this::select);
+		selectorThread.start();
+	}
+
+	private void checkNotStarted() {
+		if (selector != null) {
+			throw new IllegalStateException("The server was already started");
+		}
+	}
+
+	/**
+	 * @return the address the server listens on
+	 * @throws IllegalStateException if the server was not started
+	 */
+	public InetSocketAddress getAddress() {
+		if (serverChannel == null) {
+			throw new IllegalStateException("The server was not started");
+		}
+		return new InetSocketAddress(serverChannel.socket().getInetAddress(), serverChannel.socket().getLocalPort());
+	}
+
+	/**
+	 * @return the port the server listens on
+	 * @throws IllegalStateException if the server was not started
+	 */
+	public int getPort() {
+		return getAddress().getPort();
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	public int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	/**
+	 * @return the number of requests received
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * @return the number of requests answered with an error
+	 */
+	public long getFailedCount() {
+		return failedCount.sum();
+	}
+
+	private void select() {
+		try {
+			while (running) {
+				selector.select();
+				Connection pending;
+				while ((pending = writable.poll()) != null) {
+					pending.flush();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						try {
+							accept();
+						} catch (IOException e) {
+							LOGGER.warning("Failed to accept connection: " + e);
+						}
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					if (key.isReadable()) {
+						connection.read();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.flush();
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			if (running) {
+				LOGGER.severe("Matcher server stopped: " + e);
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// Closing anyways
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Closing anyways
+			}
+			connectionCount.set(0);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+			connectionCount.incrementAndGet();
+		}
+	}
+
+	private ByteBuffer handle(ByteBuffer request) {
+		int requestId = request.getInt();
+		byte operation = request.get();
+		FrameWriter response = new FrameWriter(requestId, MatcherProtocol.OK);
+		try {
+			switch (operation) {
+			case MatcherProtocol.ADD_IMAGE: {
+				String uniqueId = MatcherProtocol.readString(request);
+				Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(MatcherProtocol.readBytes(request));
+				add(uniqueId, hashes);
+				break;
+			}
+			case MatcherProtocol.ADD_HASHES: {
+				String uniqueId = MatcherProtocol.readString(request);
+				add(uniqueId, toAlgorithms(MatcherProtocol.readHashes(request)));
+				break;
+			}
+			case MatcherProtocol.REMOVE_IMAGE: {
+				String uniqueId = MatcherProtocol.readString(request);
+				response.data.writeBoolean(locked(lock.writeLock(), () -> matcher.removeImage(uniqueId)));
+				break;
+			}
+			case MatcherProtocol.CONTAINS_IMAGE: {
+				String uniqueId = MatcherProtocol.readString(request);
+				response.data.writeBoolean(locked(lock.readLock(), () -> matcher.containsImage(uniqueId)));
+				break;
+			}
+			case MatcherProtocol.QUERY_IMAGE: {
+				byte[] data = MatcherProtocol.readBytes(request);
+				if (matcher.hasCustomDecoding()) {
+					Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(data);
+					MatcherProtocol.writeResults(response.data, locked(lock.readLock(), () -> matcher.getMatchingImages(hashes)));
+				} else {
+					BufferedImage image = decode(data);
+					MatcherProtocol.writeResults(response.data, locked(lock.readLock(), () -> matcher.getMatchingImages(image)));
+				}
+				break;
+			}
+			case MatcherProtocol.QUERY_HASHES: {
+				Map<HashingAlgorithm, Hash> hashes = toAlgorithms(MatcherProtocol.readHashes(request));
+				MatcherProtocol.writeResults(response.data, locked(lock.readLock(), () -> matcher.getMatchingImages(hashes)));
+				break;
+			}
+			case MatcherProtocol.QUERY_IMAGES: {
+				int count = MatcherProtocol.readCount(request);
+				List<PriorityQueue<Result<String>>> results;
+				if (matcher.hasCustomDecoding()) {
+					List<Map<HashingAlgorithm, Hash>> hashes = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						hashes.add(matcher.computeHashes(MatcherProtocol.readBytes(request)));
+					}
+					results = locked(lock.readLock(), () -> queryHashes(hashes));
+				} else {
+					List<BufferedImage> images = new ArrayList<>(count);
+					for (int i = 0; i < count; i++) {
+						images.add(decode(MatcherProtocol.readBytes(request)));
+					}
+					results = locked(lock.readLock(), () -> query(images));
+				}
+				response.data.writeInt(results.size());
+				for (PriorityQueue<Result<String>> result : results) {
+					MatcherProtocol.writeResults(response.data, result);
+				}
+				break;
+			}
+			default:
+				throw new IllegalArgumentException("Unknown operation " + operation);
+			}
+			return response.toBuffer();
+		} catch (IllegalArgumentException | BufferUnderflowException e) {
+			return error(requestId, MatcherProtocol.ILLEGAL_ARGUMENT, e);
+		} catch (IllegalStateException e) {
+			return error(requestId, MatcherProtocol.ILLEGAL_STATE, e);
+		} catch (Throwable e) {
+			// Errors such as running out of memory while decoding fail the request only
+			LOGGER.warning("Failed to execute request " + requestId + ": " + e);
+			return error(requestId, MatcherProtocol.FAILURE, e);
+		}
+	}
+
+	private ByteBuffer error(int requestId, byte status, Throwable e) {
+		failedCount.increment();
+		FrameWriter response = new FrameWriter(requestId, status);
+		try {
+			MatcherProtocol.writeString(response.data, e.getMessage() == null ? e.toString() : e.getMessage());
+		} catch (IOException ioException) {
+			// Can not happen for in memory streams
+		}
+		return response.toBuffer();
+	}
+
+	private BufferedImage decode(byte[] data) throws IOException {
+		BufferedImage image = matcher.readImage(data);
+		if (image == null) {
+			throw new IllegalArgumentException("No registered reader is able to decode the image");
+		}
+		return image;
+	}
+
+	/**
+	 * Map the hashes to the hashing algorithms of the matcher sharing their id
+	 */
+	private Map<HashingAlgorithm, Hash> toAlgorithms(List<Hash> hashes) {
+		Map<Integer, HashingAlgorithm> algorithms = new HashMap<>();
+		for (HashingAlgorithm algorithm : matcher.getAlgorithms().keySet()) {
+			algorithms.put(algorithm.algorithmId(), algorithm);
+		}
+		Map<HashingAlgorithm, Hash> mapped = new HashMap<>();
+		for (Hash hash : hashes) {
+			HashingAlgorithm algorithm = algorithms.get(hash.getAlgorithmId());
+			if (algorithm == null) {
+				throw new IllegalArgumentException("The matcher has no hashing algorithm with id " + hash.getAlgorithmId());
+			}
+			mapped.put(algorithm, hash);
+		}
+		return mapped;
+	}
+
+	private static <T> T locked(Lock lock, Supplier<T> action) {
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void add(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+		lock.writeLock().lock();
+		try {
+			matcher.addHashes(uniqueId, hashes);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private List<PriorityQueue<Result<String>>> query(List<BufferedImage> images) {
+		if (matcher instanceof PersitentBinaryTreeMatcher) {
+			// Share the tree traversal between the images
+			return ((PersitentBinaryTreeMatcher) matcher).getMatchingImages(images);
+		}
+		List<PriorityQueue<Result<String>>> results = new ArrayList<>(images.size());
+		for (BufferedImage image : images) {
+			results.add(matcher.getMatchingImages(image));
+		}
+		return results;
+	}
+
+	private List<PriorityQueue<Result<String>>> queryHashes(List<Map<HashingAlgorithm, Hash>> hashes) {
+		List<PriorityQueue<Result<String>>> results = new ArrayList<>(hashes.size());
+		for (Map<HashingAlgorithm, Hash> imageHashes : hashes) {
+			results.add(matcher.getMatchingImages(imageHashes));
+		}
+		return results;
+	}
+
+	/**
+	 * Stop listening and close all connections. Requests currently executed are
+	 * completed but not answered.
+	 */
+	@Override
+	public synchronized void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+		try {
+			workers.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MatcherServer [running=" + running + ", connections=" + connectionCount + ", requests=" + requestCount + "]";
+	}
+
+	/**
+	 * State of a client connection. Reading, writing and changing the interest set
+	 * happens on the selector thread, requests are executed by at most one worker
+	 * at a time.
+	 */
+	private class Connection {
+
+		private final SocketChannel channel;
+
+		private final SelectionKey key;
+
+		private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+		/** Complete frames waiting to be executed */
+		private final Queue<ByteBuffer> requests = new ConcurrentLinkedQueue<>();
+
+		/** True while a worker is executing the requests */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+
+		/** Requests read whose response was not yet written. Selector thread only */
+		private int inFlight;
+
+		/** Bytes of the requests and responses in flight */
+		private final AtomicLong pendingBytes = new AtomicLong();
+
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		void read() {
+			try {
+				if (channel.read(input) < 0) {
+					close();
+					return;
+				}
+				input.flip();
+				int required = 0;
+				while (input.remaining() >= 4) {
+					int length = input.getInt(input.position());
+					if (length < MatcherProtocol.HEADER_LENGTH || length > maxFrameLength) {
+						throw new IOException("Invalid frame length " + length);
+					}
+					if (input.remaining() < 4 + length) {
+						required = 4 + length;
+						break;
+					}
+					byte[] frame = new byte[length];
+					input.position(input.position() + 4);
+					input.get(frame);
+					requests.add(ByteBuffer.wrap(frame));
+					pendingBytes.addAndGet(length);
+					inFlight++;
+					requestCount.increment();
+				}
+				input.compact();
+				if (required > input.capacity()) {
+					ByteBuffer larger = ByteBuffer.allocate(required);
+					input.flip();
+					larger.put(input);
+					input = larger;
+				}
+				if (!acceptsRequests()) {
+					// Apply back pressure until the responses were written
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				}
+				schedule();
+			} catch (IOException | CancelledKeyException e) {
+				close();
+			}
+		}
+
+		private void schedule() {
+			if (!requests.isEmpty() && scheduled.compareAndSet(false, true)) {
+				try {
+					workers.execute(this::execute);
+				} catch (RejectedExecutionException e) {
+					// Server closed
+				}
+			}
+		}
+
+		private boolean acceptsRequests() {
+			return inFlight < MAX_PIPELINED && pendingBytes.get() < maxPendingBytes;
+		}
+
+		private void execute() {
+			try {
+				ByteBuffer request;
+				while ((request = requests.poll()) != null) {
+					int length = request.capacity();
+					ByteBuffer response = handle(request);
+					pendingBytes.addAndGet(response.remaining() - length);
+					responses.add(response);
+					writable.add(this);
+					selector.wakeup();
+				}
+			} finally {
+				scheduled.set(false);
+				// A request may have arrived after the last poll
+				schedule();
+			}
+		}
+
+		void flush() {
+			if (!key.isValid()) {
+				return;
+			}
+			try {
+				ByteBuffer response;
+				while ((response = responses.peek()) != null) {
+					channel.write(response);
+					if (response.hasRemaining()) {
+						break;
+					}
+					responses.poll();
+					pendingBytes.addAndGet(-response.limit());
+					inFlight--;
+				}
+				int operations = key.interestOps();
+				operations = responses.isEmpty() ? operations & ~SelectionKey.OP_WRITE : operations | SelectionKey.OP_WRITE;
+				if (acceptsRequests()) {
+					operations |= SelectionKey.OP_READ;
+				}
+				key.interestOps(operations);
+			} catch (IOException | CancelledKeyException e) {
+				close();
+			}
+		}
+
+		void close() {
+			if (key.isValid()) {
+				connectionCount.decrementAndGet();
+			}
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Closing anyways
+			}
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.github.kilianB.matcher.persistent;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -10,7 +11,10 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
@@ -18,6 +22,7 @@ import javax.imageio.ImageIO;
 import com.github.kilianB.datastructures.tree.Result;
 import com.github.kilianB.matcher.TypedImageMatcher;
 import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashFamily;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 
 /**
@@ -48,6 +53,12 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 
 	protected HashMap<String, Hash> addedImageMap;
 
+	/** Source of the version stamps. Incremented on every modification */
+	private transient AtomicLong modifications = new AtomicLong();
+
+	/** Stamp of the last modification affecting the results of an algorithm */
+	private transient Map<HashingAlgorithm, Long> versions = new ConcurrentHashMap<>();
+
 	/**
 	 * Non args constructor for serialization
 	 */
@@ -64,14 +75,51 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	public void addHashingAlgorithm(HashingAlgorithm algo, double threshold, boolean normalized) {
 		checkLockedState();
 		super.addHashingAlgorithm(algo, threshold, normalized);
+		versions.put(algo, modifications.incrementAndGet());
+	}
+
+	@Override
+	public boolean removeHashingAlgo(HashingAlgorithm algo) {
+		versions.remove(algo);
+		return super.removeHashingAlgo(algo);
 	}
 
 	@Override
 	public void clearHashingAlgorithms() {
 		checkLockedState();
+		versions.clear();
 		super.clearHashingAlgorithms();
 	}
 
+	/**
+	 * Return a stamp changing whenever the results of queries involving the
+	 * algorithm may change, e.g. because images were added or removed. Allows to
+	 * cache query results and validate them later on, see {@link QueryCache}.
+	 * Stamps are never reused by the same matcher instance.
+	 * 
+	 * @param algo the hashing algorithm
+	 * @return the current stamp of the algorithm or -1 if the algorithm is not
+	 *         used by this matcher
+	 * @since 3.0.0
+	 */
+	public long getVersion(HashingAlgorithm algo) {
+		Long version = versions.get(algo);
+		return version == null ? -1 : version;
+	}
+
+	/**
+	 * Assign a new version stamp to every algorithm. Has to be called whenever the
+	 * results of future queries may differ from previous results.
+	 * 
+	 * @since 3.0.0
+	 */
+	protected void incrementVersions() {
+		long version = modifications.incrementAndGet();
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			versions.put(algorithm, version);
+		}
+	}
+
 	/**
 	 * Index the image. This enables the image matcher to find the image in future
 	 * searches. The database image matcher does not store the image data itself but
@@ -110,6 +158,10 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	 * The uniqueId has to be globally unique in order for this operation to return
 	 * deterministic results.
 	 * 
+	 * <p>
+	 * The file is decoded as configured by the hashing algorithms, e.g. by
+	 * {@link HashingAlgorithm#setSubsampledDecoding(int)}.
+	 * 
 	 * @param uniqueId  a unique identifier returned if querying for the image
 	 * @param imageFile The image whose hash will be added to the matcher
 	 * @throws IOException if an error exists reading the file
@@ -123,7 +175,11 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 			throw new IllegalArgumentException("Please make sure you add an image to the matcher. Directories are not supported");
 		}
 
-		addImage(uniqueId, ImageIO.read(imageFile));
+		if (hasCustomDecoding()) {
+			addHashes(uniqueId, computeHashes(imageFile));
+		} else {
+			addImage(uniqueId, readImage(imageFile));
+		}
 	}
 
 	/**
@@ -131,8 +187,9 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	 * 
 	 * <p>
 	 * <b>Implnote:</b> if this method is overwritten the class has to make sure
-	 * that the field {@link #lockedState} is correctly updated when ever an image
-	 * was added to the matcher.
+	 * that the field {@link #lockedState} is correctly updated and
+	 * {@link #incrementVersions()} is called when ever an image was added to the
+	 * matcher.
 	 * 
 	 * @param uniqueId a unique identifier describing the image
 	 * @param image    The image whose hash will be added to the matcher
@@ -140,6 +197,7 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	public void addImage(String uniqueId, BufferedImage image) {
 		addImageInternal(uniqueId, image);
 		lockedState = true;
+		incrementVersions();
 	}
 
 	/**
@@ -150,6 +208,193 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	 */
 	protected abstract void addImageInternal(String uniqueId, BufferedImage image);
 
+	/**
+	 * Index hashes which were computed beforehand, e.g. by an
+	 * {@link IngestionPipeline}. The hashes have to be created by the hashing
+	 * algorithms currently added to this matcher. See
+	 * {@link #computeHashes(BufferedImage)}.
+	 * 
+	 * @param uniqueId a unique identifier describing the image
+	 * @param hashes   the hashes of the image mapped to the algorithm that created
+	 *                 them
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 * @since 3.0.0
+	 */
+	public void addHashes(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			if (!hashes.containsKey(algorithm)) {
+				throw new IllegalArgumentException("Missing hash of algorithm " + algorithm);
+			}
+		}
+		addHashesInternal(uniqueId, hashes);
+		lockedState = true;
+		incrementVersions();
+	}
+
+	/**
+	 * Index the hashes of a {@link HashFamily}. The family has to contain every
+	 * hashing algorithm currently added to this matcher.
+	 * 
+	 * @param uniqueId a unique identifier describing the image
+	 * @param bundle   the hashes of the image created by a hash family
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 * @since 3.0.0
+	 */
+	public void addHashes(String uniqueId, HashFamily.Bundle bundle) {
+		addHashes(uniqueId, toHashes(bundle));
+	}
+
+	/**
+	 * @return the hashes of the bundle created by the algorithms of this matcher
+	 */
+	private Map<HashingAlgorithm, Hash> toHashes(HashFamily.Bundle bundle) {
+		Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			Hash hash = bundle.get(algorithm);
+			if (hash != null) {
+				hashes.put(algorithm, hash);
+			}
+		}
+		return hashes;
+	}
+
+	/**
+	 * Add the precomputed hashes to the image matcher.
+	 * 
+	 * @param uniqueId the unique id to refer to during lookup
+	 * @param hashes   the hashes of every hashing algorithm of this matcher
+	 * @since 3.0.0
+	 */
+	protected abstract void addHashesInternal(String uniqueId, Map<HashingAlgorithm, Hash> hashes);
+
+	/**
+	 * Remove a previously added image from the matcher. Future searches will not
+	 * return the image anymore.
+	 * 
+	 * @param uniqueId the unique id the image was added with
+	 * @return true if the image was removed, false if no image with the id was
+	 *         found
+	 * @since 3.0.0
+	 */
+	public boolean removeImage(String uniqueId) {
+		if (removeImageInternal(uniqueId)) {
+			incrementVersions();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the image from the image matcher.
+	 * 
+	 * @param uniqueId the unique id the image was added with
+	 * @return true if the image was removed
+	 * @since 3.0.0
+	 */
+	protected abstract boolean removeImageInternal(String uniqueId);
+
+	/**
+	 * Check if an image was added to this matcher.
+	 * 
+	 * @param uniqueId the unique id of the image
+	 * @return true if an image with the unique id is present
+	 * @since 3.0.0
+	 */
+	public abstract boolean containsImage(String uniqueId);
+
+	/**
+	 * Hash the image with every hashing algorithm of this matcher.
+	 * 
+	 * @param image the image to hash
+	 * @return the hashes mapped to the algorithm that created them
+	 * @since 3.0.0
+	 */
+	protected Map<HashingAlgorithm, Hash> computeHashes(BufferedImage image) {
+		Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			hashes.put(algorithm, algorithm.hash(image));
+		}
+		return hashes;
+	}
+
+	/**
+	 * Hash the image file with every hashing algorithm of this matcher honoring
+	 * the decoding settings of the algorithms. The file is decoded once for all
+	 * algorithms without a {@link HashingAlgorithm#hasCustomDecoding() custom
+	 * decoding}.
+	 * 
+	 * @param imageFile the image file to hash
+	 * @return the hashes mapped to the algorithm that created them
+	 * @throws IOException if an error occurs reading the file or no registered
+	 *                     reader is able to decode it
+	 * @since 3.0.0
+	 */
+	protected Map<HashingAlgorithm, Hash> computeHashes(File imageFile) throws IOException {
+		Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+		BufferedImage image = null;
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			if (algorithm.hasCustomDecoding()) {
+				hashes.put(algorithm, algorithm.hash(imageFile));
+				continue;
+			}
+			if (image == null) {
+				image = readImage(imageFile);
+				if (image == null) {
+					throw new IOException("No registered reader is able to decode " + imageFile);
+				}
+			}
+			hashes.put(algorithm, algorithm.hash(image));
+		}
+		return hashes;
+	}
+
+	/**
+	 * Hash the content of an image file with every hashing algorithm of this
+	 * matcher honoring the decoding settings of the algorithms, see
+	 * {@link #computeHashes(File)}.
+	 * 
+	 * @param data the content of the image file
+	 * @return the hashes mapped to the algorithm that created them
+	 * @throws IOException              if an error occurs decoding the data
+	 * @throws IllegalArgumentException if no registered reader is able to decode
+	 *                                  the data
+	 * @since 3.0.0
+	 */
+	protected Map<HashingAlgorithm, Hash> computeHashes(byte[] data) throws IOException {
+		Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+		BufferedImage image = null;
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			if (algorithm.hasCustomDecoding()) {
+				hashes.put(algorithm, algorithm.hash(data));
+				continue;
+			}
+			if (image == null) {
+				image = readImage(data);
+				if (image == null) {
+					throw new IllegalArgumentException("No registered reader is able to decode the image");
+				}
+			}
+			hashes.put(algorithm, algorithm.hash(image));
+		}
+		return hashes;
+	}
+
+	/**
+	 * @return true if any hashing algorithm of this matcher decodes image files on
+	 *         it's own, see {@link HashingAlgorithm#hasCustomDecoding()}
+	 * @since 3.0.0
+	 */
+	protected boolean hasCustomDecoding() {
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			if (algorithm.hasCustomDecoding()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Return a list of images that are considered matching by the definition of
 	 * this matcher.
@@ -160,7 +405,35 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	 * @throws IOException if an error occurs reading the file
 	 */
 	public PriorityQueue<Result<String>> getMatchingImages(File image) throws IOException {
-		return getMatchingImages(ImageIO.read(image));
+		if (hasCustomDecoding()) {
+			return getMatchingImages(computeHashes(image));
+		}
+		return getMatchingImages(readImage(image));
+	}
+
+	/**
+	 * Read the image file. Hashing algorithms with a custom decoding have to hash
+	 * the file itself, see {@link #computeHashes(File)}.
+	 * 
+	 * @param imageFile the file to read
+	 * @return the decoded image or null if the file could not be decoded
+	 * @throws IOException if an error occurs reading the file
+	 */
+	protected BufferedImage readImage(File imageFile) throws IOException {
+		return ImageIO.read(imageFile);
+	}
+
+	/**
+	 * Decode the content of an image file. Hashing algorithms with a custom
+	 * decoding have to hash the content itself, see {@link #computeHashes(byte[])}.
+	 * 
+	 * @param data the content of the image file
+	 * @return the decoded image or null if the data could not be decoded
+	 * @throws IOException if an error occurs decoding the data
+	 * @since 3.0.0
+	 */
+	protected BufferedImage readImage(byte[] data) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(data));
 	}
 
 	/**
@@ -174,6 +447,38 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	 */
 	public abstract PriorityQueue<Result<String>> getMatchingImages(BufferedImage image);
 
+	/**
+	 * Search for images matching the hashes computed beforehand, e.g. by
+	 * {@link #computeHashes(BufferedImage)}. Allows to search the same image in
+	 * multiple matchers using the same hashing algorithms without rehashing it.
+	 * 
+	 * @param hashes the hashes of the image mapped to the algorithm that created
+	 *               them
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 * @since 3.0.0
+	 */
+	public abstract PriorityQueue<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes);
+
+	/**
+	 * Search for images matching the hashes of a {@link HashFamily}. Images added
+	 * by {@link #addHashes(String, HashFamily.Bundle)} have to be queried with
+	 * hashes of the same family, as the smaller levels of a family differ from the
+	 * hashes created by the algorithms themselves.
+	 * 
+	 * @param bundle the hashes of the image created by a hash family
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 * @since 3.0.0
+	 */
+	public PriorityQueue<Result<String>> getMatchingImages(HashFamily.Bundle bundle) {
+		return getMatchingImages(toHashes(bundle));
+	}
+
 	/**
 	 * Serialize this image matcher to a file. Serialized matchers keep their
 	 * internal state and can be reconstructed at a later stage without needing to
@@ -236,6 +541,9 @@ public abstract class PersistentImageMatcher extends TypedImageMatcher implement
 	private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
 		ois.defaultReadObject();
 		this.steps = (LinkedHashMap<HashingAlgorithm, AlgoSettings>) ois.readObject();
+		this.modifications = new AtomicLong();
+		this.versions = new ConcurrentHashMap<>();
+		incrementVersions();
 	}
 
 }
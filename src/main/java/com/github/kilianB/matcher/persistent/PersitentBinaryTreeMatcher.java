@@ -3,16 +3,22 @@ package com.github.kilianB.matcher.persistent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.PriorityQueue;
 import java.util.logging.Logger;
 
+import com.github.kilianB.datastructures.IdDictionary;
 import com.github.kilianB.datastructures.tree.Result;
 import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.github.kilianB.datastructures.tree.binaryTree.IntBinaryTree;
 import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.hash.HashArray;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 
 /**
@@ -40,22 +46,30 @@ import com.jstarcraft.dip.lsh.HashingAlgorithm;
  */
 public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher {
 
-	private static final long serialVersionUID = -4650598803470549478L;
+	private static final long serialVersionUID = 6151873166160936610L;
 
 	private static final Logger LOGGER = Logger.getLogger(ConsecutiveMatcher.class.getSimpleName());
 
-	/** keep track of images already added. No reason to rehash */
-	protected HashSet<String> addedImages = new HashSet<>();
+	/**
+	 * Keep track of images already added. Unique ids are interned to dense ints
+	 * which are used by all internal data structures. Strings are only resolved
+	 * when results are returned.
+	 */
+	protected IdDictionary<String> addedImages = new IdDictionary<>();
 
-	/** Binary Tree holding results for each individual hashing algorithm */
-	protected HashMap<HashingAlgorithm, BinaryTree<String>> binTreeMap = new HashMap<>();
+	/**
+	 * Binary Tree holding the interned ids for each individual hashing algorithm.
+	 * The ids are kept unboxed in the leaves of an {@link IntBinaryTree}.
+	 */
+	protected HashMap<HashingAlgorithm, BinaryTree<Integer>> binTreeMap = new HashMap<>();
 
 	protected boolean cacheAddedHashes;
 
 	/**
-	 * Save the hashes of added images mapped to their unique id for fast retrieval.
+	 * Save the hashes of added images indexed by their interned id for fast
+	 * retrieval.
 	 */
-	protected Map<HashingAlgorithm, Map<String, Hash>> cachedHashes;
+	protected Map<HashingAlgorithm, HashArray> cachedHashes;
 
 	/**
 	 * TODO handle serialization empty constructor?
@@ -83,7 +97,7 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 		if (cacheAddedHashes && addedImages.contains(image.getAbsolutePath())) {
 			// Quick retrieval possible. We don't need to read the file since the hashes are
 			// cached
-			return getMatchingImagesInternal(null, image.getAbsolutePath());
+			return getMatchingImagesInternal((BufferedImage) null, image.getAbsolutePath());
 		} else {
 			return super.getMatchingImages(image);
 		}
@@ -94,6 +108,49 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 		return getMatchingImagesInternal(image, null);
 	}
 
+	@Override
+	public PriorityQueue<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes) {
+		for (HashingAlgorithm algorithm : steps.keySet()) {
+			if (!hashes.containsKey(algorithm)) {
+				throw new IllegalArgumentException("Missing hash of algorithm " + algorithm);
+			}
+		}
+		return getMatchingImagesInternal(hashes, null);
+	}
+
+	/**
+	 * Search the matches of multiple images at once. Matchers may share work
+	 * between the images, e.g. by traversing a binary tree once for all images
+	 * instead of once per image.
+	 * 
+	 * @param images the images to match
+	 * @return the matches of each image in the iteration order of the collection
+	 * @since 3.0.0
+	 */
+	public List<PriorityQueue<Result<String>>> getMatchingImages(Collection<BufferedImage> images) {
+		List<BufferedImage> batch = new ArrayList<>(images.size());
+		for (BufferedImage image : images) {
+			batch.add(Objects.requireNonNull(image, "Images may not be null"));
+		}
+		return getMatchingImagesInternal(batch);
+	}
+
+	/**
+	 * Return the matches of each image. The default implementation searches each
+	 * image individually.
+	 * 
+	 * @param images the images to match
+	 * @return the matches of each image in the order of the list
+	 * @since 3.0.0
+	 */
+	protected List<PriorityQueue<Result<String>>> getMatchingImagesInternal(List<BufferedImage> images) {
+		List<PriorityQueue<Result<String>>> matches = new ArrayList<>(images.size());
+		for (BufferedImage image : images) {
+			matches.add(getMatchingImagesInternal(image, (String) null));
+		}
+		return matches;
+	}
+
 	/**
 	 * Return a list of images that are considered matching by the definition of
 	 * this matcher.
@@ -109,7 +166,36 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 	 * @return a list of unique id's identifying the previously matched images
 	 *         sorted by distance.
 	 */
-	protected abstract PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage bi, String uniqueId);
+	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage bi, String uniqueId) {
+		return getMatchingImagesInternal(bi, null, uniqueId);
+	}
+
+	/**
+	 * Return a list of images that are considered matching the supplied hashes.
+	 * 
+	 * @param hashes   the hashes of the image to match for each hashing algorithm
+	 * @param uniqueId the uniqueId of a previously cached image or null
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @since 3.0.0
+	 */
+	protected PriorityQueue<Result<String>> getMatchingImagesInternal(Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
+		return getMatchingImagesInternal(null, hashes, uniqueId);
+	}
+
+	/**
+	 * Return a list of images that are considered matching by the definition of
+	 * this matcher. The hashes of the query are retrieved using
+	 * {@link #getHash(HashingAlgorithm, String, BufferedImage, Map)}.
+	 * 
+	 * @param bi       the buffered image to match or null
+	 * @param hashes   the hashes of the image to match or null
+	 * @param uniqueId the uniqueId of a previously cached image or null
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @since 3.0.0
+	 */
+	protected abstract PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage bi, Map<HashingAlgorithm, Hash> hashes, String uniqueId);
 
 	/**
 	 * Append a new hashing algorithm which will be executed after all hash
@@ -125,10 +211,10 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 	 */
 	public void addHashingAlgorithm(HashingAlgorithm algo, double threshold, boolean normalized) {
 		super.addHashingAlgorithm(algo, threshold, normalized);
-		BinaryTree<String> binTree = new BinaryTree<>(true);
+		BinaryTree<Integer> binTree = new IntBinaryTree(true);
 		binTreeMap.put(algo, binTree);
 		if (cacheAddedHashes) {
-			cachedHashes.put(algo, new HashMap<>());
+			cachedHashes.put(algo, new HashArray());
 		}
 	}
 
@@ -160,19 +246,73 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 
 	@Override
 	protected void addImageInternal(String uniqueId, BufferedImage image) {
+		addHashesInternal(uniqueId, computeHashes(image));
+	}
+
+	@Override
+	protected void addHashesInternal(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
 		if (addedImages.contains(uniqueId)) {
 			LOGGER.info("An image with uniqueId already exists. Skip request");
+			return;
 		}
+		int id = addedImages.intern(uniqueId);
 		for (Entry<HashingAlgorithm, AlgoSettings> entry : steps.entrySet()) {
 			HashingAlgorithm algo = entry.getKey();
-			BinaryTree<String> binTree = binTreeMap.get(algo);
-			Hash hash = algo.hash(image);
-			binTree.addHash(algo.hash(image), uniqueId);
+			Hash hash = hashes.get(algo);
+			if (isIndexed(algo)) {
+				binTreeMap.get(algo).addHash(hash, id);
+			}
 			if (cacheAddedHashes) {
-				cachedHashes.get(algo).put(uniqueId, hash);
+				cachedHashes.get(algo).set(id, hash);
 			}
 		}
-		addedImages.add(uniqueId);
+	}
+
+	/**
+	 * Remove the image from the binary trees. If hashes are cached the image is
+	 * located by it's hashes, otherwise every tree has to be traversed.
+	 */
+	@Override
+	protected boolean removeImageInternal(String uniqueId) {
+		int id = addedImages.release(uniqueId);
+		if (id < 0) {
+			return false;
+		}
+		for (HashingAlgorithm algo : steps.keySet()) {
+			BinaryTree<Integer> binTree = isIndexed(algo) ? binTreeMap.get(algo) : null;
+			if (cacheAddedHashes) {
+				HashArray cache = cachedHashes.get(algo);
+				Hash hash = cache.get(id);
+				if (hash != null) {
+					cache.remove(id);
+					if (binTree != null) {
+						binTree.removeHash(hash, id);
+					}
+					continue;
+				}
+			}
+			if (binTree != null) {
+				binTree.removeValue(id);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Matchers only verifying candidates against the cached hashes of an
+	 * algorithm may skip maintaining it's binary tree.
+	 * 
+	 * @param algo a hashing algorithm of this matcher
+	 * @return true if hashes of the algorithm are inserted into it's binary tree
+	 * @since 3.0.0
+	 */
+	protected boolean isIndexed(HashingAlgorithm algo) {
+		return true;
+	}
+
+	@Override
+	public boolean containsImage(String uniqueId) {
+		return addedImages.contains(uniqueId);
 	}
 
 	@Override
@@ -226,8 +366,30 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 	}
 
 	protected Hash getHash(HashingAlgorithm algo, String uniqueId, BufferedImage bImage) {
-		if (uniqueId != null && cachedHashes.get(algo).containsKey(uniqueId)) {
-			return cachedHashes.get(algo).get(uniqueId);
+		return getHash(algo, uniqueId, bImage, null);
+	}
+
+	/**
+	 * Retrieve the hash of the query image. Cached hashes take precedence over the
+	 * supplied hashes, which take precedence over hashing the image.
+	 * 
+	 * @param algo     the hashing algorithm
+	 * @param uniqueId the uniqueId of a previously cached image or null
+	 * @param bImage   the buffered image to hash or null
+	 * @param hashes   the hashes supplied for the query or null
+	 * @return the hash of the query
+	 * @throws IllegalStateException if neither a hash nor an image is available
+	 * @since 3.0.0
+	 */
+	protected Hash getHash(HashingAlgorithm algo, String uniqueId, BufferedImage bImage, Map<HashingAlgorithm, Hash> hashes) {
+		if (uniqueId != null && cacheAddedHashes) {
+			Hash hash = cachedHashes.get(algo).get(addedImages.getId(uniqueId));
+			if (hash != null) {
+				return hash;
+			}
+		}
+		if (hashes != null) {
+			return hashes.get(algo);
 		}
 		if (bImage != null) {
 			return algo.hash(bImage);
@@ -235,6 +397,22 @@ public abstract class PersitentBinaryTreeMatcher extends PersistentImageMatcher
 		throw new IllegalStateException("No hash and buffered image supplied. Can't retrieve hash");
 	}
 
+	/**
+	 * Resolve the interned ids of internal results to the unique ids of the
+	 * images.
+	 * 
+	 * @param results results holding interned ids
+	 * @return results holding the unique ids
+	 * @since 3.0.0
+	 */
+	protected PriorityQueue<Result<String>> resolve(Collection<Result<Integer>> results) {
+		PriorityQueue<Result<String>> resolved = new PriorityQueue<>(Math.max(1, results.size()));
+		for (Result<Integer> result : results) {
+			resolved.add(new Result<>(addedImages.get(result.value), result.distance, result.normalizedHammingDistance));
+		}
+		return resolved;
+	}
+
 	/**
 	 * Print all binary trees currently in use by this image matcher. This gives an
 	 * internal view of the saved images
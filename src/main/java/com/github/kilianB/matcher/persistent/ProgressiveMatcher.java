@@ -0,0 +1,342 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.github.kilianB.datastructures.tree.binaryTree.IntBinaryTree;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.hash.HashArray;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Image matcher searching coarse to fine. Only the first stage queries a binary
+ * tree, all further stages verify the remaining candidates against the cached
+ * hashes of the added images. Range queries of long hashes are expensive as
+ * the number of visited nodes grows with the key length and the allowed
+ * distance, while comparing two cached hashes is cheap.
+ *
+ * <p>
+ * Hashing algorithms are expected to be added from coarse to fine, e.g. an
+ * average hash with 64 bits followed by one with 1024 bits. Alternatively the
+ * candidates can be retrieved using a subsample of the bits of the first
+ * algorithm, see {@link #setSampledBits(int)}, allowing to use a single long
+ * hash.
+ *
+ * <p>
+ * The recall of the first stage can be traded against latency with
+ * {@link #setCandidateSlack(double)} and {@link #setMaxCandidates(int)}. Every
+ * candidate is verified against the threshold of every algorithm, therefore
+ * relaxing the first stage never returns images not matching all thresholds.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class ProgressiveMatcher extends PersitentBinaryTreeMatcher {
+
+	private static final long serialVersionUID = -2216313575498524791L;
+
+	/** Number of bits of the first algorithm used to retrieve candidates */
+	private int sampledBits = 0;
+
+	/** Tree holding the sampled hashes */
+	private BinaryTree<Integer> sampleTree;
+
+	/** Factor applied to the threshold of the first stage */
+	private double candidateSlack = 1;
+
+	/** Maximum number of candidates passed on to verification */
+	private int maxCandidates = Integer.MAX_VALUE;
+
+	/**
+	 * Create a progressive matcher. Hashes of added images are always cached as
+	 * they are required for the verification stages.
+	 */
+	public ProgressiveMatcher() {
+		super(true);
+	}
+
+	/**
+	 * Retrieve candidates using evenly spaced bits of the hashes created by the
+	 * first hashing algorithm. The normalized threshold of the first algorithm is
+	 * applied to the sample. Has to be set before images are added.
+	 *
+	 * @param sampledBits the number of sampled bits or 0 to query the tree of the
+	 *                    first algorithm
+	 * @throws IllegalStateException    if images have already been added
+	 * @throws IllegalArgumentException if the number of bits is negative
+	 */
+	public void setSampledBits(int sampledBits) {
+		checkLockedState();
+		if (sampledBits < 0) {
+			throw new IllegalArgumentException("The number of sampled bits may not be negative");
+		}
+		this.sampledBits = sampledBits;
+		this.sampleTree = sampledBits > 0 ? new IntBinaryTree(true) : null;
+	}
+
+	/**
+	 * Multiply the threshold of the candidate retrieval by the given factor.
+	 * Values greater than 1 increase the recall of coarse or sampled hashes at the
+	 * cost of more verifications. Defaults to 1.
+	 *
+	 * @param candidateSlack the factor applied to the first threshold
+	 * @throws IllegalArgumentException if the factor is negative
+	 */
+	public void setCandidateSlack(double candidateSlack) {
+		if (candidateSlack < 0) {
+			throw new IllegalArgumentException("The candidate slack may not be negative");
+		}
+		this.candidateSlack = candidateSlack;
+		incrementVersions();
+	}
+
+	/**
+	 * Only verify the closest candidates of the first stage. Bounds the latency of
+	 * queries hitting dense regions of the hash space at the cost of recall.
+	 * Defaults to {@link Integer#MAX_VALUE}.
+	 *
+	 * @param maxCandidates the maximum number of candidates
+	 * @throws IllegalArgumentException if the number is not positive
+	 */
+	public void setMaxCandidates(int maxCandidates) {
+		if (maxCandidates <= 0) {
+			throw new IllegalArgumentException("The maximum number of candidates has to be positive");
+		}
+		this.maxCandidates = maxCandidates;
+		incrementVersions();
+	}
+
+	@Override
+	public void addHashingAlgorithm(HashingAlgorithm algo, double threshold, boolean normalized) {
+		checkLockedState();
+		super.addHashingAlgorithm(algo, threshold, normalized);
+	}
+
+	@Override
+	public boolean removeHashingAlgo(HashingAlgorithm algo) {
+		// The next algorithm's tree was never filled
+		checkLockedState();
+		return super.removeHashingAlgo(algo);
+	}
+
+	/**
+	 * Only the tree of the first algorithm is queried, and only if candidates are
+	 * not retrieved by sampled bits. All other hashes are just cached.
+	 */
+	@Override
+	protected boolean isIndexed(HashingAlgorithm algo) {
+		return sampleTree == null && algo.equals(steps.keySet().iterator().next());
+	}
+
+	@Override
+	protected void addHashesInternal(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+		boolean known = addedImages.contains(uniqueId);
+		super.addHashesInternal(uniqueId, hashes);
+		if (sampleTree != null && !known) {
+			sampleTree.addHash(sample(hashes.get(steps.keySet().iterator().next())), addedImages.getId(uniqueId));
+		}
+	}
+
+	@Override
+	protected boolean removeImageInternal(String uniqueId) {
+		int id = addedImages.getId(uniqueId);
+		Hash hash = null;
+		if (sampleTree != null && !steps.isEmpty()) {
+			hash = cachedHashes.get(steps.keySet().iterator().next()).get(id);
+		}
+		if (!super.removeImageInternal(uniqueId)) {
+			return false;
+		}
+		if (hash != null) {
+			sampleTree.removeHash(sample(hash), id);
+		}
+		return true;
+	}
+
+	@Override
+	protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
+		return search(image, hashes, uniqueId).getMatches();
+	}
+
+	/**
+	 * Search matching images and report the number of candidates of each stage.
+	 *
+	 * @param image the image to search
+	 * @return the matches and statistics of the search
+	 */
+	public ProgressiveResult getMatchingImagesProgressive(BufferedImage image) {
+		return search(Objects.requireNonNull(image), null, null);
+	}
+
+	/**
+	 * Search images matching a previously added image using it's cached hashes.
+	 *
+	 * @param uniqueId the id of an added image
+	 * @return the matches and statistics of the search
+	 * @throws IllegalStateException if no image with the given id was added
+	 */
+	public ProgressiveResult getMatchingImagesProgressive(String uniqueId) {
+		if (!addedImages.contains(uniqueId)) {
+			throw new IllegalStateException("No image with id " + uniqueId + " was added");
+		}
+		return search(null, null, uniqueId);
+	}
+
+	private ProgressiveResult search(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
+
+		int stages = steps.size() + 1;
+		int[] candidateCounts = new int[stages];
+		long[] nanos = new long[stages];
+
+		// Stage 0: retrieve candidates from a tree
+		long start = System.nanoTime();
+		Entry<HashingAlgorithm, AlgoSettings> first = steps.entrySet().iterator().next();
+		Hash firstHash = getHash(first.getKey(), uniqueId, image, hashes);
+		PriorityQueue<Result<Integer>> retrieved;
+		if (sampleTree != null) {
+			Hash sample = sample(firstHash);
+			int threshold = (int) Math.floor(normalizedThreshold(first.getValue(), firstHash) * sampledBits * candidateSlack);
+			retrieved = sampleTree.getElementsWithinHammingDistance(sample, threshold);
+		} else {
+			int threshold = (int) Math.floor(threshold(first.getValue(), firstHash) * candidateSlack);
+			retrieved = binTreeMap.get(first.getKey()).getElementsWithinHammingDistance(firstHash, threshold);
+		}
+		int[] candidates = new int[Math.min(retrieved.size(), maxCandidates)];
+		int candidateCount = 0;
+		while (candidateCount < candidates.length) {
+			candidates[candidateCount++] = retrieved.poll().value;
+		}
+		candidateCounts[0] = candidateCount;
+		nanos[0] = System.nanoTime() - start;
+
+		// Stage 1 - n: verify using the cached hashes
+		List<Result<Integer>> matches = new ArrayList<>();
+		int stage = 1;
+		for (Iterator<Entry<HashingAlgorithm, AlgoSettings>> iterator = steps.entrySet().iterator(); iterator.hasNext(); stage++) {
+			start = System.nanoTime();
+			Entry<HashingAlgorithm, AlgoSettings> entry = iterator.next();
+			HashingAlgorithm algo = entry.getKey();
+			Hash needle = stage == 1 ? firstHash : getHash(algo, uniqueId, image, hashes);
+			int threshold = (int) threshold(entry.getValue(), needle);
+			HashArray cache = cachedHashes.get(algo);
+			long[] packed = cache.pack(needle);
+			boolean last = !iterator.hasNext();
+			int survivors = 0;
+			for (int i = 0; i < candidateCount; i++) {
+				int candidate = candidates[i];
+				int distance = cache.hammingDistance(candidate, packed);
+				if (distance <= threshold) {
+					// Compact the survivors in place
+					candidates[survivors++] = candidate;
+					if (last) {
+						matches.add(new Result<>(candidate, distance, distance / (double) needle.getBitResolution()));
+					}
+				}
+			}
+			candidateCount = survivors;
+			candidateCounts[stage] = candidateCount;
+			nanos[stage] = System.nanoTime() - start;
+		}
+		return new ProgressiveResult(resolve(matches), candidateCounts, nanos);
+	}
+
+	private static double threshold(AlgoSettings settings, Hash hash) {
+		if (settings.isNormalized()) {
+			return Math.round(settings.getThreshold() * hash.getBitResolution());
+		}
+		return settings.getThreshold();
+	}
+
+	private static double normalizedThreshold(AlgoSettings settings, Hash hash) {
+		if (settings.isNormalized()) {
+			return settings.getThreshold();
+		}
+		return settings.getThreshold() / hash.getBitResolution();
+	}
+
+	/**
+	 * Create a hash consisting of evenly spaced bits of the original hash
+	 */
+	private Hash sample(Hash hash) {
+		int length = hash.getBitResolution();
+		int bits = Math.min(sampledBits, length);
+		BigInteger value = BigInteger.ZERO;
+		for (int bit = 0; bit < bits; bit++) {
+			if (hash.getBitUnsafe((int) ((long) bit * length / bits))) {
+				value = value.setBit(bit);
+			}
+		}
+		return new Hash(value, sampledBits, 31 * hash.getAlgorithmId() + sampledBits);
+	}
+
+	/**
+	 * Matches of a progressive search and the number of candidates remaining after
+	 * each stage. Stage 0 is the candidate retrieval, stage i the verification
+	 * using the i-th hashing algorithm.
+	 *
+	 * @author Kilian
+	 * @since 3.0.0
+	 */
+	public static class ProgressiveResult {
+
+		private final PriorityQueue<Result<String>> matches;
+
+		private final int[] candidateCounts;
+
+		private final long[] nanos;
+
+		ProgressiveResult(PriorityQueue<Result<String>> matches, int[] candidateCounts, long[] nanos) {
+			this.matches = matches;
+			this.candidateCounts = candidateCounts;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the matching images sorted by the distance of the last algorithm
+		 */
+		public PriorityQueue<Result<String>> getMatches() {
+			return matches;
+		}
+
+		/**
+		 * @return the number of stages including the candidate retrieval
+		 */
+		public int getStageCount() {
+			return candidateCounts.length;
+		}
+
+		/**
+		 * @param stage the stage
+		 * @return the number of candidates remaining after the stage
+		 */
+		public int getCandidateCount(int stage) {
+			return candidateCounts[stage];
+		}
+
+		/**
+		 * @param stage the stage
+		 * @return the time spent in the stage in nanoseconds
+		 */
+		public long getNanos(int stage) {
+			return nanos[stage];
+		}
+
+		@Override
+		public String toString() {
+			return "ProgressiveResult [candidates=" + Arrays.toString(candidateCounts) + ", nanos=" + Arrays.toString(nanos) + "]";
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.kilianB.Require;
+import com.github.kilianB.datastructures.ConcurrentCache;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.TypedImageMatcher.AlgoSettings;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Bounded cache of query results placed in front of a
+ * {@link PersistentImageMatcher}. Popular images queried over and over again
+ * are answered without searching the binary trees of the matcher.
+ *
+ * <p>
+ * Results are keyed by the hashes of the queried image and the settings of the
+ * hashing algorithms. Every result remembers the version stamps of the
+ * algorithms, see {@link PersistentImageMatcher#getVersion(HashingAlgorithm)}, at
+ * the time the query was executed. Adding or removing images changes the
+ * stamps, cached results computed before the modification are discarded the
+ * next time they are looked up.
+ *
+ * <p>
+ * The results are held by a {@link ConcurrentCache}, keeping the most
+ * frequently queried results. Lookups do not lock, the cache is thread safe.
+ * Queries passed on to the matcher are not synchronized, concurrent
+ * modifications of the matcher have to be guarded as usual.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class QueryCache {
+
+	private final PersistentImageMatcher matcher;
+
+	private final ConcurrentCache<Key, CachedResult> cache;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * @param matcher    the matcher to cache the results of
+	 * @param maxEntries the maximum number of cached query results
+	 * @throws IllegalArgumentException if the number of entries is not positive
+	 */
+	public QueryCache(PersistentImageMatcher matcher, int maxEntries) {
+		this.matcher = Objects.requireNonNull(matcher, "Matcher may not be null");
+		Require.positiveValue(maxEntries, "The maximum number of entries has to be positive");
+		cache = new ConcurrentCache<>(maxEntries);
+	}
+
+	/**
+	 * Return the images matching the image. The image is hashed, the matcher is
+	 * only queried if no valid result is cached.
+	 *
+	 * @param image the image to check all saved images against
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @see PersistentImageMatcher#getMatchingImages(BufferedImage)
+	 */
+	public PriorityQueue<Result<String>> getMatchingImages(BufferedImage image) {
+		return getMatchingImages(matcher.computeHashes(Objects.requireNonNull(image, "Image may not be null")));
+	}
+
+	/**
+	 * Return the images matching the hashes computed beforehand. The matcher is
+	 * only queried if no valid result is cached.
+	 *
+	 * @param hashes the hashes of the image mapped to the algorithm that created
+	 *               them
+	 * @return a list of unique id's identifying the previously matched images
+	 *         sorted by distance.
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 * @see PersistentImageMatcher#getMatchingImages(Map)
+	 */
+	public PriorityQueue<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes) {
+		Map<HashingAlgorithm, AlgoSettings> algorithms = matcher.getAlgorithms();
+		Object[] parts = new Object[algorithms.size() * 2];
+		long[] versions = new long[algorithms.size()];
+		int i = 0;
+		for (Entry<HashingAlgorithm, AlgoSettings> entry : algorithms.entrySet()) {
+			Hash hash = hashes.get(entry.getKey());
+			if (hash == null) {
+				throw new IllegalArgumentException("Missing hash of algorithm " + entry.getKey());
+			}
+			parts[2 * i] = entry.getValue();
+			parts[2 * i + 1] = hash;
+			// Stamped before the query, a modification during the query invalidates it
+			versions[i++] = matcher.getVersion(entry.getKey());
+		}
+		Key key = new Key(parts);
+
+		CachedResult cached = cache.get(key);
+		if (cached != null) {
+			if (Arrays.equals(cached.versions, versions)) {
+				hits.increment();
+				return cached.toQueue();
+			}
+			// Replaced by the fresh result below
+			invalidations.increment();
+		}
+		misses.increment();
+		PriorityQueue<Result<String>> results = matcher.getMatchingImages(hashes);
+		cache.put(key, new CachedResult(results, versions));
+		return results;
+	}
+
+	/**
+	 * @return the number of queries answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of queries passed on to the matcher
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the fraction of queries answered from the cache [0-1]
+	 */
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0 : hitCount / (double) total;
+	}
+
+	/**
+	 * @return the number of cached results discarded because the matcher was
+	 *         modified
+	 */
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+
+	/**
+	 * @return the number of cached results discarded to make room for new results
+	 */
+	public long getEvictionCount() {
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * @return the number of cached results including results which are not valid
+	 *         anymore but were not yet looked up
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Discard all cached results. The statistics are kept.
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "QueryCache [size=" + size() + ", hits=" + hits + ", misses=" + misses + ", invalidations=" + invalidations + ", evictions="
+				+ getEvictionCount() + "]";
+	}
+
+	/**
+	 * Settings and hash of every algorithm in the order of the matcher
+	 */
+	private static class Key {
+
+		private final Object[] parts;
+
+		private final int hashCode;
+
+		Key(Object[] parts) {
+			this.parts = parts;
+			this.hashCode = Arrays.hashCode(parts);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && Arrays.equals(parts, other.parts);
+		}
+	}
+
+	private static class CachedResult {
+
+		private final List<Result<String>> results;
+
+		private final Comparator<? super Result<String>> comparator;
+
+		private final long[] versions;
+
+		CachedResult(PriorityQueue<Result<String>> queue, long[] versions) {
+			// Copy as callers are free to modify the returned results
+			results = new ArrayList<>(queue.size());
+			for (Result<String> result : queue) {
+				results.add(copy(result));
+			}
+			comparator = queue.comparator();
+			this.versions = versions;
+		}
+
+		PriorityQueue<Result<String>> toQueue() {
+			PriorityQueue<Result<String>> queue = new PriorityQueue<>(Math.max(1, results.size()), comparator);
+			for (Result<String> result : results) {
+				queue.add(copy(result));
+			}
+			return queue;
+		}
+
+		private static Result<String> copy(Result<String> result) {
+			return new Result<>(result.value, result.distance, result.normalizedHammingDistance);
+		}
+	}
+
+}
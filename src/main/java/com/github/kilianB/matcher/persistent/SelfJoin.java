@@ -0,0 +1,374 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import com.github.kilianB.Require;
+import com.github.kilianB.datastructures.UnionFind;
+import com.github.kilianB.matcher.TypedImageMatcher.AlgoSettings;
+import com.jstarcraft.dip.hash.HashArray;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Finds all pairs of images added to a matcher which are considered matching
+ * by every hashing algorithm of the matcher. Compared to querying the matcher
+ * with every added image each pair is only reported once and no tree is
+ * traversed.
+ *
+ * <p>
+ * Candidates are found by pigeonhole filtering. If two hashes of b bits differ
+ * in at most t bits and the hashes are split into t + 1 segments, at least one
+ * segment is equal in both hashes. Hashes are bucketed by each of their
+ * segments, only hashes sharing a bucket are compared. A pair is only reported
+ * by the first segment both hashes agree on. The join uses the algorithm
+ * resulting in the longest segments, the remaining algorithms verify the
+ * candidates. Buckets are processed in parallel.
+ *
+ * <p>
+ * The thresholds of the algorithms are interpreted like the
+ * {@link ConsecutiveMatcher} does, the matcher has to cache the hashes of added
+ * images. The matcher may not be modified while a join is running.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class SelfJoin {
+
+	/** Buckets with more members than this value are split into one task per row */
+	private static final int PARALLEL_ROWS = 64;
+
+	private final PersitentBinaryTreeMatcher matcher;
+
+	private int parallelism = 0;
+
+	/**
+	 * @param matcher the matcher whose added images are joined
+	 * @throws IllegalArgumentException if the matcher does not cache the hashes of
+	 *                                  added images or is a
+	 *                                  {@link CumulativeMatcher}
+	 */
+	public SelfJoin(PersitentBinaryTreeMatcher matcher) {
+		Objects.requireNonNull(matcher, "Matcher may not be null");
+		if (!matcher.cacheAddedHashes) {
+			throw new IllegalArgumentException("The self join requires a matcher caching the hashes of added images");
+		}
+		if (matcher instanceof CumulativeMatcher) {
+			throw new IllegalArgumentException("The weights of a cumulative matcher can not be used as thresholds");
+		}
+		this.matcher = matcher;
+	}
+
+	/**
+	 * Set the number of threads used by the join. By default the common fork join
+	 * pool is used.
+	 *
+	 * @param parallelism the number of threads
+	 * @throws IllegalArgumentException if the number is not positive
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Require.positiveValue(parallelism, "The parallelism has to be positive");
+	}
+
+	/**
+	 * Find all pairs of added images matching each other.
+	 *
+	 * @return the pairs sorted by the distance of the last added algorithm. Every
+	 *         pair is contained once.
+	 * @throws IllegalStateException if no hashing algorithm was added
+	 */
+	public List<SimilarPair> getSimilarPairs() {
+		List<IdPair> pairs = join();
+		List<SimilarPair> result = new ArrayList<>(pairs.size());
+		for (IdPair pair : pairs) {
+			result.add(new SimilarPair(matcher.addedImages.get(pair.first), matcher.addedImages.get(pair.second), pair.distance,
+					pair.normalizedDistance));
+		}
+		result.sort(Comparator.comparingDouble(SimilarPair::getNormalizedDistance));
+		return result;
+	}
+
+	/**
+	 * Group the added images into clusters of duplicates. Images are in the same
+	 * cluster if they are connected by a chain of matching pairs.
+	 *
+	 * @return the unique ids of the images of each cluster containing at least two
+	 *         images
+	 * @throws IllegalStateException if no hashing algorithm was added
+	 */
+	public List<List<String>> getClusters() {
+		UnionFind clusters = new UnionFind(matcher.addedImages.getCapacity());
+		for (IdPair pair : join()) {
+			clusters.union(pair.first, pair.second);
+		}
+		List<List<String>> result = new ArrayList<>();
+		for (int[] set : clusters.getSets(2)) {
+			List<String> cluster = new ArrayList<>(set.length);
+			for (int id : set) {
+				cluster.add(matcher.addedImages.get(id));
+			}
+			result.add(cluster);
+		}
+		return result;
+	}
+
+	private List<IdPair> join() {
+		Map<HashingAlgorithm, AlgoSettings> algorithms = matcher.getAlgorithms();
+		if (algorithms.isEmpty()) {
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the join");
+		}
+		if (matcher.addedImages.size() < 2) {
+			return Collections.emptyList();
+		}
+
+		int algorithmCount = algorithms.size();
+		HashArray[] caches = new HashArray[algorithmCount];
+		int[] thresholds = new int[algorithmCount];
+		int joinIndex = 0;
+		int index = 0;
+		for (Entry<HashingAlgorithm, AlgoSettings> entry : algorithms.entrySet()) {
+			HashArray cache = matcher.cachedHashes.get(entry.getKey());
+			AlgoSettings settings = entry.getValue();
+			int bits = cache.getBitResolution();
+			caches[index] = cache;
+			thresholds[index] = settings.isNormalized() ? (int) Math.round(settings.getThreshold() * bits) : (int) settings.getThreshold();
+			// Longer segments produce fewer false candidates
+			if (bits / (thresholds[index] + 1d) > caches[joinIndex].getBitResolution() / (thresholds[joinIndex] + 1d)) {
+				joinIndex = index;
+			}
+			index++;
+		}
+
+		HashArray joinCache = caches[joinIndex];
+		int bits = joinCache.getBitResolution();
+		int capacity = matcher.addedImages.getCapacity();
+
+		List<Bucket> buckets;
+		int[] boundaries;
+		if (thresholds[joinIndex] < 0) {
+			return Collections.emptyList();
+		} else if (thresholds[joinIndex] >= bits) {
+			// Segments would be empty, every pair is a candidate
+			boundaries = new int[] { 0, 0 };
+			Bucket all = new Bucket(0);
+			for (int id = 0; id < capacity; id++) {
+				if (joinCache.contains(id)) {
+					all.add(id);
+				}
+			}
+			buckets = Collections.singletonList(all);
+		} else {
+			int segments = thresholds[joinIndex] + 1;
+			boundaries = new int[segments + 1];
+			for (int segment = 0; segment <= segments; segment++) {
+				boundaries[segment] = (int) ((long) segment * bits / segments);
+			}
+			buckets = run(() -> IntStream.range(0, segments).parallel().mapToObj(segment -> {
+				Map<Long, Bucket> segmentBuckets = new HashMap<>();
+				for (int id = 0; id < capacity; id++) {
+					if (joinCache.contains(id)) {
+						long key = joinCache.segmentHash(id, boundaries[segment], boundaries[segment + 1]);
+						segmentBuckets.computeIfAbsent(key, k -> new Bucket(segment)).add(id);
+					}
+				}
+				return segmentBuckets.values().stream().filter(bucket -> bucket.size > 1);
+			}).flatMap(stream -> stream).collect(Collectors.toList()));
+		}
+
+		int reportingIndex = algorithmCount - 1;
+		return run(() -> buckets.parallelStream().flatMap(bucket -> {
+			IntStream rows = IntStream.range(0, bucket.size - 1);
+			if (bucket.size > PARALLEL_ROWS) {
+				rows = rows.parallel();
+			}
+			return rows.mapToObj(row -> {
+				List<IdPair> pairs = new ArrayList<>();
+				int first = bucket.members[row];
+				for (int column = row + 1; column < bucket.size; column++) {
+					int second = bucket.members[column];
+					if (!isFirstEqualSegment(joinCache, boundaries, bucket.segment, first, second)) {
+						continue;
+					}
+					int distance = 0;
+					boolean match = true;
+					for (int algo = 0; algo < algorithmCount && match; algo++) {
+						distance = caches[algo].hammingDistance(first, second);
+						match = distance <= thresholds[algo];
+					}
+					if (match) {
+						pairs.add(new IdPair(first, second, distance, distance / (double) caches[reportingIndex].getBitResolution()));
+					}
+				}
+				return pairs;
+			}).flatMap(List::stream);
+		}).collect(Collectors.toList()));
+	}
+
+	/**
+	 * A pair is reported by the first segment both hashes agree on. Buckets are
+	 * formed by the hash of the segment, therefore the segment of the bucket has
+	 * to be checked as well.
+	 */
+	private static boolean isFirstEqualSegment(HashArray cache, int[] boundaries, int segment, int first, int second) {
+		if (boundaries[segment] == boundaries[segment + 1]) {
+			return true;
+		}
+		if (!cache.segmentEquals(first, second, boundaries[segment], boundaries[segment + 1])) {
+			return false;
+		}
+		for (int previous = 0; previous < segment; previous++) {
+			if (cache.segmentEquals(first, second, boundaries[previous], boundaries[previous + 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private <T> List<T> run(Callable<List<T>> task) {
+		if (parallelism == 0) {
+			try {
+				return task.call();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while joining", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Ids of the hashes sharing a segment
+	 */
+	private static class Bucket {
+
+		private final int segment;
+
+		private int[] members = new int[2];
+
+		private int size;
+
+		Bucket(int segment) {
+			this.segment = segment;
+		}
+
+		void add(int id) {
+			if (size == members.length) {
+				members = Arrays.copyOf(members, size * 2);
+			}
+			members[size++] = id;
+		}
+	}
+
+	private static class IdPair {
+
+		private final int first;
+
+		private final int second;
+
+		private final int distance;
+
+		private final double normalizedDistance;
+
+		IdPair(int first, int second, int distance, double normalizedDistance) {
+			this.first = first;
+			this.second = second;
+			this.distance = distance;
+			this.normalizedDistance = normalizedDistance;
+		}
+	}
+
+	/**
+	 * Two images considered matching by all hashing algorithms of the matcher.
+	 *
+	 * @author Kilian
+	 * @since 3.0.0
+	 */
+	public static class SimilarPair {
+
+		private final String first;
+
+		private final String second;
+
+		private final int distance;
+
+		private final double normalizedDistance;
+
+		SimilarPair(String first, String second, int distance, double normalizedDistance) {
+			this.first = first;
+			this.second = second;
+			this.distance = distance;
+			this.normalizedDistance = normalizedDistance;
+		}
+
+		/**
+		 * @return the unique id of the first image
+		 */
+		public String getFirst() {
+			return first;
+		}
+
+		/**
+		 * @return the unique id of the second image
+		 */
+		public String getSecond() {
+			return second;
+		}
+
+		/**
+		 * @return the hamming distance of the last added hashing algorithm
+		 */
+		public int getDistance() {
+			return distance;
+		}
+
+		/**
+		 * @return the normalized hamming distance of the last added hashing algorithm
+		 */
+		public double getNormalizedDistance() {
+			return normalizedDistance;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(first, second, distance);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SimilarPair)) {
+				return false;
+			}
+			SimilarPair other = (SimilarPair) obj;
+			return first.equals(other.first) && second.equals(other.second) && distance == other.distance;
+		}
+
+		@Override
+		public String toString() {
+			return "SimilarPair [first=" + first + ", second=" + second + ", distance=" + distance + "]";
+		}
+	}
+
+}
@@ -0,0 +1,434 @@
+package com.github.kilianB.matcher.persistent;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import com.github.kilianB.PlainAutoCloseable;
+import com.github.kilianB.Require;
+import com.github.kilianB.concurrency.NamedThreadFactory;
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+/**
+ * Image matcher partitioning the added images across multiple independent
+ * matchers (shards) by the hash code of their unique id. Every shard keeps it's
+ * own binary trees, queries are executed on all shards in parallel and the
+ * ranked results of the shards are merged.
+ * 
+ * <p>
+ * Images are hashed once by the sharded matcher, the shards search using the
+ * precomputed hashes. The results returned are the same as the results of a
+ * single matcher of the shard type holding all images.
+ * 
+ * <p>
+ * Bulk additions using {@link #addImages(Map)} or {@link #addImages(File...)}
+ * hash and index the images of each shard on a separate thread. Queries may run
+ * concurrently with each other but not with additions or removals. The worker
+ * threads are daemon threads and are released by {@link #close()}.
+ * 
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class ShardedMatcher extends PersistentImageMatcher implements PlainAutoCloseable {
+
+	private static final long serialVersionUID = -3591840374165813627L;
+
+	private final PersitentBinaryTreeMatcher[] shards;
+
+	private transient ExecutorService executor;
+
+	/**
+	 * Create a sharded matcher.
+	 * 
+	 * @param shardCount the number of shards
+	 * @param factory    creates the empty matcher of each shard. All shards have
+	 *                   to be configured identically.
+	 * @throws IllegalArgumentException if the number of shards is not positive or
+	 *                                  the factory returns a matcher which already
+	 *                                  contains hashing algorithms
+	 */
+	public ShardedMatcher(int shardCount, Supplier<? extends PersitentBinaryTreeMatcher> factory) {
+		Require.positiveValue(shardCount, "The number of shards has to be positive");
+		Objects.requireNonNull(factory, "Factory may not be null");
+		shards = new PersitentBinaryTreeMatcher[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = Objects.requireNonNull(factory.get(), "Factory returned null");
+			if (!shards[i].getAlgorithms().isEmpty()) {
+				throw new IllegalArgumentException("Shards have to be created without hashing algorithms");
+			}
+		}
+	}
+
+	@Override
+	public void addHashingAlgorithm(HashingAlgorithm algo, double threshold, boolean normalized) {
+		checkLockedState();
+		for (PersitentBinaryTreeMatcher shard : shards) {
+			shard.addHashingAlgorithm(algo, threshold, normalized);
+		}
+		// Shards may interpret the settings, e.g. as weights
+		steps.put(algo, shards[0].getAlgorithms().get(algo));
+	}
+
+	@Override
+	public boolean removeHashingAlgo(HashingAlgorithm algo) {
+		for (PersitentBinaryTreeMatcher shard : shards) {
+			shard.removeHashingAlgo(algo);
+		}
+		return super.removeHashingAlgo(algo);
+	}
+
+	@Override
+	public void clearHashingAlgorithms() {
+		checkLockedState();
+		for (PersitentBinaryTreeMatcher shard : shards) {
+			shard.clearHashingAlgorithms();
+		}
+		super.clearHashingAlgorithms();
+	}
+
+	/**
+	 * The sum of the stamps of all shards. Bulk additions bypass the stamps of the
+	 * sharded matcher itself, and the sum changes whenever one of the shards
+	 * changes.
+	 */
+	@Override
+	public long getVersion(HashingAlgorithm algo) {
+		long version = 0;
+		for (PersitentBinaryTreeMatcher shard : shards) {
+			long shardVersion = shard.getVersion(algo);
+			if (shardVersion < 0) {
+				return -1;
+			}
+			version += shardVersion;
+		}
+		return version;
+	}
+
+	/**
+	 * @param uniqueId the unique id of an image
+	 * @return the index of the shard responsible for the image
+	 */
+	public int getShardIndex(String uniqueId) {
+		int hash = uniqueId.hashCode();
+		// Spread the bits, string hash codes of similar ids differ in the low bits
+		hash ^= hash >>> 16;
+		return Math.floorMod(hash * 0x9E3779B9, shards.length);
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	@Override
+	protected void addImageInternal(String uniqueId, BufferedImage image) {
+		shards[getShardIndex(uniqueId)].addImage(uniqueId, image);
+	}
+
+	@Override
+	protected void addHashesInternal(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+		shards[getShardIndex(uniqueId)].addHashes(uniqueId, hashes);
+	}
+
+	/**
+	 * Add the images to the matcher. The images of each shard are hashed and
+	 * indexed on a separate thread.
+	 * 
+	 * @param images the images mapped to their unique ids
+	 */
+	public void addImages(Map<String, BufferedImage> images) {
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
+		List<List<Entry<String, BufferedImage>>> partitions = partition(images.entrySet());
+		scatter(shard -> () -> {
+			for (Entry<String, BufferedImage> entry : partitions.get(shard)) {
+				shards[shard].addImage(entry.getKey(), entry.getValue());
+			}
+			return null;
+		});
+		lockedState = true;
+	}
+
+	/**
+	 * Add the images to the matcher using their absolute path as unique id. The
+	 * images of each shard are read, hashed and indexed on a separate thread.
+	 * 
+	 * @param imagesToAdd The images whose hash will be added to the matcher
+	 * @throws IOException if an error exists reading the image files. Images of
+	 *                     other shards may have been added.
+	 */
+	@Override
+	public void addImages(File... imagesToAdd) throws IOException {
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
+		List<List<File>> partitions = new ArrayList<>();
+		for (int i = 0; i < shards.length; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		for (File file : imagesToAdd) {
+			partitions.get(getShardIndex(file.getAbsolutePath())).add(file);
+		}
+		try {
+			scatter(shard -> () -> {
+				for (File file : partitions.get(shard)) {
+					shards[shard].addImage(file.getAbsolutePath(), file);
+				}
+				return null;
+			});
+		} catch (ShardException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw e;
+		} finally {
+			lockedState = true;
+		}
+	}
+
+	/**
+	 * Add hashes computed beforehand. The hashes of each shard are indexed on a
+	 * separate thread.
+	 * 
+	 * @param hashes the hashes of each image mapped to the unique id of the image
+	 * @throws IllegalArgumentException if a hash of any of the algorithms is
+	 *                                  missing
+	 */
+	public void addAllHashes(Map<String, Map<HashingAlgorithm, Hash>> hashes) {
+		List<List<Entry<String, Map<HashingAlgorithm, Hash>>>> partitions = partition(hashes.entrySet());
+		scatter(shard -> () -> {
+			for (Entry<String, Map<HashingAlgorithm, Hash>> entry : partitions.get(shard)) {
+				shards[shard].addHashes(entry.getKey(), entry.getValue());
+			}
+			return null;
+		});
+		lockedState = true;
+	}
+
+	private <V> List<List<Entry<String, V>>> partition(Iterable<Entry<String, V>> entries) {
+		List<List<Entry<String, V>>> partitions = new ArrayList<>(shards.length);
+		for (int i = 0; i < shards.length; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		for (Entry<String, V> entry : entries) {
+			partitions.get(getShardIndex(entry.getKey())).add(entry);
+		}
+		return partitions;
+	}
+
+	@Override
+	protected boolean removeImageInternal(String uniqueId) {
+		return shards[getShardIndex(uniqueId)].removeImage(uniqueId);
+	}
+
+	@Override
+	public boolean containsImage(String uniqueId) {
+		return shards[getShardIndex(uniqueId)].containsImage(uniqueId);
+	}
+
+	@Override
+	public PriorityQueue<Result<String>> getMatchingImages(BufferedImage image) {
+		return merge(search(computeHashes(image)));
+	}
+
+	@Override
+	public PriorityQueue<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes) {
+		return merge(search(hashes));
+	}
+
+	private PriorityQueue<Result<String>> merge(List<PriorityQueue<Result<String>>> results) {
+		Comparator<? super Result<String>> comparator = results.get(0).comparator();
+		PriorityQueue<Result<String>> merged = new PriorityQueue<>(Math.max(1, results.stream().mapToInt(PriorityQueue::size).sum()), comparator);
+		for (PriorityQueue<Result<String>> result : results) {
+			merged.addAll(result);
+		}
+		return merged;
+	}
+
+	/**
+	 * Return the closest matches of the image. The sorted results of the shards
+	 * are merged until the limit is reached.
+	 * 
+	 * @param image      the image to check all saved images against
+	 * @param maxResults the maximum number of results
+	 * @return the closest matching images sorted by distance
+	 */
+	public List<Result<String>> getMatchingImages(BufferedImage image, int maxResults) {
+		Require.positiveValue(maxResults, "The maximum number of results has to be positive");
+		return merge(search(computeHashes(image)), maxResults);
+	}
+
+	/**
+	 * Return the closest matches of the hashes computed beforehand. The sorted
+	 * results of the shards are merged until the limit is reached.
+	 * 
+	 * @param hashes     the hashes of the image mapped to the algorithm that
+	 *                   created them
+	 * @param maxResults the maximum number of results
+	 * @return the closest matching images sorted by distance
+	 */
+	public List<Result<String>> getMatchingImages(Map<HashingAlgorithm, Hash> hashes, int maxResults) {
+		Require.positiveValue(maxResults, "The maximum number of results has to be positive");
+		return merge(search(hashes), maxResults);
+	}
+
+	private List<Result<String>> merge(List<PriorityQueue<Result<String>>> results, int maxResults) {
+		@SuppressWarnings("unchecked")
+		Comparator<? super Result<String>> comparator = results.get(0).comparator() == null ? (Comparator<Result<String>>) Comparator.naturalOrder()
+				: results.get(0).comparator();
+
+		// K-way merge. Each cursor holds the next result of a shard
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>(shards.length, (left, right) -> comparator.compare(left.head, right.head));
+		for (PriorityQueue<Result<String>> result : results) {
+			if (!result.isEmpty()) {
+				cursors.add(new Cursor(result));
+			}
+		}
+		List<Result<String>> merged = new ArrayList<>(maxResults);
+		while (merged.size() < maxResults && !cursors.isEmpty()) {
+			Cursor cursor = cursors.poll();
+			merged.add(cursor.head);
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Search all shards in parallel. Images are hashed once for all shards.
+	 */
+	private List<PriorityQueue<Result<String>>> search(Map<HashingAlgorithm, Hash> hashes) {
+		if (steps.isEmpty())
+			throw new IllegalStateException("Please supply at least one hashing algorithm prior to invoking the match method");
+		return scatter(shard -> () -> shards[shard].getMatchingImages(hashes));
+	}
+
+	/**
+	 * Run a task for each shard on the worker threads and wait for all results
+	 */
+	private <T> List<T> scatter(ShardTask<T> task) {
+		ExecutorService executor = getExecutor();
+		List<Future<T>> futures = new ArrayList<>(shards.length);
+		// The last shard is processed by the calling thread
+		for (int shard = 0; shard < shards.length - 1; shard++) {
+			futures.add(executor.submit(task.create(shard)));
+		}
+		List<T> results = new ArrayList<>(shards.length);
+		Throwable failure = null;
+		T last = null;
+		try {
+			last = task.create(shards.length - 1).call();
+		} catch (Exception e) {
+			failure = e;
+		}
+		for (Future<T> future : futures) {
+			try {
+				results.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the shards", e);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new ShardException(failure);
+		}
+		results.add(last);
+		return results;
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Math.max(1, shards.length - 1), new NamedThreadFactory("sharded-matcher", true));
+		}
+		return executor;
+	}
+
+	/**
+	 * Shut down the worker threads. The matcher can still be used afterwards and
+	 * recreates the threads on demand.
+	 */
+	@Override
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Arrays.hashCode(shards);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!super.equals(obj)) {
+			return false;
+		}
+		return Arrays.equals(shards, ((ShardedMatcher) obj).shards);
+	}
+
+	@FunctionalInterface
+	private interface ShardTask<T> {
+		Callable<T> create(int shard);
+	}
+
+	/**
+	 * Checked exception thrown by a task executed by a shard
+	 */
+	private static class ShardException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ShardException(Throwable cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Position in the sorted results of a shard
+	 */
+	private static class Cursor {
+
+		private final PriorityQueue<Result<String>> results;
+
+		private Result<String> head;
+
+		Cursor(PriorityQueue<Result<String>> results) {
+			this.results = results;
+			this.head = results.poll();
+		}
+
+		boolean advance() {
+			head = results.poll();
+			return head != null;
+		}
+	}
+
+}
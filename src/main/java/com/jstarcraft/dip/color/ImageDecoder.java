@@ -0,0 +1,170 @@
+package com.jstarcraft.dip.color;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+import com.github.kilianB.Require;
+
+/**
+ * Decodes images at a reduced resolution. Most hashing algorithms rescale the
+ * image to a few hundred pixels. Fully decoding multi megapixel images just to
+ * throw away most of the information afterwards is wasteful. The decoder skips
+ * rows and columns of the source while reading
+ * ({@link ImageReadParam#setSourceSubsampling(int, int, int, int)}), resulting in
+ * an image which still is a multiple of the requested resolution.
+ * 
+ * <p>
+ * Subsampling picks single pixels instead of interpolating between them. As
+ * the image is rescaled using nearest neighbour interpolation afterwards, the
+ * pixels contributing to the hash differ from the pixels picked from a fully
+ * decoded image. Hashes computed on subsampled images therefore drift from
+ * hashes computed on the fully decoded image. On the test images the normalized
+ * hamming distance between both averaged 0.14 for a 64 bit average hash and an
+ * oversampling of 4 and 0.05 for a 256 bit average hash and an oversampling of
+ * 8. Images whose dimension is a multiple of the decoded dimension showed no
+ * drift at all. Hashes of both decoding paths should not be mixed if small
+ * distance thresholds are used.
+ * 
+ * <p>
+ * Image readers are cached per thread and reused for successive calls.
+ * 
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class ImageDecoder {
+
+	/** Reusable image readers of the current thread by service provider */
+	private static final ThreadLocal<Map<ImageReaderSpi, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+
+	private ImageDecoder() {
+	}
+
+	/**
+	 * Read the image, skipping as many pixels as possible while keeping a
+	 * resolution of at least <code>oversampling * width</code> times
+	 * <code>oversampling * height</code> pixels. Images which are too small to be
+	 * subsampled are decoded fully.
+	 * 
+	 * @param file         the image file
+	 * @param width        the width the image will be scaled to
+	 * @param height       the height the image will be scaled to
+	 * @param oversampling the minimum factor the decoded image shall be larger
+	 *                     than the target dimension
+	 * @return the decoded image or null if no registered reader is able to decode
+	 *         the file. The same behavior as {@link ImageIO#read(File)}.
+	 * @throws IOException              if an error occurs during reading
+	 * @throws IllegalArgumentException if any of the dimensions is not positive
+	 */
+	public static BufferedImage read(File file, int width, int height, int oversampling) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			if (input == null) {
+				return ImageIO.read(file);
+			}
+			return read(input, width, height, oversampling);
+		}
+	}
+
+	/**
+	 * Decode the image content already read into memory, skipping as many pixels
+	 * as possible while keeping a resolution of at least
+	 * <code>oversampling * width</code> times <code>oversampling * height</code>
+	 * pixels.
+	 * 
+	 * @param data         the content of the image file
+	 * @param width        the width the image will be scaled to
+	 * @param height       the height the image will be scaled to
+	 * @param oversampling the minimum factor the decoded image shall be larger
+	 *                     than the target dimension
+	 * @return the decoded image or null if no registered reader is able to decode
+	 *         the data.
+	 * @throws IOException              if an error occurs during decoding
+	 * @throws IllegalArgumentException if any of the dimensions is not positive
+	 * @see #read(File, int, int, int)
+	 */
+	public static BufferedImage read(byte[] data, int width, int height, int oversampling) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			return read(input, width, height, oversampling);
+		}
+	}
+
+	private static BufferedImage read(ImageInputStream input, int width, int height, int oversampling) throws IOException {
+		Require.positiveValue(width, "Width has to be positive");
+		Require.positiveValue(height, "Height has to be positive");
+		Require.positiveValue(oversampling, "Oversampling has to be positive");
+
+		ImageReader reader = getReader(input);
+		if (reader == null) {
+			return null;
+		}
+		try {
+			reader.setInput(input, true, true);
+			int xFactor = reader.getWidth(0) / (width * oversampling);
+			int yFactor = reader.getHeight(0) / (height * oversampling);
+			// Keep the aspect ratio to stay close to the fully decoded image
+			int factor = Math.min(xFactor, yFactor);
+
+			ImageReadParam param = reader.getDefaultReadParam();
+			// Small images are read as is
+			if (factor > 1) {
+				param.setSourceSubsampling(factor, factor, 0, 0);
+			}
+			return reader.read(0, param);
+		} finally {
+			// Release the stream but keep the reader for the next image
+			reader.reset();
+		}
+	}
+
+	/**
+	 * Read the image with a resolution of at least four times the target
+	 * dimension.
+	 * 
+	 * @param file   the image file
+	 * @param width  the width the image will be scaled to
+	 * @param height the height the image will be scaled to
+	 * @return the decoded image or null if no registered reader is able to decode
+	 *         the file.
+	 * @throws IOException if an error occurs during reading
+	 * @see #read(File, int, int, int)
+	 */
+	public static BufferedImage read(File file, int width, int height) throws IOException {
+		return read(file, width, height, 4);
+	}
+
+	private static ImageReader getReader(ImageInputStream input) throws IOException {
+		Iterator<ImageReaderSpi> iterator = IIORegistry.getDefaultInstance().getServiceProviders(ImageReaderSpi.class, true);
+		while (iterator.hasNext()) {
+			ImageReaderSpi provider = iterator.next();
+			boolean canDecode;
+			input.mark();
+			try {
+				canDecode = provider.canDecodeInput(input);
+			} finally {
+				input.reset();
+			}
+			if (canDecode) {
+				Map<ImageReaderSpi, ImageReader> readers = READERS.get();
+				ImageReader reader = readers.get(provider);
+				if (reader == null) {
+					reader = provider.createReaderInstance();
+					readers.put(provider, reader);
+				}
+				return reader;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,599 @@
+package com.jstarcraft.dip.color;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Extracts a 1/8 scaled luminance image from baseline jpeg files without
+ * decoding the entire image.
+ *
+ * <p>
+ * Jpeg encodes the image in blocks of 8 x 8 pixels. The first (DC) coefficient
+ * of each block is proportional to the mean value of the block. Reading the DC
+ * coefficients of the luma channel yields a downscaled grayscale version of the
+ * image while skipping the inverse discrete cosine transformation, upsampling
+ * and color conversion as well as the chroma channels. The remaining
+ * coefficients still have to be entropy decoded to find the start of the next
+ * block, but their values are discarded.
+ *
+ * <p>
+ * Only huffman coded sequential (baseline and extended) 8 bit jpegs with one
+ * (grayscale) or three (YCbCr) components are supported. For all other files
+ * (progressive or arithmetic coded jpegs, CMYK, RGB encoded jpegs or other
+ * image formats) <code>null</code> is returned and the caller is expected to
+ * fall back to {@link javax.imageio.ImageIO}.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class JpegDcDecoder {
+
+	private JpegDcDecoder() {
+	}
+
+	/**
+	 * Read the DC luminance image of a jpeg file.
+	 *
+	 * @param file the file to read
+	 * @return a grayscale image of 1/8 of the size of the jpeg or null if the file
+	 *         is not a supported jpeg
+	 * @throws IOException if an error occurs reading the file
+	 */
+	public static BufferedImage read(File file) throws IOException {
+		return read(file, 1, 1);
+	}
+
+	/**
+	 * Read the DC luminance image of a jpeg file.
+	 *
+	 * @param file      the file to read
+	 * @param minWidth  the minimum width of the luminance image. If the DC image
+	 *                  would be smaller null is returned
+	 * @param minHeight the minimum height of the luminance image. If the DC image
+	 *                  would be smaller null is returned
+	 * @return a grayscale image of 1/8 of the size of the jpeg or null if the file
+	 *         is not a supported jpeg or the luminance image would be too small
+	 * @throws IOException if an error occurs reading the file
+	 */
+	public static BufferedImage read(File file, int minWidth, int minHeight) throws IOException {
+		byte[] data = Files.readAllBytes(file.toPath());
+		return read(data, minWidth, minHeight);
+	}
+
+	/**
+	 * Read the DC luminance image of jpeg encoded data.
+	 *
+	 * @param data      the jpeg file content
+	 * @param minWidth  the minimum width of the luminance image. If the DC image
+	 *                  would be smaller null is returned
+	 * @param minHeight the minimum height of the luminance image. If the DC image
+	 *                  would be smaller null is returned
+	 * @return a grayscale image of 1/8 of the size of the jpeg or null if the data
+	 *         is not a supported jpeg or the luminance image would be too small
+	 */
+	public static BufferedImage read(byte[] data, int minWidth, int minHeight) {
+		try {
+			return new Parser(data).parse(minWidth, minHeight);
+		} catch (ArrayIndexOutOfBoundsException | IllegalStateException e) {
+			// Truncated or corrupt file. Let a full decoder deal with it
+			return null;
+		}
+	}
+
+	/**
+	 * Canonical huffman table
+	 */
+	private static class HuffmanTable {
+
+		/** Number of bits used for the lookup table */
+		private static final int LOOKUP_BITS = 9;
+
+		/** Largest code of each length or -1 */
+		private final int[] maxCode = new int[18];
+
+		/** Offset of the first code of each length into the values */
+		private final int[] valueOffset = new int[17];
+
+		private final int[] values;
+
+		/**
+		 * (length << 8 | value) of all codes with at most LOOKUP_BITS bits indexed
+		 * by the next LOOKUP_BITS bits of the stream. 0 if the code is longer.
+		 */
+		private final int[] lookup = new int[1 << LOOKUP_BITS];
+
+		HuffmanTable(int[] counts, int[] values) {
+			this.values = values;
+			int code = 0;
+			int index = 0;
+			for (int length = 1; length <= 16; length++) {
+				valueOffset[length] = index - code;
+				if (counts[length] > 0) {
+					for (int i = 0; i < counts[length]; i++, index++, code++) {
+						if (length <= LOOKUP_BITS) {
+							int shift = LOOKUP_BITS - length;
+							int start = code << shift;
+							for (int fill = 0; fill < (1 << shift); fill++) {
+								lookup[start + fill] = (length << 8) | values[index];
+							}
+						}
+					}
+					maxCode[length] = code - 1;
+				} else {
+					maxCode[length] = -1;
+				}
+				code <<= 1;
+			}
+			// Sentinel
+			maxCode[17] = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Stateful parser of a single jpeg file
+	 */
+	private static class Parser {
+
+		private final byte[] data;
+
+		/** Current read position in the data */
+		private int position;
+
+		/** First entry of each quantization table */
+		private final int[] dcQuantization = new int[4];
+
+		private final HuffmanTable[] dcTables = new HuffmanTable[4];
+
+		private final HuffmanTable[] acTables = new HuffmanTable[4];
+
+		private int restartInterval;
+
+		private int width;
+
+		private int height;
+
+		private int[] componentIds;
+
+		private int[] horizontalSampling;
+
+		private int[] verticalSampling;
+
+		private int[] quantizationTable;
+
+		/** Adobe color transform. -1 if no adobe marker is present */
+		private int adobeTransform = -1;
+
+		// Bit reader state
+		private int bitBuffer;
+
+		private int bitCount;
+
+		/** Set once a marker was encountered in the entropy coded data */
+		private boolean markerReached;
+
+		Parser(byte[] data) {
+			this.data = data;
+		}
+
+		BufferedImage parse(int minWidth, int minHeight) {
+			if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+				return null;
+			}
+			position = 2;
+			while (true) {
+				int marker = nextMarker();
+				switch (marker) {
+				case 0xD8: // SOI
+				case 0x01: // TEM
+					break;
+				case 0xD9: // EOI before the luma scan
+					return null;
+				case 0xC0: // Baseline
+				case 0xC1: // Extended sequential huffman
+					if (!readFrame()) {
+						return null;
+					}
+					if (getPlaneWidth() < minWidth || getPlaneHeight() < minHeight) {
+						return null;
+					}
+					break;
+				case 0xC4:
+					readHuffmanTables();
+					break;
+				case 0xDB:
+					readQuantizationTables();
+					break;
+				case 0xDD:
+					readLength();
+					restartInterval = readShort();
+					break;
+				case 0xEE:
+					readAdobe();
+					break;
+				case 0xDA:
+					if (componentIds == null) {
+						return null;
+					}
+					BufferedImage image = readScan();
+					if (image != null) {
+						return image;
+					}
+					break;
+				default:
+					if ((marker >= 0xC2 && marker <= 0xCF) || (marker >= 0xD0 && marker <= 0xD7)) {
+						// Progressive, lossless, arithmetic coding or stray restart marker
+						return null;
+					}
+					// APPn, COM and other segments are skipped
+					skipSegment();
+				}
+			}
+		}
+
+		private int nextMarker() {
+			// Skip garbage and fill bytes
+			while ((data[position] & 0xFF) != 0xFF) {
+				position++;
+			}
+			while ((data[position] & 0xFF) == 0xFF) {
+				position++;
+			}
+			return data[position++] & 0xFF;
+		}
+
+		private int readShort() {
+			int value = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+			position += 2;
+			return value;
+		}
+
+		private int readLength() {
+			return readShort() - 2;
+		}
+
+		private void skipSegment() {
+			position += readLength();
+		}
+
+		private boolean readFrame() {
+			int end = position + readShort();
+			int precision = data[position++] & 0xFF;
+			height = readShort();
+			width = readShort();
+			int components = data[position++] & 0xFF;
+			if (precision != 8 || height == 0 || width == 0 || (components != 1 && components != 3)) {
+				return false;
+			}
+			componentIds = new int[components];
+			horizontalSampling = new int[components];
+			verticalSampling = new int[components];
+			quantizationTable = new int[components];
+			for (int i = 0; i < components; i++) {
+				componentIds[i] = data[position++] & 0xFF;
+				int sampling = data[position++] & 0xFF;
+				horizontalSampling[i] = sampling >> 4;
+				verticalSampling[i] = sampling & 0xF;
+				quantizationTable[i] = data[position++] & 0x3;
+				if (horizontalSampling[i] == 0 || verticalSampling[i] == 0) {
+					return false;
+				}
+			}
+			position = end;
+			// RGB encoded jpegs do not contain a luma channel
+			if (components == 3 && (adobeTransform == 0 || (componentIds[0] == 'R' && componentIds[1] == 'G' && componentIds[2] == 'B'))) {
+				return false;
+			}
+			return true;
+		}
+
+		private void readAdobe() {
+			int end = position + readShort();
+			if (end - position >= 12 && data[position] == 'A' && data[position + 1] == 'd' && data[position + 2] == 'o' && data[position + 3] == 'b' && data[position + 4] == 'e') {
+				adobeTransform = data[position + 11] & 0xFF;
+			}
+			position = end;
+		}
+
+		private void readQuantizationTables() {
+			int end = position + readShort();
+			while (position < end) {
+				int info = data[position++] & 0xFF;
+				int table = info & 0x3;
+				if ((info >> 4) == 0) {
+					dcQuantization[table] = data[position] & 0xFF;
+					position += 64;
+				} else {
+					dcQuantization[table] = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+					position += 128;
+				}
+			}
+		}
+
+		private void readHuffmanTables() {
+			int end = position + readShort();
+			while (position < end) {
+				int info = data[position++] & 0xFF;
+				int[] counts = new int[17];
+				int total = 0;
+				for (int length = 1; length <= 16; length++) {
+					counts[length] = data[position++] & 0xFF;
+					total += counts[length];
+				}
+				int[] values = new int[total];
+				for (int i = 0; i < total; i++) {
+					values[i] = data[position++] & 0xFF;
+				}
+				HuffmanTable table = new HuffmanTable(counts, values);
+				if ((info >> 4) == 0) {
+					dcTables[info & 0x3] = table;
+				} else {
+					acTables[info & 0x3] = table;
+				}
+			}
+		}
+
+		/** @return the index of the luma component */
+		private int getLuma() {
+			return 0;
+		}
+
+		private int getComponentWidth(int component) {
+			int maxH = 1;
+			for (int h : horizontalSampling) {
+				maxH = Math.max(maxH, h);
+			}
+			return (width * horizontalSampling[component] + maxH - 1) / maxH;
+		}
+
+		private int getComponentHeight(int component) {
+			int maxV = 1;
+			for (int v : verticalSampling) {
+				maxV = Math.max(maxV, v);
+			}
+			return (height * verticalSampling[component] + maxV - 1) / maxV;
+		}
+
+		private int getPlaneWidth() {
+			return (getComponentWidth(getLuma()) + 7) / 8;
+		}
+
+		private int getPlaneHeight() {
+			return (getComponentHeight(getLuma()) + 7) / 8;
+		}
+
+		/**
+		 * Read a scan. If the scan contains the luma channel the dc image is returned.
+		 * Otherwise the entropy coded data is skipped and null returned.
+		 */
+		private BufferedImage readScan() {
+			int end = position + readShort();
+			int scanComponents = data[position++] & 0xFF;
+			int[] components = new int[scanComponents];
+			HuffmanTable[] dc = new HuffmanTable[scanComponents];
+			HuffmanTable[] ac = new HuffmanTable[scanComponents];
+			int luma = -1;
+			for (int i = 0; i < scanComponents; i++) {
+				int id = data[position++] & 0xFF;
+				int tables = data[position++] & 0xFF;
+				components[i] = -1;
+				for (int c = 0; c < componentIds.length; c++) {
+					if (componentIds[c] == id) {
+						components[i] = c;
+					}
+				}
+				if (components[i] < 0) {
+					throw new IllegalStateException("Unknown component in scan");
+				}
+				if (components[i] == getLuma()) {
+					luma = i;
+				}
+				dc[i] = dcTables[tables >> 4];
+				ac[i] = acTables[tables & 0x3];
+			}
+			position = end;
+
+			if (luma < 0) {
+				skipEntropyCodedData();
+				return null;
+			}
+			for (int i = 0; i < scanComponents; i++) {
+				if (dc[i] == null || ac[i] == null) {
+					throw new IllegalStateException("Missing huffman table");
+				}
+			}
+
+			int planeWidth = getPlaneWidth();
+			int planeHeight = getPlaneHeight();
+			BufferedImage image = new BufferedImage(planeWidth, planeHeight, BufferedImage.TYPE_BYTE_GRAY);
+			byte[] plane = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			int quantization = dcQuantization[quantizationTable[getLuma()]];
+
+			int[] predictors = new int[scanComponents];
+			int mcusX;
+			int mcusY;
+			// Number of blocks of each component per mcu
+			int[] blocksX = new int[scanComponents];
+			int[] blocksY = new int[scanComponents];
+			if (scanComponents == 1) {
+				// Non interleaved scans consist of single blocks
+				mcusX = planeWidth;
+				mcusY = planeHeight;
+				blocksX[0] = 1;
+				blocksY[0] = 1;
+			} else {
+				int maxH = 1;
+				int maxV = 1;
+				for (int c = 0; c < componentIds.length; c++) {
+					maxH = Math.max(maxH, horizontalSampling[c]);
+					maxV = Math.max(maxV, verticalSampling[c]);
+				}
+				mcusX = (width + 8 * maxH - 1) / (8 * maxH);
+				mcusY = (height + 8 * maxV - 1) / (8 * maxV);
+				for (int i = 0; i < scanComponents; i++) {
+					blocksX[i] = horizontalSampling[components[i]];
+					blocksY[i] = verticalSampling[components[i]];
+				}
+			}
+
+			int mcusUntilRestart = restartInterval;
+			for (int mcuY = 0; mcuY < mcusY; mcuY++) {
+				for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+					if (restartInterval > 0) {
+						if (mcusUntilRestart == 0) {
+							restart();
+							predictors = new int[scanComponents];
+							mcusUntilRestart = restartInterval;
+						}
+						mcusUntilRestart--;
+					}
+					for (int i = 0; i < scanComponents; i++) {
+						for (int v = 0; v < blocksY[i]; v++) {
+							for (int h = 0; h < blocksX[i]; h++) {
+								predictors[i] += decodeBlock(dc[i], ac[i]);
+								if (i == luma) {
+									int x = mcuX * blocksX[i] + h;
+									int y = mcuY * blocksY[i] + v;
+									// Skip padding blocks outside of the image
+									if (x < planeWidth && y < planeHeight) {
+										// Mean of the block
+										int value = Math.round(predictors[i] * quantization / 8f) + 128;
+										plane[y * planeWidth + x] = (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+									}
+								}
+							}
+						}
+					}
+				}
+			}
+			return image;
+		}
+
+		private void skipEntropyCodedData() {
+			while (position < data.length - 1) {
+				if ((data[position] & 0xFF) == 0xFF) {
+					int next = data[position + 1] & 0xFF;
+					// Stuffed zero, fill byte or restart marker
+					if (next != 0 && next != 0xFF && (next < 0xD0 || next > 0xD7)) {
+						return;
+					}
+				}
+				position++;
+			}
+		}
+
+		/**
+		 * Align to the next byte and consume the restart marker
+		 */
+		private void restart() {
+			bitBuffer = 0;
+			bitCount = 0;
+			markerReached = false;
+			while (position < data.length - 1) {
+				if ((data[position] & 0xFF) == 0xFF) {
+					int next = data[position + 1] & 0xFF;
+					if (next >= 0xD0 && next <= 0xD7) {
+						position += 2;
+						return;
+					}
+					if (next != 0xFF && next != 0) {
+						// Another marker. Data is corrupt
+						return;
+					}
+				}
+				position++;
+			}
+		}
+
+		/**
+		 * Decode a single block. Only the dc difference is returned, ac coefficients
+		 * are skipped.
+		 */
+		private int decodeBlock(HuffmanTable dc, HuffmanTable ac) {
+			int size = decodeHuffman(dc);
+			int difference = size == 0 ? 0 : extend(readBits(size), size);
+			for (int k = 1; k < 64;) {
+				int symbol = decodeHuffman(ac);
+				int run = symbol >> 4;
+				int bits = symbol & 0xF;
+				if (bits == 0) {
+					if (run != 15) {
+						// End of block
+						break;
+					}
+					k += 16;
+				} else {
+					k += run + 1;
+					readBits(bits);
+				}
+			}
+			return difference;
+		}
+
+		private void fill() {
+			while (bitCount <= 24) {
+				int value = 0;
+				if (!markerReached && position < data.length) {
+					value = data[position] & 0xFF;
+					if (value == 0xFF) {
+						int next = position + 1 < data.length ? data[position + 1] & 0xFF : 0xD9;
+						if (next == 0) {
+							// Stuffed byte
+							position += 2;
+						} else {
+							// Marker. Feed zeros until it is consumed
+							markerReached = true;
+							value = 0;
+						}
+					} else {
+						position++;
+					}
+				}
+				bitBuffer |= value << (24 - bitCount);
+				bitCount += 8;
+			}
+		}
+
+		private int readBits(int count) {
+			if (bitCount < count) {
+				fill();
+			}
+			int value = bitBuffer >>> (32 - count);
+			bitBuffer <<= count;
+			bitCount -= count;
+			return value;
+		}
+
+		private int decodeHuffman(HuffmanTable table) {
+			if (bitCount < 16) {
+				fill();
+			}
+			int entry = table.lookup[bitBuffer >>> (32 - HuffmanTable.LOOKUP_BITS)];
+			if (entry != 0) {
+				int length = entry >> 8;
+				bitBuffer <<= length;
+				bitCount -= length;
+				return entry & 0xFF;
+			}
+			int code = 0;
+			int length = 0;
+			do {
+				code = (code << 1) | (bitBuffer >>> 31);
+				bitBuffer <<= 1;
+				bitCount--;
+				length++;
+			} while (code > table.maxCode[length]);
+			if (length > 16) {
+				throw new IllegalStateException("Invalid huffman code");
+			}
+			return table.values[table.valueOffset[length] + code];
+		}
+
+		private static int extend(int value, int size) {
+			return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+		}
+	}
+
+}
@@ -0,0 +1,374 @@
+package com.jstarcraft.dip.color;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import com.github.kilianB.Require;
+
+/**
+ * Downscales images which are too large to be held in memory at once. The
+ * source is read in tiles ({@link ImageReadParam#setSourceRegion(Rectangle)})
+ * whose area averages are accumulated into the target grid. Only a single tile
+ * and the target image are held in memory at any time.
+ *
+ * <p>
+ * If the image format stores the image in tiles (e.g. tiled tiff) the native
+ * tile grid is used. Otherwise the image is read in horizontal strips.
+ * Sequential formats like jpeg or png would have to decode all rows above a
+ * strip every time a strip is read, letting the time grow quadratically with
+ * the height of the image. Images of these formats are decoded in a single
+ * pass instead. If the image holds more pixels than a tile, only every n-th
+ * pixel of every n-th row is decoded
+ * ({@link ImageReadParam#setSourceSubsampling(int, int, int, int)}) to keep the
+ * decoded image within the size of a tile.
+ *
+ * <p>
+ * Every target pixel is the exact area average of the source pixels it
+ * covers, which is independent of the tile size. Subsampled images are the
+ * area average of the decoded pixels.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class TiledDownscaler {
+
+	/** Default maximum number of pixels read at once */
+	public static final int DEFAULT_TILE_PIXELS = 1 << 22;
+
+	/** Formats storing strips which can be decoded independently of each other */
+	private static final Set<String> STRIPPED_FORMATS = new HashSet<>(Arrays.asList("tif", "tiff"));
+
+	private TiledDownscaler() {
+	}
+
+	/**
+	 * Read and downscale the image reading at most {@link #DEFAULT_TILE_PIXELS}
+	 * pixels at once.
+	 *
+	 * @param file   the image file
+	 * @param width  the width of the downscaled image
+	 * @param height the height of the downscaled image
+	 * @return the downscaled image or null if no registered reader is able to
+	 *         decode the file
+	 * @throws IOException if an error occurs during reading
+	 * @see #read(File, int, int, int)
+	 */
+	public static BufferedImage read(File file, int width, int height) throws IOException {
+		return read(file, width, height, DEFAULT_TILE_PIXELS);
+	}
+
+	/**
+	 * Read and downscale the image tile by tile. Images smaller than the target
+	 * dimension are not upscaled.
+	 *
+	 * @param file          the image file
+	 * @param width         the width of the downscaled image
+	 * @param height        the height of the downscaled image
+	 * @param maxTilePixels the maximum number of pixels read at once
+	 * @return the downscaled image or null if no registered reader is able to
+	 *         decode the file
+	 * @throws IOException              if an error occurs during reading
+	 * @throws IllegalArgumentException if any of the arguments is not positive
+	 */
+	public static BufferedImage read(File file, int width, int height, int maxTilePixels) throws IOException {
+		Require.positiveValue(width, "Width has to be positive");
+		Require.positiveValue(height, "Height has to be positive");
+		Require.positiveValue(maxTilePixels, "Tile size has to be positive");
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			return read(input, width, height, maxTilePixels);
+		}
+	}
+
+	/**
+	 * Downscale the content of an image file tile by tile. Images smaller than the
+	 * target dimension are not upscaled.
+	 *
+	 * @param data          the content of the image file
+	 * @param width         the width of the downscaled image
+	 * @param height        the height of the downscaled image
+	 * @param maxTilePixels the maximum number of pixels read at once
+	 * @return the downscaled image or null if no registered reader is able to
+	 *         decode the data
+	 * @throws IOException              if an error occurs during reading
+	 * @throws IllegalArgumentException if any of the arguments is not positive
+	 */
+	public static BufferedImage read(byte[] data, int width, int height, int maxTilePixels) throws IOException {
+		Require.positiveValue(width, "Width has to be positive");
+		Require.positiveValue(height, "Height has to be positive");
+		Require.positiveValue(maxTilePixels, "Tile size has to be positive");
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			return read(input, width, height, maxTilePixels);
+		}
+	}
+
+	private static BufferedImage read(ImageInputStream input, int width, int height, int maxTilePixels) throws IOException {
+		if (input == null) {
+			return null;
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+		if (!readers.hasNext()) {
+			return null;
+		}
+		ImageReader reader = readers.next();
+		try {
+			// Regions are read one after another. Seeking back has to be allowed
+			reader.setInput(input, false, true);
+			int sourceWidth = reader.getWidth(0);
+			int sourceHeight = reader.getHeight(0);
+
+			int tileWidth;
+			int tileHeight;
+			if (reader.isImageTiled(0) && (long) reader.getTileWidth(0) * reader.getTileHeight(0) <= maxTilePixels) {
+				tileWidth = reader.getTileWidth(0);
+				tileHeight = reader.getTileHeight(0);
+			} else {
+				tileWidth = Math.min(sourceWidth, maxTilePixels);
+				tileHeight = Math.max(1, maxTilePixels / tileWidth);
+			}
+
+			if (!readsRegionsCheaply(reader)) {
+				return readSubsampled(reader, sourceWidth, sourceHeight, width, height, maxTilePixels);
+			}
+			Accumulator accumulator = new Accumulator(sourceWidth, sourceHeight, Math.min(width, sourceWidth), Math.min(height, sourceHeight));
+			ImageReadParam param = reader.getDefaultReadParam();
+			for (int y = 0; y < sourceHeight; y += tileHeight) {
+				for (int x = 0; x < sourceWidth; x += tileWidth) {
+					param.setSourceRegion(new Rectangle(x, y, Math.min(tileWidth, sourceWidth - x), Math.min(tileHeight, sourceHeight - y)));
+					accumulator.add(reader.read(0, param), x, y);
+				}
+			}
+			return accumulator.toImage();
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	/**
+	 * Decode the image in a single pass. Images larger than a tile are subsampled
+	 * by the smallest factor fitting the decoded image into a tile, but never
+	 * below the target dimension.
+	 */
+	private static BufferedImage readSubsampled(ImageReader reader, int sourceWidth, int sourceHeight, int width, int height, int maxTilePixels) throws IOException {
+		int factor = subsamplingFactor(sourceWidth, sourceHeight, width, height, maxTilePixels);
+		ImageReadParam param = reader.getDefaultReadParam();
+		if (factor > 1) {
+			param.setSourceSubsampling(factor, factor, 0, 0);
+		}
+		BufferedImage image = reader.read(0, param);
+		Accumulator accumulator = new Accumulator(image.getWidth(), image.getHeight(), Math.min(width, image.getWidth()), Math.min(height, image.getHeight()));
+		accumulator.add(image, 0, 0);
+		return accumulator.toImage();
+	}
+
+	/**
+	 * @return the smallest subsampling factor keeping the decoded image within
+	 *         <code>maxTilePixels</code> without dropping below the target
+	 *         dimension
+	 */
+	static int subsamplingFactor(int sourceWidth, int sourceHeight, int width, int height, int maxTilePixels) {
+		// Decoded images are at least as large as the target
+		int maxFactor = Math.max(1, Math.min(sourceWidth / width, sourceHeight / height));
+		int factor = Math.max(1, (int) Math.sqrt((double) sourceWidth * sourceHeight / maxTilePixels));
+		while (factor < maxFactor && (long) ceilDiv(sourceWidth, factor) * ceilDiv(sourceHeight, factor) > maxTilePixels) {
+			factor++;
+		}
+		return Math.min(factor, maxFactor);
+	}
+
+	private static int ceilDiv(int value, int divisor) {
+		return (value + divisor - 1) / divisor;
+	}
+
+	/**
+	 * Check if the reader is able to read a region of the first image without
+	 * decoding the parts of the image preceding it.
+	 *
+	 * @param reader the reader with it's input set
+	 * @return true if regions can be read independently of each other
+	 * @throws IOException if an error occurs reading the header of the image
+	 */
+	static boolean readsRegionsCheaply(ImageReader reader) throws IOException {
+		if (reader.isImageTiled(0) || reader.isRandomAccessEasy(0)) {
+			return true;
+		}
+		String format = reader.getFormatName();
+		return format != null && STRIPPED_FORMATS.contains(format.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Downscale an image held in memory computing the exact area average of every
+	 * target pixel. Images smaller than the target dimension are not upscaled.
+	 *
+	 * @param image  the source image
+	 * @param width  the width of the downscaled image
+	 * @param height the height of the downscaled image
+	 * @return the downscaled image
+	 * @throws IllegalArgumentException if any of the dimensions is not positive
+	 */
+	public static BufferedImage scale(BufferedImage image, int width, int height) {
+		Require.positiveValue(width, "Width has to be positive");
+		Require.positiveValue(height, "Height has to be positive");
+		Accumulator accumulator = new Accumulator(image.getWidth(), image.getHeight(), Math.min(width, image.getWidth()), Math.min(height, image.getHeight()));
+		accumulator.add(image, 0, 0);
+		return accumulator.toImage();
+	}
+
+	/**
+	 * Sums the weighted values of source pixels in the target grid.
+	 */
+	static class Accumulator {
+
+		private final int sourceWidth;
+
+		private final int sourceHeight;
+
+		private final int width;
+
+		private final int height;
+
+		/**
+		 * A source pixel covers at most two target cells per axis. Index of the first
+		 * cell and the share (in units of 1/source size) of the pixel falling into it
+		 */
+		private final int[] columnCell;
+
+		private final int[] columnWeight;
+
+		private final int[] rowCell;
+
+		private final int[] rowWeight;
+
+		/** Weighted sums of alpha, red, green and blue or of the gray value */
+		private double[][] sums;
+
+		private boolean grayscale;
+
+		private boolean alpha;
+
+		Accumulator(int sourceWidth, int sourceHeight, int width, int height) {
+			this.sourceWidth = sourceWidth;
+			this.sourceHeight = sourceHeight;
+			this.width = width;
+			this.height = height;
+			columnCell = new int[sourceWidth];
+			columnWeight = new int[sourceWidth];
+			rowCell = new int[sourceHeight];
+			rowWeight = new int[sourceHeight];
+			computeWeights(sourceWidth, width, columnCell, columnWeight);
+			computeWeights(sourceHeight, height, rowCell, rowWeight);
+		}
+
+		/**
+		 * Source pixel i spans [i * target, (i + 1) * target) and target cell j spans
+		 * [j * source, (j + 1) * source).
+		 */
+		private static void computeWeights(int source, int target, int[] cell, int[] weight) {
+			for (int i = 0; i < source; i++) {
+				long start = (long) i * target;
+				int j = (int) (start / source);
+				cell[i] = j;
+				weight[i] = (int) (Math.min((long) (j + 1) * source, start + target) - start);
+			}
+		}
+
+		void add(BufferedImage tile, int offsetX, int offsetY) {
+			if (sums == null) {
+				Raster raster = tile.getRaster();
+				grayscale = raster.getNumBands() == 1 && !(tile.getColorModel() instanceof IndexColorModel);
+				alpha = tile.getColorModel().hasAlpha();
+				sums = new double[grayscale ? 1 : 4][width * height];
+			}
+			int tileWidth = tile.getWidth();
+			int tileHeight = tile.getHeight();
+			int[] row = new int[tileWidth];
+			double[] values = new double[sums.length];
+			double grayScale = grayscale ? 255d / ((1 << tile.getColorModel().getComponentSize(0)) - 1) : 1;
+			for (int y = 0; y < tileHeight; y++) {
+				if (grayscale) {
+					tile.getRaster().getSamples(0, y, tileWidth, 1, 0, row);
+				} else {
+					tile.getRGB(0, y, tileWidth, 1, row, 0, tileWidth);
+				}
+				int sourceY = offsetY + y;
+				int cellY = rowCell[sourceY];
+				int weightY = rowWeight[sourceY];
+				for (int x = 0; x < tileWidth; x++) {
+					int value = row[x];
+					if (grayscale) {
+						values[0] = value * grayScale;
+					} else {
+						values[0] = (value >>> 24) & 0xFF;
+						values[1] = (value >> 16) & 0xFF;
+						values[2] = (value >> 8) & 0xFF;
+						values[3] = value & 0xFF;
+					}
+					int sourceX = offsetX + x;
+					int cellX = columnCell[sourceX];
+					int weightX = columnWeight[sourceX];
+					accumulate(cellX, cellY, (long) weightX * weightY, values);
+					if (weightX < width) {
+						accumulate(cellX + 1, cellY, (long) (width - weightX) * weightY, values);
+					}
+					if (weightY < height) {
+						accumulate(cellX, cellY + 1, (long) weightX * (height - weightY), values);
+						if (weightX < width) {
+							accumulate(cellX + 1, cellY + 1, (long) (width - weightX) * (height - weightY), values);
+						}
+					}
+				}
+			}
+		}
+
+		private void accumulate(int x, int y, long weight, double[] values) {
+			int index = y * width + x;
+			for (int channel = 0; channel < values.length; channel++) {
+				sums[channel][index] += weight * values[channel];
+			}
+		}
+
+		BufferedImage toImage() {
+			double area = (double) sourceWidth * sourceHeight;
+			if (grayscale) {
+				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+				WritableRaster raster = image.getRaster();
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						raster.setSample(x, y, 0, (int) Math.round(sums[0][y * width + x] / area));
+					}
+				}
+				return image;
+			}
+			BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int index = y * width + x;
+					int argb = 0;
+					for (int channel = 0; channel < 4; channel++) {
+						argb = (argb << 8) | (int) Math.round(sums[channel][index] / area);
+					}
+					image.setRGB(x, y, argb);
+				}
+			}
+			return image;
+		}
+	}
+
+}
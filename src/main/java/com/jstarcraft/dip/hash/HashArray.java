@@ -0,0 +1,260 @@
+package com.jstarcraft.dip.hash;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Stores the hashes of a single hashing algorithm in a primitive long array
+ * indexed by a dense int id. Compared to a map of {@link Hash} objects no
+ * object is allocated per entry and the hamming distance is computed directly
+ * on the packed words.
+ *
+ * <p>
+ * All hashes have to share the bit resolution and algorithm id of the first
+ * hash added. This class is not thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class HashArray implements Serializable {
+
+	private static final long serialVersionUID = -6024806474317542457L;
+
+	/** Bit resolution of the stored hashes. -1 if no hash was added yet */
+	private int bitResolution = -1;
+
+	private int algorithmId;
+
+	/** Number of longs used per hash */
+	private int stride;
+
+	private long[] words = new long[0];
+
+	/** Ids currently holding a hash */
+	private final BitSet present = new BitSet();
+
+	/**
+	 * Store the hash at the given id replacing any previous hash.
+	 *
+	 * @param id   the id
+	 * @param hash the hash
+	 * @throws IllegalArgumentException if the hash is not compatible to the hashes
+	 *                                  already stored
+	 */
+	public void set(int id, Hash hash) {
+		if (bitResolution < 0) {
+			bitResolution = hash.getBitResolution();
+			algorithmId = hash.getAlgorithmId();
+			stride = Math.max(1, (bitResolution + 63) / 64);
+		} else if (hash.getBitResolution() != bitResolution || hash.getAlgorithmId() != algorithmId) {
+			throw new IllegalArgumentException("Tried to add an incompatible hash to the hash array");
+		}
+		int required = (id + 1) * stride;
+		if (required > words.length) {
+			words = Arrays.copyOf(words, Math.max(required, words.length * 2));
+		}
+		toWords(hash.getHashValue(), words, id * stride, stride);
+		present.set(id);
+	}
+
+	/**
+	 * @param id the id
+	 * @return true if a hash is stored at the id
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && present.get(id);
+	}
+
+	/**
+	 * @param id the id
+	 * @return the hash stored at the id or null
+	 */
+	public Hash get(int id) {
+		if (!contains(id)) {
+			return null;
+		}
+		byte[] bytes = new byte[stride * 8];
+		int offset = id * stride;
+		for (int word = 0; word < stride; word++) {
+			long value = words[offset + word];
+			int base = bytes.length - (word + 1) * 8;
+			for (int b = 0; b < 8; b++) {
+				bytes[base + 7 - b] = (byte) (value >>> (b * 8));
+			}
+		}
+		return new Hash(new BigInteger(1, bytes), bitResolution, algorithmId);
+	}
+
+	/**
+	 * Remove the hash stored at the id
+	 *
+	 * @param id the id
+	 * @return true if a hash was removed
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) {
+			return false;
+		}
+		present.clear(id);
+		Arrays.fill(words, id * stride, (id + 1) * stride, 0);
+		return true;
+	}
+
+	/**
+	 * Pack the hash into words which can be compared using
+	 * {@link #hammingDistance(int, long[])}.
+	 *
+	 * @param hash the hash
+	 * @return the packed hash
+	 */
+	public long[] pack(Hash hash) {
+		int length = Math.max(1, (hash.getBitResolution() + 63) / 64);
+		long[] packed = new long[length];
+		toWords(hash.getHashValue(), packed, 0, length);
+		return packed;
+	}
+
+	/**
+	 * Hamming distance between the hash stored at the id and a packed hash.
+	 *
+	 * @param id     the id of a stored hash
+	 * @param packed the hash created by {@link #pack(Hash)}
+	 * @return the number of differing bits
+	 */
+	public int hammingDistance(int id, long[] packed) {
+		int offset = id * stride;
+		int distance = 0;
+		for (int word = 0; word < stride; word++) {
+			distance += Long.bitCount(words[offset + word] ^ packed[word]);
+		}
+		return distance;
+	}
+
+	/**
+	 * Hamming distance between two stored hashes.
+	 *
+	 * @param id    the id of a stored hash
+	 * @param other the id of another stored hash
+	 * @return the number of differing bits
+	 * @since 3.0.0
+	 */
+	public int hammingDistance(int id, int other) {
+		int offset = id * stride;
+		int otherOffset = other * stride;
+		int distance = 0;
+		for (int word = 0; word < stride; word++) {
+			distance += Long.bitCount(words[offset + word] ^ words[otherOffset + word]);
+		}
+		return distance;
+	}
+
+	/**
+	 * Check if two stored hashes agree on all bits of a segment. Bit 0 is the
+	 * least significant bit of the hash value.
+	 *
+	 * @param id    the id of a stored hash
+	 * @param other the id of another stored hash
+	 * @param from  the first bit of the segment
+	 * @param to    the bit after the last bit of the segment
+	 * @return true if the segments are equal
+	 * @since 3.0.0
+	 */
+	public boolean segmentEquals(int id, int other, int from, int to) {
+		for (int bit = from; bit < to; bit += 64) {
+			int length = Math.min(64, to - bit);
+			if (bits(id, bit, length) != bits(other, bit, length)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hash code of a segment of a stored hash. Hashes with equal segments share
+	 * the segment hash, allowing to bucket hashes by their segments.
+	 *
+	 * @param id   the id of a stored hash
+	 * @param from the first bit of the segment
+	 * @param to   the bit after the last bit of the segment
+	 * @return the hash code of the segment
+	 * @since 3.0.0
+	 */
+	public long segmentHash(int id, int from, int to) {
+		long result = 17;
+		for (int bit = from; bit < to; bit += 64) {
+			result = 31 * result + bits(id, bit, Math.min(64, to - bit));
+		}
+		return result;
+	}
+
+	/**
+	 * Extract up to 64 consecutive bits of a stored hash
+	 */
+	private long bits(int id, int from, int length) {
+		int offset = id * stride;
+		int word = from >>> 6;
+		int shift = from & 63;
+		long value = words[offset + word] >>> shift;
+		if (shift != 0 && shift + length > 64) {
+			value |= words[offset + word + 1] << (64 - shift);
+		}
+		return length == 64 ? value : value & ((1L << length) - 1);
+	}
+
+	/**
+	 * @return the bit resolution of the stored hashes or -1 if empty
+	 */
+	public int getBitResolution() {
+		return bitResolution;
+	}
+
+	/**
+	 * @return the number of stored hashes
+	 */
+	public int size() {
+		return present.cardinality();
+	}
+
+	private static void toWords(BigInteger value, long[] target, int offset, int length) {
+		for (int word = 0; word < length; word++) {
+			target[offset + word] = value.shiftRight(word * 64).longValue();
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 31 * bitResolution + algorithmId;
+		for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+			result = 31 * result + id;
+			for (int word = 0; word < stride; word++) {
+				result = 31 * result + Long.hashCode(words[id * stride + word]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof HashArray)) {
+			return false;
+		}
+		HashArray other = (HashArray) obj;
+		if (bitResolution != other.bitResolution || algorithmId != other.algorithmId || !present.equals(other.present)) {
+			return false;
+		}
+		for (int id = present.nextSetBit(0); id >= 0; id = present.nextSetBit(id + 1)) {
+			for (int word = 0; word < stride; word++) {
+				if (words[id * stride + word] != other.words[id * stride + word]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
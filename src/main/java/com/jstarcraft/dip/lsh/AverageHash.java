@@ -57,6 +57,11 @@ public class AverageHash extends HashingAlgorithm {
         }
     }
 
+    @Override
+    protected boolean isLuminanceBased() {
+        return true;
+    }
+
     @Override
     protected BigInteger hash(ColorPixel pixel, HashBuilder hash) {
         int[][] luminance = pixel.getLuminanceMatrix();
@@ -0,0 +1,394 @@
+package com.jstarcraft.dip.lsh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.hash.HashArray;
+
+/**
+ * Approximate hamming distance search using locality sensitive hashing by bit
+ * sampling. The index consists of L tables, each table keys the hashes by k
+ * randomly sampled bits. Two hashes of b bits with a distance of d share the
+ * key of a table with probability (1 - d / b)^k and are retrieved as candidate
+ * with probability 1 - (1 - (1 - d / b)^k)^L. Candidates are verified against
+ * their exact hamming distance, the index never returns false positives but
+ * may miss matches.
+ *
+ * <p>
+ * Larger k reduce the number of candidates, larger L increase the recall. See
+ * {@link #forRecall(int, int, double, int, long)} to derive L for a target
+ * recall. In contrast to the binary tree the cost of a query does not grow
+ * with the allowed distance.
+ *
+ * <p>
+ * Buckets are stored as linked lists in primitive int arrays indexed by dense
+ * internal ids, hashes are kept in a {@link HashArray}. This class is not
+ * thread safe.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ * @param <T> the type of the values
+ */
+public class BitSamplingIndex<T> {
+
+    private static final int NONE = -1;
+
+    private final int bitResolution;
+
+    /** Sampled bit positions of each table */
+    private final int[][] samples;
+
+    /** Bucket heads of each table */
+    private final LongIntMap[] buckets;
+
+    /** Next id in the bucket of each table */
+    private int[][] next;
+
+    private final HashArray hashes = new HashArray();
+
+    private final List<T> values = new ArrayList<>();
+
+    /** Stack of unused ids */
+    private int[] free = new int[8];
+
+    private int freeCount;
+
+    private int size;
+
+    /** Query stamp of each id used to skip candidates found by multiple tables */
+    private int[] visited = new int[0];
+
+    private int stamp;
+
+    /**
+     * @param bitResolution the bit resolution of the hashes
+     * @param sampledBits   the number of bits keying each table (k)
+     * @param tables        the number of tables (L)
+     * @param seed          seed used to select the sampled bits
+     * @throws IllegalArgumentException if the number of sampled bits is not in
+     *                                  [1, min(64, bitResolution)] or the number
+     *                                  of tables is not positive
+     */
+    public BitSamplingIndex(int bitResolution, int sampledBits, int tables, long seed) {
+        if (sampledBits < 1 || sampledBits > Math.min(64, bitResolution)) {
+            throw new IllegalArgumentException("The number of sampled bits has to be in [1, min(64, bitResolution)]");
+        }
+        if (tables < 1) {
+            throw new IllegalArgumentException("At least one table is required");
+        }
+        this.bitResolution = bitResolution;
+        this.samples = new int[tables][];
+        this.buckets = new LongIntMap[tables];
+        this.next = new int[tables][0];
+        Random random = new Random(seed);
+        int[] positions = new int[bitResolution];
+        for (int position = 0; position < bitResolution; position++) {
+            positions[position] = position;
+        }
+        for (int table = 0; table < tables; table++) {
+            // Partial Fisher Yates shuffle, sampling without replacement
+            for (int i = 0; i < sampledBits; i++) {
+                int j = i + random.nextInt(bitResolution - i);
+                int temp = positions[i];
+                positions[i] = positions[j];
+                positions[j] = temp;
+            }
+            samples[table] = Arrays.copyOf(positions, sampledBits);
+            buckets[table] = new LongIntMap();
+        }
+    }
+
+    /**
+     * Create an index with the minimal number of tables retrieving hashes within
+     * the given distance with at least the target probability.
+     *
+     * @param bitResolution the bit resolution of the hashes
+     * @param maxDistance   the distance the recall is guaranteed for
+     * @param targetRecall  the probability a hash within the distance is retrieved
+     *                      (0-1)
+     * @param sampledBits   the number of bits keying each table (k)
+     * @param seed          seed used to select the sampled bits
+     * @param <T>           the type of the values
+     * @return the index
+     * @throws IllegalArgumentException if the recall is not in (0, 1)
+     */
+    public static <T> BitSamplingIndex<T> forRecall(int bitResolution, int maxDistance, double targetRecall, int sampledBits, long seed) {
+        return new BitSamplingIndex<>(bitResolution, sampledBits, tablesForRecall(bitResolution, maxDistance, targetRecall, sampledBits), seed);
+    }
+
+    /**
+     * @param bitResolution the bit resolution of the hashes
+     * @param maxDistance   the distance the recall is guaranteed for
+     * @param targetRecall  the probability a hash within the distance is retrieved
+     *                      (0-1)
+     * @param sampledBits   the number of bits keying each table (k)
+     * @return the minimal number of tables (L) reaching the recall
+     * @throws IllegalArgumentException if the recall is not in (0, 1)
+     */
+    public static int tablesForRecall(int bitResolution, int maxDistance, double targetRecall, int sampledBits) {
+        if (targetRecall <= 0 || targetRecall >= 1) {
+            throw new IllegalArgumentException("The target recall has to be in (0, 1)");
+        }
+        double collision = Math.pow(1 - Math.min(maxDistance, bitResolution) / (double) bitResolution, sampledBits);
+        if (collision <= 0) {
+            throw new IllegalArgumentException("Hashes at distance " + maxDistance + " can not collide");
+        }
+        if (collision >= 1) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.ceil(Math.log(1 - targetRecall) / Math.log(1 - collision)));
+    }
+
+    /**
+     * @param bitResolution the bit resolution of the hashes
+     * @param distance      the distance of two hashes
+     * @param sampledBits   the number of bits keying each table (k)
+     * @param tables        the number of tables (L)
+     * @return the probability hashes of the given distance are retrieved
+     */
+    public static double recall(int bitResolution, int distance, int sampledBits, int tables) {
+        double collision = Math.pow(1 - Math.min(distance, bitResolution) / (double) bitResolution, sampledBits);
+        return 1 - Math.pow(1 - collision, tables);
+    }
+
+    /**
+     * Add the value to the index.
+     *
+     * @param hash  the hash of the value
+     * @param value the value
+     * @throws IllegalArgumentException if the hash is not compatible to the index
+     */
+    public void addHash(Hash hash, T value) {
+        checkResolution(hash);
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+            hashes.set(id, hash);
+            values.set(id, value);
+        } else {
+            id = values.size();
+            hashes.set(id, hash);
+            values.add(value);
+            if (id >= next[0].length) {
+                int capacity = Math.max(16, next[0].length * 2);
+                for (int table = 0; table < next.length; table++) {
+                    next[table] = Arrays.copyOf(next[table], capacity);
+                }
+                visited = Arrays.copyOf(visited, capacity);
+            }
+        }
+        long[] packed = hashes.pack(hash);
+        for (int table = 0; table < samples.length; table++) {
+            long key = key(table, packed);
+            next[table][id] = buckets[table].get(key);
+            buckets[table].put(key, id);
+        }
+        size++;
+    }
+
+    /**
+     * Remove the value added with the given hash.
+     *
+     * @param hash  the hash of the value
+     * @param value the value
+     * @return true if the value was removed
+     */
+    public boolean removeHash(Hash hash, T value) {
+        checkResolution(hash);
+        long[] packed = hashes.pack(hash);
+        int id = NONE;
+        for (int candidate = buckets[0].get(key(0, packed)); candidate != NONE; candidate = next[0][candidate]) {
+            if (Objects.equals(values.get(candidate), value) && hashes.hammingDistance(candidate, packed) == 0) {
+                id = candidate;
+                break;
+            }
+        }
+        if (id == NONE) {
+            return false;
+        }
+        for (int table = 0; table < samples.length; table++) {
+            long key = key(table, packed);
+            int head = buckets[table].get(key);
+            if (head == id) {
+                if (next[table][id] == NONE) {
+                    buckets[table].remove(key);
+                } else {
+                    buckets[table].put(key, next[table][id]);
+                }
+            } else {
+                int previous = head;
+                while (next[table][previous] != id) {
+                    previous = next[table][previous];
+                }
+                next[table][previous] = next[table][id];
+            }
+        }
+        hashes.remove(id);
+        values.set(id, null);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = id;
+        size--;
+        return true;
+    }
+
+    /**
+     * Return the values whose hashes are within the max distance and share the
+     * key of at least one table with the hash.
+     *
+     * @param hash        the hash to search for
+     * @param maxDistance the maximal hamming distance of the returned values
+     * @return the values found ordered to return the closest match first
+     * @throws IllegalArgumentException if the hash is not compatible to the index
+     */
+    public PriorityQueue<Result<T>> getElementsWithinHammingDistance(Hash hash, int maxDistance) {
+        checkResolution(hash);
+        PriorityQueue<Result<T>> result = new PriorityQueue<>();
+        if (size == 0) {
+            return result;
+        }
+        long[] packed = hashes.pack(hash);
+        if (++stamp == 0) {
+            Arrays.fill(visited, 0);
+            stamp = 1;
+        }
+        for (int table = 0; table < samples.length; table++) {
+            for (int id = buckets[table].get(key(table, packed)); id != NONE; id = next[table][id]) {
+                if (visited[id] == stamp) {
+                    continue;
+                }
+                visited[id] = stamp;
+                int distance = hashes.hammingDistance(id, packed);
+                if (distance <= maxDistance) {
+                    result.add(new Result<>(values.get(id), distance, distance / (double) bitResolution));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of values in the index
+     */
+    public int getHashCount() {
+        return size;
+    }
+
+    /**
+     * @return the number of bits keying each table (k)
+     */
+    public int getSampledBits() {
+        return samples[0].length;
+    }
+
+    /**
+     * @return the number of tables (L)
+     */
+    public int getTables() {
+        return samples.length;
+    }
+
+    private void checkResolution(Hash hash) {
+        if (hash.getBitResolution() != bitResolution) {
+            throw new IllegalArgumentException("The hash has a bit resolution of " + hash.getBitResolution() + " instead of " + bitResolution);
+        }
+    }
+
+    private long key(int table, long[] packed) {
+        int[] positions = samples[table];
+        long key = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            key |= ((packed[position >>> 6] >>> (position & 63)) & 1L) << i;
+        }
+        return key;
+    }
+
+    /**
+     * Open addressing map from bucket keys to the first id of the bucket
+     */
+    private static final class LongIntMap {
+
+        private long[] keys = new long[16];
+
+        /** Head of each slot, NONE marks unused slots */
+        private int[] heads = new int[16];
+
+        private int mask = 15;
+
+        private int size;
+
+        LongIntMap() {
+            Arrays.fill(heads, NONE);
+        }
+
+        private static int mix(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        private int slot(long key) {
+            int slot = mix(key) & mask;
+            while (heads[slot] != NONE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int get(long key) {
+            return heads[slot(key)];
+        }
+
+        void put(long key, int head) {
+            int slot = slot(key);
+            if (heads[slot] == NONE) {
+                keys[slot] = key;
+                size++;
+            }
+            heads[slot] = head;
+            if (size > heads.length / 2) {
+                long[] oldKeys = keys;
+                int[] oldHeads = heads;
+                keys = new long[oldKeys.length * 2];
+                heads = new int[oldHeads.length * 2];
+                Arrays.fill(heads, NONE);
+                mask = heads.length - 1;
+                for (int i = 0; i < oldHeads.length; i++) {
+                    if (oldHeads[i] != NONE) {
+                        int target = slot(oldKeys[i]);
+                        keys[target] = oldKeys[i];
+                        heads[target] = oldHeads[i];
+                    }
+                }
+            }
+        }
+
+        void remove(long key) {
+            int gap = slot(key);
+            if (heads[gap] == NONE) {
+                return;
+            }
+            // Shift following entries of the probe sequence into the gap
+            int next = (gap + 1) & mask;
+            while (heads[next] != NONE) {
+                int home = mix(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    heads[gap] = heads[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            heads[gap] = NONE;
+            size--;
+        }
+    }
+
+}
@@ -0,0 +1,316 @@
+package com.jstarcraft.dip.lsh;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import com.github.kilianB.Require;
+import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.hash.Hash;
+
+/**
+ * Calculate average hashes for every block of a multi scale grid laid over an
+ * image. Matching individual blocks instead of the entire image allows to
+ * detect crops and partially reused images.
+ *
+ * <p>
+ * Instead of rescaling a sub image for every block a single summed area table
+ * of the luminance is created. The sum of any rectangle can be read from the
+ * table with 4 lookups, therefore every cell of every block and scale is
+ * computed in constant time.
+ *
+ * <p>
+ * Every block is divided into cellDimension x cellDimension cells. A bit is set
+ * if the average luminance of the cell is greater or equal than the average
+ * luminance of the block, analogous to the {@link AverageHash}. Blocks of all
+ * scales share the same algorithm id and can be compared to each other, a crop
+ * of an image covering a single block will match this block with it's coarsest
+ * scale.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class BlockAverageHash {
+
+    /** Number of cells per block axis */
+    private final int cellDimension;
+
+    /** Number of blocks per image axis of each scale */
+    private final int[] gridDimensions;
+
+    /** Shift blocks by half their size */
+    private final boolean overlapping;
+
+    /**
+     * Minimum difference between the brightest and darkest cell of a block. Flat
+     * blocks yield arbitrary hashes which would match any other flat block.
+     */
+    private double minContrast = 4;
+
+    private final int algorithmId;
+
+    /**
+     * Create a block hasher using non overlapping blocks.
+     *
+     * @param cellDimension  the number of cells per block axis. The hashes will
+     *                       have cellDimension * cellDimension bits
+     * @param gridDimensions the number of blocks per image axis of each scale. A
+     *                       grid dimension of 1 hashes the entire image
+     * @see #BlockAverageHash(int, boolean, int...)
+     */
+    public BlockAverageHash(int cellDimension, int... gridDimensions) {
+        this(cellDimension, false, gridDimensions);
+    }
+
+    /**
+     * Create a block hasher.
+     *
+     * @param cellDimension  the number of cells per block axis. The hashes will
+     *                       have cellDimension * cellDimension bits
+     * @param overlapping    if true blocks are shifted by half their size instead
+     *                       of their full size, increasing the chance that a crop
+     *                       is aligned with one of the blocks
+     * @param gridDimensions the number of blocks per image axis of each scale. A
+     *                       grid dimension of 1 hashes the entire image
+     * @throws IllegalArgumentException if any of the dimensions is not positive or
+     *                                  no grid dimension is supplied
+     */
+    public BlockAverageHash(int cellDimension, boolean overlapping, int... gridDimensions) {
+        Require.positiveValue(cellDimension, "Cell dimension has to be positive");
+        if (gridDimensions.length == 0) {
+            throw new IllegalArgumentException("At least one grid dimension has to be supplied");
+        }
+        for (int gridDimension : gridDimensions) {
+            Require.positiveValue(gridDimension, "Grid dimensions have to be positive");
+        }
+        this.cellDimension = cellDimension;
+        this.overlapping = overlapping;
+        this.gridDimensions = gridDimensions.clone();
+        Arrays.sort(this.gridDimensions);
+        this.algorithmId = Objects.hash(getClass().getName(), cellDimension);
+    }
+
+    /**
+     * Blocks whose brightest and darkest cell differ by less than the given
+     * luminance are omitted. Defaults to 4.
+     *
+     * @param minContrast the minimum luminance difference [0 - 255]
+     */
+    public void setMinContrast(double minContrast) {
+        this.minContrast = minContrast;
+    }
+
+    /**
+     * Calculate the hashes of all blocks of all scales.
+     *
+     * @param image the image to hash
+     * @return the blocks ordered by scale, coarsest scale first. Blocks smaller
+     *         than the cell grid or without contrast are omitted.
+     */
+    public List<Block> hash(BufferedImage image) {
+        ColorPixel pixel = ColorPixel.convert(detach(image));
+        int width = pixel.getWidth();
+        int height = pixel.getHeight();
+        long[] table = createSummedAreaTable(pixel);
+
+        List<Block> blocks = new ArrayList<>();
+        int cells = cellDimension * cellDimension;
+        double[] averages = new double[cells];
+        for (int gridDimension : gridDimensions) {
+            double blockWidth = width / (double) gridDimension;
+            double blockHeight = height / (double) gridDimension;
+            if (blockWidth < cellDimension || blockHeight < cellDimension) {
+                // Finer scales would be even smaller
+                break;
+            }
+            int positions = overlapping && gridDimension > 1 ? gridDimension * 2 - 1 : gridDimension;
+            double stepX = overlapping ? blockWidth / 2 : blockWidth;
+            double stepY = overlapping ? blockHeight / 2 : blockHeight;
+            double cellWidth = blockWidth / cellDimension;
+            double cellHeight = blockHeight / cellDimension;
+            for (int blockX = 0; blockX < positions; blockX++) {
+                for (int blockY = 0; blockY < positions; blockY++) {
+                    double left = blockX * stepX;
+                    double top = blockY * stepY;
+                    double minimum = Double.MAX_VALUE;
+                    double maximum = -Double.MAX_VALUE;
+                    double average = 0;
+                    int index = 0;
+                    for (int x = 0; x < cellDimension; x++) {
+                        int x0 = (int) Math.round(left + x * cellWidth);
+                        int x1 = (int) Math.round(left + (x + 1) * cellWidth);
+                        for (int y = 0; y < cellDimension; y++) {
+                            int y0 = (int) Math.round(top + y * cellHeight);
+                            int y1 = (int) Math.round(top + (y + 1) * cellHeight);
+                            double value = sum(table, width, x0, y0, x1, y1) / (double) ((x1 - x0) * (y1 - y0));
+                            averages[index++] = value;
+                            minimum = Math.min(minimum, value);
+                            maximum = Math.max(maximum, value);
+                            average += value;
+                        }
+                    }
+                    if (maximum - minimum < minContrast) {
+                        continue;
+                    }
+                    average /= cells;
+
+                    HashBuilder builder = new HashBuilder(cells);
+                    for (double value : averages) {
+                        if (value < average) {
+                            builder.prependZero();
+                        } else {
+                            builder.prependOne();
+                        }
+                    }
+                    int x0 = (int) Math.round(left);
+                    int y0 = (int) Math.round(top);
+                    int x1 = (int) Math.round(left + blockWidth);
+                    int y1 = (int) Math.round(top + blockHeight);
+                    Hash hash = new Hash(builder.toBigInteger(), cells, algorithmId);
+                    blocks.add(new Block(hash, gridDimension, x0, y0, x1 - x0, y1 - y0));
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Pixel accessors read the data buffer directly. Sub images created by
+     * {@link BufferedImage#getSubimage(int, int, int, int)} share the buffer of
+     * their parent and have to be copied first.
+     */
+    private static BufferedImage detach(BufferedImage image) {
+        if (image.getRaster().getParent() == null) {
+            return image;
+        }
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = copy.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return copy;
+    }
+
+    /**
+     * Create a table with (width + 1) * (height + 1) entries. Entry (x, y) holds
+     * the luminance sum of all pixels left and above of it.
+     */
+    static long[] createSummedAreaTable(ColorPixel pixel) {
+        int width = pixel.getWidth();
+        int height = pixel.getHeight();
+        int stride = width + 1;
+        long[] table = new long[stride * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            long row = 0;
+            int offset = (y + 1) * stride;
+            for (int x = 0; x < width; x++) {
+                row += pixel.getLuminanceScalar(x, y);
+                table[offset + x + 1] = table[offset - stride + x + 1] + row;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sum of the rectangle [x0, x1) x [y0, y1)
+     */
+    static long sum(long[] table, int width, int x0, int y0, int x1, int y1) {
+        int stride = width + 1;
+        return table[y1 * stride + x1] - table[y0 * stride + x1] - table[y1 * stride + x0] + table[y0 * stride + x0];
+    }
+
+    /**
+     * @return the number of bits of each block hash
+     */
+    public int getKeyResolution() {
+        return cellDimension * cellDimension;
+    }
+
+    /**
+     * @return the algorithm id shared by the hashes of all blocks
+     */
+    public int algorithmId() {
+        return algorithmId;
+    }
+
+    /**
+     * The hash of a single block and the region of the image it covers.
+     *
+     * @author Kilian
+     * @since 3.0.0
+     */
+    public static class Block {
+
+        private final Hash hash;
+
+        private final int gridDimension;
+
+        private final int x;
+
+        private final int y;
+
+        private final int width;
+
+        private final int height;
+
+        Block(Hash hash, int gridDimension, int x, int y, int width, int height) {
+            this.hash = hash;
+            this.gridDimension = gridDimension;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return the hash of the block
+         */
+        public Hash getHash() {
+            return hash;
+        }
+
+        /**
+         * @return the number of blocks per image axis of the scale this block belongs
+         *         to
+         */
+        public int getGridDimension() {
+            return gridDimension;
+        }
+
+        /**
+         * @return the left pixel coordinate of the block
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * @return the top pixel coordinate of the block
+         */
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * @return the width of the block in pixel
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return the height of the block in pixel
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public String toString() {
+            return "Block [grid=" + gridDimension + ", x=" + x + ", y=" + y + ", width=" + width + ", height=" + height + ", hash=" + hash + "]";
+        }
+    }
+
+}
@@ -147,6 +147,11 @@ public class DifferenceHash extends HashingAlgorithm {
         return hash.toBigInteger();
     }
 
+    @Override
+    protected boolean isLuminanceBased() {
+        return true;
+    }
+
     @Override
     protected int precomputeAlgoId() {
         // + 1 to ensure id is incompatible to earlier version
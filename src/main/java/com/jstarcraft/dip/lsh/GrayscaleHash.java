@@ -54,4 +54,10 @@ public class GrayscaleHash extends AverageHash {
         return computeHash(hash, grayscale, average);
     }
 
+    @Override
+    protected boolean isLuminanceBased() {
+        // The grayscale value is the mean of the color channels
+        return false;
+    }
+
 }
@@ -0,0 +1,212 @@
+package com.jstarcraft.dip.lsh;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+
+import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.color.ImageUtility;
+import com.jstarcraft.dip.color.TiledDownscaler;
+import com.jstarcraft.dip.hash.Hash;
+
+/**
+ * Compute the hashes of multiple luminance based hashing algorithms, e.g.
+ * {@link AverageHash AverageHashes} of different resolutions and
+ * {@link DifferenceHash DifferenceHashes}, from a single image pyramid.
+ *
+ * <p>
+ * The source image is scaled once to the largest resolution required by any of
+ * the algorithms. Every smaller resolution is the area average of this base
+ * level instead of another pass over the source image. As luminance is a
+ * linear combination of the color channels averaging the pixels equals
+ * averaging the luminance.
+ *
+ * <p>
+ * Area averaging is less prone to aliasing than the nearest neighbour scaling
+ * of the standalone algorithm, therefore the smaller resolutions differ from
+ * hashes created by the algorithm itself. Hashes of these levels carry an id
+ * derived from the algorithm id and the base resolution, see
+ * {@link #algorithmId(HashingAlgorithm)}. Binary trees reject comparing them to
+ * hashes of the standalone algorithm. Images added to a matcher by a family
+ * have to be queried with hashes of the same family, e.g.
+ * {@link com.github.kilianB.matcher.persistent.PersistentImageMatcher#getMatchingImages(Bundle)}.
+ *
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class HashFamily {
+
+    private final List<HashingAlgorithm> algorithms;
+
+    private final int baseWidth;
+
+    private final int baseHeight;
+
+    /**
+     * @param algorithms the luminance based algorithms to compute. Algorithms with
+     *                   image converters are not supported, as converters are
+     *                   applied to the individual resolution. Neither are
+     *                   algorithms decoding files on their own, e.g. using
+     *                   {@link HashingAlgorithm#setSubsampledDecoding(int)}.
+     * @throws IllegalArgumentException if no algorithm is supplied or any
+     *                                  algorithm is not luminance based, uses
+     *                                  converters or a custom decoding
+     */
+    public HashFamily(HashingAlgorithm... algorithms) {
+        if (algorithms.length == 0) {
+            throw new IllegalArgumentException("At least one hashing algorithm has to be supplied");
+        }
+        int width = 0;
+        int height = 0;
+        for (HashingAlgorithm algorithm : algorithms) {
+            Objects.requireNonNull(algorithm);
+            if (!algorithm.isLuminanceBased()) {
+                throw new IllegalArgumentException(algorithm.getClass().getSimpleName() + " is not luminance based");
+            }
+            if (!algorithm.converters.isEmpty()) {
+                throw new IllegalArgumentException("Algorithms with image converters can not share an image pyramid");
+            }
+            if (algorithm.hasCustomDecoding()) {
+                throw new IllegalArgumentException("Algorithms with a custom decoding can not share an image pyramid");
+            }
+            width = Math.max(width, algorithm.width);
+            height = Math.max(height, algorithm.height);
+        }
+        this.algorithms = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(algorithms)));
+        this.baseWidth = width;
+        this.baseHeight = height;
+    }
+
+    /**
+     * Read the image once and calculate the hashes of all algorithms.
+     *
+     * @param file the image file
+     * @return the hashes of all algorithms
+     * @throws IOException if an error occurs during loading the image
+     */
+    public Bundle hash(File file) throws IOException {
+        return hash(ImageIO.read(file));
+    }
+
+    /**
+     * Calculate the hashes of all algorithms.
+     *
+     * @param image the image to hash
+     * @return the hashes of all algorithms
+     */
+    public Bundle hash(BufferedImage image) {
+        BufferedImage base = ImageUtility.getScaledInstance(image, baseWidth, baseHeight);
+        Map<Long, ColorPixel> levels = new HashMap<>();
+        Map<Integer, Hash> hashes = new LinkedHashMap<>();
+        for (HashingAlgorithm algorithm : algorithms) {
+            int width = algorithm.width;
+            int height = algorithm.height;
+            ColorPixel level = levels.computeIfAbsent(((long) width << 32) | height, (key) -> {
+                if (width == baseWidth && height == baseHeight) {
+                    return ColorPixel.convert(base);
+                }
+                return ColorPixel.convert(TiledDownscaler.scale(base, width, height));
+            });
+            int keyResolution = algorithm.getKeyResolution();
+            algorithm.immutableState = true;
+            Hash hash = new Hash(algorithm.hash(level, new HashBuilder(keyResolution)), keyResolution, algorithmId(algorithm));
+            hashes.put(algorithm.algorithmId(), hash);
+        }
+        return new Bundle(algorithms, hashes);
+    }
+
+    /**
+     * The id of the hashes created by the family for the algorithm. The base level
+     * is identical to the output of the algorithm and keeps its id. Smaller levels
+     * are area averaged from the base level and are identified by the algorithm id
+     * combined with the base resolution.
+     *
+     * @param algorithm the algorithm
+     * @return the algorithm id of the hashes created for the algorithm
+     */
+    public int algorithmId(HashingAlgorithm algorithm) {
+        if (algorithm.width == baseWidth && algorithm.height == baseHeight) {
+            return algorithm.algorithmId();
+        }
+        return Objects.hash(algorithm.algorithmId(), baseWidth, baseHeight);
+    }
+
+    /**
+     * @return the algorithms of this family
+     */
+    public List<HashingAlgorithm> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * The hashes of an image created by all algorithms of a family keyed by the
+     * {@link HashingAlgorithm#algorithmId() algorithm id}. The hashes themselves
+     * carry the id returned by {@link HashFamily#algorithmId(HashingAlgorithm)}.
+     *
+     * @author Kilian
+     * @since 3.0.0
+     */
+    public static class Bundle {
+
+        private final List<HashingAlgorithm> algorithms;
+
+        private final Map<Integer, Hash> hashes;
+
+        Bundle(List<HashingAlgorithm> algorithms, Map<Integer, Hash> hashes) {
+            this.algorithms = algorithms;
+            this.hashes = Collections.unmodifiableMap(hashes);
+        }
+
+        /**
+         * @param algorithmId the id of the algorithm
+         * @return the hash created by the algorithm or null if the algorithm is not
+         *         part of the family
+         */
+        public Hash get(int algorithmId) {
+            return hashes.get(algorithmId);
+        }
+
+        /**
+         * @param algorithm the algorithm
+         * @return the hash created by the algorithm or null if the algorithm is not
+         *         part of the family
+         */
+        public Hash get(HashingAlgorithm algorithm) {
+            return hashes.get(algorithm.algorithmId());
+        }
+
+        /**
+         * @return the hashes keyed by algorithm id
+         */
+        public Map<Integer, Hash> getHashes() {
+            return hashes;
+        }
+
+        /**
+         * @return the hashes keyed by the algorithm which created them
+         */
+        public Map<HashingAlgorithm, Hash> toAlgorithmMap() {
+            Map<HashingAlgorithm, Hash> map = new LinkedHashMap<>();
+            for (HashingAlgorithm algorithm : algorithms) {
+                map.put(algorithm, hashes.get(algorithm.algorithmId()));
+            }
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return "Bundle " + hashes;
+        }
+    }
+
+}
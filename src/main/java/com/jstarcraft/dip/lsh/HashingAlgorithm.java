@@ -1,6 +1,7 @@
 package com.jstarcraft.dip.lsh;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
@@ -12,7 +13,10 @@ import javax.imageio.ImageIO;
 
 import com.github.kilianB.Require;
 import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.color.ImageDecoder;
 import com.jstarcraft.dip.color.ImageUtility;
+import com.jstarcraft.dip.color.JpegDcDecoder;
+import com.jstarcraft.dip.color.TiledDownscaler;
 import com.jstarcraft.dip.hash.Hash;
 import com.jstarcraft.dip.lsh.kernel.ImageConverter;
 
@@ -38,9 +42,67 @@ import com.jstarcraft.dip.lsh.kernel.ImageConverter;
 
 public abstract class HashingAlgorithm {
 
+    /**
+     * Defines at which resolution the registered
+     * {@link com.jstarcraft.dip.lsh.kernel.ImageConverter ImageConverters} are
+     * applied to the image.
+     * 
+     * <p>
+     * Converters are usually cheap per pixel but are applied to every pixel of the
+     * source image while the hash only looks at a few hundred pixels. Moving the
+     * converters after the downscaling step reduces the work considerably, but
+     * changes the produced hashes as scaling and filtering are not commutative.
+     * Hashes created with different placements are therefore not comparable and
+     * the placement is part of the {@link HashingAlgorithm#algorithmId()}.
+     * 
+     * <p>
+     * <b>implnote:</b> Be aware that changing the order of the enum values will
+     * alter the algorithm id rendering generated keys unusable
+     * 
+     * @since 3.0.0
+     */
+    public enum ConverterPlacement {
+        /** Converters are applied on the source image before it is scaled */
+        PRE_SCALE,
+        /**
+         * The image is first scaled to a multiple of the hash resolution, the
+         * converters are applied and the result is scaled to the final resolution
+         */
+        INTERMEDIATE,
+        /** Converters are applied on the image already scaled to hash resolution */
+        POST_SCALE
+    }
+
     // maybe move to bitsets//Mutable inetegers? not efficient for small keys?
     protected List<ImageConverter> converters = new ArrayList<>();
 
+    /** The resolution at which the converters are applied */
+    protected ConverterPlacement converterPlacement = ConverterPlacement.PRE_SCALE;
+
+    /**
+     * The multiple of the hash resolution used as intermediate resolution if
+     * {@link ConverterPlacement#INTERMEDIATE} is chosen
+     */
+    protected int intermediateFactor = 4;
+
+    /**
+     * If positive images read from files are subsampled during decoding to at
+     * least this multiple of the hash resolution.
+     */
+    protected int decodingOversampling = 0;
+
+    /**
+     * If true baseline jpeg files are hashed using the luminance image formed by
+     * their DC coefficients
+     */
+    protected boolean dcDecoding = false;
+
+    /**
+     * If positive images read from files are downscaled tile by tile reading at
+     * most this number of pixels at once
+     */
+    protected int tilePixels = 0;
+
     /**
      * The target bit resolution supplied during algorithm creation. This number
      * represents the number of bits the final hash SHOULD have, but does not
@@ -137,15 +199,9 @@ public abstract class HashingAlgorithm {
      * @see Hash
      */
     public Hash hash(BufferedImage image) {
-        // If we have kernels defined alter red green and blue values accordingly
-        if (!converters.isEmpty()) {
-            for (ImageConverter converter : converters) {
-                image = converter.convert(image);
-            }
-        }
         immutableState = true;
         BigInteger bits;
-        ColorPixel pixel = ColorPixel.convert(ImageUtility.getScaledInstance(image, width, height));
+        ColorPixel pixel = ColorPixel.convert(scale(image));
         if (keyDimension < 0) {
             HashBuilder builder = new HashBuilder(this.bitDimension);
             bits = hash(pixel, builder);
@@ -156,6 +212,42 @@ public abstract class HashingAlgorithm {
         return new Hash(bits, getKeyResolution(), algorithmId());
     }
 
+    /**
+     * Apply the converters and scale the image to the resolution of the hashing
+     * algorithm honoring the {@link #getConverterPlacement() converter placement}.
+     * 
+     * @param image the source image
+     * @return the converted image with a resolution of width * height
+     * @since 3.0.0
+     */
+    protected BufferedImage scale(BufferedImage image) {
+        // If we have kernels defined alter red green and blue values accordingly
+        if (converters.isEmpty()) {
+            return ImageUtility.getScaledInstance(image, width, height);
+        }
+        switch (converterPlacement) {
+        case POST_SCALE:
+            return convert(ImageUtility.getScaledInstance(image, width, height));
+        case INTERMEDIATE:
+            int intermediateWidth = width * intermediateFactor;
+            int intermediateHeight = height * intermediateFactor;
+            // Never upscale images already smaller than the intermediate resolution
+            if (image.getWidth() > intermediateWidth || image.getHeight() > intermediateHeight) {
+                image = ImageUtility.getScaledInstance(image, Math.min(image.getWidth(), intermediateWidth), Math.min(image.getHeight(), intermediateHeight));
+            }
+            return ImageUtility.getScaledInstance(convert(image), width, height);
+        default:
+            return ImageUtility.getScaledInstance(convert(image), width, height);
+        }
+    }
+
+    private BufferedImage convert(BufferedImage image) {
+        for (ImageConverter converter : converters) {
+            image = converter.convert(image);
+        }
+        return image;
+    }
+
     /**
      * Calculate a hash for the given image. Invoking the hash function on the same
      * image has to return the same hash value. A comparison of the hashes relates
@@ -169,9 +261,62 @@ public abstract class HashingAlgorithm {
      */
     public Hash hash(File file) throws IOException {
         immutableState = true;
+        if (dcDecoding) {
+            BufferedImage luminance = JpegDcDecoder.read(file, width, height);
+            if (luminance != null) {
+                return hash(luminance);
+            }
+            // Not a baseline jpeg or too small. Fall back to regular decoding
+        }
+        if (tilePixels > 0) {
+            return hash(TiledDownscaler.read(file, width, height, tilePixels));
+        }
+        if (decodingOversampling > 0) {
+            return hash(ImageDecoder.read(file, width, height, decodingOversampling));
+        }
         return hash(ImageIO.read(file));
     }
 
+    /**
+     * Calculate a hash for the content of an image file honoring the decoding
+     * settings of this algorithm, see {@link #hash(File)}.
+     * 
+     * @param data the content of the image file
+     * @return The hash representing the image
+     * @throws IOException if an error occurs during decoding the image
+     * @since 3.0.0
+     */
+    public Hash hash(byte[] data) throws IOException {
+        immutableState = true;
+        if (dcDecoding) {
+            BufferedImage luminance = JpegDcDecoder.read(data, width, height);
+            if (luminance != null) {
+                return hash(luminance);
+            }
+        }
+        if (tilePixels > 0) {
+            return hash(TiledDownscaler.read(data, width, height, tilePixels));
+        }
+        if (decodingOversampling > 0) {
+            return hash(ImageDecoder.read(data, width, height, decodingOversampling));
+        }
+        return hash(ImageIO.read(new ByteArrayInputStream(data)));
+    }
+
+    /**
+     * Indicate if image files are decoded differently than by
+     * {@link ImageIO#read(File)}, e.g. due to
+     * {@link #setSubsampledDecoding(int)}, {@link #setTiledDecoding(int)} or
+     * {@link #setDcDecoding(boolean)}. Hashes of such files have to be created by
+     * {@link #hash(File)} or {@link #hash(byte[])}.
+     * 
+     * @return true if a custom decoding is used for image files
+     * @since 3.0.0
+     */
+    public boolean hasCustomDecoding() {
+        return decodingOversampling > 0 || dcDecoding || tilePixels > 0;
+    }
+
     /**
      * Calculate a hash for the given image. Invoking the hash function on the same
      * image has to return the same hash value. A comparison of the hashes relates
@@ -210,6 +355,26 @@ public abstract class HashingAlgorithm {
             algorithmId = 31 * precomputeAlgoId();
             // Make sure the algo id doesn't collide with version 2.0.0 id's
             algorithmId = 31 * algorithmId + 5 + converters.hashCode();
+            // The placement only influences the hash if converters are present. Keep
+            // the id of the default placement backwards compatible.
+            if (!converters.isEmpty() && converterPlacement != ConverterPlacement.PRE_SCALE) {
+                algorithmId = 31 * algorithmId + converterPlacement.ordinal();
+                if (converterPlacement == ConverterPlacement.INTERMEDIATE) {
+                    algorithmId = 31 * algorithmId + intermediateFactor;
+                }
+            }
+            // File decoding settings alter the hash of files. Keep the id of fully
+            // decoded files backwards compatible.
+            if (decodingOversampling > 0) {
+                algorithmId = 31 * algorithmId + 7 + decodingOversampling;
+            }
+            if (dcDecoding) {
+                algorithmId = 31 * algorithmId + 11;
+            }
+            // The area averaged image does not depend on the tile size
+            if (tilePixels > 0) {
+                algorithmId = 31 * algorithmId + 13;
+            }
             immutableState = true;
         }
         return algorithmId;
@@ -319,6 +484,181 @@ public abstract class HashingAlgorithm {
         return this.converters.remove(converter);
     }
 
+    /**
+     * Set the resolution at which the converters are applied. Applying the
+     * converters after the image was scaled reduces the computational cost but
+     * produces different hashes.
+     * 
+     * <p>
+     * Be aware that the placement can only be changed until the first hash is
+     * computed.
+     * 
+     * @param placement the placement of the converters
+     * @throws NullPointerException  if placement is null
+     * @throws IllegalStateException if a hash was already created and the object is
+     *                               considered immutable.
+     * @since 3.0.0
+     */
+    public void setConverterPlacement(ConverterPlacement placement) {
+        Objects.requireNonNull(placement);
+        if (immutableState) {
+            throw new IllegalStateException(LOCKED_MODIFICATION_EXCEPTION);
+        }
+        this.converterPlacement = placement;
+    }
+
+    /**
+     * Apply the converters on an intermediate resolution of
+     * <code>factor * width</code> times <code>factor * height</code> pixels.
+     * 
+     * <p>
+     * Be aware that the placement can only be changed until the first hash is
+     * computed.
+     * 
+     * @param factor multiple of the hash resolution used as intermediate
+     *               resolution
+     * @throws IllegalArgumentException if factor is not positive
+     * @throws IllegalStateException    if a hash was already created and the
+     *                                  object is considered immutable.
+     * @since 3.0.0
+     */
+    public void setIntermediateConverterPlacement(int factor) {
+        Require.positiveValue(factor, "The intermediate factor has to be positive");
+        if (immutableState) {
+            throw new IllegalStateException(LOCKED_MODIFICATION_EXCEPTION);
+        }
+        this.converterPlacement = ConverterPlacement.INTERMEDIATE;
+        this.intermediateFactor = factor;
+    }
+
+    /**
+     * Decode images passed as file at a reduced resolution of at least
+     * <code>oversampling</code> times the resolution used to compute the hash
+     * instead of fully decoding them. This greatly reduces the time needed to hash
+     * large images at the cost of slightly different hashes compared to hashing
+     * the fully decoded image. See {@link ImageDecoder}.
+     * 
+     * <p>
+     * Be aware that the decoding can only be changed until the first hash is
+     * computed.
+     * 
+     * @param oversampling the minimum factor the decoded image is larger than the
+     *                     hash resolution. 0 to disable subsampled decoding.
+     * @throws IllegalArgumentException if oversampling is negative
+     * @throws IllegalStateException    if a hash was already created and the
+     *                                  object is considered immutable.
+     * @since 3.0.0
+     */
+    public void setSubsampledDecoding(int oversampling) {
+        if (oversampling < 0) {
+            throw new IllegalArgumentException("Oversampling may not be negative");
+        }
+        if (immutableState) {
+            throw new IllegalStateException(LOCKED_MODIFICATION_EXCEPTION);
+        }
+        this.decodingOversampling = oversampling;
+    }
+
+    /**
+     * Downscale images passed as file tile by tile instead of decoding them in
+     * their entirety. The image is area averaged to the resolution used to compute
+     * the hash while holding at most <code>maxTilePixels</code> pixels of the
+     * source in memory, allowing to hash images too large to be decoded at once.
+     * Sequential formats like jpeg or png are decoded in a single pass, subsampled
+     * to the size of a tile if necessary. Image converters are applied to the
+     * downscaled image. See {@link TiledDownscaler}.
+     * 
+     * <p>
+     * Be aware that the decoding can only be changed until the first hash is
+     * computed.
+     * 
+     * @param maxTilePixels the maximum number of pixels read at once. 0 to disable
+     *                      tiled decoding.
+     * @throws IllegalArgumentException if maxTilePixels is negative
+     * @throws IllegalStateException    if a hash was already created and the
+     *                                  object is considered immutable.
+     * @since 3.0.0
+     */
+    public void setTiledDecoding(int maxTilePixels) {
+        if (maxTilePixels < 0) {
+            throw new IllegalArgumentException("Tile size may not be negative");
+        }
+        if (immutableState) {
+            throw new IllegalStateException(LOCKED_MODIFICATION_EXCEPTION);
+        }
+        this.tilePixels = maxTilePixels;
+    }
+
+    /**
+     * Hash baseline jpeg files using the luminance image formed by the DC
+     * coefficients of the luma channel. The image is read at 1/8 of it's size
+     * without performing the inverse discrete cosine transform or decoding the
+     * chroma channels, which is considerably faster than decoding the entire
+     * image. Progressive jpegs, other formats or images whose DC image would be
+     * smaller than the hash resolution are decoded as usual. See
+     * {@link JpegDcDecoder}.
+     * 
+     * <p>
+     * Only algorithms solely relying on the luminance of an image support this
+     * mode. Image converters are applied to the grayscale DC image.
+     * 
+     * <p>
+     * Be aware that the decoding can only be changed until the first hash is
+     * computed.
+     * 
+     * @param dcDecoding true to enable DC decoding of jpeg files
+     * @throws IllegalArgumentException if DC decoding is enabled and the
+     *                                  algorithm requires color information
+     * @throws IllegalStateException    if a hash was already created and the
+     *                                  object is considered immutable.
+     * @since 3.0.0
+     */
+    public void setDcDecoding(boolean dcDecoding) {
+        if (dcDecoding && !isLuminanceBased()) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " requires the color information of the image");
+        }
+        if (immutableState) {
+            throw new IllegalStateException(LOCKED_MODIFICATION_EXCEPTION);
+        }
+        this.dcDecoding = dcDecoding;
+    }
+
+    /**
+     * Indicate if the hash is computed solely based on the luminance of the image.
+     * Only these algorithms may hash the luminance image of
+     * {@link #setDcDecoding(boolean)}.
+     * 
+     * @return true if the algorithm only requires the luminance of an image
+     * @since 3.0.0
+     */
+    protected boolean isLuminanceBased() {
+        return false;
+    }
+
+    /**
+     * @return the width of the rescaled image the hash is computed on
+     * @since 3.0.0
+     */
+    public int getScaledWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the rescaled image the hash is computed on
+     * @since 3.0.0
+     */
+    public int getScaledHeight() {
+        return height;
+    }
+
+    /**
+     * @return the resolution at which the converters are applied
+     * @since 3.0.0
+     */
+    public ConverterPlacement getConverterPlacement() {
+        return converterPlacement;
+    }
+
     /**
      * Wraps the values supplied in the argument hash into a hash object as it would
      * be produced by this algorithm.
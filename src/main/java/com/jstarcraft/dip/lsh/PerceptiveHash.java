@@ -122,6 +122,11 @@ public class PerceptiveHash extends HashingAlgorithm {
         return hash.toBigInteger();
     }
 
+    @Override
+    protected boolean isLuminanceBased() {
+        return true;
+    }
+
     @Override
     protected int precomputeAlgoId() {
         return Objects.hash(getClass().getName(), height, width) * 31 + 1;
@@ -43,6 +43,13 @@ public class RotAverageHash extends HashingAlgorithm {
      */
     private int[] count = null;
 
+    /**
+     * The bucket of each pixel indexed by <code>x * height + y</code> or -1 if the
+     * pixel lies outside of the considered circle. The mapping only depends on the
+     * dimension of the rescaled image and therefore can be cached.
+     */
+    private int[] partitions;
+
     /**
      * @param bitResolution The bit resolution specifies the final length of the
      *                      generated hash. A higher resolution will increase
@@ -72,13 +79,16 @@ public class RotAverageHash extends HashingAlgorithm {
         centerY = centerX;
 
         count = new int[bitResolution + 2];
+        partitions = new int[width * height];
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
                 int bucket = computePartition(x, y);
                 if (bucket >= count.length) {
                     // Everything beyond this column will be outside as well.
+                    partitions[x * height + y] = -1;
                     continue;
                 }
+                partitions[x * height + y] = bucket;
                 count[bucket]++;
             }
         }
@@ -89,14 +99,15 @@ public class RotAverageHash extends HashingAlgorithm {
         // We need 2 more bucket since we compare to n-1 and no values are mapped to 0
         // bucket
 
-        // Average luminosity of the bucket
+        // Average luminosity of the bucket. Pixels are visited column by column and
+        // divided one by one to keep the floating point result of earlier versions.
         double hashArr[] = new double[bitDimension + 2];
 
+        int index = 0;
         for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int bucket = computePartition(x, y);
-                if (bucket >= hashArr.length) {
-                    // Everything beyond this column will be outside as well.
+            for (int y = 0; y < height; y++, index++) {
+                int bucket = partitions[index];
+                if (bucket < 0) {
                     continue;
                 }
                 hashArr[bucket] += (pixel.getLuminanceScalar(x, y) / (double) count[bucket]);
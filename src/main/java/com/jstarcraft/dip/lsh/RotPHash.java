@@ -1,9 +1,6 @@
 package com.jstarcraft.dip.lsh;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 import java.util.Objects;
 
 import org.jtransforms.dct.DoubleDCT_1D;
@@ -40,6 +37,15 @@ public class RotPHash extends HashingAlgorithm {
     /** The number of circles the pixels will be mapped to */
     private int buckets;
 
+    /**
+     * The bucket of each pixel indexed by <code>y * width + x</code> or -1 if the
+     * pixel lies outside of the outermost circle
+     */
+    private int[] partitions;
+
+    /** The number of pixels mapped to each bucket */
+    private int[] count;
+
     /**
      * Create a Rotational Invariant Perceptive Hasher
      * 
@@ -84,6 +90,21 @@ public class RotPHash extends HashingAlgorithm {
         // The center of the image used to wrap pixels around.
         centerX = (width - 1) / 2d; // This will be even
         centerY = centerX;
+
+        // The mapping only depends on the image dimension
+        partitions = new int[width * height];
+        count = new int[buckets];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int bucket = computePartition(x, y);
+                if (bucket >= buckets) {
+                    partitions[y * width + x] = -1;
+                } else {
+                    partitions[y * width + x] = bucket;
+                    count[bucket]++;
+                }
+            }
+        }
     }
 
     @Override
@@ -91,23 +112,21 @@ public class RotPHash extends HashingAlgorithm {
         // 0. Preprocessing. Extract Luminosity
         // Fast pixel access. Order 10x faster than jdk internal
 
-        @SuppressWarnings("unchecked")
-        List<Integer>[] values = new List[buckets];
-        for (int i = 0; i < buckets; i++) {
-            values[i] = new ArrayList<Integer>();
-        }
+        // Luminosity histogram of each bucket
+        int[][] histograms = new int[buckets][256];
 
         // 1. Map each pixel into a circle bucket. (Currently we ignore parts of the
         // image if they do not fit inside a cropped circle)
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                // Wrap pixel around center. Return the bucket whose center is the closest to
-                // this pixel
-                int bucket = computePartition(x, y);
-                if (bucket >= buckets) {
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, index++) {
+                // Wrap pixel around center. The bucket whose center is the closest to
+                // this pixel was computed beforehand
+                int bucket = partitions[index];
+                if (bucket < 0) {
                     continue;
                 }
-                values[bucket].add(pixel.getLuminanceScalar(x, y));
+                histograms[bucket][pixel.getLuminanceScalar(x, y)]++;
             }
         }
 
@@ -118,12 +137,15 @@ public class RotPHash extends HashingAlgorithm {
 
         int length = 0;
         for (int i = 0; i < buckets; i++) {
-            // Sort lum values to get a dct independent of initial rotation
-            Collections.sort(values[i]);
-
-            double[] arr = new double[values[i].size()];
-            for (int j = 0; j < arr.length; j++) {
-                arr[j] = values[i].get(j);
+            // Sort lum values to get a dct independent of initial rotation. Counting
+            // sort the values using the histogram.
+            double[] arr = new double[count[i]];
+            int[] histogram = histograms[i];
+            int offset = 0;
+            for (int luminance = 0; luminance < histogram.length; luminance++) {
+                for (int j = histogram[luminance]; j > 0; j--) {
+                    arr[offset++] = luminance;
+                }
             }
 
             // Compute dct of each bucket and calculate the average
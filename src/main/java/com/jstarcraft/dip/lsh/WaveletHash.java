@@ -22,6 +22,12 @@ public class WaveletHash extends HashingAlgorithm {
      */
     private int cycles;
 
+    /**
+     * Per thread scratch buffer holding the luminance values and the low pass sub
+     * band during the transformation
+     */
+    private final ThreadLocal<int[]> scratch;
+
     /**
      * @param bitResolution The bit resolution specifies the final length of the
      *                      generated hash. A higher resolution will increase
@@ -45,33 +51,37 @@ public class WaveletHash extends HashingAlgorithm {
 
         width = (int) Math.ceil(Math.sqrt(bitResolution * Math.pow(4, cycles)));
         height = width;
+
+        // Only the upper left corner of the image contributes to the hash
+        int subSpace = (int) Math.sqrt(this.bitDimension);
+        int size = subSpace << cycles;
+        scratch = ThreadLocal.withInitial(() -> new int[size * size]);
     }
 
     @Override
     protected BigInteger hash(ColorPixel pixel, HashBuilder hashBuilder) {
-        int[][] luma = pixel.getLuminanceMatrix();
+        int subSpace = (int) Math.sqrt(this.bitDimension);
+        int subSquared = subSpace * subSpace;
 
         // Compute wavelet
+        int[] lowPass = doHaarLowPass(pixel, subSpace, cycles, scratch.get());
 
-        double[][] transformed = doHaar2DFWTransform(luma, cycles);
-
-        // System.out.println(ArrayUtil.deepToStringFormatted(transformed));
+        // The haar transform averages 2 values per dimension and cycle. Dividing the
+        // sums afterwards yields the exact same values as the iterative averaging.
+        double scale = 1L << (2 * cycles);
 
         double avg = 0;
 
-        int subSpace = (int) Math.sqrt(this.bitDimension);
-        int subSquared = subSpace * subSpace;
-
         for (int x = 0; x < subSpace; x++) {
             for (int y = 0; y < subSpace; y++) {
                 // Gradient of wavle
-                avg += transformed[x][y] / subSquared;
+                avg += (lowPass[x * subSpace + y] / scale) / subSquared;
             }
         }
 
         for (int x = 0; x < subSpace; x++) {
             for (int y = 0; y < subSpace; y++) {
-                if (transformed[x][y] > avg) {
+                if (lowPass[x * subSpace + y] / scale > avg) {
                     hashBuilder.prependOne();
                 } else {
                     hashBuilder.prependZero();
@@ -83,6 +93,65 @@ public class WaveletHash extends HashingAlgorithm {
         return hashBuilder.toBigInteger();
     }
 
+    /**
+     * Compute the low pass (LL) sub band of a repeated haar wavelet transformation
+     * in place using integer lifting steps.
+     * 
+     * <p>
+     * The detail coefficients are not required to compute the hash and are
+     * skipped. Opposed to {@link #doHaar2DFWTransform(int[][], int)} the low pass
+     * coefficients are not averaged but summed up to stay in the integer domain.
+     * Each coefficient is <code>4^cycles</code> times the value of the
+     * traditional transform.
+     * 
+     * @param pixel    the image
+     * @param size     the width and height of the low pass sub band to compute
+     * @param cycles   the number of times the transform is applied
+     * @param buffer   scratch buffer of at least
+     *                 <code>(size * 2^cycles)^2</code> entries
+     * @return the buffer holding the low pass coefficients indexed by
+     *         <code>x * size + y</code>
+     * @since 3.0.0
+     */
+    protected static int[] doHaarLowPass(ColorPixel pixel, int size, int cycles, int[] buffer) {
+        int length = size << cycles;
+
+        // Only read the part of the image contributing to the requested coefficients
+        for (int x = 0; x < length; x++) {
+            int offset = x * length;
+            for (int y = 0; y < length; y++) {
+                buffer[offset + y] = pixel.getLuminanceScalar(x, y);
+            }
+        }
+
+        int stride = length;
+        for (int cycle = 0; cycle < cycles; cycle++) {
+            length /= 2;
+            // Only the update step of the lifting scheme is required. Writes only go to
+            // indices that have already been read.
+            for (int x = 0; x < length * 2; x++) {
+                int offset = x * stride;
+                for (int y = 0; y < length; y++) {
+                    buffer[offset + y] = buffer[offset + 2 * y] + buffer[offset + 2 * y + 1];
+                }
+            }
+            for (int x = 0; x < length; x++) {
+                int offset = x * stride;
+                int even = 2 * x * stride;
+                int odd = even + stride;
+                for (int y = 0; y < length; y++) {
+                    buffer[offset + y] = buffer[even + y] + buffer[odd + y];
+                }
+            }
+        }
+
+        // Compact the low pass sub band
+        for (int x = 1; x < size; x++) {
+            System.arraycopy(buffer, x * stride, buffer, x * size, size);
+        }
+        return buffer;
+    }
+
     // Code taken and modified from
     // https://www.jeejava.com/haar-wavelet-transform-using-java/
     public static double[][] doHaar2DFWTransform(int[][] pixels, int cycles) {
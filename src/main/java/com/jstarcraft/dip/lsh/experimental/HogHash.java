@@ -19,6 +19,7 @@ import com.jstarcraft.dip.color.ColorPixel;
 import com.jstarcraft.dip.color.ColorUtility;
 import com.jstarcraft.dip.lsh.HashBuilder;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.kernel.GradientOperator;
 
 /**
  * Image Hash on HOG feature descriptor. Not ready yet. Most likely use a very
@@ -39,6 +40,9 @@ public class HogHash extends HashingAlgorithm {
      * http://lear.inrialpes.fr/people/triggs/pubs/Dalal-cvpr05.pdf
      */
 
+    /** Central difference gradient */
+    private static final GradientOperator GRADIENT = GradientOperator.centralDifference();
+
     /** The cell width/height used to compute the features */
     protected int cell;
 
@@ -199,58 +203,290 @@ public class HogHash extends HashingAlgorithm {
         double binFac = (180 - 180d / (numBins)) / (numBins - 1);
         // 0 - 180 (180 wrap around to 0 again)
 
-        double magnitude[][] = new double[width][height];
-        double direction[][] = new double[width][height];
+        int[] hog = new int[xCells * yCells * numBins];
 
-        // 0 Compute magnitude and direction from horizontal and vertical gradients.
-        // with 101 kernels
-        for (int x = 1; x < width - 1; x++) {
-            for (int y = 1; y < height - 1; y++) {
-                int hGradient = (lum[x + 1][y] - lum[x - 1][y]);
-                int vGradient = (lum[x][y - 1] - lum[x][y + 1]);
+        // 0 Compute magnitude and direction from horizontal and vertical gradients
+        // with 101 kernels and directly sort them into the bins. Border pixels do not
+        // contribute. The operator is applied on the transposed matrix to visit the
+        // pixels column by column.
+        GRADIENT.apply(height, width, (y, x) -> lum[x][y], (y, x, negatedV, negatedH) -> {
+            if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                return;
+            }
+            addToBins(hog, ((x / cell) * yCells + (y / cell)) * numBins, -negatedH, -negatedV, binFac);
+        });
 
-                magnitude[x][y] = Math.sqrt(hGradient * hGradient + vGradient * vGradient);
+        int[][][] result = new int[xCells][yCells][numBins];
+        for (int xCell = 0; xCell < xCells; xCell++) {
+            for (int yCell = 0; yCell < yCells; yCell++) {
+                System.arraycopy(hog, (xCell * yCells + yCell) * numBins, result[xCell][yCell], 0, numBins);
+            }
+        }
+        return result;
+    }
 
-                if (hGradient == 0) {
-                    // Arctan lim infinity = 90°
-                    direction[x][y] = 180;// °
-                } else {
-                    direction[x][y] = Math.toDegrees(Math.atan(vGradient / (double) hGradient)) + 90;
-                }
+    /**
+     * Sort the magnitude of a gradient into the histogram of a cell. The magnitude
+     * is split proportionally between the two bins closest to the direction of the
+     * gradient. Each share is truncated when added.
+     * 
+     * @param hog       the histograms of all cells
+     * @param offset    the index of the first bin of the cell
+     * @param hGradient the horizontal gradient
+     * @param vGradient the vertical gradient
+     * @param binFac    the angle covered by a bin in degrees
+     */
+    private void addToBins(int[] hog, int offset, int hGradient, int vGradient, double binFac) {
+        double magnitude = GradientLookup.magnitude(hGradient, vGradient);
+        double binF = GradientLookup.direction(hGradient, vGradient) / binFac;
+        int bin = (int) binF;
+        double nextBucketShare = MathUtil.getFractionalPart(binF);
+        double currentShare = 1 - nextBucketShare;
+
+        if (bin != numBins) {
+            hog[offset + bin] += (currentShare * magnitude);
+            if (bin == (numBins - 1)) {
+                // Wrap around
+                hog[offset] += (nextBucketShare * magnitude);
+            } else {
+                // Put proportionally in next bucket
+                hog[offset + bin + 1] += (nextBucketShare * magnitude);
             }
+        } else {
+            // Wrap around. 180 ° == 0 °
+            hog[offset] += (currentShare * magnitude);
         }
+    }
 
-        int[][][] hog = new int[xCells][yCells][numBins];
+    /**
+     * Compute the integral histogram of oriented gradients. Opposed to
+     * {@link #computeHogFeatures(int[][])} the weighted magnitudes are not
+     * truncated and the histogram of any rectangular region, e.g. cells of
+     * different sizes, can be queried in constant time without visiting the
+     * pixels again.
+     * <p>
+     * This is an opt-in path for callers needing exact or variable sized cell
+     * histograms. {@link #hash(ColorPixel, HashBuilder)} keeps using the
+     * truncated cell histograms and is not affected by it.
+     * 
+     * @param lum the luminance values of the image [x][y]
+     * @return the integral histogram
+     * @since 3.0.0
+     */
+    protected IntegralHistogram computeIntegralHistogram(int[][] lum) {
+        int width = lum.length;
+        int height = lum[0].length;
+        double binFac = (180 - 180d / (numBins)) / (numBins - 1);
 
-        for (int x = 0; x < width; x++) {
+        IntegralHistogram integral = new IntegralHistogram(width, height, numBins);
+        float[] table = integral.table;
+        int stride = (height + 1) * numBins;
 
-            int xCellIndex = x / cell;
+        // Histogram of the current pixel only. Accumulated below
+        GRADIENT.apply(height, width, (y, x) -> lum[x][y], (y, x, negatedV, negatedH) -> {
+            if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                return;
+            }
+            int hGradient = -negatedH;
+            int vGradient = -negatedV;
+
+            double magnitude = GradientLookup.magnitude(hGradient, vGradient);
+            double binF = GradientLookup.direction(hGradient, vGradient) / binFac;
+            int bin = (int) binF;
+            double nextBucketShare = binF - bin;
+
+            int offset = (x + 1) * stride + (y + 1) * numBins;
+            if (bin != numBins) {
+                table[offset + bin] += (float) ((1 - nextBucketShare) * magnitude);
+                table[offset + (bin == numBins - 1 ? 0 : bin + 1)] += (float) (nextBucketShare * magnitude);
+            } else {
+                table[offset] += (float) ((1 - nextBucketShare) * magnitude);
+            }
+        });
+
+        // Summed area per bin
+        for (int x = 1; x <= width; x++) {
+            for (int y = 1; y <= height; y++) {
+                int offset = x * stride + y * numBins;
+                int left = offset - stride;
+                int top = offset - numBins;
+                int topLeft = left - numBins;
+                for (int bin = 0; bin < numBins; bin++) {
+                    table[offset + bin] += table[left + bin] + table[top + bin] - table[topLeft + bin];
+                }
+            }
+        }
+        return integral;
+    }
 
-            for (int y = 0; y < height; y++) {
+    /**
+     * Compute the histogram of each cell from an integral histogram.
+     * 
+     * @param integral the integral histogram of the image
+     * @param cellSize the width and height of a cell in pixels
+     * @return the cell histograms as flat array indexed by
+     *         <code>(xCell * yCells + yCell) * numBins + bin</code>
+     * @since 3.0.0
+     */
+    protected float[] computeHogFeatures(IntegralHistogram integral, int cellSize) {
+        int xCells = integral.width / cellSize;
+        int yCells = integral.height / cellSize;
+        float[] hog = new float[xCells * yCells * numBins];
+        for (int xCell = 0; xCell < xCells; xCell++) {
+            for (int yCell = 0; yCell < yCells; yCell++) {
+                integral.histogram(xCell * cellSize, yCell * cellSize, cellSize, cellSize, hog, (xCell * yCells + yCell) * numBins);
+            }
+        }
+        return hog;
+    }
 
-                int yCellIndex = y / cell;
+    /**
+     * Normalize each cell by the L2 norm of the 2 x 2 block of cells starting at
+     * the cell. The block is shifted to the left/top at the right and bottom
+     * border.
+     * 
+     * @param integral the integral histogram of the image
+     * @param cellSize the width and height of a cell in pixels
+     * @return the normalized cell histograms as flat array indexed by
+     *         <code>(xCell * yCells + yCell) * numBins + bin</code>
+     * @since 3.0.0
+     */
+    protected float[] blockNormalization(IntegralHistogram integral, int cellSize) {
+        int xCells = integral.width / cellSize;
+        int yCells = integral.height / cellSize;
+        float[] hog = computeHogFeatures(integral, cellSize);
+        float[] normalized = new float[hog.length];
 
-                double binF = direction[x][y] / binFac;
-                int bin = (int) binF;
-                double nextBucketShare = MathUtil.getFractionalPart(binF);
-                double currentShare = 1 - nextBucketShare;
+        for (int xCell = 0; xCell < xCells; xCell++) {
+            int xStart = Math.max(0, Math.min(xCell, xCells - 2));
+            int xEnd = Math.min(xStart + 2, xCells);
+            for (int yCell = 0; yCell < yCells; yCell++) {
+                int yStart = Math.max(0, Math.min(yCell, yCells - 2));
+                int yEnd = Math.min(yStart + 2, yCells);
 
-                if (bin != numBins) {
-                    hog[xCellIndex][yCellIndex][bin] += (currentShare * magnitude[x][y]);
-                    if (bin == (numBins - 1)) {
-                        // Wrap around
-                        hog[xCellIndex][yCellIndex][0] += (nextBucketShare * magnitude[x][y]);
-                    } else {
-                        // Put proportionally in next bucket
-                        hog[xCellIndex][yCellIndex][bin + 1] += (nextBucketShare * magnitude[x][y]);
+                double vectorLength = 0;
+                for (int x = xStart; x < xEnd; x++) {
+                    for (int y = yStart; y < yEnd; y++) {
+                        int offset = (x * yCells + y) * numBins;
+                        for (int bin = 0; bin < numBins; bin++) {
+                            vectorLength += hog[offset + bin] * hog[offset + bin];
+                        }
                     }
-                } else {
-                    // Wrap around. 180 ° == 0 °
-                    hog[xCellIndex][yCellIndex][0] += (currentShare * magnitude[x][y]);
+                }
+                double normFactor = Math.sqrt(vectorLength);
+                int offset = (xCell * yCells + yCell) * numBins;
+                for (int bin = 0; bin < numBins; bin++) {
+                    normalized[offset + bin] = normFactor == 0 ? 0 : (float) (hog[offset + bin] / normFactor);
                 }
             }
         }
-        return hog;
+        return normalized;
+    }
+
+    /**
+     * Summed area table of gradient histograms. The entry at (x,y) contains the
+     * histogram of all pixels with smaller or equal coordinates.
+     * 
+     * @since 3.0.0
+     */
+    protected static class IntegralHistogram {
+
+        /** Width of the image */
+        protected final int width;
+
+        /** Height of the image */
+        protected final int height;
+
+        /** Number of bins per histogram */
+        protected final int numBins;
+
+        /**
+         * Flat table of (width + 1) * (height + 1) histograms. The first row and
+         * column are 0.
+         */
+        protected final float[] table;
+
+        protected IntegralHistogram(int width, int height, int numBins) {
+            this.width = width;
+            this.height = height;
+            this.numBins = numBins;
+            this.table = new float[(width + 1) * (height + 1) * numBins];
+        }
+
+        /**
+         * Write the histogram of the given region to the target array
+         * 
+         * @param x      the left coordinate of the region
+         * @param y      the top coordinate of the region
+         * @param width  the width of the region
+         * @param height the height of the region
+         * @param target the array the histogram is written to
+         * @param offset the index of the first bin in the target array
+         */
+        public void histogram(int x, int y, int width, int height, float[] target, int offset) {
+            int stride = (this.height + 1) * numBins;
+            int topLeft = x * stride + y * numBins;
+            int topRight = (x + width) * stride + y * numBins;
+            int bottomLeft = x * stride + (y + height) * numBins;
+            int bottomRight = (x + width) * stride + (y + height) * numBins;
+            for (int bin = 0; bin < numBins; bin++) {
+                float value = table[bottomRight + bin] - table[topRight + bin] - table[bottomLeft + bin] + table[topLeft + bin];
+                // Rounding errors of the summed area may lead to tiny negative values
+                target[offset + bin] = value < 0 ? 0 : value;
+            }
+        }
+    }
+
+    /**
+     * Lookup tables for the magnitude and direction of the gradients of 8 bit
+     * images. Only the first quadrant is stored, the remaining ones are derived by
+     * symmetry.
+     */
+    private static class GradientLookup {
+
+        private static final int RANGE = 256;
+
+        /** sqrt(h^2 + v^2) */
+        private static final double[] MAGNITUDE = new double[RANGE * RANGE];
+
+        /** atan(v / h) in degrees */
+        private static final double[] ANGLE = new double[RANGE * RANGE];
+
+        static {
+            for (int h = 0; h < RANGE; h++) {
+                for (int v = 0; v < RANGE; v++) {
+                    MAGNITUDE[h * RANGE + v] = Math.sqrt(h * h + v * v);
+                    ANGLE[h * RANGE + v] = h == 0 ? 0 : Math.toDegrees(Math.atan(v / (double) h));
+                }
+            }
+        }
+
+        static double magnitude(int hGradient, int vGradient) {
+            int h = Math.abs(hGradient);
+            int v = Math.abs(vGradient);
+            if (h >= RANGE || v >= RANGE) {
+                return Math.sqrt(hGradient * hGradient + vGradient * vGradient);
+            }
+            return MAGNITUDE[h * RANGE + v];
+        }
+
+        /**
+         * @return the direction of the gradient in degrees [0 - 180]
+         */
+        static double direction(int hGradient, int vGradient) {
+            if (hGradient == 0) {
+                // Arctan lim infinity = 90°
+                return 180;
+            }
+            int h = Math.abs(hGradient);
+            int v = Math.abs(vGradient);
+            if (h >= RANGE || v >= RANGE) {
+                return Math.toDegrees(Math.atan(vGradient / (double) hGradient)) + 90;
+            }
+            double angle = ANGLE[h * RANGE + v];
+            // atan is point symmetric
+            return ((hGradient < 0) != (vGradient < 0) ? -angle : angle) + 90;
+        }
     }
 
     protected double[][][] blockNormalization(int[][][] hog) {
@@ -0,0 +1,185 @@
+package com.jstarcraft.dip.lsh.kernel;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Computes the horizontal and vertical gradient of an image using a separable 3
+ * x 3 derivative kernel in a single sweep.
+ * 
+ * <pre>
+ * 
+ * 		-o    0    o		 o    c    o
+ * Gx :	-c    0    c	Gy:	 0    0    0
+ * 		-o    0    o		-o   -c   -o
+ *
+ * </pre>
+ * 
+ * With o and c being the outer and center weight of the smoothing vector. Opposed
+ * to applying two {@link MultiKernel}s the gradient does not create
+ * intermediary arrays. Only the last three rows of the source are kept in a
+ * rolling window and the gradients of a pixel are handed to a consumer as soon
+ * as they are available. Pixels outside of the image are handled as
+ * {@link Kernel.EdgeHandlingStrategy#EXPAND}.
+ * 
+ * @author Kilian
+ * @since 3.0.0
+ */
+public class GradientOperator {
+
+	/**
+	 * Receives the gradients of a single pixel
+	 */
+	@FunctionalInterface
+	public interface GradientConsumer {
+		/**
+		 * @param x  the x coordinate of the pixel
+		 * @param y  the y coordinate of the pixel
+		 * @param gx the horizontal gradient (right minus left)
+		 * @param gy the vertical gradient (top minus bottom)
+		 */
+		void accept(int x, int y, int gx, int gy);
+	}
+
+	/** Smoothing weight of the neighbouring rows/columns */
+	private final int outerWeight;
+
+	/** Smoothing weight of the center row/column */
+	private final int centerWeight;
+
+	/**
+	 * Gradient as computed by the sobel operator (1 2 1 smoothing)
+	 * 
+	 * @return the sobel gradient operator
+	 */
+	public static GradientOperator sobel() {
+		return new GradientOperator(1, 2);
+	}
+
+	/**
+	 * Gradient as computed by the scharr operator (3 10 3 smoothing)
+	 * 
+	 * @return the scharr gradient operator
+	 */
+	public static GradientOperator scharr() {
+		return new GradientOperator(3, 10);
+	}
+
+	/**
+	 * Central difference without smoothing (0 1 0 smoothing)
+	 * 
+	 * @return the central difference gradient operator
+	 */
+	public static GradientOperator centralDifference() {
+		return new GradientOperator(0, 1);
+	}
+
+	/**
+	 * Create a gradient operator with the given smoothing vector
+	 * 
+	 * @param outerWeight  weight of the neighbouring rows/columns
+	 * @param centerWeight weight of the center row/column
+	 */
+	public GradientOperator(int outerWeight, int centerWeight) {
+		this.outerWeight = outerWeight;
+		this.centerWeight = centerWeight;
+	}
+
+	/**
+	 * Compute the gradients of every pixel of the source.
+	 * 
+	 * @param width    the width of the source
+	 * @param height   the height of the source
+	 * @param source   supplying the value of the pixel at (x,y). Every pixel is
+	 *                 queried exactly once in row major order
+	 * @param consumer receiving the gradients of each pixel in row major order
+	 */
+	public void apply(int width, int height, IntBinaryOperator source, GradientConsumer consumer) {
+		// Rolling window of the previous, current and next row
+		int[] top = new int[width];
+		int[] center = new int[width];
+		int[] bottom = new int[width];
+
+		readRow(source, 0, center);
+		if (height > 1) {
+			readRow(source, 1, bottom);
+		} else {
+			System.arraycopy(center, 0, bottom, 0, width);
+		}
+		System.arraycopy(center, 0, top, 0, width);
+
+		int lastColumn = width - 1;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int left = x == 0 ? 0 : x - 1;
+				int right = x == lastColumn ? lastColumn : x + 1;
+
+				int gx = outerWeight * (top[right] - top[left]) + centerWeight * (center[right] - center[left]) + outerWeight * (bottom[right] - bottom[left]);
+				int gy = outerWeight * (top[left] - bottom[left]) + centerWeight * (top[x] - bottom[x]) + outerWeight * (top[right] - bottom[right]);
+				consumer.accept(x, y, gx, gy);
+			}
+			// Advance window
+			int[] recycled = top;
+			top = center;
+			center = bottom;
+			bottom = recycled;
+			if (y + 2 < height) {
+				readRow(source, y + 2, bottom);
+			} else {
+				// Expand last row
+				System.arraycopy(center, 0, bottom, 0, width);
+			}
+		}
+	}
+
+	/**
+	 * Compute the gradient magnitude of every pixel of the source
+	 * 
+	 * @param width       the width of the source
+	 * @param height      the height of the source
+	 * @param source      supplying the value of the pixel at (x,y)
+	 * @param cutOff      magnitudes smaller than this value are set to 0
+	 * @param approximate if true use an integer approximation of the euclidean
+	 *                    magnitude. See {@link #magnitude(int, int, boolean)}
+	 * @return the magnitude of each pixel as [x][y] array
+	 */
+	public int[][] magnitude(int width, int height, IntBinaryOperator source, int cutOff, boolean approximate) {
+		int[][] result = new int[width][height];
+		apply(width, height, source, (x, y, gx, gy) -> {
+			int magnitude = magnitude(gx, gy, approximate);
+			result[x][y] = magnitude < cutOff ? 0 : magnitude;
+		});
+		return result;
+	}
+
+	/**
+	 * Compute the magnitude of the gradient vector.
+	 * 
+	 * <p>
+	 * The approximation uses <code>max + 3/8 min</code> of the absolute gradients
+	 * which deviates at most 7% from the euclidean length while only requiring
+	 * integer operations.
+	 * 
+	 * @param gx          the horizontal gradient
+	 * @param gy          the vertical gradient
+	 * @param approximate if true approximate the length, if false compute the
+	 *                    truncated euclidean length
+	 * @return the magnitude of the gradient
+	 */
+	public static int magnitude(int gx, int gy, boolean approximate) {
+		if (approximate) {
+			int absX = gx < 0 ? -gx : gx;
+			int absY = gy < 0 ? -gy : gy;
+			int max = absX > absY ? absX : absY;
+			int min = absX > absY ? absY : absX;
+			return max + ((3 * min) >> 3);
+		}
+		return (int) Math.sqrt(gx * gx + gy * gy);
+	}
+
+	private static void readRow(IntBinaryOperator source, int y, int[] row) {
+		for (int x = 0; x < row.length; x++) {
+			row[x] = source.applyAsInt(x, y);
+		}
+	}
+
+}
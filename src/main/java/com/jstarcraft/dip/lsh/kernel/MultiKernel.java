@@ -12,6 +12,24 @@ import java.util.List;
  * and only the resulting value will be casted to the lesser precision type if
  * applicable.
  * 
+ * <p>
+ * By default every kernel is applied to the entire input before the next one
+ * is invoked which allocates a full size intermediary array per kernel. In
+ * fused mode ({@link #MultiKernel(boolean, Kernel...)}) consecutive linear
+ * kernels whose combination is exact at the edges of the input (e.g. the two
+ * halves of a separated kernel) are collapsed into a single mask, while the
+ * remaining kernels are evaluated row by row, each of them only keeping as many
+ * rows of its predecessor as its mask is high. This reduces the memory
+ * footprint from one array of the input's size per kernel to
+ * <code>width * sum(maskHeight)</code> values. Results are identical to the
+ * consecutive evaluation up to floating point rounding.
+ * 
+ * <p>
+ * Kernels using the
+ * {@link com.jstarcraft.dip.lsh.kernel.Kernel.EdgeHandlingStrategy#WRAP WRAP}
+ * strategy require rows of the opposite end of the input and are always
+ * evaluated consecutively.
+ * 
  * @author Kilian
  * @since 2.0.0
  */
@@ -20,14 +38,38 @@ public class MultiKernel extends Kernel {
 	/** The kernels to apply back to back */
 	protected List<Kernel> kernels = new ArrayList<>();
 
+	/** If true kernels are fused and streamed instead of applied consecutively */
+	protected boolean fused;
+
+	/**
+	 * Lazily computed stages used in fused mode. Kernels are assumed to be
+	 * immutable once added.
+	 */
+	private transient List<Kernel> stages;
+
 	/**
 	 * Create a multi kernel from the given kernels
 	 * 
 	 * @param kernels the kernels which will be chained
 	 */
-	@SuppressWarnings("deprecation")
 	public MultiKernel(Kernel... kernels) {
+		this(false, kernels);
+	}
+
+	/**
+	 * Create a multi kernel from the given kernels
+	 * 
+	 * @param fused   if true linear kernels are merged where possible and the
+	 *                remaining kernels are streamed through rolling row buffers
+	 *                instead of creating a full size intermediary array per
+	 *                kernel.
+	 * @param kernels the kernels which will be chained
+	 * @since 3.0.0
+	 */
+	@SuppressWarnings("deprecation")
+	public MultiKernel(boolean fused, Kernel... kernels) {
 		super(EdgeHandlingStrategy.EXPAND);
+		this.fused = fused;
 		this.kernels.addAll(Arrays.asList(kernels));
 	}
 
@@ -61,6 +103,10 @@ public class MultiKernel extends Kernel {
 
 	@Override
 	public double[][] apply(int[][] input) {
+		if (isStreamable()) {
+			Kernel first = getStages().get(0);
+			return stream(input.length, input[0].length, (x, y) -> first.calcValue(input, x, y));
+		}
 		int width = input.length;
 		int height = input[0].length;
 
@@ -87,6 +133,16 @@ public class MultiKernel extends Kernel {
 	 */
 	@Override
 	public int[][] applyInt(int[][] input) {
+		if (isStreamable()) {
+			Kernel first = getStages().get(0);
+			int[][] result = new int[input.length][input[0].length];
+			stream(input.length, input[0].length, (x, y) -> first.calcValue(input, x, y), (y, values) -> {
+				for (int x = 0; x < values.length; x++) {
+					result[y][x] = (int) Math.round(values[x]);
+				}
+			});
+			return result;
+		}
 		int width = input.length;
 		int height = input[0].length;
 
@@ -114,6 +170,10 @@ public class MultiKernel extends Kernel {
 	 */
 	@Override
 	public double[][] apply(double[][] input) {
+		if (isStreamable()) {
+			Kernel first = getStages().get(0);
+			return stream(input.length, input[0].length, (x, y) -> first.calcValue(input, x, y));
+		}
 		int width = input.length;
 		int height = input[0].length;
 
@@ -140,6 +200,10 @@ public class MultiKernel extends Kernel {
 	 */
 	@Override
 	public double[][] apply(byte[][] input) {
+		if (isStreamable()) {
+			Kernel first = getStages().get(0);
+			return stream(input.length, input[0].length, (x, y) -> first.calcValue(input, x, y));
+		}
 		int width = input.length;
 		int height = input[0].length;
 
@@ -164,6 +228,16 @@ public class MultiKernel extends Kernel {
 	 */
 	@Override
 	public byte[][] applyByte(byte[][] input) {
+		if (isStreamable()) {
+			Kernel first = getStages().get(0);
+			byte[][] result = new byte[input.length][input[0].length];
+			stream(input.length, input[0].length, (x, y) -> first.calcValue(input, x, y), (y, values) -> {
+				for (int x = 0; x < values.length; x++) {
+					result[y][x] = (byte) Math.round(values[x]);
+				}
+			});
+			return result;
+		}
 		int width = input.length;
 		int height = input[0].length;
 
@@ -182,6 +256,212 @@ public class MultiKernel extends Kernel {
 		return result;
 	}
 
+	/**
+	 * @return true if this kernel is configured to fuse and stream kernels
+	 * @since 3.0.0
+	 */
+	public boolean isFused() {
+		return fused;
+	}
+
+	/**
+	 * Check if the fused code path can be taken for the current kernels.
+	 * 
+	 * @return true if kernels can be evaluated row by row
+	 */
+	protected boolean isStreamable() {
+		if (!fused || kernels.isEmpty()) {
+			return false;
+		}
+		for (Kernel kernel : getStages()) {
+			// Wrapping requires rows at the opposite end of the image. Subclasses of
+			// multi kernels do not expose a mask which could be evaluated per row.
+			if (kernel.edgeHandling == EdgeHandlingStrategy.WRAP || kernel instanceof MultiKernel) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Flatten nested multi kernels and merge consecutive linear kernels.
+	 * 
+	 * @return the kernels which have to be evaluated one after another
+	 */
+	protected List<Kernel> getStages() {
+		if (stages == null) {
+			List<Kernel> flat = new ArrayList<>();
+			flatten(kernels, flat);
+			List<Kernel> merged = new ArrayList<>();
+			for (Kernel kernel : flat) {
+				if (!merged.isEmpty()) {
+					Kernel fusedKernel = fuse(merged.get(merged.size() - 1), kernel);
+					if (fusedKernel != null) {
+						merged.set(merged.size() - 1, fusedKernel);
+						continue;
+					}
+				}
+				merged.add(kernel);
+			}
+			stages = merged;
+		}
+		return stages;
+	}
+
+	private static void flatten(List<Kernel> kernels, List<Kernel> flat) {
+		for (Kernel kernel : kernels) {
+			if (kernel.getClass() == MultiKernel.class) {
+				flatten(((MultiKernel) kernel).kernels, flat);
+			} else {
+				flat.add(kernel);
+			}
+		}
+	}
+
+	/**
+	 * Merge two linear kernels into a single kernel producing the same output as
+	 * applying them one after another.
+	 * 
+	 * <p>
+	 * Convolutions are associative, but edge handling is not. Merging is only
+	 * exact if one of the masks is a scalar or if the masks operate on separate
+	 * axes (a column followed by a row mask or vice versa) in which case the edge
+	 * correction of each axis is independent of the other one.
+	 * 
+	 * @param first  the kernel applied first
+	 * @param second the kernel applied second
+	 * @return the merged kernel or null if the kernels can not be merged exactly
+	 */
+	protected static Kernel fuse(Kernel first, Kernel second) {
+		// Subclasses may override calcValue and are not linear
+		if (first.getClass() != Kernel.class || second.getClass() != Kernel.class) {
+			return null;
+		}
+		double[][] a = first.mask;
+		double[][] b = second.mask;
+		boolean aScalar = a.length == 1 && a[0].length == 1;
+		boolean bScalar = b.length == 1 && b[0].length == 1;
+
+		if (aScalar || bScalar) {
+			Kernel other = aScalar ? second : first;
+			// NO_OP copies the unscaled value at the edges
+			if (other.edgeHandling == EdgeHandlingStrategy.NO_OP && !(aScalar && bScalar)) {
+				return null;
+			}
+			double factor = aScalar ? a[0][0] : b[0][0];
+			double[][] mask = new double[other.mask.length][other.mask[0].length];
+			for (int y = 0; y < mask.length; y++) {
+				for (int x = 0; x < mask[0].length; x++) {
+					mask[y][x] = other.mask[y][x] * factor;
+				}
+			}
+			return new Kernel(mask, other.edgeHandling);
+		}
+
+		if (first.edgeHandling != second.edgeHandling || first.edgeHandling == EdgeHandlingStrategy.NO_OP) {
+			return null;
+		}
+
+		double[][] column;
+		double[][] row;
+		if (a[0].length == 1 && b.length == 1) {
+			column = a;
+			row = b;
+		} else if (a.length == 1 && b[0].length == 1) {
+			column = b;
+			row = a;
+		} else {
+			return null;
+		}
+		double[][] mask = new double[column.length][row[0].length];
+		for (int y = 0; y < mask.length; y++) {
+			for (int x = 0; x < mask[0].length; x++) {
+				mask[y][x] = column[y][0] * row[0][x];
+			}
+		}
+		return new Kernel(mask, first.edgeHandling);
+	}
+
+	private double[][] stream(int height, int width, PixelFunction source) {
+		double[][] result = new double[height][];
+		stream(height, width, source, (y, values) -> {
+			result[y] = values.clone();
+		});
+		return result;
+	}
+
+	/**
+	 * Evaluate all stages row by row. Each stage keeps a ring buffer holding the
+	 * rows its successor needs to compute the current row.
+	 * 
+	 * @param height the first dimension of the input
+	 * @param width  the second dimension of the input
+	 * @param source computes the values of the first stage
+	 * @param sink   receives each row of the last stage. The supplied array is
+	 *               reused for the next row.
+	 */
+	private void stream(int height, int width, PixelFunction source, RowConsumer sink) {
+		List<Kernel> stages = getStages();
+		int last = stages.size() - 1;
+
+		// Views expose the buffered rows to calcValue using the original row index.
+		// Rows not currently buffered are never accessed by the kernel. Outdated
+		// references are left in place as calcValue queries the width on row 0.
+		double[][][] views = new double[last][height][];
+		double[][][] rings = new double[last][][];
+		int[] produced = new int[last];
+		for (int stage = 0; stage < last; stage++) {
+			rings[stage] = new double[Math.min(stages.get(stage + 1).mask.length, height)][width];
+		}
+
+		double[] row = new double[width];
+		for (int y = 0; y < height; y++) {
+			if (last > 0) {
+				ensure(stages, last - 1, Math.min(y + stages.get(last).mask.length / 2, height - 1), source, views, rings, produced);
+			}
+			compute(stages, last, y, row, source, views);
+			sink.accept(y, row);
+		}
+	}
+
+	private void ensure(List<Kernel> stages, int stage, int y, PixelFunction source, double[][][] views, double[][][] rings, int[] produced) {
+		int height = views[stage].length;
+		while (produced[stage] <= y) {
+			int current = produced[stage];
+			if (stage > 0) {
+				ensure(stages, stage - 1, Math.min(current + stages.get(stage).mask.length / 2, height - 1), source, views, rings, produced);
+			}
+			double[] row = rings[stage][current % rings[stage].length];
+			compute(stages, stage, current, row, source, views);
+			views[stage][current] = row;
+			produced[stage]++;
+		}
+	}
+
+	private void compute(List<Kernel> stages, int stage, int y, double[] row, PixelFunction source, double[][][] views) {
+		if (stage == 0) {
+			for (int x = 0; x < row.length; x++) {
+				row[x] = source.calcValue(x, y);
+			}
+		} else {
+			Kernel kernel = stages.get(stage);
+			double[][] view = views[stage - 1];
+			for (int x = 0; x < row.length; x++) {
+				row[x] = kernel.calcValue(view, x, y);
+			}
+		}
+	}
+
+	/** Computes the value of the first stage at the given position */
+	private interface PixelFunction {
+		double calcValue(int x, int y);
+	}
+
+	/** Receives a computed row of the last stage */
+	private interface RowConsumer {
+		void accept(int y, double[] values);
+	}
+
 	@Override
 	public String toString() {
 		return "MultiKernel [kernels=" + kernels + "]";
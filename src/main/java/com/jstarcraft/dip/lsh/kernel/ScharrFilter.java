@@ -30,14 +30,15 @@ import com.jstarcraft.dip.color.ColorPixel;
  */
 public class ScharrFilter implements ImageConverter {
 
-	/** Separated Gx Kernel */
-	private MultiKernel xKernel;
-	/** Separated Gy Kernel */
-	private MultiKernel yKernel;
+	/** Fused gx and gy operator */
+	private GradientOperator gradient = GradientOperator.scharr();
 
 	/** Gray cutoff value */
 	private double threshold;
 
+	/** Use an integer approximation of the gradient magnitude */
+	private boolean approximate;
+
 	/**
 	 * Create a scharr filter
 	 * 
@@ -45,35 +46,22 @@ public class ScharrFilter implements ImageConverter {
 	 *                  1].
 	 */
 	public ScharrFilter(double threshold) {
+		this(threshold, false);
+	}
 
+	/**
+	 * Create a scharr filter
+	 * 
+	 * @param threshold   the cutoff beneath which gray values will be set to 0. [0
+	 *                    - 1].
+	 * @param approximate if true the magnitude is approximated using integer
+	 *                    arithmetic instead of computing the euclidean length. See
+	 *                    {@link GradientOperator#magnitude(int, int, boolean)}
+	 * @since 3.0.0
+	 */
+	public ScharrFilter(double threshold, boolean approximate) {
 		this.threshold = (double) Require.inRange(threshold, 0, 1, "Threshold must be in range of [0-1]");
-
-		// x Kernel
-		/*
-		 * @formatter:off
-		 * 
-		 * xKernel Separated 1 0 -1 1 2 0 -2 => 2 1 0 -1 1 0 -1 1
-		 * 
-		 * @formatter:on
-		 */
-
-		double[][] x0Mask = { { 3 }, { 10 }, { 3 } };
-		double[][] x1Mask = { { 1, 0, -1 } };
-
-		/*
-		 * @formatter:off
-		 * 
-		 * yKernel Separated 1 2 1 1 0 0 0 => 0 x 1 2 1 -1 -2 -1 -1
-		 * 
-		 * @formatter:on
-		 */
-
-		double[][] y0Mask = { { 1 }, { 0 }, { -1 } };
-		double[][] y1Mask = { { 3, 10, 3 } };
-
-		xKernel = new MultiKernel(x1Mask, x0Mask);
-		yKernel = new MultiKernel(y0Mask, y1Mask);
-
+		this.approximate = approximate;
 	}
 
 	@Override
@@ -81,32 +69,15 @@ public class ScharrFilter implements ImageConverter {
 
 		ColorPixel fp = ColorPixel.convert(bi);
 
-		int[][] grayscale = fp.getRedMatrix();
-
-		int[][] xGradient = xKernel.applyInt(grayscale);
-		int[][] yGradient = yKernel.applyInt(grayscale);
-
-		int[][] result = new int[xGradient.length][xGradient[0].length];
-
-		int cutOffValue = (int) (threshold * 255);
-
-		for (int x = 0; x < xGradient.length; x++) {
-			for (int y = 0; y < xGradient[x].length; y++) {
-				result[x][y] = (int) Math.sqrt(xGradient[x][y] * xGradient[x][y] + yGradient[x][y] * yGradient[x][y]);
-
-				if (result[x][y] < 0) {
-					result[x][y] -= result[x][y];
-				}
-				if (result[x][y] < cutOffValue) {
-					result[x][y] = 0;
-				}
-			}
-		}
-
 		BufferedImage returnBi = new BufferedImage(bi.getWidth(), bi.getHeight(), bi.getType());
 		ColorPixel fpSet = ColorPixel.convert(returnBi);
 
-		fpSet.setGrayscaleMatrix(result);
+		int cutOffValue = (int) (threshold * 255);
+
+		gradient.apply(fp.getWidth(), fp.getHeight(), fp::getRedScalar, (x, y, gx, gy) -> {
+			int magnitude = GradientOperator.magnitude(gx, gy, approximate);
+			fpSet.setGrayscaleScalar(x, y, magnitude < cutOffValue ? 0 : magnitude);
+		});
 
 		if (fpSet.hasTransparency()) {
 			fpSet.setTransparencyMatrix(fp.getTransparencyMatrix());
@@ -0,0 +1,268 @@
+package com.github.kilianB.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Kilian
+ *
+ */
+class CoalescingExecutorTest {
+
+	/** Records delivered batches */
+	private static class Recorder<K, T> implements Consumer<Map<K, T>> {
+
+		private final List<Map<K, T>> batches = Collections.synchronizedList(new ArrayList<>());
+
+		private final Map<K, Long> deliveredAt = new ConcurrentHashMap<>();
+
+		@Override
+		public void accept(Map<K, T> batch) {
+			batches.add(batch);
+			for (K key : batch.keySet()) {
+				deliveredAt.put(key, System.nanoTime());
+			}
+		}
+
+		int delivered() {
+			synchronized (batches) {
+				return batches.stream().mapToInt(Map::size).sum();
+			}
+		}
+	}
+
+	@Test
+	void coalesced() {
+		Recorder<Integer, String> recorder = new Recorder<>();
+		try (CoalescingExecutor<Integer, String> executor = new CoalescingExecutor<>(recorder, 50, TimeUnit.MILLISECONDS)) {
+			executor.put(1, "a");
+			executor.put(2, "b");
+			executor.put(1, "c");
+			assertEquals(2, executor.getPendingCount());
+			assertEquals(1, executor.getCoalescedCount());
+		}
+		assertEquals(2, recorder.delivered());
+		Map<Integer, String> delivered = new ConcurrentHashMap<>();
+		recorder.batches.forEach(delivered::putAll);
+		assertEquals("c", delivered.get(1));
+		assertEquals("b", delivered.get(2));
+	}
+
+	@Test
+	void delayed() throws InterruptedException {
+		Recorder<Integer, String> recorder = new Recorder<>();
+		try (CoalescingExecutor<Integer, String> executor = new CoalescingExecutor<>(recorder, 50, TimeUnit.MILLISECONDS)) {
+			long start = System.nanoTime();
+			executor.put(1, "a");
+			Thread.sleep(20);
+			executor.put(1, "b");
+			waitFor(() -> executor.getDeliveredCount() == 1);
+			long elapsed = recorder.deliveredAt.get(1) - start;
+			assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+			assertEquals("b", recorder.batches.get(0).get(1));
+		}
+	}
+
+	@Test
+	void debounced() throws InterruptedException {
+		Recorder<Integer, Integer> recorder = new Recorder<>();
+		try (CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(recorder, 40, TimeUnit.MILLISECONDS)) {
+			executor.setDebounce(true);
+			long start = System.nanoTime();
+			long last = start;
+			for (int i = 0; i < 5; i++) {
+				last = System.nanoTime();
+				executor.put(1, i);
+				Thread.sleep(20);
+			}
+			waitFor(() -> executor.getDeliveredCount() == 1);
+			// Quiet for the delay after the last update
+			assertTrue(recorder.deliveredAt.get(1) - last >= TimeUnit.MILLISECONDS.toNanos(40));
+			assertEquals(Integer.valueOf(4), recorder.batches.get(0).get(1));
+			assertEquals(4, executor.getCoalescedCount());
+		}
+	}
+
+	@Test
+	void mergeFunction() {
+		Recorder<String, Integer> recorder = new Recorder<>();
+		try (CoalescingExecutor<String, Integer> executor = new CoalescingExecutor<>(recorder, 1, TimeUnit.HOURS)) {
+			executor.setMergeFunction(Integer::sum);
+			for (int i = 1; i <= 4; i++) {
+				executor.put("sum", i);
+			}
+		}
+		assertEquals(Integer.valueOf(10), recorder.batches.get(0).get("sum"));
+	}
+
+	@Test
+	void batched() {
+		Recorder<Integer, Integer> recorder = new Recorder<>();
+		try (CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(recorder, 1, TimeUnit.HOURS)) {
+			executor.setMaxBatchSize(10);
+			for (int i = 0; i < 95; i++) {
+				executor.put(i, i);
+			}
+		}
+		assertEquals(95, recorder.delivered());
+		for (Map<Integer, Integer> batch : recorder.batches) {
+			assertTrue(batch.size() <= 10);
+		}
+		assertTrue(recorder.batches.size() >= 10);
+	}
+
+	@Test
+	void flush() throws InterruptedException {
+		Recorder<Integer, Integer> recorder = new Recorder<>();
+		try (CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(recorder, 1, TimeUnit.HOURS)) {
+			executor.put(1, 1);
+			executor.flush();
+			waitFor(() -> executor.getDeliveredCount() == 1);
+			assertEquals(0, executor.getPendingCount());
+		}
+	}
+
+	@Test
+	void failingConsumer() {
+		CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(batch -> {
+			throw new IllegalStateException();
+		}, 0, TimeUnit.MILLISECONDS);
+		executor.put(1, 1);
+		executor.put(2, 2);
+		executor.close();
+		assertEquals(2, executor.getFailedCount());
+		assertEquals(0, executor.getDeliveredCount());
+	}
+
+	@Test
+	void producersDoNotWaitForConsumer() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch accepted = new CountDownLatch(1);
+		try (CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(batch -> {
+			accepted.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, 0, TimeUnit.MILLISECONDS)) {
+			executor.put(0, 0);
+			assertTrue(accepted.await(5, TimeUnit.SECONDS));
+			long start = System.nanoTime();
+			for (int i = 1; i < 1000; i++) {
+				executor.put(i, i);
+			}
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+			release.countDown();
+		}
+	}
+
+	@Test
+	void concurrentProducers() throws Exception {
+		Recorder<Integer, Integer> recorder = new Recorder<>();
+		CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(recorder, 5, TimeUnit.MILLISECONDS, 3);
+		executor.setMergeFunction(Integer::sum);
+		ExecutorService producers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(producers.submit(() -> {
+					for (int i = 0; i < 10_000; i++) {
+						executor.put(i % 100, 1);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			producers.shutdown();
+		}
+		executor.close();
+		// Merged values add up to the number of updates
+		long total = 0;
+		for (Map<Integer, Integer> batch : recorder.batches) {
+			for (int value : batch.values()) {
+				total += value;
+			}
+		}
+		assertEquals(40_000, total);
+		assertEquals(40_000, executor.getDeliveredCount() + executor.getCoalescedCount());
+	}
+
+	@Nested
+	class Shutdown {
+
+		@Test
+		void pendingDelivered() throws InterruptedException {
+			Recorder<Integer, Integer> recorder = new Recorder<>();
+			CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(recorder, 1, TimeUnit.HOURS);
+			executor.put(1, 1);
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			assertEquals(1, recorder.delivered());
+			assertTrue(executor.isClosed());
+		}
+
+		@Test
+		void rejected() {
+			CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(batch -> {
+			}, 1, TimeUnit.MILLISECONDS);
+			executor.close();
+			executor.close();
+			assertThrows(IllegalStateException.class, () -> {
+				executor.put(1, 1);
+			});
+		}
+
+		@Test
+		void arguments() {
+			assertThrows(NullPointerException.class, () -> {
+				new CoalescingExecutor<>(null, 1, TimeUnit.MILLISECONDS);
+			});
+			assertThrows(IllegalArgumentException.class, () -> {
+				new CoalescingExecutor<>(batch -> {
+				}, -1, TimeUnit.MILLISECONDS);
+			});
+			assertThrows(IllegalArgumentException.class, () -> {
+				new CoalescingExecutor<>(batch -> {
+				}, 1, TimeUnit.MILLISECONDS, 0);
+			});
+			try (CoalescingExecutor<Integer, Integer> executor = new CoalescingExecutor<>(batch -> {
+			}, 1, TimeUnit.MILLISECONDS)) {
+				assertThrows(IllegalArgumentException.class, () -> {
+					executor.setMaxBatchSize(0);
+				});
+				assertThrows(NullPointerException.class, () -> {
+					executor.put(null, 1);
+				});
+			}
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out");
+			Thread.sleep(5);
+		}
+	}
+
+}
@@ -1,11 +1,18 @@
 package com.github.kilianB.dataStrorage.tree;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -183,6 +190,65 @@ public class BinaryTreeTest {
 		assertEquals(3, binTree.getHashCount());
 	}
 
+	@Nested
+	class Remove {
+
+		@Test
+		public void removeHash() {
+			Hash hash = TestResources.createHash("101010100011", 0);
+			Hash hash1 = TestResources.createHash("101010100010", 0);
+			binTree.addHash(hash, 1);
+			binTree.addHash(hash1, 2);
+
+			assertTrue(binTree.removeHash(hash, 1));
+			assertEquals(1, binTree.getHashCount());
+			assertEquals(0, binTree.getElementsWithinHammingDistance(hash, 0).size());
+			assertEquals(2, ((Result) binTree.getElementsWithinHammingDistance(hash, 1).peek()).value);
+		}
+
+		@Test
+		public void removeUnknown() {
+			Hash hash = TestResources.createHash("101010100011", 0);
+			Hash hash1 = TestResources.createHash("101010100010", 0);
+			binTree.addHash(hash, 1);
+
+			assertFalse(binTree.removeHash(hash1, 1));
+			assertFalse(binTree.removeHash(hash, 2));
+			assertEquals(1, binTree.getHashCount());
+		}
+
+		@Test
+		public void pruneEmptyBranches() {
+			Hash hash = TestResources.createHash("101010100011", 0);
+			Hash hash1 = TestResources.createHash("001010100011", 0);
+			binTree.addHash(hash, 1);
+			BinaryTree expected = new BinaryTree(true);
+			expected.addHash(hash, 1);
+
+			binTree.addHash(hash1, 2);
+			binTree.removeHash(hash1, 2);
+			assertEquals(expected.getRoot(), binTree.getRoot());
+
+			binTree.removeHash(hash, 1);
+			assertEquals(null, binTree.getRoot().leftChild);
+			assertEquals(null, binTree.getRoot().rightChild);
+		}
+
+		@Test
+		public void removeValue() {
+			Hash hash = TestResources.createHash("101010100011", 0);
+			Hash hash1 = TestResources.createHash("001010100010", 0);
+			binTree.addHash(hash, 1);
+			binTree.addHash(hash1, 1);
+			binTree.addHash(hash1, 2);
+
+			assertEquals(2, binTree.removeValue(1));
+			assertEquals(1, binTree.getHashCount());
+			assertEquals(0, binTree.getElementsWithinHammingDistance(hash, 0).size());
+			assertEquals(1, binTree.getElementsWithinHammingDistance(hash1, 0).size());
+		}
+	}
+
 	@Nested
 	class NearestNeightbour {
 
@@ -263,4 +329,91 @@ public class BinaryTreeTest {
 			assertTrue(((int) r2.value == 0 || (int) r2.value == 2));
 		}
 	}
+
+	@Nested
+	class Batch {
+
+		private List<String> describe(PriorityQueue<Result<Integer>> results) {
+			return results.stream().map(result -> result.value + ":" + (int) result.distance).sorted().collect(Collectors.toList());
+		}
+
+		@Test
+		public void equalsIndividualQueries() {
+			Random rng = new Random(0);
+			int bits = 70;
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			for (int i = 0; i < 500; i++) {
+				tree.addHash(new Hash(new BigInteger(bits, rng), bits, 0), i);
+			}
+			List<Hash> queries = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				queries.add(new Hash(new BigInteger(bits, rng), bits, 0));
+			}
+			for (int maxDistance : new int[] { 0, 5, 25, 30, bits }) {
+				List<PriorityQueue<Result<Integer>>> batch = tree.getElementsWithinHammingDistance(queries, maxDistance);
+				assertEquals(queries.size(), batch.size());
+				for (int i = 0; i < queries.size(); i++) {
+					assertEquals(describe(tree.getElementsWithinHammingDistance(queries.get(i), maxDistance)), describe(batch.get(i)));
+				}
+			}
+		}
+
+		@Test
+		public void closestFirst() {
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			tree.addHash(TestResources.createHash("1111", 0), 0);
+			tree.addHash(TestResources.createHash("1110", 0), 1);
+			tree.addHash(TestResources.createHash("1100", 0), 2);
+
+			List<Hash> queries = Arrays.asList(TestResources.createHash("1100", 0), TestResources.createHash("1111", 0));
+			List<PriorityQueue<Result<Integer>>> batch = tree.getElementsWithinHammingDistance(queries, 4);
+			assertEquals(Integer.valueOf(2), batch.get(0).poll().value);
+			assertEquals(Integer.valueOf(0), batch.get(1).poll().value);
+		}
+
+		@Test
+		public void duplicateQueries() {
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			tree.addHash(TestResources.createHash("101", 0), 0);
+			Hash query = TestResources.createHash("101", 0);
+			List<PriorityQueue<Result<Integer>>> batch = tree.getElementsWithinHammingDistance(Arrays.asList(query, query), 0);
+			assertEquals(1, batch.get(0).size());
+			assertEquals(1, batch.get(1).size());
+		}
+
+		/**
+		 * The algorithm id of an empty tree is not fixed yet
+		 */
+		@Test
+		public void emptyTree() {
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			List<PriorityQueue<Result<Integer>>> batch = tree.getElementsWithinHammingDistance(Arrays.asList(TestResources.createHash("101", 1)), 3);
+			assertTrue(batch.get(0).isEmpty());
+			assertTrue(tree.getElementsWithinHammingDistance(TestResources.createHash("101", 1), 3).isEmpty());
+		}
+
+		@Test
+		public void emptyBatch() {
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			assertTrue(tree.getElementsWithinHammingDistance(Collections.emptyList(), 3).isEmpty());
+		}
+
+		@Test
+		public void differentResolution() {
+			BinaryTree<Integer> tree = new BinaryTree<>(false);
+			tree.addHash(TestResources.createHash("101", 0), 0);
+			assertThrows(IllegalArgumentException.class, () -> {
+				tree.getElementsWithinHammingDistance(Arrays.asList(TestResources.createHash("101", 0), TestResources.createHash("1011", 0)), 1);
+			});
+		}
+
+		@Test
+		public void incompatibleAlgorithm() {
+			BinaryTree<Integer> tree = new BinaryTree<>(true);
+			tree.addHash(TestResources.createHash("101", 1), 0);
+			assertThrows(IllegalStateException.class, () -> {
+				tree.getElementsWithinHammingDistance(Arrays.asList(TestResources.createHash("101", 2)), 1);
+			});
+		}
+	}
 }
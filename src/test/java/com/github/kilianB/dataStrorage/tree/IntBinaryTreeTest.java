@@ -0,0 +1,140 @@
+package com.github.kilianB.dataStrorage.tree;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.github.kilianB.datastructures.tree.binaryTree.IntBinaryTree;
+import com.github.kilianB.datastructures.tree.binaryTree.IntLeaf;
+import com.jstarcraft.dip.hash.Hash;
+
+class IntBinaryTreeTest {
+
+	private static List<String> describe(Collection<Result<Integer>> results) {
+		return results.stream().map(result -> result.value + ":" + (int) result.distance).sorted().collect(Collectors.toList());
+	}
+
+	@Test
+	public void sameAsBinaryTree() {
+		Random rng = new Random(0);
+		int bits = 20;
+		BinaryTree<Integer> expected = new BinaryTree<>(true);
+		IntBinaryTree actual = new IntBinaryTree(true);
+		List<Hash> hashes = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			// Few bits to place multiple values in a leaf
+			Hash hash = new Hash(new BigInteger(bits, rng).shiftRight(12).shiftLeft(12), bits, 0);
+			hashes.add(hash);
+			expected.addHash(hash, i);
+			actual.addHash(hash, i);
+		}
+		for (int i = 0; i < 300; i += 3) {
+			assertTrue(expected.removeHash(hashes.get(i), i));
+			assertTrue(actual.removeHash(hashes.get(i), i));
+		}
+		assertEquals(expected.getHashCount(), actual.getHashCount());
+
+		List<Hash> queries = hashes.subList(0, 20);
+		for (int maxDistance : new int[] { 0, 2, bits }) {
+			List<String> batch = actual.getElementsWithinHammingDistance(queries, maxDistance).stream().map(IntBinaryTreeTest::describe).flatMap(List::stream).collect(Collectors.toList());
+			List<String> individual = new ArrayList<>();
+			for (Hash query : queries) {
+				List<String> result = describe(expected.getElementsWithinHammingDistance(query, maxDistance));
+				assertEquals(result, describe(actual.getElementsWithinHammingDistance(query, maxDistance)));
+				individual.addAll(result);
+			}
+			assertEquals(individual, batch);
+		}
+		for (Hash query : queries) {
+			assertEquals(describe(expected.getNearestNeighbour(query)), describe(actual.getNearestNeighbour(query)));
+		}
+	}
+
+	@Test
+	public void removeValue() {
+		IntBinaryTree tree = new IntBinaryTree(true);
+		Hash hash = TestResources.createHash("101010100011", 0);
+		Hash hash1 = TestResources.createHash("001010100010", 0);
+		tree.addHash(hash, 1);
+		tree.addHash(hash1, 1);
+		tree.addHash(hash1, 2);
+
+		assertEquals(2, tree.removeValue(1));
+		assertEquals(1, tree.getHashCount());
+		assertEquals(0, tree.getElementsWithinHammingDistance(hash, 0).size());
+		assertEquals(1, tree.getElementsWithinHammingDistance(hash1, 0).size());
+
+		assertTrue(tree.removeHash(hash1, 2));
+		assertEquals(null, tree.getRoot().leftChild);
+		assertEquals(null, tree.getRoot().rightChild);
+	}
+
+	@Test
+	public void serialize() throws Exception {
+		IntBinaryTree tree = new IntBinaryTree(true);
+		tree.addHash(TestResources.createHash("1011", 0), 1);
+		tree.addHash(TestResources.createHash("1011", 0), 2);
+		tree.addHash(TestResources.createHash("0011", 0), 3);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(tree);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			assertEquals(tree, in.readObject());
+		}
+	}
+
+	@Nested
+	class Leaves {
+
+		@Test
+		public void insertionOrder() {
+			IntLeaf leaf = new IntLeaf();
+			for (int i = 0; i < 10; i++) {
+				leaf.addData(i % 4);
+			}
+			assertEquals(Arrays.asList(0, 1, 2, 3, 0, 1, 2, 3, 0, 1), leaf.getData());
+
+			assertTrue(leaf.removeData(2));
+			assertFalse(leaf.removeData(5));
+			assertEquals(3, leaf.removeAllData(1));
+			assertEquals(Arrays.asList(0, 3, 0, 2, 3, 0), leaf.getData());
+			assertEquals(6, leaf.size());
+			assertEquals(2, leaf.getInt(3));
+			assertThrows(IndexOutOfBoundsException.class, () -> leaf.getInt(6));
+		}
+
+		@Test
+		public void equality() {
+			IntLeaf leaf = new IntLeaf();
+			IntLeaf other = new IntLeaf();
+			leaf.addData(1);
+			other.addData(1);
+			assertEquals(leaf, other);
+			assertEquals(leaf.hashCode(), other.hashCode());
+			other.addData(2);
+			assertFalse(leaf.equals(other));
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.github.kilianB.datastructures;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Kilian
+ *
+ */
+class ConcurrentCacheTest {
+
+	@Test
+	void getAndPut() {
+		ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+		assertNull(cache.get(1));
+		cache.put(1, "1");
+		assertEquals("1", cache.get(1));
+		cache.put(1, "one");
+		assertEquals("one", cache.get(1));
+		assertEquals(1, cache.size());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	void loader() {
+		ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+		assertEquals("1", cache.get(1, String::valueOf));
+		assertEquals("1", cache.get(1, key -> "other"));
+		assertNull(cache.get(2, key -> null));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void remove() {
+		ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+		cache.put(1, "1");
+		assertEquals("1", cache.remove(1));
+		assertNull(cache.remove(1));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+
+	@Test
+	void clear() {
+		ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+		for (int i = 0; i < 4; i++) {
+			cache.put(i, "");
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+		cache.put(5, "");
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void maxSize() {
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+		}
+		assertEquals(100, cache.size());
+		assertEquals(100, cache.getWeight());
+		assertEquals(900, cache.getEvictionCount());
+	}
+
+	@Test
+	void mostRecentRetained() {
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(100);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+			assertEquals(Integer.valueOf(i), cache.get(i));
+		}
+	}
+
+	@Test
+	void frequentSurviveScan() {
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(100);
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < 50; i++) {
+				if (cache.get(i) == null) {
+					cache.put(i, i);
+				}
+			}
+		}
+		// A least recently used cache would be flushed by the scan
+		for (int i = 1000; i < 2000; i++) {
+			cache.put(i, i);
+		}
+		for (int i = 0; i < 50; i++) {
+			assertEquals(Integer.valueOf(i), cache.get(i));
+		}
+	}
+
+	@Test
+	void zipfHitRate() {
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(100);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < 100_000; i++) {
+			// Roughly zipf distributed over 10000 keys
+			int key = (int) Math.pow(10000, random.nextDouble());
+			if (cache.get(key) == null) {
+				cache.put(key, key);
+			}
+		}
+		assertTrue(cache.getHitRate() > .3, "Hit rate " + cache.getHitRate());
+	}
+
+	@Test
+	void concurrentAccess() throws Exception {
+		ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<>(64);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(() -> {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					for (int i = 0; i < 20_000; i++) {
+						Integer key = random.nextInt(256);
+						Integer value = cache.get(key, k -> k);
+						assertEquals(key, value);
+						if (i % 100 == 0) {
+							cache.remove(random.nextInt(256));
+						}
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertTrue(cache.size() <= 64);
+		assertEquals(cache.size(), cache.getWeight());
+		assertEquals(80_000, cache.getHitCount() + cache.getMissCount());
+	}
+
+	@Test
+	void arguments() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ConcurrentCache<>(0);
+		});
+		assertThrows(NullPointerException.class, () -> {
+			new ConcurrentCache<>(1, null);
+		});
+		assertThrows(NullPointerException.class, () -> {
+			new ConcurrentCache<>(1).put(null, "");
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ConcurrentCache<Integer, Integer>(1, (key, value) -> -1).put(1, 1);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ConcurrentCache<>(1).setExpireAfterWrite(-1, TimeUnit.SECONDS);
+		});
+	}
+
+	@Nested
+	class Weight {
+
+		@Test
+		void weighted() {
+			ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(10, (key, value) -> value.length());
+			cache.put(1, "aaaa");
+			cache.put(2, "bbbb");
+			assertEquals(8, cache.getWeight());
+			cache.put(3, "cccc");
+			assertEquals(2, cache.size());
+			assertTrue(cache.getWeight() <= 10);
+		}
+
+		@Test
+		void tooHeavy() {
+			ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(10, (key, value) -> value.length());
+			cache.put(1, "a");
+			cache.put(2, "aaaaaaaaaaa");
+			assertNull(cache.get(2));
+			assertEquals("a", cache.get(1));
+			assertEquals(1, cache.getWeight());
+		}
+
+		@Test
+		void image() {
+			assertEquals(4, ConcurrentCache.weighImage(new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB)));
+			assertEquals(1, ConcurrentCache.weighImage(new BufferedImage(32, 32, BufferedImage.TYPE_BYTE_GRAY)));
+			assertEquals(1, ConcurrentCache.weighImage(new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY)));
+		}
+
+		@Test
+		void images() {
+			ConcurrentCache<Integer, BufferedImage> cache = new ConcurrentCache<>(16, (key, image) -> ConcurrentCache.weighImage(image));
+			for (int i = 0; i < 10; i++) {
+				cache.put(i, new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB));
+			}
+			assertEquals(4, cache.size());
+			assertEquals(16, cache.getWeight());
+		}
+	}
+
+	@Nested
+	class Expiry {
+
+		@Test
+		void expired() throws InterruptedException {
+			ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+			cache.setExpireAfterWrite(20, TimeUnit.MILLISECONDS);
+			cache.put(1, "1");
+			assertEquals("1", cache.get(1));
+			Thread.sleep(40);
+			assertNull(cache.get(1));
+			assertEquals(0, cache.size());
+		}
+
+		@Test
+		void cleanUp() throws InterruptedException {
+			ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+			cache.setExpireAfterWrite(20, TimeUnit.MILLISECONDS);
+			cache.put(1, "1");
+			cache.put(2, "2");
+			Thread.sleep(40);
+			cache.cleanUp();
+			assertEquals(0, cache.size());
+			assertEquals(0, cache.getWeight());
+		}
+
+		@Test
+		void disabled() throws InterruptedException {
+			ConcurrentCache<Integer, String> cache = new ConcurrentCache<>(4);
+			cache.setExpireAfterWrite(20, TimeUnit.MILLISECONDS);
+			cache.setExpireAfterWrite(0, TimeUnit.MILLISECONDS);
+			cache.put(1, "1");
+			Thread.sleep(40);
+			assertEquals("1", cache.get(1));
+		}
+	}
+
+}
@@ -0,0 +1,374 @@
+package com.github.kilianB.datastructures;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.ConcurrentRingBuffer.WaitStrategy;
+
+/**
+ * @author Kilian
+ *
+ */
+class ConcurrentRingBufferTest {
+
+	@Test
+	void fifo() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(queue.offer(i));
+			}
+			assertFalse(queue.offer(4));
+			assertEquals(4, queue.size());
+			assertEquals(0, queue.remainingCapacity());
+			for (int i = 0; i < 4; i++) {
+				assertEquals(Integer.valueOf(i), queue.peek());
+				assertEquals(Integer.valueOf(i), queue.poll());
+			}
+			assertNull(queue.poll());
+			assertNull(queue.peek());
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test
+	void capacityRounded() {
+		assertEquals(2, new ConcurrentRingBuffer<>(1).getCapacity());
+		assertEquals(8, new ConcurrentRingBuffer<>(5).getCapacity());
+		assertEquals(8, new ConcurrentRingBuffer<>(8).getCapacity());
+	}
+
+	@Test
+	void smallestCapacity() {
+		ConcurrentRingBuffer<String> queue = new ConcurrentRingBuffer<>(1);
+		assertTrue(queue.offer("a"));
+		assertTrue(queue.offer("b"));
+		assertFalse(queue.offer("c"));
+		assertEquals("a", queue.poll());
+		assertEquals(1, queue.offerAll(Arrays.asList("c", "d")));
+		assertEquals("b", queue.poll());
+		assertEquals("c", queue.poll());
+	}
+
+	@Test
+	void offerAll() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+		queue.offer(0);
+		queue.poll();
+		// Wraps around the end of the ring
+		assertEquals(4, queue.offerAll(Arrays.asList(1, 2, 3, 4, 5, 6)));
+		assertEquals(0, queue.offerAll(Arrays.asList(5)));
+		assertEquals(Arrays.asList(1, 2, 3, 4), new ArrayList<>(queue));
+	}
+
+	@Test
+	void drainTo() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(8);
+		queue.offerAll(Arrays.asList(1, 2, 3, 4, 5));
+		List<Integer> drained = new ArrayList<>();
+		assertEquals(2, queue.drainTo(drained, 2));
+		assertEquals(3, queue.drainTo(drained));
+		assertEquals(0, queue.drainTo(drained));
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5), drained);
+		assertEquals(8, queue.offerAll(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8)));
+	}
+
+	@Test
+	void drainToFailing() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+		queue.offerAll(Arrays.asList(1, 2, 3, 4));
+		List<Integer> drained = new ArrayList<Integer>() {
+			@Override
+			public boolean add(Integer e) {
+				if (size() == 2) {
+					throw new IllegalStateException();
+				}
+				return super.add(e);
+			}
+		};
+		assertThrows(IllegalStateException.class, () -> {
+			queue.drainTo(drained);
+		});
+		assertEquals(Arrays.asList(1, 2), drained);
+		// Untransferred elements stay at the head and transferred slots are released
+		assertEquals(2, queue.offerAll(Arrays.asList(5, 6)));
+		assertEquals(Arrays.asList(3, 4, 5, 6), new ArrayList<>(queue));
+	}
+
+	@Test
+	void drainToFailingWhileConsumed() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(8);
+		queue.offerAll(Arrays.asList(1, 2, 3, 4, 5));
+		AtomicReference<Integer> polled = new AtomicReference<>();
+		List<Integer> drained = new ArrayList<Integer>() {
+			@Override
+			public boolean add(Integer e) {
+				if (size() == 1) {
+					// Another consumer moves on before the transfer fails
+					polled.set(queue.poll());
+					throw new IllegalStateException();
+				}
+				return super.add(e);
+			}
+		};
+		assertThrows(IllegalStateException.class, () -> {
+			queue.drainTo(drained, 3);
+		});
+		assertEquals(Arrays.asList(1), drained);
+		assertEquals(Integer.valueOf(4), polled.get());
+		// Untransferred elements are added to the tail again
+		assertEquals(Arrays.asList(5, 2, 3), new ArrayList<>(queue));
+		assertEquals(5, queue.offerAll(Arrays.asList(6, 7, 8, 9, 10, 11)));
+	}
+
+	@Test
+	void snapshot() {
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+		queue.offerAll(Arrays.asList(1, 2));
+		assertEquals("[1, 2]", queue.toString());
+		assertTrue(queue.contains(2));
+		assertThrows(UnsupportedOperationException.class, () -> {
+			queue.iterator().remove();
+		});
+	}
+
+	@Test
+	void arguments() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ConcurrentRingBuffer<>(0);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ConcurrentRingBuffer<>((1 << 30) + 1);
+		});
+		assertThrows(NullPointerException.class, () -> {
+			new ConcurrentRingBuffer<>(1, null);
+		});
+		ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(4);
+		assertThrows(NullPointerException.class, () -> {
+			queue.offer(null);
+		});
+		assertThrows(NullPointerException.class, () -> {
+			queue.offerAll(Arrays.asList(1, null));
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			queue.drainTo(queue);
+		});
+		assertTrue(queue.isEmpty());
+	}
+
+	@Nested
+	class Waiting {
+
+		@Test
+		void pollTimeout() throws InterruptedException {
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(2, strategy);
+				long start = System.nanoTime();
+				assertNull(queue.poll(20, TimeUnit.MILLISECONDS));
+				assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+			}
+		}
+
+		@Test
+		void offerTimeout() throws InterruptedException {
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(2, strategy);
+				queue.put(1);
+				queue.put(2);
+				assertFalse(queue.offer(3, 20, TimeUnit.MILLISECONDS));
+			}
+		}
+
+		@Test
+		void takeWaitsForPut() throws Exception {
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(2, strategy);
+				ExecutorService executor = Executors.newSingleThreadExecutor();
+				try {
+					Future<Integer> taken = executor.submit(() -> queue.take());
+					Thread.sleep(20);
+					assertFalse(taken.isDone());
+					queue.put(42);
+					assertEquals(Integer.valueOf(42), taken.get(5, TimeUnit.SECONDS));
+				} finally {
+					executor.shutdown();
+				}
+			}
+		}
+
+		@Test
+		void putWaitsForTake() throws Exception {
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(2, strategy);
+				queue.put(1);
+				queue.put(2);
+				ExecutorService executor = Executors.newSingleThreadExecutor();
+				try {
+					Future<?> put = executor.submit(() -> {
+						queue.put(3);
+						return null;
+					});
+					Thread.sleep(20);
+					assertFalse(put.isDone());
+					assertEquals(Integer.valueOf(1), queue.take());
+					put.get(5, TimeUnit.SECONDS);
+					assertEquals(Integer.valueOf(2), queue.take());
+					assertEquals(Integer.valueOf(3), queue.take());
+				} finally {
+					executor.shutdown();
+				}
+			}
+		}
+
+		@Test
+		void interrupted() throws InterruptedException {
+			for (WaitStrategy strategy : WaitStrategy.values()) {
+				ConcurrentRingBuffer<Integer> queue = new ConcurrentRingBuffer<>(2, strategy);
+				AtomicReference<Throwable> thrown = new AtomicReference<>();
+				CountDownLatch done = new CountDownLatch(1);
+				Thread thread = new Thread(() -> {
+					try {
+						queue.take();
+					} catch (Throwable t) {
+						thrown.set(t);
+					}
+					done.countDown();
+				});
+				thread.start();
+				Thread.sleep(20);
+				thread.interrupt();
+				assertTrue(done.await(5, TimeUnit.SECONDS));
+				assertTrue(thrown.get() instanceof InterruptedException);
+			}
+		}
+	}
+
+	@Nested
+	class Concurrent {
+
+		private static final int PRODUCERS = 4;
+
+		private static final int ELEMENTS = 50_000;
+
+		/**
+		 * Every element is delivered exactly once and elements of a producer arrive
+		 * at each consumer in order
+		 */
+		private void transfer(WaitStrategy strategy, boolean batched) throws Exception {
+			ConcurrentRingBuffer<Long> queue = new ConcurrentRingBuffer<>(64, strategy);
+			ExecutorService executor = Executors.newFixedThreadPool(2 * PRODUCERS);
+			try {
+				List<Future<?>> producers = new ArrayList<>();
+				for (int p = 0; p < PRODUCERS; p++) {
+					long producer = p;
+					producers.add(executor.submit(() -> {
+						if (batched) {
+							List<Long> batch = new ArrayList<>();
+							for (int i = 0; i < ELEMENTS; i++) {
+								batch.add(producer << 32 | i);
+								if (batch.size() == 16 || i == ELEMENTS - 1) {
+									List<Long> remaining = batch;
+									while (!remaining.isEmpty()) {
+										int added = queue.offerAll(remaining);
+										remaining = remaining.subList(added, remaining.size());
+										if (added == 0) {
+											Thread.yield();
+										}
+									}
+									batch = new ArrayList<>();
+								}
+							}
+						} else {
+							for (int i = 0; i < ELEMENTS; i++) {
+								queue.put(producer << 32 | i);
+							}
+						}
+						return null;
+					}));
+				}
+				List<Future<long[]>> consumers = new ArrayList<>();
+				for (int c = 0; c < PRODUCERS; c++) {
+					consumers.add(executor.submit(() -> {
+						// Count per producer and last element seen
+						long[] state = new long[2 * PRODUCERS];
+						Arrays.fill(state, PRODUCERS, 2 * PRODUCERS, -1);
+						List<Long> drained = new ArrayList<>();
+						while (true) {
+							drained.clear();
+							if (batched) {
+								if (queue.drainTo(drained, 16) == 0) {
+									Long e = queue.poll(10, TimeUnit.MILLISECONDS);
+									if (e != null) {
+										drained.add(e);
+									}
+								}
+							} else {
+								Long e = queue.poll(10, TimeUnit.MILLISECONDS);
+								if (e != null) {
+									drained.add(e);
+								}
+							}
+							if (drained.isEmpty() && producers.stream().allMatch(Future::isDone) && queue.isEmpty()) {
+								return state;
+							}
+							for (long e : drained) {
+								int producer = (int) (e >>> 32);
+								long index = e & 0xFFFFFFFFL;
+								assertTrue(index > state[PRODUCERS + producer], "Out of order");
+								state[PRODUCERS + producer] = index;
+								state[producer]++;
+							}
+						}
+					}));
+				}
+				for (Future<?> producer : producers) {
+					producer.get(60, TimeUnit.SECONDS);
+				}
+				long[] counts = new long[PRODUCERS];
+				for (Future<long[]> consumer : consumers) {
+					long[] state = consumer.get(60, TimeUnit.SECONDS);
+					for (int p = 0; p < PRODUCERS; p++) {
+						counts[p] += state[p];
+					}
+				}
+				for (long count : counts) {
+					assertEquals(ELEMENTS, count);
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+
+		@Test
+		void blocking() throws Exception {
+			transfer(WaitStrategy.BLOCKING, false);
+		}
+
+		@Test
+		void spinning() throws Exception {
+			transfer(WaitStrategy.SPINNING, false);
+		}
+
+		@Test
+		void batched() throws Exception {
+			transfer(WaitStrategy.BLOCKING, true);
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.github.kilianB.datastructures;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class IdDictionaryTest {
+
+	@Test
+	void denseIds() {
+		IdDictionary<String> dictionary = new IdDictionary<>();
+		assertEquals(0, dictionary.intern("a"));
+		assertEquals(1, dictionary.intern("b"));
+		assertEquals(0, dictionary.intern("a"));
+		assertEquals("b", dictionary.get(1));
+		assertEquals(1, dictionary.getId("b"));
+		assertEquals(-1, dictionary.getId("c"));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	void releasedIdsReused() {
+		IdDictionary<String> dictionary = new IdDictionary<>();
+		dictionary.intern("a");
+		dictionary.intern("b");
+		assertEquals(0, dictionary.release("a"));
+		assertEquals(-1, dictionary.release("a"));
+		assertFalse(dictionary.contains("a"));
+		assertNull(dictionary.get(0));
+		assertEquals(0, dictionary.intern("c"));
+		assertEquals(2, dictionary.getCapacity());
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.github.kilianB.datastructures;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IntDoubleHashMapTest {
+
+	@Test
+	void putAndGet() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		map.put(1, 0.5);
+		map.put(-7, 2);
+		assertEquals(0.5, map.get(1, -1));
+		assertEquals(2, map.get(-7, -1));
+		assertEquals(-1, map.get(3, -1));
+		map.put(1, 0.25);
+		assertEquals(0.25, map.get(1, -1));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	void addTo() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		assertEquals(1.5, map.addTo(4, 1.5));
+		assertEquals(2, map.addTo(4, 0.5));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	void reservedKey() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		assertThrows(IllegalArgumentException.class, () -> map.put(Integer.MIN_VALUE, 1));
+	}
+
+	/**
+	 * Compare random operations against a hash map, including removals which
+	 * shift colliding entries
+	 */
+	@Test
+	void randomOperations() {
+		IntDoubleHashMap map = new IntDoubleHashMap(4);
+		Map<Integer, Double> reference = new HashMap<>();
+		Random random = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			int key = random.nextInt(2000);
+			switch (random.nextInt(3)) {
+			case 0:
+				double value = random.nextDouble();
+				map.put(key, value);
+				reference.put(key, value);
+				break;
+			case 1:
+				assertEquals(reference.remove(key) != null, map.remove(key));
+				break;
+			default:
+				assertEquals(reference.containsKey(key), map.containsKey(key));
+				assertEquals(reference.getOrDefault(key, -1d).doubleValue(), map.get(key, -1));
+			}
+		}
+		assertEquals(reference.size(), map.size());
+		Map<Integer, Double> iterated = new HashMap<>();
+		map.forEach((key, value) -> iterated.put(key, value));
+		assertEquals(reference, iterated);
+	}
+
+	@Test
+	void clear() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		for (int i = 0; i < 100; i++) {
+			map.put(i, i);
+		}
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(5));
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.github.kilianB.datastructures;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class UnionFindTest {
+
+	@Test
+	void singletons() {
+		UnionFind sets = new UnionFind(4);
+		assertEquals(4, sets.getSetCount());
+		assertFalse(sets.connected(0, 1));
+		assertEquals(1, sets.getSetSize(2));
+		assertTrue(sets.getSets(2).isEmpty());
+	}
+
+	@Test
+	void union() {
+		UnionFind sets = new UnionFind(6);
+		assertTrue(sets.union(0, 1));
+		assertTrue(sets.union(4, 1));
+		assertFalse(sets.union(0, 4));
+		assertTrue(sets.union(2, 5));
+		assertTrue(sets.connected(0, 4));
+		assertFalse(sets.connected(0, 2));
+		assertEquals(3, sets.getSetSize(1));
+		assertEquals(3, sets.getSetCount());
+	}
+
+	@Test
+	void sets() {
+		UnionFind sets = new UnionFind(6);
+		sets.union(5, 1);
+		sets.union(4, 1);
+		sets.union(2, 3);
+		List<int[]> result = sets.getSets(2);
+		assertEquals(2, result.size());
+		assertArrayEquals(new int[] { 1, 4, 5 }, result.get(0));
+		assertArrayEquals(new int[] { 2, 3 }, result.get(1));
+		assertEquals(3, sets.getSets(3).get(0).length);
+		assertEquals(6, sets.getSets(1).stream().mapToInt(set -> set.length).sum());
+	}
+
+	@Test
+	void negativeSize() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new UnionFind(-1);
+		});
+	}
+
+}
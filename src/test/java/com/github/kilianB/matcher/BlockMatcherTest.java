@@ -0,0 +1,65 @@
+package com.github.kilianB.matcher;
+
+import static com.github.kilianB.TestResources.ballon;
+import static com.github.kilianB.TestResources.copyright;
+import static com.github.kilianB.TestResources.lenna;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.matcher.exotic.BlockMatcher;
+import com.github.kilianB.matcher.exotic.BlockMatcher.Match;
+import com.jstarcraft.dip.lsh.BlockAverageHash;
+
+class BlockMatcherTest {
+
+	private BlockMatcher<String> matcher;
+
+	@BeforeEach
+	void setup() {
+		matcher = new BlockMatcher<>(new BlockAverageHash(8, true, 1, 2, 4));
+		matcher.addImage("lenna", lenna);
+		matcher.addImage("ballon", ballon);
+		matcher.addImage("copyright", copyright);
+	}
+
+	@Test
+	void cropFound() {
+		int width = lenna.getWidth() / 2;
+		int height = lenna.getHeight() / 2;
+		BufferedImage crop = lenna.getSubimage(width / 2, height / 2, width, height);
+		List<Match<String>> matches = matcher.getMatchingImages(crop, 0.1);
+		assertFalse(matches.isEmpty());
+		assertEquals("lenna", matches.get(0).getId());
+	}
+
+	@Test
+	void identicalImage() {
+		List<Match<String>> matches = matcher.getMatchingImages(ballon, 0);
+		assertEquals("ballon", matches.get(0).getId());
+		assertEquals(1d, matches.get(0).getMatchedRatio());
+	}
+
+	@Test
+	void replaceImage() {
+		int blocks = matcher.getBlockCount();
+		matcher.addImage("lenna", lenna);
+		assertEquals(blocks, matcher.getBlockCount());
+	}
+
+	@Test
+	void removeImage() {
+		assertTrue(matcher.removeImage("lenna"));
+		assertFalse(matcher.removeImage("lenna"));
+		for (Match<String> match : matcher.getMatchingImages(lenna, 0)) {
+			assertFalse(match.getId().equals("lenna"));
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.github.kilianB.matcher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.cached.ConsecutiveMatcher;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.DifferenceHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+class QueryPlannerTest {
+
+	private final HashingAlgorithm first = new AverageHash(64);
+
+	private final HashingAlgorithm second = new AverageHash(256);
+
+	private final HashingAlgorithm third = new DifferenceHash(64, DifferenceHash.Gradient.Horizontal);
+
+	@Test
+	void insertionOrderWithoutStatistics() {
+		QueryPlanner planner = new QueryPlanner();
+		assertEquals(Arrays.asList(first, second, third), planner.plan(Arrays.asList(first, second, third)));
+	}
+
+	@Test
+	void cheapAndSelectiveFirst() {
+		QueryPlanner planner = new QueryPlanner();
+		planner.recordCost(first, 1000);
+		planner.recordCost(second, 100);
+		planner.recordCost(third, 100);
+		for (int i = 0; i < 20; i++) {
+			planner.recordSelectivity(first, 100, 10);
+			planner.recordSelectivity(second, 100, 90);
+			planner.recordSelectivity(third, 100, 10);
+		}
+		// rank: first 1000 / 0.9, second 100 / 0.1, third 100 / 0.9
+		assertEquals(Arrays.asList(third, second, first), planner.plan(Arrays.asList(first, second, third)));
+	}
+
+	@Test
+	void unobservedAlgorithmsExploredFirst() {
+		QueryPlanner planner = new QueryPlanner();
+		planner.recordCost(first, 100);
+		List<HashingAlgorithm> plan = planner.plan(Arrays.asList(first, second));
+		assertEquals(second, plan.get(0));
+	}
+
+	@Test
+	void selectivityConverges() {
+		QueryPlanner planner = new QueryPlanner();
+		assertEquals(0.5, planner.getSelectivity(first));
+		for (int i = 0; i < 100; i++) {
+			planner.recordSelectivity(first, 10, 1);
+		}
+		assertEquals(0.1, planner.getSelectivity(first), 1e-6);
+		// Empty candidate sets carry no information
+		planner.recordSelectivity(first, 0, 0);
+		assertEquals(0.1, planner.getSelectivity(first), 1e-6);
+	}
+
+	/**
+	 * The evaluation order does not change the matches or the reported distances
+	 */
+	@Test
+	void planningKeepsResults() {
+		BufferedImage[] images = { TestResources.ballon, TestResources.copyright, TestResources.highQuality, TestResources.lowQuality, TestResources.thumbnail };
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher();
+		matcher.addHashingAlgorithm(second, 0.4);
+		matcher.addHashingAlgorithm(first, 0.3);
+		matcher.addImages(images);
+
+		// Force the last added algorithm to be evaluated first
+		matcher.getQueryPlanner().recordCost(first, 1);
+		matcher.getQueryPlanner().recordCost(second, 1000000);
+		assertEquals(first, matcher.getQueryPlanner().plan(matcher.getAlgorithms().keySet()).get(0));
+
+		for (BufferedImage image : images) {
+			PriorityQueue<Result<BufferedImage>> results = matcher.getMatchingImages(image);
+			assertTrue(results.contains(new Result<>(image, 0, 0)));
+			for (Result<BufferedImage> result : results) {
+				int distance = first.hash(image).hammingDistance(first.hash(result.value));
+				assertEquals(distance, (int) result.distance);
+				assertTrue(second.hash(image).normalizedHammingDistance(second.hash(result.value)) <= 0.4);
+			}
+		}
+	}
+
+}
@@ -11,6 +11,8 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 
@@ -97,6 +99,22 @@ class ConsecutiveMatcherTest {
 
 	}
 
+	@Test
+	public void batchEqualsIndividualQueries() {
+		ConsecutiveMatcher matcher = createMatcher();
+		matcher.addImages(ballon, copyright, highQuality, lowQuality, thumbnail);
+
+		List<BufferedImage> images = Arrays.asList(ballon, highQuality, thumbnail, ballon);
+		List<PriorityQueue<Result<BufferedImage>>> batch = matcher.getMatchingImages(images);
+		assertEquals(images.size(), batch.size());
+		for (int i = 0; i < images.size(); i++) {
+			PriorityQueue<Result<BufferedImage>> expected = matcher.getMatchingImages(images.get(i));
+			assertEquals(expected.size(), batch.get(i).size());
+			assertEquals(expected.peek().value, batch.get(i).peek().value);
+			assertEquals(expected.peek().distance, batch.get(i).peek().distance);
+		}
+	}
+
 	@Test
 	@DisplayName("Empty Matcher")
 	public void noAlgorithm() {
@@ -8,12 +8,18 @@ import static com.github.kilianB.TestResources.thumbnail;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 
@@ -23,6 +29,7 @@ import org.junit.jupiter.api.Test;
 
 import com.github.kilianB.datastructures.tree.Result;
 import com.github.kilianB.matcher.TypedImageMatcher.AlgoSettings;
+import com.jstarcraft.dip.hash.Hash;
 import com.jstarcraft.dip.lsh.AverageHash;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 import com.jstarcraft.dip.lsh.PerceptiveHash;
@@ -91,6 +98,59 @@ class ConsecutiveImageMatcherTest {
 		assertEquals(1, matcher.getAlgorithms().size());
 	}
 
+	@Test
+	public void batchEqualsIndividualQueries() {
+		PersitentBinaryTreeMatcher matcher = createMatcherAndAddDefaultTestImages();
+
+		List<BufferedImage> images = Arrays.asList(ballon, highQuality, thumbnail, ballon);
+		List<PriorityQueue<Result<String>>> batch = matcher.getMatchingImages(images);
+		assertEquals(images.size(), batch.size());
+		for (int i = 0; i < images.size(); i++) {
+			PriorityQueue<Result<String>> expected = matcher.getMatchingImages(images.get(i));
+			assertEquals(expected.size(), batch.get(i).size());
+			assertEquals(expected.peek().value, batch.get(i).peek().value);
+			assertEquals(expected.peek().distance, batch.get(i).peek().distance);
+		}
+	}
+
+	@Test
+	public void precomputedHashes() {
+		PersitentBinaryTreeMatcher matcher = createMatcherAndAddDefaultTestImages();
+		PriorityQueue<Result<String>> expected = matcher.getMatchingImages(highQuality);
+		PriorityQueue<Result<String>> actual = matcher.getMatchingImages(matcher.computeHashes(highQuality));
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected.peek().value, actual.peek().value);
+		assertThrows(IllegalArgumentException.class, () -> {
+			matcher.getMatchingImages(new HashMap<HashingAlgorithm, Hash>());
+		});
+	}
+
+	/**
+	 * Files are decoded as configured by the algorithms and the hashes carry the
+	 * id of the decoding
+	 */
+	@Test
+	public void customDecoding() throws IOException, URISyntaxException {
+		File file = new File(ConsecutiveImageMatcherTest.class.getClassLoader().getResource("ballon.jpg").toURI());
+		AverageHash subsampled = new AverageHash(64);
+		subsampled.setSubsampledDecoding(2);
+		AverageHash plain = new AverageHash(256);
+		PersitentBinaryTreeMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(subsampled, .4);
+		matcher.addHashingAlgorithm(plain, .4);
+		matcher.addImage("Ballon", file);
+
+		Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(file);
+		assertEquals(subsampled.hash(file), hashes.get(subsampled));
+		assertNotEquals(new AverageHash(64).algorithmId(), hashes.get(subsampled).getAlgorithmId());
+		assertEquals(plain.hash(ballon), hashes.get(plain));
+		assertEquals(hashes, matcher.computeHashes(Files.readAllBytes(file.toPath())));
+
+		PriorityQueue<Result<String>> results = matcher.getMatchingImages(file);
+		assertEquals("Ballon", results.peek().value);
+		assertEquals(0, results.peek().distance, 0);
+	}
+
 	@Test
 	@DisplayName("Empty Matcher")
 	public void noAlgorithm() {
@@ -0,0 +1,104 @@
+package com.github.kilianB.matcher.persistent;
+
+import static com.github.kilianB.TestResources.ballon;
+import static com.github.kilianB.TestResources.copyright;
+import static com.github.kilianB.TestResources.highQuality;
+import static com.github.kilianB.TestResources.lowQuality;
+import static com.github.kilianB.TestResources.thumbnail;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.DifferenceHash;
+
+class CumulativeMatcherTest {
+
+	private static final BufferedImage[] IMAGES = { ballon, copyright, highQuality, lowQuality, thumbnail };
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail" };
+
+	private static CumulativeMatcher createMatcher() {
+		CumulativeMatcher matcher = new CumulativeMatcher(true, 0.4);
+		matcher.addHashingAlgorithm(new AverageHash(64), 1);
+		matcher.addHashingAlgorithm(new DifferenceHash(64, DifferenceHash.Gradient.Horizontal), 0.5);
+		for (int i = 0; i < IMAGES.length; i++) {
+			matcher.addImage(IDS[i], IMAGES[i]);
+		}
+		return matcher;
+	}
+
+	@Test
+	void sameAsInMemoryMatcher() {
+		CumulativeMatcher matcher = createMatcher();
+		com.github.kilianB.matcher.cached.CumulativeMatcher reference = new com.github.kilianB.matcher.cached.CumulativeMatcher(0.4);
+		reference.addHashingAlgorithm(new AverageHash(64), 1);
+		reference.addHashingAlgorithm(new DifferenceHash(64, DifferenceHash.Gradient.Horizontal), 0.5);
+		Map<BufferedImage, String> names = new HashMap<>();
+		for (int i = 0; i < IMAGES.length; i++) {
+			reference.addImage(IMAGES[i]);
+			names.put(IMAGES[i], IDS[i]);
+		}
+
+		for (BufferedImage image : IMAGES) {
+			Map<String, Double> expected = new HashMap<>();
+			for (Result<BufferedImage> result : reference.getMatchingImages(image)) {
+				expected.put(names.get(result.value), result.normalizedHammingDistance);
+			}
+			Map<String, Double> actual = new HashMap<>();
+			for (Result<String> result : matcher.getMatchingImages(image)) {
+				actual.put(result.value, result.normalizedHammingDistance);
+			}
+			assertEquals(expected, actual);
+		}
+	}
+
+	/**
+	 * The distance of a result is the one reported by the last evaluated algorithm
+	 */
+	@Test
+	void distanceOfLastAlgorithm() {
+		CumulativeMatcher matcher = createMatcher();
+		DifferenceHash hasher = new DifferenceHash(64, DifferenceHash.Gradient.Horizontal);
+		Map<String, BufferedImage> images = new HashMap<>();
+		for (int i = 0; i < IMAGES.length; i++) {
+			images.put(IDS[i], IMAGES[i]);
+		}
+		Hash needle = hasher.hash(highQuality);
+		PriorityQueue<Result<String>> results = matcher.getMatchingImages(highQuality);
+		assertTrue(results.size() > 1);
+		for (Result<String> result : results) {
+			assertEquals(needle.hammingDistance(hasher.hash(images.get(result.value))), result.distance);
+		}
+	}
+
+	@Test
+	void cachedLookup() {
+		CumulativeMatcher matcher = createMatcher();
+		PriorityQueue<Result<String>> results = matcher.getMatchingImagesInternal((BufferedImage) null, "ballon");
+		assertEquals("ballon", results.peek().value);
+		assertEquals(0, results.peek().normalizedHammingDistance);
+	}
+
+	@Test
+	void removedImageNotReturned() {
+		CumulativeMatcher matcher = createMatcher();
+		assertTrue(matcher.removeImage("ballon"));
+		for (Result<String> result : matcher.getMatchingImages(ballon)) {
+			assertFalse(result.value.equals("ballon"));
+		}
+		// The released id is reused
+		matcher.addImage("ballon2", ballon);
+		assertEquals("ballon2", matcher.getMatchingImages(ballon).peek().value);
+	}
+
+}
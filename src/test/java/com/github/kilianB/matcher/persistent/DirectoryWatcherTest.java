@@ -0,0 +1,178 @@
+package com.github.kilianB.matcher.persistent;
+
+import static com.github.kilianB.TestResources.ballon;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jstarcraft.dip.lsh.AverageHash;
+
+/**
+ * @author Kilian
+ *
+ */
+class DirectoryWatcherTest {
+
+	private Path directory;
+
+	private PersitentBinaryTreeMatcher matcher;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("watcher");
+		matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+		}
+	}
+
+	private static Path getFile(String name) throws URISyntaxException {
+		return new File(DirectoryWatcherTest.class.getClassLoader().getResource(name).toURI()).toPath();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Timeout");
+			Thread.sleep(10);
+		}
+	}
+
+	private void addModifyDelete(DirectoryWatcher watcher) throws Exception {
+		Path target = directory.resolve("image.jpg");
+		String uniqueId = target.toFile().getAbsolutePath();
+
+		Files.copy(getFile("copyright.jpg"), target);
+		await(() -> watcher.getAdded() == 1);
+		assertTrue(matcher.containsImage(uniqueId));
+		assertFalse(matcher.getMatchingImages(ballon).stream().anyMatch(r -> r.value.equals(uniqueId)));
+
+		Files.copy(getFile("ballon.jpg"), target, StandardCopyOption.REPLACE_EXISTING);
+		// Polling may miss a change within the same millisecond
+		target.toFile().setLastModified(System.currentTimeMillis() + 2000);
+		await(() -> watcher.getUpdated() == 1);
+		assertEquals(uniqueId, matcher.getMatchingImages(ballon).peek().value);
+
+		Files.delete(target);
+		await(() -> watcher.getRemoved() == 1);
+		assertFalse(matcher.containsImage(uniqueId));
+		assertEquals(0, matcher.getMatchingImages(ballon).size());
+	}
+
+	@Test
+	public void watchService() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), false, 50)) {
+			watcher.start(false);
+			addModifyDelete(watcher);
+		}
+	}
+
+	@Test
+	public void polling() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), false, 50)) {
+			watcher.setPolling(20);
+			watcher.start(false);
+			assertTrue(watcher.isPolling());
+			addModifyDelete(watcher);
+		}
+	}
+
+	@Test
+	public void synchronize() throws Exception {
+		Files.copy(getFile("ballon.jpg"), directory.resolve("ballon.jpg"));
+		Files.copy(getFile("copyright.jpg"), directory.resolve("copyright.jpg"));
+		matcher.addImage(directory.resolve("ballon.jpg").toFile());
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), false, 0)) {
+			watcher.start(true);
+			await(() -> watcher.getAdded() == 1);
+			assertTrue(matcher.containsImage(directory.resolve("copyright.jpg").toFile().getAbsolutePath()));
+		}
+	}
+
+	@Test
+	public void recursive() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), true, 50)) {
+			watcher.setPolling(20);
+			watcher.start(false);
+			Path sub = Files.createDirectory(directory.resolve("sub"));
+			Files.copy(getFile("ballon.jpg"), sub.resolve("ballon.jpg"));
+			await(() -> watcher.getAdded() == 1);
+		}
+	}
+
+	@Test
+	public void deletedSubdirectories() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), true, 0)) {
+			watcher.start(false);
+			// Directories vanishing before they are registered must not stop the watcher
+			for (int i = 0; i < 50; i++) {
+				Path sub = Files.createDirectory(directory.resolve("sub" + i));
+				Files.delete(sub);
+			}
+			Files.copy(getFile("ballon.jpg"), directory.resolve("ballon.jpg"));
+			await(() -> watcher.getAdded() == 1);
+		}
+	}
+
+	@Test
+	public void undecodableFile() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), false, 0)) {
+			watcher.setPolling(20);
+			watcher.start(false);
+			Files.write(directory.resolve("text.txt"), "no image".getBytes());
+			await(() -> watcher.getFailed() == 1);
+			assertEquals(0, watcher.getAdded());
+		}
+	}
+
+	@Test
+	public void filter() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile(), false, 0)) {
+			watcher.setPolling(20);
+			watcher.setFilter(path -> path.toString().endsWith(".jpg"));
+			watcher.start(false);
+			Files.write(directory.resolve("text.txt"), "no image".getBytes());
+			Files.copy(getFile("ballon.jpg"), directory.resolve("ballon.jpg"));
+			await(() -> watcher.getAdded() == 1);
+			assertEquals(0, watcher.getFailed());
+		}
+	}
+
+	@Test
+	public void startTwice() throws Exception {
+		try (DirectoryWatcher watcher = new DirectoryWatcher(matcher, directory.toFile())) {
+			watcher.start(false);
+			assertThrows(IllegalStateException.class, () -> {
+				watcher.start(false);
+			});
+		}
+	}
+
+	@Test
+	public void noDirectory() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new DirectoryWatcher(matcher, getFile("ballon.jpg").toFile());
+		});
+	}
+
+}
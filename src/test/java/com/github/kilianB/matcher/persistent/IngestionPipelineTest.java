@@ -0,0 +1,167 @@
+package com.github.kilianB.matcher.persistent;
+
+import static com.github.kilianB.TestResources.ballon;
+import static com.github.kilianB.TestResources.highQuality;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.persistent.IngestionPipeline.Stage;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.PerceptiveHash;
+
+/**
+ * @author Kilian
+ *
+ */
+class IngestionPipelineTest {
+
+	private static final String[] IMAGES = { "ballon.jpg", "copyright.jpg", "highQuality.jpg", "lowQuality.jpg", "thumbnail.jpg" };
+
+	private static File getFile(String name) throws URISyntaxException {
+		return new File(IngestionPipelineTest.class.getClassLoader().getResource(name).toURI());
+	}
+
+	private static PersitentBinaryTreeMatcher createMatcher() {
+		PersitentBinaryTreeMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		matcher.addHashingAlgorithm(new PerceptiveHash(64), .3);
+		return matcher;
+	}
+
+	private static List<String> values(PriorityQueue<Result<String>> results) {
+		List<String> values = new ArrayList<>();
+		while (!results.isEmpty()) {
+			values.add(results.poll().value);
+		}
+		return values;
+	}
+
+	@Test
+	public void sameAsSequential() throws Exception {
+		PersitentBinaryTreeMatcher sequential = createMatcher();
+		PersitentBinaryTreeMatcher pipelined = createMatcher();
+		// Small queues and batches to exercise back pressure
+		try (IngestionPipeline pipeline = new IngestionPipeline(pipelined, 2, 2, 2, 1, 2)) {
+			for (String name : IMAGES) {
+				sequential.addImage(name, getFile(name));
+				pipeline.submit(name, getFile(name));
+			}
+			assertTrue(pipeline.awaitCompletion(30, TimeUnit.SECONDS));
+			assertTrue(pipeline.getFailures().isEmpty());
+		}
+		assertEquals(values(sequential.getMatchingImages(ballon)), values(pipelined.getMatchingImages(ballon)));
+		assertEquals(values(sequential.getMatchingImages(highQuality)), values(pipelined.getMatchingImages(highQuality)));
+	}
+
+	@Test
+	public void statistics() throws Exception {
+		try (IngestionPipeline pipeline = new IngestionPipeline(createMatcher())) {
+			for (String name : IMAGES) {
+				pipeline.submit(getFile(name));
+			}
+			pipeline.awaitCompletion();
+			for (Stage stage : Stage.values()) {
+				assertEquals(IMAGES.length, pipeline.getStatistics(stage).getProcessed());
+				assertEquals(0, pipeline.getStatistics(stage).getFailed());
+				assertTrue(pipeline.getStatistics(stage).getAverageLatency() > 0);
+			}
+		}
+	}
+
+	@Test
+	public void undecodableFile() throws Exception {
+		PersitentBinaryTreeMatcher matcher = createMatcher();
+		try (IngestionPipeline pipeline = new IngestionPipeline(matcher)) {
+			pipeline.submit("Ballon", getFile("ballon.jpg"));
+			pipeline.submit("Text", getFile("clusterTestData.txt"));
+			pipeline.awaitCompletion();
+			assertEquals(1, pipeline.getFailures().size());
+			assertTrue(pipeline.getFailures().containsKey("Text"));
+			assertEquals(1, pipeline.getStatistics(Stage.DECODE).getFailed());
+			assertEquals(1, pipeline.getStatistics(Stage.INDEX).getProcessed());
+		}
+		assertEquals("Ballon", matcher.getMatchingImages(ballon).peek().value);
+	}
+
+	@Test
+	public void errorWhileHashing() throws Exception {
+		AtomicBoolean thrown = new AtomicBoolean();
+		PersitentBinaryTreeMatcher matcher = new ConsecutiveMatcher(true) {
+			@Override
+			protected Map<HashingAlgorithm, Hash> computeHashes(BufferedImage image) {
+				if (thrown.compareAndSet(false, true)) {
+					throw new OutOfMemoryError("Test");
+				}
+				return super.computeHashes(image);
+			}
+		};
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		// A single hashing thread has to survive the error
+		try (IngestionPipeline pipeline = new IngestionPipeline(matcher, 1, 1, 1, 1, 1)) {
+			for (String name : IMAGES) {
+				pipeline.submit(name, getFile(name));
+			}
+			assertTrue(pipeline.awaitCompletion(30, TimeUnit.SECONDS));
+			assertEquals(1, pipeline.getFailures().size());
+			assertEquals(1, pipeline.getStatistics(Stage.HASH).getFailed());
+			assertEquals(IMAGES.length - 1, pipeline.getStatistics(Stage.INDEX).getProcessed());
+		}
+	}
+
+	@Test
+	public void errorWhileIndexing() throws Exception {
+		PersitentBinaryTreeMatcher matcher = new ConsecutiveMatcher(true) {
+			@Override
+			public void addHashes(String uniqueId, Map<HashingAlgorithm, Hash> hashes) {
+				if (uniqueId.equals(IMAGES[0])) {
+					throw new OutOfMemoryError("Test");
+				}
+				super.addHashes(uniqueId, hashes);
+			}
+		};
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		try (IngestionPipeline pipeline = new IngestionPipeline(matcher, 1, 1, 1, 1, 2)) {
+			for (String name : IMAGES) {
+				pipeline.submit(name, getFile(name));
+			}
+			assertTrue(pipeline.awaitCompletion(30, TimeUnit.SECONDS));
+			assertTrue(pipeline.getFailures().get(IMAGES[0]) instanceof OutOfMemoryError);
+			assertEquals(IMAGES.length - 1, pipeline.getStatistics(Stage.INDEX).getProcessed());
+		}
+	}
+
+	@Test
+	public void noAlgorithm() throws Exception {
+		try (IngestionPipeline pipeline = new IngestionPipeline(new ConsecutiveMatcher(false))) {
+			assertThrows(IllegalStateException.class, () -> {
+				pipeline.submit(getFile("ballon.jpg"));
+			});
+		}
+	}
+
+	@Test
+	public void submitAfterClose() throws Exception {
+		IngestionPipeline pipeline = new IngestionPipeline(createMatcher());
+		pipeline.close();
+		assertThrows(IllegalStateException.class, () -> {
+			pipeline.submit(getFile("ballon.jpg"));
+		});
+	}
+
+}
@@ -0,0 +1,351 @@
+package com.github.kilianB.matcher.persistent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.PerceptiveHash;
+
+class MatcherServerTest {
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail" };
+
+	private static final String[] FILES = { "ballon.jpg", "copyright.jpg", "highQuality.jpg", "lowQuality.jpg", "thumbnail.jpg" };
+
+	private ConsecutiveMatcher matcher;
+
+	private MatcherServer server;
+
+	private MatcherClient client;
+
+	@BeforeEach
+	void start() throws IOException {
+		matcher = createMatcher();
+		server = new MatcherServer(matcher);
+		server.setWorkerThreads(2);
+		server.start(0);
+		client = new MatcherClient(server.getPort());
+	}
+
+	@AfterEach
+	void stop() {
+		client.close();
+		server.close();
+	}
+
+	private static ConsecutiveMatcher createMatcher() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		matcher.addHashingAlgorithm(new PerceptiveHash(64), .3);
+		return matcher;
+	}
+
+	private static byte[] read(String file) throws IOException {
+		try (InputStream in = MatcherServerTest.class.getClassLoader().getResourceAsStream(file)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static List<String> describe(Collection<Result<String>> results) {
+		List<String> description = new ArrayList<>();
+		for (Result<String> result : results) {
+			description.add(result.value + ":" + result.distance);
+		}
+		description.sort(null);
+		return description;
+	}
+
+	private void addAll() throws IOException {
+		for (int i = 0; i < IDS.length; i++) {
+			client.addImage(IDS[i], read(FILES[i]));
+		}
+	}
+
+	@Test
+	void sameAsLocalMatcher() throws IOException {
+		addAll();
+		ConsecutiveMatcher local = createMatcher();
+		for (int i = 0; i < IDS.length; i++) {
+			local.addImage(IDS[i], ImageIO.read(new ByteArrayInputStream(read(FILES[i]))));
+		}
+		for (String file : FILES) {
+			byte[] image = read(file);
+			assertEquals(describe(local.getMatchingImages(ImageIO.read(new ByteArrayInputStream(image)))), describe(client.getMatchingImages(image)));
+		}
+	}
+
+	@Test
+	void containsAndRemove() throws IOException {
+		addAll();
+		assertTrue(client.containsImage("ballon"));
+		assertTrue(client.removeImage("ballon"));
+		assertFalse(client.containsImage("ballon"));
+		assertFalse(client.removeImage("ballon"));
+		assertFalse(matcher.containsImage("ballon"));
+	}
+
+	@Test
+	void hashes() throws IOException {
+		Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(ImageIO.read(new ByteArrayInputStream(read(FILES[0]))));
+		client.addHashes("precomputed", hashes);
+		assertTrue(matcher.containsImage("precomputed"));
+		List<Result<String>> results = client.getMatchingImages(hashes);
+		assertEquals("precomputed", results.get(0).value);
+		assertEquals(0, results.get(0).distance, 0);
+	}
+
+	@Test
+	void batch() throws IOException {
+		addAll();
+		List<byte[]> images = new ArrayList<>();
+		for (String file : FILES) {
+			images.add(read(file));
+		}
+		List<List<Result<String>>> results = client.getMatchingImages(images);
+		assertEquals(FILES.length, results.size());
+		for (int i = 0; i < FILES.length; i++) {
+			assertEquals(describe(client.getMatchingImages(images.get(i))), describe(results.get(i)));
+		}
+	}
+
+	/**
+	 * Results keep the order of the matcher instead of their natural order
+	 */
+	@Test
+	void matcherOrder() throws IOException {
+		ConsecutiveMatcher reversed = new ConsecutiveMatcher(true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
+				PriorityQueue<Result<String>> results = new PriorityQueue<>(Collections.reverseOrder());
+				results.addAll(super.getMatchingImagesInternal(image, hashes, uniqueId));
+				return results;
+			}
+		};
+		reversed.addHashingAlgorithm(new AverageHash(64), .4);
+		for (int i = 0; i < IDS.length; i++) {
+			reversed.addImage(IDS[i], ImageIO.read(new ByteArrayInputStream(read(FILES[i]))));
+		}
+		try (MatcherServer reversedServer = new MatcherServer(reversed)) {
+			reversedServer.start(0);
+			try (MatcherClient reversedClient = new MatcherClient(reversedServer.getPort())) {
+				byte[] image = read(FILES[2]);
+				List<Result<String>> results = reversedClient.getMatchingImages(image);
+				assertTrue(results.size() > 1);
+				for (int i = 1; i < results.size(); i++) {
+					assertTrue(results.get(i - 1).distance >= results.get(i).distance);
+				}
+				assertTrue(results.get(0).distance > results.get(results.size() - 1).distance);
+			}
+		}
+	}
+
+	@Test
+	void pipelined() throws Exception {
+		byte[] image = read(FILES[0]);
+		// Executed in order: the queries observe the addition
+		CompletableFuture<Void> added = client.addImageAsync(IDS[0], image);
+		List<CompletableFuture<List<Result<String>>>> queries = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			queries.add(client.getMatchingImagesAsync(image));
+		}
+		CompletableFuture<Boolean> removed = client.removeImageAsync(IDS[0]);
+		added.get();
+		for (CompletableFuture<List<Result<String>>> query : queries) {
+			assertEquals(IDS[0], query.get().get(0).value);
+		}
+		assertTrue(removed.get());
+		assertEquals(0, client.getPendingCount());
+		assertEquals(102, server.getRequestCount());
+	}
+
+	/**
+	 * Reading pauses while a request is in flight, but all requests are answered
+	 */
+	@Test
+	void pendingBytesLimited() throws Exception {
+		addAll();
+		try (MatcherServer limited = new MatcherServer(matcher)) {
+			limited.setMaxPendingBytes(1);
+			limited.start(0);
+			try (MatcherClient limitedClient = new MatcherClient(limited.getPort())) {
+				byte[] image = read(FILES[1]);
+				List<String> expected = describe(client.getMatchingImages(image));
+				List<CompletableFuture<List<Result<String>>>> queries = new ArrayList<>();
+				for (int i = 0; i < 20; i++) {
+					queries.add(limitedClient.getMatchingImagesAsync(image));
+				}
+				for (CompletableFuture<List<Result<String>>> query : queries) {
+					assertEquals(expected, describe(query.get()));
+				}
+			}
+		}
+	}
+
+	@Test
+	void concurrentClients() throws Exception {
+		addAll();
+		byte[] image = read(FILES[4]);
+		List<String> expected = describe(client.getMatchingImages(image));
+		List<MatcherClient> clients = new ArrayList<>();
+		try {
+			List<CompletableFuture<List<Result<String>>>> queries = new ArrayList<>();
+			for (int i = 0; i < 4; i++) {
+				MatcherClient other = new MatcherClient(server.getPort());
+				clients.add(other);
+				for (int j = 0; j < 20; j++) {
+					queries.add(other.getMatchingImagesAsync(image));
+				}
+			}
+			for (CompletableFuture<List<Result<String>>> query : queries) {
+				assertEquals(expected, describe(query.get()));
+			}
+			assertEquals(5, server.getConnectionCount());
+		} finally {
+			clients.forEach(MatcherClient::close);
+		}
+	}
+
+	@Nested
+	class Errors {
+
+		@Test
+		void unknownAlgorithm() {
+			Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+			hashes.put(new AverageHash(32), new Hash(BigInteger.ONE, 32, 42));
+			assertThrows(IllegalArgumentException.class, () -> {
+				client.getMatchingImages(hashes);
+			});
+		}
+
+		@Test
+		void missingAlgorithm() throws IOException {
+			Map<HashingAlgorithm, Hash> hashes = matcher.computeHashes(ImageIO.read(new ByteArrayInputStream(read(FILES[0]))));
+			hashes.remove(hashes.keySet().iterator().next());
+			assertThrows(IllegalArgumentException.class, () -> {
+				client.addHashes("incomplete", hashes);
+			});
+			assertFalse(client.containsImage("incomplete"));
+		}
+
+		@Test
+		void invalidImage() throws IOException {
+			assertThrows(IllegalArgumentException.class, () -> {
+				client.addImage("invalid", new byte[] { 1, 2, 3 });
+			});
+			// The connection stays usable
+			assertFalse(client.containsImage("invalid"));
+			assertEquals(1, server.getFailedCount());
+		}
+
+		@Test
+		void noAlgorithm() throws IOException {
+			try (MatcherServer empty = new MatcherServer(new ConsecutiveMatcher(true)); MatcherClient emptyClient = startClient(empty)) {
+				assertThrows(IllegalStateException.class, () -> {
+					emptyClient.getMatchingImages(read(FILES[0]));
+				});
+			}
+		}
+
+		/**
+		 * An error thrown while executing a request fails the request only
+		 */
+		@Test
+		void error() throws IOException {
+			ConsecutiveMatcher failing = new ConsecutiveMatcher(true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected PriorityQueue<Result<String>> getMatchingImagesInternal(BufferedImage image, Map<HashingAlgorithm, Hash> hashes, String uniqueId) {
+					throw new OutOfMemoryError("Simulated");
+				}
+			};
+			failing.addHashingAlgorithm(new AverageHash(64), .4);
+			try (MatcherServer failingServer = new MatcherServer(failing); MatcherClient failingClient = startClient(failingServer)) {
+				for (int i = 0; i < 2; i++) {
+					IOException e = assertThrows(IOException.class, () -> {
+						failingClient.getMatchingImages(read(FILES[0]));
+					});
+					assertTrue(e.getMessage().contains("Simulated"));
+				}
+				// The connection stays usable
+				assertFalse(failingClient.containsImage("ballon"));
+				assertEquals(2, failingServer.getFailedCount());
+			}
+		}
+
+		private MatcherClient startClient(MatcherServer server) throws IOException {
+			server.start(0);
+			return new MatcherClient(server.getPort());
+		}
+
+		@Test
+		void serverClosed() throws IOException {
+			server.close();
+			ExecutionException e = assertThrows(ExecutionException.class, () -> {
+				client.containsImageAsync("ballon").get();
+			});
+			assertTrue(e.getCause() instanceof IOException);
+			assertThrows(IOException.class, () -> {
+				client.containsImage("ballon");
+			});
+		}
+
+		@Test
+		void arguments() throws IOException {
+			assertThrows(IllegalArgumentException.class, () -> {
+				new MatcherServer(matcher).setWorkerThreads(0);
+			});
+			assertThrows(IllegalArgumentException.class, () -> {
+				new MatcherServer(matcher).setMaxPendingBytes(0);
+			});
+			assertThrows(IllegalStateException.class, () -> {
+				server.start(0);
+			});
+			assertThrows(IllegalStateException.class, () -> {
+				new MatcherServer(matcher).getPort();
+			});
+			assertThrows(NullPointerException.class, () -> {
+				client.addImage("null", (byte[]) null);
+			});
+			assertEquals(Arrays.asList(), client.getMatchingImages(new ArrayList<>()));
+		}
+	}
+
+}
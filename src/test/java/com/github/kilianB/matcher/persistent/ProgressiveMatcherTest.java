@@ -0,0 +1,170 @@
+package com.github.kilianB.matcher.persistent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.matcher.persistent.ProgressiveMatcher.ProgressiveResult;
+import com.jstarcraft.dip.lsh.AverageHash;
+
+class ProgressiveMatcherTest {
+
+	private static final BufferedImage[] IMAGES = { TestResources.ballon, TestResources.copyright, TestResources.highQuality, TestResources.lowQuality, TestResources.thumbnail, TestResources.lenna };
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail", "lenna" };
+
+	private static void addImages(PersistentImageMatcher matcher) {
+		for (int i = 0; i < IMAGES.length; i++) {
+			matcher.addImage(IDS[i], IMAGES[i]);
+		}
+	}
+
+	private static Set<String> values(PriorityQueue<Result<String>> results) {
+		Set<String> values = new HashSet<>();
+		for (Result<String> result : results) {
+			values.add(result.value);
+		}
+		return values;
+	}
+
+	@Test
+	void sameAsConsecutive() {
+		ConsecutiveMatcher consecutive = new ConsecutiveMatcher(true);
+		consecutive.addHashingAlgorithm(new AverageHash(64), 0.3);
+		consecutive.addHashingAlgorithm(new AverageHash(1024), 0.2);
+		addImages(consecutive);
+
+		ProgressiveMatcher progressive = new ProgressiveMatcher();
+		progressive.addHashingAlgorithm(new AverageHash(64), 0.3);
+		progressive.addHashingAlgorithm(new AverageHash(1024), 0.2);
+		addImages(progressive);
+
+		for (BufferedImage image : IMAGES) {
+			assertEquals(values(consecutive.getMatchingImages(image)), values(progressive.getMatchingImages(image)));
+		}
+	}
+
+	@Test
+	void sampledBits() {
+		ConsecutiveMatcher consecutive = new ConsecutiveMatcher(true);
+		consecutive.addHashingAlgorithm(new AverageHash(1024), 0.2);
+		addImages(consecutive);
+
+		ProgressiveMatcher progressive = new ProgressiveMatcher();
+		progressive.addHashingAlgorithm(new AverageHash(1024), 0.2);
+		progressive.setSampledBits(64);
+		progressive.setCandidateSlack(2);
+		addImages(progressive);
+
+		for (BufferedImage image : IMAGES) {
+			ProgressiveResult result = progressive.getMatchingImagesProgressive(image);
+			assertEquals(values(consecutive.getMatchingImages(image)), values(result.getMatches()));
+			assertTrue(result.getCandidateCount(0) >= result.getCandidateCount(1));
+		}
+	}
+
+	@Test
+	void stageReport() {
+		ProgressiveMatcher matcher = new ProgressiveMatcher();
+		matcher.addHashingAlgorithm(new AverageHash(64), 0.4);
+		matcher.addHashingAlgorithm(new AverageHash(1024), 0.1);
+		addImages(matcher);
+
+		ProgressiveResult result = matcher.getMatchingImagesProgressive("highQuality");
+		assertEquals(3, result.getStageCount());
+		for (int stage = 1; stage < result.getStageCount(); stage++) {
+			assertTrue(result.getCandidateCount(stage - 1) >= result.getCandidateCount(stage));
+		}
+		assertEquals(result.getCandidateCount(2), result.getMatches().size());
+		assertTrue(values(result.getMatches()).contains("highQuality"));
+	}
+
+	@Test
+	void maxCandidates() {
+		ProgressiveMatcher matcher = new ProgressiveMatcher();
+		matcher.addHashingAlgorithm(new AverageHash(64), 1);
+		matcher.setMaxCandidates(2);
+		addImages(matcher);
+
+		ProgressiveResult result = matcher.getMatchingImagesProgressive(TestResources.ballon);
+		assertEquals(2, result.getCandidateCount(0));
+		assertEquals("ballon", result.getMatches().peek().value);
+	}
+
+	@Test
+	void removeImage() {
+		ProgressiveMatcher matcher = new ProgressiveMatcher();
+		matcher.addHashingAlgorithm(new AverageHash(256), 0.2);
+		matcher.setSampledBits(32);
+		addImages(matcher);
+
+		assertTrue(matcher.removeImage("ballon"));
+		assertFalse(values(matcher.getMatchingImages(TestResources.ballon)).contains("ballon"));
+	}
+
+	@Test
+	void onlyQueriedTreeFilled() {
+		AverageHash coarse = new AverageHash(64);
+		AverageHash fine = new AverageHash(1024);
+		ProgressiveMatcher matcher = new ProgressiveMatcher();
+		matcher.addHashingAlgorithm(coarse, 0.3);
+		matcher.addHashingAlgorithm(fine, 0.2);
+		addImages(matcher);
+		assertEquals(IMAGES.length, matcher.binTreeMap.get(coarse).getHashCount());
+		assertEquals(0, matcher.binTreeMap.get(fine).getHashCount());
+
+		assertTrue(matcher.removeImage("ballon"));
+		assertEquals(IMAGES.length - 1, matcher.binTreeMap.get(coarse).getHashCount());
+	}
+
+	@Test
+	void sampledTreeOnly() {
+		AverageHash algo = new AverageHash(256);
+		ProgressiveMatcher matcher = new ProgressiveMatcher();
+		matcher.addHashingAlgorithm(algo, 0.2);
+		matcher.setSampledBits(32);
+		addImages(matcher);
+		assertEquals(0, matcher.binTreeMap.get(algo).getHashCount());
+	}
+
+	@Nested
+	class Arguments {
+
+		@Test
+		void lockedAfterAdding() {
+			ProgressiveMatcher matcher = new ProgressiveMatcher();
+			matcher.addHashingAlgorithm(new AverageHash(64), 0.2);
+			matcher.addImage("ballon", TestResources.ballon);
+			assertThrows(IllegalStateException.class, () -> matcher.setSampledBits(16));
+			assertThrows(IllegalStateException.class, () -> matcher.addHashingAlgorithm(new AverageHash(256), 0.2));
+			assertThrows(IllegalStateException.class, () -> matcher.removeHashingAlgo(new AverageHash(64)));
+		}
+
+		@Test
+		void invalidKnobs() {
+			ProgressiveMatcher matcher = new ProgressiveMatcher();
+			assertThrows(IllegalArgumentException.class, () -> matcher.setSampledBits(-1));
+			assertThrows(IllegalArgumentException.class, () -> matcher.setCandidateSlack(-1));
+			assertThrows(IllegalArgumentException.class, () -> matcher.setMaxCandidates(0));
+		}
+
+		@Test
+		void unknownId() {
+			ProgressiveMatcher matcher = new ProgressiveMatcher();
+			matcher.addHashingAlgorithm(new AverageHash(64), 0.2);
+			assertThrows(IllegalStateException.class, () -> matcher.getMatchingImagesProgressive("missing"));
+		}
+	}
+
+}
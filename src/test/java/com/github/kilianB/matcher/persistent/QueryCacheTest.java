@@ -0,0 +1,234 @@
+package com.github.kilianB.matcher.persistent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+class QueryCacheTest {
+
+	private static final BufferedImage[] IMAGES = { TestResources.ballon, TestResources.copyright, TestResources.highQuality, TestResources.lowQuality, TestResources.thumbnail };
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail" };
+
+	private static ConsecutiveMatcher createMatcher() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		for (int i = 0; i < IMAGES.length; i++) {
+			matcher.addImage(IDS[i], IMAGES[i]);
+		}
+		return matcher;
+	}
+
+	private static List<String> describe(PriorityQueue<Result<String>> results) {
+		List<String> description = new ArrayList<>();
+		PriorityQueue<Result<String>> copy = new PriorityQueue<>(results);
+		while (!copy.isEmpty()) {
+			Result<String> result = copy.poll();
+			description.add(result.value + ":" + result.distance);
+		}
+		description.sort(null);
+		return description;
+	}
+
+	@Test
+	void hit() {
+		ConsecutiveMatcher matcher = createMatcher();
+		QueryCache cache = new QueryCache(matcher, 16);
+		List<String> expected = describe(matcher.getMatchingImages(TestResources.ballon));
+		assertEquals(expected, describe(cache.getMatchingImages(TestResources.ballon)));
+		assertEquals(expected, describe(cache.getMatchingImages(TestResources.ballon)));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(.5, cache.getHitRate(), 1e-9);
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	void independentResults() {
+		QueryCache cache = new QueryCache(createMatcher(), 16);
+		PriorityQueue<Result<String>> first = cache.getMatchingImages(TestResources.ballon);
+		int size = first.size();
+		first.peek().distance = 1000;
+		first.clear();
+		PriorityQueue<Result<String>> second = cache.getMatchingImages(TestResources.ballon);
+		assertEquals(size, second.size());
+		assertEquals(0, second.peek().distance, 1e-9);
+	}
+
+	@Test
+	void invalidatedByAddition() {
+		ConsecutiveMatcher matcher = createMatcher();
+		QueryCache cache = new QueryCache(matcher, 16);
+		PriorityQueue<Result<String>> before = cache.getMatchingImages(TestResources.ballon);
+		matcher.addImage("ballonCopy", TestResources.ballon);
+		PriorityQueue<Result<String>> after = cache.getMatchingImages(TestResources.ballon);
+		assertEquals(before.size() + 1, after.size());
+		assertEquals(1, cache.getInvalidationCount());
+		assertEquals(0, cache.getHitCount());
+		// The fresh result is cached again
+		cache.getMatchingImages(TestResources.ballon);
+		assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	void invalidatedByRemoval() {
+		ConsecutiveMatcher matcher = createMatcher();
+		QueryCache cache = new QueryCache(matcher, 16);
+		cache.getMatchingImages(TestResources.ballon);
+		assertFalse(matcher.removeImage("unknown"));
+		cache.getMatchingImages(TestResources.ballon);
+		assertEquals(1, cache.getHitCount());
+		assertTrue(matcher.removeImage("ballon"));
+		for (Result<String> result : cache.getMatchingImages(TestResources.ballon)) {
+			assertNotEquals("ballon", result.value);
+		}
+		assertEquals(1, cache.getInvalidationCount());
+	}
+
+	@Test
+	void rarelyUsedEvicted() {
+		QueryCache cache = new QueryCache(createMatcher(), 2);
+		cache.getMatchingImages(TestResources.ballon);
+		cache.getMatchingImages(TestResources.copyright);
+		// Ballon is queried more often than copyright
+		cache.getMatchingImages(TestResources.ballon);
+		cache.getMatchingImages(TestResources.thumbnail);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		cache.getMatchingImages(TestResources.ballon);
+		assertEquals(2, cache.getHitCount());
+		cache.getMatchingImages(TestResources.copyright);
+		assertEquals(2, cache.getHitCount());
+	}
+
+	@Test
+	void boundedSize() {
+		QueryCache cache = new QueryCache(createMatcher(), 130);
+		AverageHash algorithm = new AverageHash(64);
+		for (int i = 0; i < 500; i++) {
+			Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+			hashes.put(algorithm, new Hash(BigInteger.valueOf(i), 64, algorithm.algorithmId()));
+			cache.getMatchingImages(hashes);
+		}
+		assertEquals(130, cache.size());
+		assertEquals(370, cache.getEvictionCount());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	void concurrentQueries() throws Exception {
+		ConsecutiveMatcher matcher = createMatcher();
+		QueryCache cache = new QueryCache(matcher, 16);
+		List<String> expected = describe(matcher.getMatchingImages(TestResources.thumbnail));
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<PriorityQueue<Result<String>>>> futures = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				futures.add(executor.submit(() -> cache.getMatchingImages(TestResources.thumbnail)));
+			}
+			for (Future<PriorityQueue<Result<String>>> future : futures) {
+				assertEquals(expected, describe(future.get()));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(64, cache.getHitCount() + cache.getMissCount());
+		assertTrue(cache.getHitCount() > 0);
+	}
+
+	@Test
+	void arguments() {
+		ConsecutiveMatcher matcher = createMatcher();
+		assertThrows(IllegalArgumentException.class, () -> {
+			new QueryCache(matcher, 0);
+		});
+		assertThrows(NullPointerException.class, () -> {
+			new QueryCache(null, 1);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new QueryCache(matcher, 1).getMatchingImages(new HashMap<>());
+		});
+	}
+
+	@Nested
+	class Versions {
+
+		@Test
+		void modifications() {
+			ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+			AverageHash algorithm = new AverageHash(64);
+			assertEquals(-1, matcher.getVersion(algorithm));
+			matcher.addHashingAlgorithm(algorithm, .4);
+			long added = matcher.getVersion(algorithm);
+			matcher.addImage("ballon", TestResources.ballon);
+			long first = matcher.getVersion(algorithm);
+			assertTrue(first > added);
+			matcher.removeImage("ballon");
+			assertTrue(matcher.getVersion(algorithm) > first);
+		}
+
+		@Test
+		void neverReused() {
+			ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+			AverageHash algorithm = new AverageHash(64);
+			matcher.addHashingAlgorithm(algorithm, .4);
+			long version = matcher.getVersion(algorithm);
+			matcher.removeHashingAlgo(algorithm);
+			assertEquals(-1, matcher.getVersion(algorithm));
+			matcher.addHashingAlgorithm(algorithm, .4);
+			assertNotEquals(version, matcher.getVersion(algorithm));
+		}
+
+		@Test
+		void progressiveSettings() {
+			ProgressiveMatcher matcher = new ProgressiveMatcher();
+			AverageHash algorithm = new AverageHash(64);
+			matcher.addHashingAlgorithm(algorithm, .4);
+			matcher.addImage("ballon", TestResources.ballon);
+			QueryCache cache = new QueryCache(matcher, 4);
+			cache.getMatchingImages(TestResources.ballon);
+			matcher.setMaxCandidates(1);
+			cache.getMatchingImages(TestResources.ballon);
+			assertEquals(1, cache.getInvalidationCount());
+		}
+
+		@Test
+		void shardedMatcher() {
+			try (ShardedMatcher matcher = new ShardedMatcher(2, () -> new ConsecutiveMatcher(true))) {
+				matcher.addHashingAlgorithm(new AverageHash(64), .4);
+				QueryCache cache = new QueryCache(matcher, 4);
+				assertTrue(cache.getMatchingImages(TestResources.ballon).isEmpty());
+				Map<String, BufferedImage> images = new HashMap<>();
+				images.put("ballon", TestResources.ballon);
+				// Bulk additions bypass the sharded matcher and modify the shards directly
+				matcher.addImages(images);
+				assertEquals("ballon", cache.getMatchingImages(TestResources.ballon).peek().value);
+				assertEquals(1, cache.getInvalidationCount());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+package com.github.kilianB.matcher.persistent;
+
+import static com.github.kilianB.TestResources.ballon;
+import static com.github.kilianB.TestResources.copyright;
+import static com.github.kilianB.TestResources.highQuality;
+import static com.github.kilianB.TestResources.lowQuality;
+import static com.github.kilianB.TestResources.thumbnail;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.DifferenceHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.PerceptiveHash;
+
+class SelfJoinTest {
+
+	private static final BufferedImage[] IMAGES = { ballon, copyright, highQuality, lowQuality, thumbnail };
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail" };
+
+	private static String key(String first, String second) {
+		return first.compareTo(second) < 0 ? first + "|" + second : second + "|" + first;
+	}
+
+	private static Set<String> keys(List<SelfJoin.SimilarPair> pairs) {
+		Set<String> keys = new TreeSet<>();
+		for (SelfJoin.SimilarPair pair : pairs) {
+			assertTrue(keys.add(key(pair.getFirst(), pair.getSecond())), "Pair reported twice " + pair);
+		}
+		return keys;
+	}
+
+	@Test
+	void sameAsQueryingEveryImage() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		matcher.addHashingAlgorithm(new PerceptiveHash(64), .3);
+		for (int i = 0; i < IMAGES.length; i++) {
+			matcher.addImage(IDS[i], IMAGES[i]);
+		}
+
+		Set<String> expected = new TreeSet<>();
+		for (int i = 0; i < IMAGES.length; i++) {
+			for (Result<String> result : matcher.getMatchingImages(IMAGES[i])) {
+				if (!result.value.equals(IDS[i])) {
+					expected.add(key(IDS[i], result.value));
+				}
+			}
+		}
+		assertEquals(expected, keys(new SelfJoin(matcher).getSimilarPairs()));
+	}
+
+	@Nested
+	class Synthetic {
+
+		private final HashingAlgorithm coarse = new AverageHash(64);
+
+		private final HashingAlgorithm fine = new DifferenceHash(64, DifferenceHash.Gradient.Horizontal);
+
+		private final Map<String, Map<HashingAlgorithm, Hash>> hashes = new HashMap<>();
+
+		private BigInteger flip(Random random, BigInteger value, int bits, int flips) {
+			for (int i = 0; i < flips; i++) {
+				value = value.flipBit(random.nextInt(bits));
+			}
+			return value;
+		}
+
+		/**
+		 * Create groups of hashes derived from a common ancestor by flipping a few
+		 * bits
+		 */
+		private ConsecutiveMatcher createMatcher(double coarseThreshold, double fineThreshold) {
+			ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+			matcher.addHashingAlgorithm(coarse, coarseThreshold, false);
+			matcher.addHashingAlgorithm(fine, fineThreshold, false);
+			Random random = new Random(0);
+			int coarseBits = coarse.getKeyResolution();
+			int fineBits = fine.getKeyResolution();
+			for (int group = 0; group < 40; group++) {
+				BigInteger coarseBase = new BigInteger(coarseBits, random);
+				BigInteger fineBase = new BigInteger(fineBits, random);
+				for (int member = 0; member < 1 + random.nextInt(6); member++) {
+					Map<HashingAlgorithm, Hash> imageHashes = new HashMap<>();
+					imageHashes.put(coarse, new Hash(flip(random, coarseBase, coarseBits, random.nextInt(8)), coarseBits, coarse.algorithmId()));
+					imageHashes.put(fine, new Hash(flip(random, fineBase, fineBits, random.nextInt(10)), fineBits, fine.algorithmId()));
+					String id = group + "-" + member;
+					hashes.put(id, imageHashes);
+					matcher.addHashes(id, imageHashes);
+				}
+			}
+			return matcher;
+		}
+
+		private Set<String> bruteForce(int coarseThreshold, int fineThreshold) {
+			List<String> ids = new ArrayList<>(hashes.keySet());
+			Set<String> expected = new TreeSet<>();
+			for (int i = 0; i < ids.size(); i++) {
+				for (int j = i + 1; j < ids.size(); j++) {
+					Map<HashingAlgorithm, Hash> first = hashes.get(ids.get(i));
+					Map<HashingAlgorithm, Hash> second = hashes.get(ids.get(j));
+					if (first.get(coarse).hammingDistance(second.get(coarse)) <= coarseThreshold
+							&& first.get(fine).hammingDistance(second.get(fine)) <= fineThreshold) {
+						expected.add(key(ids.get(i), ids.get(j)));
+					}
+				}
+			}
+			return expected;
+		}
+
+		@Test
+		void pairs() {
+			for (int[] thresholds : new int[][] { { 0, 64 }, { 6, 8 }, { 10, 12 }, { 64, 64 } }) {
+				hashes.clear();
+				ConsecutiveMatcher matcher = createMatcher(thresholds[0], thresholds[1]);
+				Set<String> expected = bruteForce(thresholds[0], thresholds[1]);
+				assertEquals(expected, keys(new SelfJoin(matcher).getSimilarPairs()));
+			}
+		}
+
+		@Test
+		void parallelism() {
+			ConsecutiveMatcher matcher = createMatcher(8, 10);
+			SelfJoin join = new SelfJoin(matcher);
+			join.setParallelism(3);
+			assertEquals(bruteForce(8, 10), keys(join.getSimilarPairs()));
+		}
+
+		@Test
+		void removedImages() {
+			ConsecutiveMatcher matcher = createMatcher(8, 10);
+			matcher.removeImage("0-0");
+			hashes.remove("0-0");
+			assertEquals(bruteForce(8, 10), keys(new SelfJoin(matcher).getSimilarPairs()));
+		}
+
+		@Test
+		void clusters() {
+			ConsecutiveMatcher matcher = createMatcher(8, 10);
+			List<List<String>> clusters = new SelfJoin(matcher).getClusters();
+
+			// Every pair is contained in exactly one cluster
+			Map<String, Integer> clusterOf = new HashMap<>();
+			for (int cluster = 0; cluster < clusters.size(); cluster++) {
+				assertTrue(clusters.get(cluster).size() > 1);
+				for (String id : clusters.get(cluster)) {
+					assertEquals(null, clusterOf.put(id, cluster));
+				}
+			}
+			for (String pair : bruteForce(8, 10)) {
+				String[] ids = pair.split("\\|");
+				assertEquals(clusterOf.get(ids[0]), clusterOf.get(ids[1]));
+				assertTrue(clusterOf.containsKey(ids[0]));
+			}
+		}
+	}
+
+	@Test
+	void sortedByDistance() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		for (int i = 0; i < IMAGES.length; i++) {
+			matcher.addImage(IDS[i], IMAGES[i]);
+		}
+		List<SelfJoin.SimilarPair> pairs = new SelfJoin(matcher).getSimilarPairs();
+		for (int i = 1; i < pairs.size(); i++) {
+			assertTrue(pairs.get(i - 1).getDistance() <= pairs.get(i).getDistance());
+		}
+	}
+
+	@Test
+	void emptyMatcher() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		assertThrows(IllegalStateException.class, () -> {
+			new SelfJoin(matcher).getSimilarPairs();
+		});
+		matcher.addHashingAlgorithm(new AverageHash(64), .4);
+		assertTrue(new SelfJoin(matcher).getClusters().isEmpty());
+	}
+
+	@Test
+	void unsupportedMatchers() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new SelfJoin(new ConsecutiveMatcher(false));
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new SelfJoin(new CumulativeMatcher(true, 0.4));
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new SelfJoin(new ConsecutiveMatcher(true)).setParallelism(0);
+		});
+	}
+
+}
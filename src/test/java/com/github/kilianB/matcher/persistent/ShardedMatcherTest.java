@@ -0,0 +1,197 @@
+package com.github.kilianB.matcher.persistent;
+
+import static com.github.kilianB.TestResources.ballon;
+import static com.github.kilianB.TestResources.copyright;
+import static com.github.kilianB.TestResources.highQuality;
+import static com.github.kilianB.TestResources.lowQuality;
+import static com.github.kilianB.TestResources.thumbnail;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.PerceptiveHash;
+
+class ShardedMatcherTest {
+
+	private static final BufferedImage[] IMAGES = { ballon, copyright, highQuality, lowQuality, thumbnail };
+
+	private static final String[] IDS = { "ballon", "copyright", "highQuality", "lowQuality", "thumbnail" };
+
+	private ShardedMatcher sharded;
+
+	@AfterEach
+	void close() {
+		if (sharded != null) {
+			sharded.close();
+		}
+	}
+
+	private static Set<String> describe(PriorityQueue<Result<String>> results) {
+		Set<String> description = new HashSet<>();
+		for (Result<String> result : results) {
+			description.add(result.value + ":" + result.distance);
+		}
+		return description;
+	}
+
+	@Test
+	void sameAsSingleMatcher() {
+		sharded = new ShardedMatcher(3, () -> new ConsecutiveMatcher(true));
+		ConsecutiveMatcher single = new ConsecutiveMatcher(true);
+		for (PersistentImageMatcher matcher : new PersistentImageMatcher[] { sharded, single }) {
+			matcher.addHashingAlgorithm(new AverageHash(64), .4);
+			matcher.addHashingAlgorithm(new PerceptiveHash(64), .3);
+			for (int i = 0; i < IMAGES.length; i++) {
+				matcher.addImage(IDS[i], IMAGES[i]);
+			}
+		}
+		for (BufferedImage image : IMAGES) {
+			assertEquals(describe(single.getMatchingImages(image)), describe(sharded.getMatchingImages(image)));
+		}
+	}
+
+	@Test
+	void cumulativeShards() {
+		sharded = new ShardedMatcher(2, () -> new CumulativeMatcher(true, 0.4));
+		CumulativeMatcher single = new CumulativeMatcher(true, 0.4);
+		for (PersistentImageMatcher matcher : new PersistentImageMatcher[] { sharded, single }) {
+			matcher.addHashingAlgorithm(new AverageHash(64), 2);
+			for (int i = 0; i < IMAGES.length; i++) {
+				matcher.addImage(IDS[i], IMAGES[i]);
+			}
+		}
+		assertEquals(describe(single.getMatchingImages(highQuality)), describe(sharded.getMatchingImages(highQuality)));
+	}
+
+	@Test
+	void bulkAddition() {
+		sharded = new ShardedMatcher(4, () -> new ConsecutiveMatcher(true));
+		sharded.addHashingAlgorithm(new AverageHash(64), .4);
+		Map<String, BufferedImage> images = new LinkedHashMap<>();
+		for (int i = 0; i < IMAGES.length; i++) {
+			images.put(IDS[i], IMAGES[i]);
+		}
+		sharded.addImages(images);
+		for (String id : IDS) {
+			assertTrue(sharded.containsImage(id));
+		}
+		assertTrue(sharded.removeImage("ballon"));
+		assertFalse(sharded.containsImage("ballon"));
+		assertTrue(sharded.getMatchingImages(ballon).stream().noneMatch(result -> result.value.equals("ballon")));
+		assertThrows(IllegalStateException.class, () -> {
+			sharded.addHashingAlgorithm(new PerceptiveHash(32), .4);
+		});
+	}
+
+	@Nested
+	class Synthetic {
+
+		private final HashingAlgorithm algorithm = new AverageHash(64);
+
+		private Map<HashingAlgorithm, Hash> hashes(BigInteger value) {
+			Map<HashingAlgorithm, Hash> hashes = new HashMap<>();
+			hashes.put(algorithm, new Hash(value, algorithm.getKeyResolution(), algorithm.algorithmId()));
+			return hashes;
+		}
+
+		private ShardedMatcher createMatcher(Map<String, Map<HashingAlgorithm, Hash>> hashes) {
+			ShardedMatcher matcher = new ShardedMatcher(5, () -> new ConsecutiveMatcher(true));
+			matcher.addHashingAlgorithm(algorithm, 24, false);
+			Random random = new Random(0);
+			for (int i = 0; i < 2000; i++) {
+				hashes.put("image" + i, hashes(new BigInteger(64, random)));
+			}
+			matcher.addAllHashes(hashes);
+			return matcher;
+		}
+
+		@Test
+		void allShardsUsed() {
+			Map<String, Map<HashingAlgorithm, Hash>> hashes = new HashMap<>();
+			sharded = createMatcher(hashes);
+			int[] counts = new int[sharded.getShardCount()];
+			for (String id : hashes.keySet()) {
+				assertTrue(sharded.containsImage(id));
+				counts[sharded.getShardIndex(id)]++;
+			}
+			for (int count : counts) {
+				assertTrue(count > 300, "Unbalanced shards");
+			}
+		}
+
+		@Test
+		void limitedResults() {
+			Map<String, Map<HashingAlgorithm, Hash>> hashes = new HashMap<>();
+			sharded = createMatcher(hashes);
+			Map<HashingAlgorithm, Hash> query = hashes.get("image0");
+
+			PriorityQueue<Result<String>> all = sharded.getMatchingImages(query);
+			assertTrue(all.size() > 10);
+			List<Result<String>> sorted = new ArrayList<>();
+			while (!all.isEmpty()) {
+				sorted.add(all.poll());
+			}
+
+			List<Result<String>> limited = sharded.getMatchingImages(query, 10);
+			assertEquals(10, limited.size());
+			for (int i = 0; i < limited.size(); i++) {
+				assertEquals(sorted.get(i).distance, limited.get(i).distance);
+			}
+			assertEquals("image0", limited.get(0).value);
+		}
+
+		@Test
+		void missingHash() {
+			sharded = createMatcher(new HashMap<>());
+			Map<String, Map<HashingAlgorithm, Hash>> invalid = new HashMap<>();
+			invalid.put("invalid", new HashMap<>());
+			assertThrows(IllegalArgumentException.class, () -> {
+				sharded.addAllHashes(invalid);
+			});
+		}
+	}
+
+	@Test
+	void arguments() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ShardedMatcher(0, () -> new ConsecutiveMatcher(true));
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new ShardedMatcher(2, () -> {
+				ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+				matcher.addHashingAlgorithm(new AverageHash(64), .4);
+				return matcher;
+			});
+		});
+		assertThrows(IllegalStateException.class, () -> {
+			new ShardedMatcher(2, () -> new ConsecutiveMatcher(true)).getMatchingImages(ballon);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			ShardedMatcher matcher = new ShardedMatcher(2, () -> new ConsecutiveMatcher(true));
+			matcher.addHashingAlgorithm(new AverageHash(64), .4);
+			matcher.getMatchingImages(ballon, 0);
+		});
+	}
+
+}
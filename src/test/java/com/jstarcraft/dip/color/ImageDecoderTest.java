@@ -0,0 +1,111 @@
+package com.jstarcraft.dip.color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+class ImageDecoderTest {
+
+	private static File getFile(String name) throws URISyntaxException {
+		return new File(ImageDecoderTest.class.getClassLoader().getResource(name).toURI());
+	}
+
+	@Test
+	public void subsampled() throws Exception {
+		File file = getFile("Lenna.png");
+		BufferedImage full = ImageIO.read(file);
+		BufferedImage image = ImageDecoder.read(file, 16, 16, 2);
+		int factor = full.getWidth() / 32;
+		assertTrue(factor > 1);
+		assertEquals((full.getWidth() + factor - 1) / factor, image.getWidth());
+		assertEquals((full.getHeight() + factor - 1) / factor, image.getHeight());
+	}
+
+	@Test
+	public void hashFile() throws Exception {
+		File file = getFile("Lenna.png");
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setSubsampledDecoding(2);
+		assertEquals(hasher.hash(ImageDecoder.read(file, hasher.getScaledWidth(), hasher.getScaledHeight(), 2)), hasher.hash(file));
+	}
+
+	@Test
+	public void hashFileDistinctAlgorithmIds() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setSubsampledDecoding(2);
+		assertNotEquals(new AverageHash(64).algorithmId(), hasher.algorithmId());
+	}
+
+	@Test
+	public void hashFileLocked() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.algorithmId();
+		assertThrows(IllegalStateException.class, () -> {
+			hasher.setSubsampledDecoding(2);
+		});
+	}
+
+	/**
+	 * Without interpolation aligned images sample the same pixels
+	 */
+	@Test
+	public void alignedNoDrift() throws Exception {
+		File file = getFile("Lenna.png");
+		HashingAlgorithm hasher = new AverageHash(64);
+		assertEquals(hasher.hash(ImageIO.read(file)), hasher.hash(ImageDecoder.read(file, hasher.getScaledWidth(), hasher.getScaledHeight())));
+	}
+
+	@Test
+	public void smallImage() throws Exception {
+		File file = getFile("thumbnail.jpg");
+		BufferedImage full = ImageIO.read(file);
+		BufferedImage image = ImageDecoder.read(file, full.getWidth(), full.getHeight(), 2);
+		assertEquals(full.getWidth(), image.getWidth());
+		assertEquals(full.getHeight(), image.getHeight());
+	}
+
+	@Test
+	public void readerReuse() throws Exception {
+		File png = getFile("Lenna.png");
+		File jpg = getFile("ballon.jpg");
+		for (int i = 0; i < 3; i++) {
+			assertNotEquals(null, ImageDecoder.read(png, 8, 8));
+			assertNotEquals(null, ImageDecoder.read(jpg, 8, 8));
+		}
+	}
+
+	@Test
+	public void unsupportedFile() throws Exception {
+		assertEquals(null, ImageDecoder.read(getFile("clusterTestData.txt"), 8, 8));
+	}
+
+	/**
+	 * Hashes of subsampled images drift from the hashes of fully decoded images,
+	 * but have to stay closer than unrelated images (~0.5)
+	 */
+	@Test
+	public void hashDrift() throws IOException, URISyntaxException {
+		HashingAlgorithm[] hashers = { new AverageHash(64), new AverageHash(256) };
+		for (HashingAlgorithm hasher : hashers) {
+			for (String name : new String[] { "Lenna.png", "ballon.jpg", "copyright.jpg", "highQuality.jpg" }) {
+				File file = getFile(name);
+				double drift = hasher.hash(ImageIO.read(file)).normalizedHammingDistance(hasher.hash(ImageDecoder.read(file, hasher.getScaledWidth(), hasher.getScaledHeight(), 4)));
+				assertTrue(drift < 0.3, name + " " + drift);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package com.jstarcraft.dip.color;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.DifferenceHash;
+import com.jstarcraft.dip.lsh.GrayscaleHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.PerceptiveHash;
+
+class JpegDcDecoderTest {
+
+	private static File getFile(String name) throws URISyntaxException {
+		return new File(JpegDcDecoderTest.class.getClassLoader().getResource(name).toURI());
+	}
+
+	/**
+	 * Maximum difference between the dc image and the mean luminance of the
+	 * blocks of the fully decoded image
+	 */
+	private static double maximumDeviation(BufferedImage full, BufferedImage dc) {
+		Raster fullRaster = full.getRaster();
+		Raster dcRaster = dc.getRaster();
+		double maximum = 0;
+		// Partial blocks at the border contain padding
+		for (int blockX = 0; blockX < full.getWidth() / 8; blockX++) {
+			for (int blockY = 0; blockY < full.getHeight() / 8; blockY++) {
+				double sum = 0;
+				for (int x = blockX * 8; x < blockX * 8 + 8; x++) {
+					for (int y = blockY * 8; y < blockY * 8 + 8; y++) {
+						if (fullRaster.getNumBands() == 1) {
+							sum += fullRaster.getSample(x, y, 0);
+						} else {
+							int rgb = full.getRGB(x, y);
+							sum += 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+						}
+					}
+				}
+				maximum = Math.max(maximum, Math.abs(sum / 64 - dcRaster.getSample(blockX, blockY, 0)));
+			}
+		}
+		return maximum;
+	}
+
+	@Test
+	public void baseline() throws Exception {
+		File file = getFile("ballon.jpg");
+		BufferedImage full = ImageIO.read(file);
+		BufferedImage dc = JpegDcDecoder.read(file);
+		assertEquals((full.getWidth() + 7) / 8, dc.getWidth());
+		assertEquals((full.getHeight() + 7) / 8, dc.getHeight());
+		// Rounding and clamping of the full decode
+		assertTrue(maximumDeviation(full, dc) < 3);
+	}
+
+	@Test
+	public void grayscale() throws Exception {
+		BufferedImage source = ImageIO.read(getFile("Lenna.png"));
+		BufferedImage gray = new BufferedImage(source.getWidth(), source.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		gray.getGraphics().drawImage(source, 0, 0, null);
+		File file = File.createTempFile("grayscale", ".jpg");
+		try {
+			ImageIO.write(gray, "jpg", file);
+			BufferedImage dc = JpegDcDecoder.read(file);
+			assertEquals(source.getWidth() / 8, dc.getWidth());
+			assertTrue(maximumDeviation(ImageIO.read(file), dc) < 3);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void progressive() throws Exception {
+		assertEquals(null, JpegDcDecoder.read(getFile("copyright.jpg")));
+		assertEquals(null, JpegDcDecoder.read(getFile("highQuality.jpg")));
+	}
+
+	@Test
+	public void unsupportedFile() throws Exception {
+		assertEquals(null, JpegDcDecoder.read(getFile("Lenna.png")));
+		assertEquals(null, JpegDcDecoder.read(getFile("clusterTestData.txt")));
+	}
+
+	@Test
+	public void tooSmall() throws Exception {
+		File file = getFile("ballon.jpg");
+		assertEquals(null, JpegDcDecoder.read(file, 64, 8));
+		assertEquals(63, JpegDcDecoder.read(file, 63, 8).getWidth());
+	}
+
+	@Test
+	public void hashFile() throws Exception {
+		File file = getFile("ballon.jpg");
+		HashingAlgorithm[] hashers = { new AverageHash(64), new DifferenceHash(64, DifferenceHash.Gradient.Horizontal), new PerceptiveHash(64) };
+		for (HashingAlgorithm hasher : hashers) {
+			hasher.setDcDecoding(true);
+			assertEquals(hasher.hash(JpegDcDecoder.read(file)), hasher.hash(file));
+		}
+	}
+
+	@Test
+	public void fallback() throws Exception {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setDcDecoding(true);
+		for (String name : new String[] { "copyright.jpg", "Lenna.png" }) {
+			File file = getFile(name);
+			assertEquals(hasher.hash(ImageIO.read(file)), hasher.hash(file));
+		}
+		// The dc image of the thumbnail would be smaller than the hash
+		HashingAlgorithm large = new AverageHash(256);
+		large.setDcDecoding(true);
+		File file = getFile("thumbnail.jpg");
+		assertEquals(large.hash(ImageIO.read(file)), large.hash(file));
+	}
+
+	@Test
+	public void colorAlgorithm() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new GrayscaleHash(64).setDcDecoding(true);
+		});
+	}
+
+	@Test
+	public void distinctAlgorithmIds() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setDcDecoding(true);
+		assertNotEquals(new AverageHash(64).algorithmId(), hasher.algorithmId());
+	}
+
+	@Test
+	public void locked() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.algorithmId();
+		assertThrows(IllegalStateException.class, () -> {
+			hasher.setDcDecoding(true);
+		});
+	}
+
+	/**
+	 * Hashes of dc images drift from the hashes of fully decoded images, but have
+	 * to stay closer than unrelated images (~0.5)
+	 */
+	@Test
+	public void hashDrift() throws IOException, URISyntaxException {
+		File file = getFile("ballon.jpg");
+		HashingAlgorithm[] hashers = { new AverageHash(64), new AverageHash(256), new DifferenceHash(64, DifferenceHash.Gradient.Horizontal) };
+		for (HashingAlgorithm hasher : hashers) {
+			double drift = hasher.hash(ImageIO.read(file)).normalizedHammingDistance(hasher.hash(JpegDcDecoder.read(file)));
+			assertTrue(drift < 0.3, hasher + " " + drift);
+		}
+	}
+
+}
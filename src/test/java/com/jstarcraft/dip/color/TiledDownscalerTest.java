@@ -0,0 +1,239 @@
+package com.jstarcraft.dip.color;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.jstarcraft.dip.lsh.AverageHash;
+import com.jstarcraft.dip.lsh.HashingAlgorithm;
+
+class TiledDownscalerTest {
+
+	private static File getFile(String name) throws URISyntaxException {
+		return new File(TiledDownscalerTest.class.getClassLoader().getResource(name).toURI());
+	}
+
+	private static int[] getRGB(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	@Test
+	public void dimension() throws Exception {
+		BufferedImage image = TiledDownscaler.read(getFile("ballon.jpg"), 17, 9);
+		assertEquals(17, image.getWidth());
+		assertEquals(9, image.getHeight());
+	}
+
+	@Test
+	public void noUpscaling() throws Exception {
+		BufferedImage image = TiledDownscaler.read(getFile("thumbnail.jpg"), 1000, 1000);
+		BufferedImage full = ImageIO.read(getFile("thumbnail.jpg"));
+		assertEquals(full.getWidth(), image.getWidth());
+		assertArrayEquals(getRGB(full), getRGB(image));
+	}
+
+	/**
+	 * Sequential formats fitting into a tile are area averaged exactly
+	 */
+	@Test
+	public void sequentialWithinTile() throws Exception {
+		for (String name : new String[] { "Lenna.png", "ballon.jpg" }) {
+			File file = getFile(name);
+			BufferedImage full = ImageIO.read(file);
+			int[] expected = getRGB(TiledDownscaler.scale(full, 33, 21));
+			assertArrayEquals(expected, getRGB(TiledDownscaler.read(file, 33, 21)));
+			assertArrayEquals(expected, getRGB(TiledDownscaler.read(file, 33, 21, full.getWidth() * full.getHeight())));
+		}
+	}
+
+	/**
+	 * Sequential formats larger than a tile are decoded subsampled to fit into a
+	 * tile
+	 */
+	@Test
+	public void sequentialSubsampled() throws Exception {
+		File file = getFile("Lenna.png");
+		BufferedImage subsampled;
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			ImageReader reader = ImageIO.getImageReaders(input).next();
+			try {
+				reader.setInput(input);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(4, 4, 0, 0);
+				subsampled = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+		assertArrayEquals(getRGB(TiledDownscaler.scale(subsampled, 33, 21)), getRGB(TiledDownscaler.read(file, 33, 21, 20000)));
+	}
+
+	@Test
+	public void subsamplingFactor() {
+		assertEquals(1, TiledDownscaler.subsamplingFactor(512, 512, 8, 8, 512 * 512));
+		// 128 * 128 pixels fit, 171 * 171 do not
+		assertEquals(4, TiledDownscaler.subsamplingFactor(512, 512, 8, 8, 20000));
+		assertEquals(4, TiledDownscaler.subsamplingFactor(512, 512, 8, 8, 128 * 128));
+		// Never below the target dimension
+		assertEquals(2, TiledDownscaler.subsamplingFactor(512, 512, 256, 256, 100));
+		assertEquals(1, TiledDownscaler.subsamplingFactor(100, 100, 200, 200, 1));
+		// Gigapixel images stay within the tile
+		int factor = TiledDownscaler.subsamplingFactor(40000, 30000, 32, 32, TiledDownscaler.DEFAULT_TILE_PIXELS);
+		assertTrue((long) ((40000 + factor - 1) / factor) * ((30000 + factor - 1) / factor) <= TiledDownscaler.DEFAULT_TILE_PIXELS);
+		assertTrue((long) ((40000 + factor - 2) / (factor - 1)) * ((30000 + factor - 2) / (factor - 1)) > TiledDownscaler.DEFAULT_TILE_PIXELS);
+	}
+
+	/**
+	 * Aligned cells are the mean of the covered block
+	 */
+	@Test
+	public void blockAverage() throws Exception {
+		File file = getFile("Lenna.png");
+		BufferedImage full = ImageIO.read(file);
+		BufferedImage image = TiledDownscaler.read(file, 64, 64, full.getWidth() * full.getHeight());
+		int block = full.getWidth() / 64;
+		for (int x = 0; x < 64; x++) {
+			for (int y = 0; y < 64; y++) {
+				double red = 0;
+				for (int i = 0; i < block; i++) {
+					for (int j = 0; j < block; j++) {
+						red += (full.getRGB(x * block + i, y * block + j) >> 16) & 0xFF;
+					}
+				}
+				assertEquals(Math.round(red / (block * block)), (image.getRGB(x, y) >> 16) & 0xFF);
+			}
+		}
+	}
+
+	/**
+	 * Area averaging preserves the mean of the image
+	 */
+	@Test
+	public void meanPreserved() throws Exception {
+		File file = getFile("ballon.jpg");
+		BufferedImage full = ImageIO.read(file);
+		BufferedImage image = TiledDownscaler.read(file, 7, 5, 20000);
+		double fullMean = 0;
+		for (int rgb : getRGB(full)) {
+			fullMean += rgb & 0xFF;
+		}
+		fullMean /= full.getWidth() * full.getHeight();
+		double mean = 0;
+		for (int rgb : getRGB(image)) {
+			mean += rgb & 0xFF;
+		}
+		mean /= 35;
+		assertEquals(fullMean, mean, 0.5);
+	}
+
+	@Test
+	public void grayscale() throws Exception {
+		BufferedImage image = TiledDownscaler.read(getFile("catMono.png"), 16, 16, 40000);
+		assertEquals(16, image.getWidth());
+	}
+
+	@Test
+	public void unsupportedFile() throws Exception {
+		assertEquals(null, TiledDownscaler.read(getFile("clusterTestData.txt"), 8, 8));
+	}
+
+	/**
+	 * Formats allowing random access are read region by region
+	 */
+	@Test
+	public void regionInvariance() throws Exception {
+		File file = File.createTempFile("tiled", ".bmp");
+		try {
+			BufferedImage lenna = ImageIO.read(getFile("Lenna.png"));
+			BufferedImage image = new BufferedImage(lenna.getWidth(), lenna.getHeight(), BufferedImage.TYPE_INT_RGB);
+			image.getGraphics().drawImage(lenna, 0, 0, null);
+			ImageIO.write(image, "bmp", file);
+			int[] expected = getRGB(TiledDownscaler.scale(image, 33, 21));
+			assertArrayEquals(expected, getRGB(TiledDownscaler.read(file, 33, 21, 60000)));
+			assertArrayEquals(expected, getRGB(TiledDownscaler.read(file, 33, 21, 20000)));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void sequentialFormats() throws Exception {
+		assertFalse(readsRegionsCheaply(getFile("Lenna.png")));
+		assertFalse(readsRegionsCheaply(getFile("ballon.jpg")));
+	}
+
+	private static boolean readsRegionsCheaply(File file) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			ImageReader reader = ImageIO.getImageReaders(input).next();
+			try {
+				reader.setInput(input);
+				return TiledDownscaler.readsRegionsCheaply(reader);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	@Test
+	public void hashFileDistinctAlgorithmIds() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setTiledDecoding(50000);
+		assertNotEquals(new AverageHash(64).algorithmId(), hasher.algorithmId());
+	}
+
+	@Test
+	public void hashFileLocked() {
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.algorithmId();
+		assertThrows(IllegalStateException.class, () -> {
+			hasher.setTiledDecoding(50000);
+		});
+	}
+
+	@Test
+	public void hashBytes() throws Exception {
+		File file = getFile("ballon.jpg");
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setTiledDecoding(40000);
+		assertEquals(hasher.hash(file), hasher.hash(Files.readAllBytes(file.toPath())));
+	}
+
+	@Test
+	public void hashFile() throws Exception {
+		File file = getFile("Lenna.png");
+		HashingAlgorithm hasher = new AverageHash(64);
+		hasher.setTiledDecoding(50000);
+		assertEquals(hasher.hash(TiledDownscaler.read(file, hasher.getScaledWidth(), hasher.getScaledHeight(), 50000)), hasher.hash(file));
+	}
+
+	/**
+	 * Area averaged images drift from the hashes of nearest neighbour rescaled
+	 * images, but have to stay closer than unrelated images (~0.5)
+	 */
+	@Test
+	public void hashDrift() throws IOException, URISyntaxException {
+		HashingAlgorithm hasher = new AverageHash(64);
+		for (String name : new String[] { "Lenna.png", "ballon.jpg", "copyright.jpg", "highQuality.jpg" }) {
+			File file = getFile(name);
+			double drift = hasher.hash(ImageIO.read(file)).normalizedHammingDistance(hasher.hash(TiledDownscaler.read(file, hasher.getScaledWidth(), hasher.getScaledHeight(), 20000)));
+			assertTrue(drift < 0.3, name + " " + drift);
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.jstarcraft.dip.hash;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class HashArrayTest {
+
+	private static Hash randomHash(Random random, int bits) {
+		return new Hash(new BigInteger(bits, random), bits, 7);
+	}
+
+	@Test
+	void roundTrip() {
+		Random random = new Random(0);
+		for (int bits : new int[] { 8, 64, 65, 256, 1000 }) {
+			HashArray array = new HashArray();
+			Hash[] hashes = new Hash[20];
+			for (int id = 0; id < hashes.length; id++) {
+				hashes[id] = randomHash(random, bits);
+				array.set(id, hashes[id]);
+			}
+			for (int id = 0; id < hashes.length; id++) {
+				assertEquals(hashes[id], array.get(id));
+			}
+		}
+	}
+
+	@Test
+	void hammingDistance() {
+		Random random = new Random(1);
+		HashArray array = new HashArray();
+		Hash stored = randomHash(random, 300);
+		Hash needle = randomHash(random, 300);
+		array.set(3, stored);
+		assertEquals(stored.hammingDistance(needle), array.hammingDistance(3, array.pack(needle)));
+	}
+
+	@Test
+	void storedHammingDistance() {
+		Random random = new Random(4);
+		HashArray array = new HashArray();
+		Hash first = randomHash(random, 130);
+		Hash second = randomHash(random, 130);
+		array.set(0, first);
+		array.set(1, second);
+		assertEquals(first.hammingDistance(second), array.hammingDistance(0, 1));
+	}
+
+	@Test
+	void segments() {
+		Random random = new Random(5);
+		int bits = 200;
+		HashArray array = new HashArray();
+		BigInteger value = new BigInteger(bits, random);
+		array.set(0, new Hash(value, bits, 7));
+		// Differs only in bit 100
+		array.set(1, new Hash(value.flipBit(100), bits, 7));
+		for (int[] segment : new int[][] { { 0, 100 }, { 101, 200 }, { 30, 97 }, { 120, 190 }, { 0, 64 } }) {
+			assertTrue(array.segmentEquals(0, 1, segment[0], segment[1]));
+			assertEquals(array.segmentHash(0, segment[0], segment[1]), array.segmentHash(1, segment[0], segment[1]));
+		}
+		for (int[] segment : new int[][] { { 100, 101 }, { 0, 200 }, { 60, 130 }, { 64, 128 } }) {
+			assertFalse(array.segmentEquals(0, 1, segment[0], segment[1]));
+		}
+	}
+
+	@Test
+	void remove() {
+		HashArray array = new HashArray();
+		array.set(0, randomHash(new Random(2), 64));
+		assertTrue(array.contains(0));
+		assertTrue(array.remove(0));
+		assertFalse(array.remove(0));
+		assertNull(array.get(0));
+		assertEquals(0, array.size());
+	}
+
+	@Test
+	void incompatibleHash() {
+		HashArray array = new HashArray();
+		array.set(0, randomHash(new Random(3), 64));
+		assertThrows(IllegalArgumentException.class, () -> array.set(1, randomHash(new Random(3), 32)));
+	}
+
+}
@@ -0,0 +1,201 @@
+package com.jstarcraft.dip.lsh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.datastructures.tree.Result;
+import com.github.kilianB.datastructures.tree.binaryTree.BinaryTree;
+import com.jstarcraft.dip.hash.Hash;
+
+class BitSamplingIndexTest {
+
+	private static final int BITS = 128;
+
+	private static Hash randomHash(Random random) {
+		return new Hash(new BigInteger(BITS, random), BITS, 0);
+	}
+
+	private static Hash flip(Random random, Hash hash, int flips) {
+		BigInteger value = hash.getHashValue();
+		Set<Integer> flipped = new HashSet<>();
+		while (flipped.size() < flips) {
+			int bit = random.nextInt(BITS);
+			if (flipped.add(bit)) {
+				value = value.flipBit(bit);
+			}
+		}
+		return new Hash(value, BITS, 0);
+	}
+
+	@Test
+	void exactDuplicate() {
+		BitSamplingIndex<String> index = new BitSamplingIndex<>(BITS, 16, 4, 0);
+		Hash hash = randomHash(new Random(0));
+		index.addHash(hash, "a");
+		PriorityQueue<Result<String>> result = index.getElementsWithinHammingDistance(hash, 0);
+		assertEquals(1, result.size());
+		assertEquals("a", result.peek().value);
+		assertEquals(1, index.getHashCount());
+	}
+
+	@Test
+	void noFalsePositives() {
+		Random random = new Random(1);
+		BitSamplingIndex<Integer> index = new BitSamplingIndex<>(BITS, 8, 20, 1);
+		BinaryTree<Integer> tree = new BinaryTree<>(true);
+		Hash base = randomHash(random);
+		for (int i = 0; i < 500; i++) {
+			Hash hash = flip(random, base, random.nextInt(40));
+			index.addHash(hash, i);
+			tree.addHash(hash, i);
+		}
+		Set<Integer> exact = new HashSet<>();
+		for (Result<Integer> result : tree.getElementsWithinHammingDistance(base, 20)) {
+			exact.add(result.value);
+		}
+		for (Result<Integer> result : index.getElementsWithinHammingDistance(base, 20)) {
+			assertTrue(exact.contains(result.value));
+			assertTrue(result.distance <= 20);
+		}
+	}
+
+	@Test
+	void closestFirst() {
+		Random random = new Random(2);
+		BitSamplingIndex<Integer> index = new BitSamplingIndex<>(BITS, 4, 8, 2);
+		Hash base = randomHash(random);
+		index.addHash(flip(random, base, 6), 6);
+		index.addHash(flip(random, base, 1), 1);
+		index.addHash(flip(random, base, 3), 3);
+		PriorityQueue<Result<Integer>> result = index.getElementsWithinHammingDistance(base, 10);
+		assertEquals(Integer.valueOf(1), result.poll().value);
+	}
+
+	@Test
+	void recallReachesTarget() {
+		Random random = new Random(3);
+		int distance = 10;
+		BitSamplingIndex<Integer> index = BitSamplingIndex.forRecall(BITS, distance, 0.95, 16, 3);
+		assertTrue(BitSamplingIndex.recall(BITS, distance, 16, index.getTables()) >= 0.95);
+		assertTrue(BitSamplingIndex.recall(BITS, distance, 16, index.getTables() - 1) < 0.95);
+
+		List<Hash> queries = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			Hash query = randomHash(random);
+			queries.add(query);
+			index.addHash(flip(random, query, distance), i);
+		}
+		int found = 0;
+		for (int i = 0; i < queries.size(); i++) {
+			for (Result<Integer> result : index.getElementsWithinHammingDistance(queries.get(i), distance)) {
+				if (result.value == i) {
+					found++;
+				}
+			}
+		}
+		assertTrue(found >= 920, "Recall " + found / 1000d);
+	}
+
+	@Nested
+	class Removal {
+
+		@Test
+		void remove() {
+			Random random = new Random(4);
+			BitSamplingIndex<Integer> index = new BitSamplingIndex<>(BITS, 8, 6, 4);
+			Hash hash = randomHash(random);
+			index.addHash(hash, 0);
+			index.addHash(hash, 1);
+			index.addHash(flip(random, hash, 2), 2);
+
+			assertTrue(index.removeHash(hash, 0));
+			assertFalse(index.removeHash(hash, 0));
+			assertFalse(index.removeHash(randomHash(random), 1));
+			assertEquals(2, index.getHashCount());
+
+			Set<Integer> values = new HashSet<>();
+			for (Result<Integer> result : index.getElementsWithinHammingDistance(hash, 2)) {
+				values.add(result.value);
+			}
+			assertFalse(values.contains(0));
+			assertTrue(values.contains(1));
+		}
+
+		@Test
+		void reuseIds() {
+			Random random = new Random(5);
+			BitSamplingIndex<Integer> index = new BitSamplingIndex<>(BITS, 8, 6, 5);
+			List<Hash> hashes = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				hashes.add(randomHash(random));
+				index.addHash(hashes.get(i), i);
+			}
+			for (int i = 0; i < 100; i += 2) {
+				assertTrue(index.removeHash(hashes.get(i), i));
+			}
+			for (int i = 0; i < 100; i += 2) {
+				index.addHash(hashes.get(i), i + 100);
+			}
+			assertEquals(100, index.getHashCount());
+			for (int i = 0; i < 100; i++) {
+				PriorityQueue<Result<Integer>> result = index.getElementsWithinHammingDistance(hashes.get(i), 0);
+				assertEquals(1, result.size());
+				assertEquals(Integer.valueOf(i % 2 == 0 ? i + 100 : i), result.peek().value);
+			}
+		}
+	}
+
+	@Nested
+	class Arguments {
+
+		@Test
+		void sampledBits() {
+			assertThrows(IllegalArgumentException.class, () -> {
+				new BitSamplingIndex<>(BITS, 0, 1, 0);
+			});
+			assertThrows(IllegalArgumentException.class, () -> {
+				new BitSamplingIndex<>(BITS, 65, 1, 0);
+			});
+			assertThrows(IllegalArgumentException.class, () -> {
+				new BitSamplingIndex<>(8, 9, 1, 0);
+			});
+		}
+
+		@Test
+		void tables() {
+			assertThrows(IllegalArgumentException.class, () -> {
+				new BitSamplingIndex<>(BITS, 8, 0, 0);
+			});
+		}
+
+		@Test
+		void recall() {
+			assertThrows(IllegalArgumentException.class, () -> {
+				BitSamplingIndex.tablesForRecall(BITS, 4, 1, 8);
+			});
+			assertEquals(1, BitSamplingIndex.tablesForRecall(BITS, 0, 0.99, 8));
+		}
+
+		@Test
+		void resolution() {
+			BitSamplingIndex<Integer> index = new BitSamplingIndex<>(BITS, 8, 2, 0);
+			assertThrows(IllegalArgumentException.class, () -> {
+				index.addHash(new Hash(BigInteger.ONE, 64, 0), 0);
+			});
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.jstarcraft.dip.lsh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.lsh.BlockAverageHash.Block;
+
+class BlockAverageHashTest {
+
+	@Nested
+	class SummedAreaTable {
+
+		@Test
+		void rectangleSums() {
+			BufferedImage image = new BufferedImage(23, 17, BufferedImage.TYPE_INT_RGB);
+			Random random = new Random(0);
+			for (int x = 0; x < image.getWidth(); x++) {
+				for (int y = 0; y < image.getHeight(); y++) {
+					image.setRGB(x, y, random.nextInt(0xFFFFFF));
+				}
+			}
+			ColorPixel pixel = ColorPixel.convert(image);
+			long[] table = BlockAverageHash.createSummedAreaTable(pixel);
+			for (int i = 0; i < 100; i++) {
+				int x0 = random.nextInt(23);
+				int y0 = random.nextInt(17);
+				int x1 = x0 + 1 + random.nextInt(23 - x0);
+				int y1 = y0 + 1 + random.nextInt(17 - y0);
+				long expected = 0;
+				for (int x = x0; x < x1; x++) {
+					for (int y = y0; y < y1; y++) {
+						expected += pixel.getLuminanceScalar(x, y);
+					}
+				}
+				assertEquals(expected, BlockAverageHash.sum(table, 23, x0, y0, x1, y1));
+			}
+		}
+	}
+
+	@Nested
+	class Blocks {
+
+		@Test
+		void blockCount() {
+			assertEquals(1 + 4 + 16, new BlockAverageHash(8, 1, 2, 4).hash(TestResources.lenna).size());
+		}
+
+		@Test
+		void overlappingBlockCount() {
+			assertEquals(1 + 9 + 49, new BlockAverageHash(8, true, 1, 2, 4).hash(TestResources.lenna).size());
+		}
+
+		@Test
+		void keyResolution() {
+			for (Block block : new BlockAverageHash(6, 1, 3).hash(TestResources.lenna)) {
+				assertEquals(36, block.getHash().getBitResolution());
+			}
+		}
+
+		@Test
+		void blocksCoverImage() {
+			BufferedImage image = TestResources.lenna;
+			int area = 0;
+			for (Block block : new BlockAverageHash(8, 3).hash(image)) {
+				area += block.getWidth() * block.getHeight();
+			}
+			assertEquals(image.getWidth() * image.getHeight(), area);
+		}
+
+		@Test
+		void tooSmallScalesOmitted() {
+			BufferedImage image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+			image.setRGB(0, 0, 0xFFFFFF);
+			image.setRGB(31, 31, 0xFFFFFF);
+			List<Block> blocks = new BlockAverageHash(8, 1, 4, 8).hash(image);
+			for (Block block : blocks) {
+				assertTrue(block.getGridDimension() <= 4);
+			}
+		}
+
+		@Test
+		void flatBlocksOmitted() {
+			BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+			assertTrue(new BlockAverageHash(8, 1, 2).hash(image).isEmpty());
+		}
+
+		@Test
+		void scalesShareAlgorithmId() {
+			List<Block> blocks = new BlockAverageHash(8, 1, 2).hash(TestResources.lenna);
+			assertEquals(blocks.get(0).getHash().getAlgorithmId(), blocks.get(blocks.size() - 1).getHash().getAlgorithmId());
+			assertNotEquals(new BlockAverageHash(8, 1).algorithmId(), new BlockAverageHash(6, 1).algorithmId());
+		}
+
+		@Test
+		void invalidArguments() {
+			assertThrows(IllegalArgumentException.class, () -> new BlockAverageHash(0, 1));
+			assertThrows(IllegalArgumentException.class, () -> new BlockAverageHash(8));
+			assertThrows(IllegalArgumentException.class, () -> new BlockAverageHash(8, 1, 0));
+		}
+	}
+
+	/**
+	 * A crop of a quadrant hashed as whole image equals the block of the quadrant
+	 * in the original image
+	 */
+	@Test
+	void cropMatchesBlock() {
+		BufferedImage image = TestResources.lenna;
+		int width = image.getWidth() / 2;
+		int height = image.getHeight() / 2;
+		BufferedImage crop = image.getSubimage(width, height, width, height);
+
+		BlockAverageHash hasher = new BlockAverageHash(8, 1, 2);
+		Block cropBlock = hasher.hash(crop).get(0);
+		Block quadrant = null;
+		for (Block block : hasher.hash(image)) {
+			if (block.getGridDimension() == 2 && block.getX() == width && block.getY() == height) {
+				quadrant = block;
+			}
+		}
+		assertEquals(0, cropBlock.getHash().hammingDistance(quadrant.getHash()));
+	}
+
+}
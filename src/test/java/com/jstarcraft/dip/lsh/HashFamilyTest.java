@@ -0,0 +1,129 @@
+package com.jstarcraft.dip.lsh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.github.kilianB.matcher.persistent.ConsecutiveMatcher;
+import com.jstarcraft.dip.hash.Hash;
+import com.jstarcraft.dip.lsh.HashFamily.Bundle;
+import com.jstarcraft.dip.lsh.kernel.Kernel;
+
+class HashFamilyTest {
+
+	private static HashingAlgorithm[] createAlgorithms() {
+		return new HashingAlgorithm[] { new AverageHash(64), new AverageHash(256), new AverageHash(1024), new DifferenceHash(64, DifferenceHash.Gradient.Horizontal) };
+	}
+
+	@Test
+	void bundleKeyedByAlgorithmId() {
+		HashingAlgorithm[] algorithms = createAlgorithms();
+		HashFamily family = new HashFamily(algorithms);
+		Bundle bundle = family.hash(TestResources.lenna);
+		assertEquals(algorithms.length, bundle.getHashes().size());
+		for (HashingAlgorithm algorithm : algorithms) {
+			Hash hash = bundle.get(algorithm.algorithmId());
+			assertNotNull(hash);
+			assertEquals(family.algorithmId(algorithm), hash.getAlgorithmId());
+			assertEquals(algorithm.getKeyResolution(), hash.getBitResolution());
+		}
+	}
+
+	/**
+	 * Area averaged levels can not be mistaken for hashes of the standalone
+	 * algorithm
+	 */
+	@Test
+	void derivedLevelIds() {
+		AverageHash coarse = new AverageHash(64);
+		AverageHash largest = new AverageHash(1024);
+		HashFamily family = new HashFamily(coarse, largest);
+		assertEquals(largest.algorithmId(), family.algorithmId(largest));
+		assertNotEquals(coarse.algorithmId(), family.algorithmId(coarse));
+		// The level depends on the base resolution
+		assertNotEquals(family.algorithmId(coarse), new HashFamily(coarse, new AverageHash(256)).algorithmId(coarse));
+	}
+
+	/**
+	 * The largest resolution is scaled from the source image like the standalone
+	 * algorithm does
+	 */
+	@Test
+	void baseLevelIdentical() {
+		AverageHash largest = new AverageHash(1024);
+		Bundle bundle = new HashFamily(new AverageHash(64), largest).hash(TestResources.ballon);
+		assertEquals(largest.hash(TestResources.ballon), bundle.get(largest));
+	}
+
+	@Test
+	void levelsSeparateImages() {
+		HashingAlgorithm[] algorithms = createAlgorithms();
+		HashFamily family = new HashFamily(algorithms);
+		Bundle high = family.hash(TestResources.highQuality);
+		Bundle low = family.hash(TestResources.lowQuality);
+		Bundle ballon = family.hash(TestResources.ballon);
+		for (HashingAlgorithm algorithm : algorithms) {
+			assertTrue(high.get(algorithm).normalizedHammingDistance(low.get(algorithm)) < 0.1);
+			assertTrue(high.get(algorithm).normalizedHammingDistance(ballon.get(algorithm)) > 0.3);
+		}
+	}
+
+	@Test
+	void matcherIngestion() {
+		ConsecutiveMatcher matcher = new ConsecutiveMatcher(true);
+		AverageHash coarse = new AverageHash(64);
+		AverageHash fine = new AverageHash(256);
+		matcher.addHashingAlgorithm(coarse, 0.3);
+		matcher.addHashingAlgorithm(fine, 0.2);
+
+		HashFamily family = new HashFamily(new AverageHash(64), new AverageHash(256));
+		matcher.addHashes("ballon", family.hash(TestResources.ballon));
+		matcher.addHashes("lenna", family.hash(TestResources.lenna));
+		assertEquals("ballon", matcher.getMatchingImages(family.hash(TestResources.ballon)).peek().value);
+		// Hashes of the standalone algorithm differ from the area averaged level
+		assertThrows(IllegalStateException.class, () -> matcher.getMatchingImages(TestResources.ballon));
+	}
+
+	@Nested
+	class Arguments {
+
+		@Test
+		void empty() {
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily());
+		}
+
+		@Test
+		void notLuminanceBased() {
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily(new AverageHash(64), new GrayscaleHash(64)));
+		}
+
+		@Test
+		void converters() {
+			AverageHash hasher = new AverageHash(64);
+			hasher.addConverter(Kernel.boxFilterNormalized(3, 3));
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily(hasher));
+		}
+
+		@Test
+		void customDecoding() {
+			AverageHash subsampled = new AverageHash(64);
+			subsampled.setSubsampledDecoding(2);
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily(subsampled));
+			AverageHash dc = new AverageHash(64);
+			dc.setDcDecoding(true);
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily(dc));
+			AverageHash tiled = new AverageHash(64);
+			tiled.setTiledDecoding(1 << 20);
+			assertThrows(IllegalArgumentException.class, () -> new HashFamily(tiled));
+		}
+	}
+
+}
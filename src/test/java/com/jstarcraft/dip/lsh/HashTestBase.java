@@ -24,6 +24,7 @@ import com.github.kilianB.ArrayUtil;
 import com.github.kilianB.TestResources;
 import com.jstarcraft.dip.hash.Hash;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
+import com.jstarcraft.dip.lsh.HashingAlgorithm.ConverterPlacement;
 import com.jstarcraft.dip.lsh.kernel.Kernel;
 
 /**
@@ -283,6 +284,54 @@ public abstract class HashTestBase {
 			HashingAlgorithm hasher1 = getInstance(16);
 			assertNotEquals(hasher.algorithmId(), hasher1.algorithmId());
 		}
+
+		@Test
+		public void placementDistinctAlgorithmIds() {
+			HashingAlgorithm pre = getInstance(16);
+			pre.addConverter(Kernel.boxFilterNormalized(3, 3));
+			HashingAlgorithm post = getInstance(16);
+			post.addConverter(Kernel.boxFilterNormalized(3, 3));
+			post.setConverterPlacement(ConverterPlacement.POST_SCALE);
+			HashingAlgorithm intermediate = getInstance(16);
+			intermediate.addConverter(Kernel.boxFilterNormalized(3, 3));
+			intermediate.setIntermediateConverterPlacement(2);
+			assertAll(() -> {
+				assertNotEquals(pre.algorithmId(), post.algorithmId());
+			}, () -> {
+				assertNotEquals(pre.algorithmId(), intermediate.algorithmId());
+			}, () -> {
+				assertNotEquals(post.algorithmId(), intermediate.algorithmId());
+			});
+		}
+
+		/**
+		 * Without converters the placement does not alter the hash
+		 */
+		@Test
+		public void placementWithoutFilterSameIds() {
+			HashingAlgorithm hasher = getInstance(16);
+			hasher.setConverterPlacement(ConverterPlacement.POST_SCALE);
+			HashingAlgorithm hasher1 = getInstance(16);
+			assertEquals(hasher.algorithmId(), hasher1.algorithmId());
+			assertEquals(hasher.hash(ballon), hasher1.hash(ballon));
+		}
+
+		@Test
+		public void placementInvalidHash() {
+			HashingAlgorithm hasher = getInstance(16);
+			hasher.hash(new BufferedImage(1, 1, 0x1));
+			assertThrows(IllegalStateException.class, () -> {
+				hasher.setConverterPlacement(ConverterPlacement.POST_SCALE);
+			});
+		}
+
+		@Test
+		public void placementConsistent() {
+			HashingAlgorithm hasher = getInstance(16);
+			hasher.addConverter(Kernel.boxFilterNormalized(3, 3));
+			hasher.setIntermediateConverterPlacement(4);
+			assertEquals(hasher.hash(ballon), hasher.hash(ballon));
+		}
 	}
 
 	@Nested
@@ -4,11 +4,18 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import com.github.kilianB.MathUtil;
+import com.github.kilianB.TestResources;
+import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.color.ImageUtility;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 import com.jstarcraft.dip.lsh.experimental.HogHash;
 
@@ -50,6 +57,116 @@ class HogHashTest {
 		}
 	}
 
+	@Nested
+	class Features {
+
+		private ExposedHogHash hasher = new ExposedHogHash(16, 16, 2, 4);
+
+		private int[][] lum = ColorPixel.convert(ImageUtility.getScaledInstance(TestResources.ballon, 16, 16)).getLuminanceMatrix();
+
+		/**
+		 * The lookup tables and the gradient operator have to match computing each
+		 * pixel individually
+		 */
+		@Test
+		public void sameAsPerPixel() {
+			int width = 16;
+			int height = 16;
+			int numBins = 4;
+			double binFac = (180 - 180d / (numBins)) / (numBins - 1);
+			int[][][] expected = new int[8][8][numBins];
+			for (int x = 1; x < width - 1; x++) {
+				for (int y = 1; y < height - 1; y++) {
+					int hGradient = (lum[x + 1][y] - lum[x - 1][y]);
+					int vGradient = (lum[x][y - 1] - lum[x][y + 1]);
+					double magnitude = Math.sqrt(hGradient * hGradient + vGradient * vGradient);
+					double direction = hGradient == 0 ? 180 : Math.toDegrees(Math.atan(vGradient / (double) hGradient)) + 90;
+					double binF = direction / binFac;
+					int bin = (int) binF;
+					double nextBucketShare = MathUtil.getFractionalPart(binF);
+					int[] cell = expected[x / 2][y / 2];
+					if (bin != numBins) {
+						cell[bin] += ((1 - nextBucketShare) * magnitude);
+						cell[(bin + 1) % numBins] += (nextBucketShare * magnitude);
+					} else {
+						cell[0] += ((1 - nextBucketShare) * magnitude);
+					}
+				}
+			}
+			assertTrue(Arrays.deepEquals(expected, hasher.computeHogFeatures(lum)));
+		}
+
+		/**
+		 * Integral histograms do not truncate intermediate values but otherwise have to
+		 * match the cell histograms
+		 */
+		@Test
+		public void integralHistogram() {
+			int[][][] expected = hasher.computeHogFeatures(lum);
+			float[] actual = hasher.computeHogFeatures(hasher.computeIntegralHistogram(lum), 2);
+			for (int xCell = 0; xCell < 8; xCell++) {
+				for (int yCell = 0; yCell < 8; yCell++) {
+					for (int bin = 0; bin < 4; bin++) {
+						float value = actual[(xCell * 8 + yCell) * 4 + bin];
+						int truncated = expected[xCell][yCell][bin];
+						// At most 4 pixels with 2 shares each are truncated
+						assertTrue(value >= truncated - 1e-3 && value < truncated + 8, value + " " + truncated);
+					}
+				}
+			}
+		}
+
+		@Test
+		public void integralHistogramCellSizes() {
+			float[] small = hasher.computeHogFeatures(hasher.computeIntegralHistogram(lum), 2);
+			float[] large = hasher.computeHogFeatures(hasher.computeIntegralHistogram(lum), 4);
+			for (int bin = 0; bin < 4; bin++) {
+				float sum = 0;
+				for (int xCell = 0; xCell < 2; xCell++) {
+					for (int yCell = 0; yCell < 2; yCell++) {
+						sum += small[(xCell * 8 + yCell) * 4 + bin];
+					}
+				}
+				assertEquals(sum, large[bin], 1e-2);
+			}
+		}
+
+		@Test
+		public void blockNormalization() {
+			float[] normalized = hasher.blockNormalization(hasher.computeIntegralHistogram(lum), 2);
+			for (float value : normalized) {
+				assertTrue(value >= 0 && value <= 1, Float.toString(value));
+			}
+		}
+	}
+
+	private static class ExposedHogHash extends HogHash {
+
+		ExposedHogHash(int width, int height, int cellWidth, int numBins) {
+			super(width, height, cellWidth, numBins);
+		}
+
+		@Override
+		protected int[][][] computeHogFeatures(int[][] lum) {
+			return super.computeHogFeatures(lum);
+		}
+
+		@Override
+		protected IntegralHistogram computeIntegralHistogram(int[][] lum) {
+			return super.computeIntegralHistogram(lum);
+		}
+
+		@Override
+		protected float[] computeHogFeatures(IntegralHistogram integral, int cellSize) {
+			return super.computeHogFeatures(integral, cellSize);
+		}
+
+		@Override
+		protected float[] blockNormalization(IntegralHistogram integral, int cellSize) {
+			return super.blockNormalization(integral, cellSize);
+		}
+	}
+
 	@Test
 	public void illegalConstructor() {
 		assertThrows(IllegalArgumentException.class, () -> {
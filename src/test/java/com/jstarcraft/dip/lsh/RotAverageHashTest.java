@@ -4,10 +4,14 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import com.github.kilianB.TestResources;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 import com.jstarcraft.dip.lsh.RotAverageHash;
 
@@ -43,6 +47,44 @@ class RotAverageHashTest {
 		});
 	}
 
+	/**
+	 * Hashes created by version 2.0.0 of the algorithm. Optimizations must not
+	 * change the produced hashes.
+	 */
+	@Nested
+	class Regression {
+
+		private final BufferedImage[] images = { TestResources.ballon, TestResources.copyright,
+				TestResources.highQuality, TestResources.lowQuality, TestResources.thumbnail, TestResources.lenna };
+
+		@Test
+		void bits32() {
+			assertHashes(new RotAverageHash(32),
+					"f03f7ebf", "ffe2d4fa", "fbe06579", "fbe145f9", "7fa0c5e9", "b4e0dddc");
+		}
+
+		@Test
+		void bits64() {
+			assertHashes(new RotAverageHash(64),
+					"56c14ff6d7f1ffff", "bffeba0051b8f76a", "bff79a0255b03a2e",
+					"2ff7ba2255b1b32e", "bfff5420b1a2be64", "42a0682533c2efe4");
+		}
+
+		@Test
+		void bits128() {
+			assertHashes(new RotAverageHash(128),
+					"37fed001687eff2b56fffd4bdfdfffb7", "8fbfbf618fa20a2b7615ccc33b1c4ccc",
+					"8fbfbf6f8ea00a2a3754ec871b5c4c8c", "afbf9f6f9da40a2a3714ec871b4c4cac",
+					"cfbfde9e95a0040b5f955f313fb2b079", "a577a4407dea0447af8be61df6bbd831");
+		}
+
+		private void assertHashes(HashingAlgorithm hasher, String... expected) {
+			for (int i = 0; i < images.length; i++) {
+				assertEquals(new BigInteger(expected[i], 16), hasher.hash(images[i]).getHashValue());
+			}
+		}
+	}
+
 //Base Hashing algorithm tests
 	@Nested
 	class AlgorithmBaseTests extends RotationalTestBase {
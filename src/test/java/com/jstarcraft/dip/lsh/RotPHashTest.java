@@ -5,10 +5,19 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
+import java.awt.image.BufferedImage;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jtransforms.dct.DoubleDCT_1D;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import com.github.kilianB.TestResources;
+import com.jstarcraft.dip.color.ColorPixel;
 import com.jstarcraft.dip.lsh.HashingAlgorithm;
 import com.jstarcraft.dip.lsh.RotPHash;
 
@@ -66,6 +75,106 @@ class RotPHashTest {
 		assertEquals(200, hasher.hash(lenna).getBitResolution());
 	}
 
+	/**
+	 * Optimizations must not change the produced hashes. The hashes are compared to
+	 * the ones created by the algorithm of version 2.0.0 instead of fixed values,
+	 * since the coefficients depend on the dct implementation.
+	 */
+	@Nested
+	class Regression {
+
+		private final BufferedImage[] images = { TestResources.ballon, TestResources.copyright,
+				TestResources.highQuality, TestResources.lowQuality, TestResources.thumbnail, TestResources.lenna };
+
+		@Test
+		void untruncated() {
+			for (int bitResolution : new int[] { 32, 64, 128 }) {
+				assertHashes(new RotPHash(bitResolution), new LegacyRotPHash(bitResolution, false));
+			}
+		}
+
+		@Test
+		void truncated() {
+			for (int bitResolution : new int[] { 25, 64, 200 }) {
+				assertHashes(new RotPHash(bitResolution, true), new LegacyRotPHash(bitResolution, true));
+			}
+		}
+
+		private void assertHashes(HashingAlgorithm hasher, HashingAlgorithm legacy) {
+			for (BufferedImage image : images) {
+				assertEquals(legacy.hash(image).getHashValue(), hasher.hash(image).getHashValue());
+			}
+		}
+	}
+
+	/**
+	 * The hash computation of version 2.0.0 collecting and sorting the luminance
+	 * values of each bucket
+	 */
+	private static class LegacyRotPHash extends RotPHash {
+
+		private final boolean truncateKey;
+
+		private final int buckets;
+
+		LegacyRotPHash(int bitResolution, boolean truncateKey) {
+			super(bitResolution, truncateKey);
+			this.truncateKey = truncateKey;
+			buckets = (int) (Math.sqrt(this.bitDimension * 1.27)) + 3;
+		}
+
+		@Override
+		protected BigInteger hash(ColorPixel pixel, HashBuilder hash) {
+			@SuppressWarnings("unchecked")
+			List<Integer>[] values = new List[buckets];
+			for (int i = 0; i < buckets; i++) {
+				values[i] = new ArrayList<Integer>();
+			}
+
+			for (int x = 0; x < width; x++) {
+				for (int y = 0; y < height; y++) {
+					int bucket = computePartition(x, y);
+					if (bucket >= buckets) {
+						continue;
+					}
+					values[bucket].add(pixel.getLuminanceScalar(x, y));
+				}
+			}
+
+			int length = 0;
+			for (int i = 0; i < buckets; i++) {
+				Collections.sort(values[i]);
+
+				double[] arr = new double[values[i].size()];
+				for (int j = 0; j < arr.length; j++) {
+					arr[j] = values[i].get(j);
+				}
+
+				DoubleDCT_1D dct = new DoubleDCT_1D(arr.length);
+				dct.forward(arr, false);
+
+				double avg = 0;
+				int count = arr.length / 4 - 1;
+				for (int j = 2; j < count; j++) {
+					avg += (arr[j] / (count - 2));
+				}
+
+				for (int j = 2; j < count; j++) {
+					if (this.truncateKey && length == bitDimension)
+						break;
+
+					if (arr[j] >= avg) {
+						hash.prependZero();
+					} else {
+						hash.prependOne();
+					}
+					length++;
+				}
+			}
+			return hash.toBigInteger();
+		}
+	}
+
 	// Base Hashing algorithm tests
 	@Nested
 	class AlgorithmBaseTests extends RotationalTestBase {
@@ -0,0 +1,61 @@
+package com.jstarcraft.dip.lsh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.github.kilianB.TestResources;
+import com.jstarcraft.dip.color.ColorPixel;
+import com.jstarcraft.dip.color.ImageUtility;
+
+class WaveletHashTest {
+
+	@Nested
+	class LowPass {
+
+		/**
+		 * The integer low pass sub band has to match the upper left corner of the
+		 * floating point transformation
+		 */
+		private void assertLowPass(int size, int cycles) {
+			int length = size << cycles;
+			BufferedImage image = ImageUtility.getScaledInstance(TestResources.lenna, length + 3, length + 3);
+			ColorPixel pixel = ColorPixel.convert(image);
+
+			double[][] expected = WaveletHash.doHaar2DFWTransform(pixel.getLuminanceMatrix(), cycles);
+			int[] actual = WaveletHash.doHaarLowPass(pixel, size, cycles, new int[length * length]);
+
+			double scale = 1L << (2 * cycles);
+			for (int x = 0; x < size; x++) {
+				for (int y = 0; y < size; y++) {
+					assertEquals(expected[x][y], actual[x * size + y] / scale);
+				}
+			}
+		}
+
+		@Test
+		public void noCycle() {
+			assertLowPass(8, 0);
+		}
+
+		@Test
+		public void singleCycle() {
+			assertLowPass(8, 1);
+		}
+
+		@Test
+		public void multipleCycles() {
+			assertLowPass(5, 3);
+		}
+	}
+
+	@Test
+	public void consistent() {
+		WaveletHash hasher = new WaveletHash(64, 3);
+		assertEquals(hasher.hash(TestResources.ballon), hasher.hash(TestResources.ballon));
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.jstarcraft.dip.lsh.kernel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+class GradientOperatorTest {
+
+	/** [x][y] matrix */
+	private static int[][] input = new int[19][13];
+
+	@BeforeAll
+	public static void prepareInput() {
+		Random random = new Random(0);
+		for (int x = 0; x < input.length; x++) {
+			for (int y = 0; y < input[0].length; y++) {
+				input[x][y] = random.nextInt(256);
+			}
+		}
+	}
+
+	/**
+	 * Magnitude as computed by two consecutive separated kernels
+	 */
+	private static int[][] referenceMagnitude(int outer, int center) {
+		MultiKernel first = new MultiKernel(new double[][] { { 1, 0, -1 } }, new double[][] { { outer }, { center }, { outer } });
+		MultiKernel second = new MultiKernel(new double[][] { { 1 }, { 0 }, { -1 } }, new double[][] { { outer, center, outer } });
+		int[][] firstGradient = first.applyInt(input);
+		int[][] secondGradient = second.applyInt(input);
+		int[][] result = new int[input.length][input[0].length];
+		for (int x = 0; x < input.length; x++) {
+			for (int y = 0; y < input[0].length; y++) {
+				result[x][y] = (int) Math.sqrt(firstGradient[x][y] * firstGradient[x][y] + secondGradient[x][y] * secondGradient[x][y]);
+			}
+		}
+		return result;
+	}
+
+	@Nested
+	class Magnitude {
+
+		@Test
+		public void sobel() {
+			int[][] actual = GradientOperator.sobel().magnitude(input.length, input[0].length, (x, y) -> input[x][y], 0, false);
+			assertArrayEquals(referenceMagnitude(1, 2), actual);
+		}
+
+		@Test
+		public void scharr() {
+			int[][] actual = GradientOperator.scharr().magnitude(input.length, input[0].length, (x, y) -> input[x][y], 0, false);
+			assertArrayEquals(referenceMagnitude(3, 10), actual);
+		}
+
+		@Test
+		public void cutOff() {
+			int[][] expected = referenceMagnitude(1, 2);
+			int[][] actual = GradientOperator.sobel().magnitude(input.length, input[0].length, (x, y) -> input[x][y], 200, false);
+			for (int x = 0; x < input.length; x++) {
+				for (int y = 0; y < input[0].length; y++) {
+					assertEquals(expected[x][y] < 200 ? 0 : expected[x][y], actual[x][y]);
+				}
+			}
+		}
+
+		@Test
+		public void approximation() {
+			for (int gx = -50; gx <= 50; gx++) {
+				for (int gy = -50; gy <= 50; gy++) {
+					double exact = Math.sqrt(gx * gx + gy * gy);
+					int approximated = GradientOperator.magnitude(gx, gy, true);
+					assertTrue(Math.abs(approximated - exact) <= exact * 0.07 + 1);
+				}
+			}
+		}
+
+		@Test
+		public void singleRow() {
+			int[][] row = { { 1 }, { 5 }, { 9 } };
+			int[][] actual = GradientOperator.centralDifference().magnitude(3, 1, (x, y) -> row[x][y], 0, false);
+			assertArrayEquals(new int[][] { { 4 }, { 8 }, { 4 } }, actual);
+		}
+	}
+
+	@Nested
+	class Direction {
+
+		@Test
+		public void centralDifference() {
+			GradientOperator.centralDifference().apply(input.length, input[0].length, (x, y) -> input[x][y], (x, y, gx, gy) -> {
+				if (x > 0 && y > 0 && x < input.length - 1 && y < input[0].length - 1) {
+					assertEquals(input[x + 1][y] - input[x - 1][y], gx);
+					assertEquals(input[x][y - 1] - input[x][y + 1], gy);
+				}
+			});
+		}
+	}
+
+}
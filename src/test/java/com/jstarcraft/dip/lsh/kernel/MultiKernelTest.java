@@ -0,0 +1,173 @@
+package com.jstarcraft.dip.lsh.kernel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import com.jstarcraft.dip.lsh.kernel.Kernel.EdgeHandlingStrategy;
+
+/**
+ * Fused multi kernels have to produce the same values as the consecutive
+ * evaluation.
+ */
+class MultiKernelTest {
+
+	private static double[][] inputDouble = new double[23][17];
+	private static int[][] inputInt = new int[23][17];
+	private static byte[][] inputByte = new byte[23][17];
+
+	@BeforeAll
+	public static void prepareInput() {
+		Random random = new Random(0);
+		for (int y = 0; y < inputInt.length; y++) {
+			for (int x = 0; x < inputInt[0].length; x++) {
+				inputInt[y][x] = random.nextInt(256);
+				inputDouble[y][x] = inputInt[y][x];
+				inputByte[y][x] = (byte) random.nextInt(128);
+			}
+		}
+	}
+
+	private static void assertFusedEquals(Kernel... kernels) {
+		MultiKernel consecutive = new MultiKernel(kernels);
+		MultiKernel fused = new MultiKernel(true, kernels);
+
+		assertArrayEquals(consecutive.applyInt(inputInt), fused.applyInt(inputInt));
+		assertArrayEquals(consecutive.applyByte(inputByte), fused.applyByte(inputByte));
+
+		double[][] expected = consecutive.apply(inputDouble);
+		double[][] actual = fused.apply(inputDouble);
+		for (int y = 0; y < expected.length; y++) {
+			assertArrayEquals(expected[y], actual[y], 1e-9);
+		}
+		expected = consecutive.apply(inputInt);
+		actual = fused.apply(inputInt);
+		for (int y = 0; y < expected.length; y++) {
+			assertArrayEquals(expected[y], actual[y], 1e-9);
+		}
+	}
+
+	@Nested
+	class Fusion {
+
+		@Test
+		public void separable() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } });
+			Kernel row = new Kernel(new double[][] { { -1, 0, 1 } });
+			Kernel merged = MultiKernel.fuse(column, row);
+			assertArrayEquals(new double[][] { { -1, 0, 1 }, { -2, 0, 2 }, { -1, 0, 1 } }, merged.mask);
+			assertEquals(1, new MultiKernel(true, column, row).getStages().size());
+		}
+
+		@Test
+		public void scalar() {
+			Kernel scalar = new Kernel(new double[][] { { 2 } });
+			Kernel square = new Kernel(new double[][] { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } });
+			assertEquals(1, new MultiKernel(true, scalar, square).getStages().size());
+		}
+
+		@Test
+		public void sameAxisNotFused() {
+			Kernel row = new Kernel(new double[][] { { 1, 2, 1 } });
+			assertEquals(2, new MultiKernel(true, row, row).getStages().size());
+		}
+
+		@Test
+		public void differentEdgeHandlingNotFused() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } }, EdgeHandlingStrategy.MIRROR);
+			Kernel row = new Kernel(new double[][] { { -1, 0, 1 } }, EdgeHandlingStrategy.EXPAND);
+			assertEquals(2, new MultiKernel(true, column, row).getStages().size());
+		}
+
+		@Test
+		public void noOpNotFused() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } }, EdgeHandlingStrategy.NO_OP);
+			Kernel row = new Kernel(new double[][] { { -1, 0, 1 } }, EdgeHandlingStrategy.NO_OP);
+			assertEquals(2, new MultiKernel(true, column, row).getStages().size());
+		}
+
+		@Test
+		public void nonLinearNotFused() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } });
+			assertEquals(2, new MultiKernel(true, column, new MedianKernel(3, 3)).getStages().size());
+		}
+
+		@Test
+		public void nested() {
+			MultiKernel box = (MultiKernel) Kernel.boxFilterNormalizedSep(5, 3);
+			assertEquals(1, new MultiKernel(true, box).getStages().size());
+		}
+	}
+
+	@Nested
+	class Equivalence {
+
+		@Test
+		public void box() {
+			MultiKernel box = (MultiKernel) Kernel.boxFilterNormalizedSep(5, 3);
+			assertFusedEquals(box.kernels.toArray(new Kernel[0]));
+		}
+
+		@Test
+		public void sobel() {
+			assertFusedEquals(new Kernel(new double[][] { { 1 }, { 2 }, { 1 } }), new Kernel(new double[][] { { -1, 0, 1 } }));
+		}
+
+		@Test
+		public void sameAxis() {
+			Kernel row = new Kernel(new double[][] { { 1, 2, 1 } });
+			assertFusedEquals(row, row, row);
+		}
+
+		@Test
+		public void streamedColumns() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 3 }, { 2 }, { 1 } }, true);
+			Kernel square = new Kernel(new double[][] { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } }, true);
+			assertFusedEquals(column, square, column, new Kernel(new double[][] { { 1 }, { 0 }, { -1 } }));
+		}
+
+		@Test
+		public void mirror() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 3 }, { 2 }, { 1 } }, EdgeHandlingStrategy.MIRROR);
+			Kernel square = new Kernel(new double[][] { { 1, 1, 1 }, { 1, 1, 1 }, { 1, 1, 1 } }, EdgeHandlingStrategy.MIRROR);
+			assertFusedEquals(column, square, column);
+		}
+
+		@Test
+		public void noOp() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } }, EdgeHandlingStrategy.NO_OP);
+			Kernel row = new Kernel(new double[][] { { -1, 0, 1 } }, EdgeHandlingStrategy.NO_OP);
+			assertFusedEquals(column, row, new Kernel(new double[][] { { 2 } }));
+		}
+
+		@Test
+		public void nonLinear() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } });
+			assertFusedEquals(column, new MedianKernel(5, 3), new MaximumKernel(3, 5), column);
+		}
+
+		@Test
+		public void wrapFallsBack() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 2 }, { 1 } }, EdgeHandlingStrategy.WRAP);
+			MultiKernel fused = new MultiKernel(true, column, column);
+			assertTrue(fused.isFused());
+			assertFalse(fused.isStreamable());
+			assertFusedEquals(column, column);
+		}
+
+		@Test
+		public void taller() {
+			Kernel column = new Kernel(new double[][] { { 1 }, { 1 }, { 1 }, { 1 }, { 1 }, { 1 }, { 1 }, { 1 }, { 1 } });
+			Kernel tall = new Kernel(new double[31][1]);
+			assertFusedEquals(tall, column, column);
+		}
+	}
+
+}